@@ -16,6 +16,7 @@ import tim.prune.data.LatLonRectangle;
 import tim.prune.data.NumberUtils;
 import tim.prune.data.Photo;
 import tim.prune.data.PhotoList;
+import tim.prune.data.PointColumns;
 import tim.prune.data.PointCreateOptions;
 import tim.prune.data.RecentFile;
 import tim.prune.data.SourceInfo;
@@ -38,6 +39,7 @@ import tim.prune.load.FileLoader;
 import tim.prune.load.JpegLoader;
 import tim.prune.load.MediaLinkInfo;
 import tim.prune.load.TrackNameList;
+import tim.prune.load.xml.XmlHandler;
 import tim.prune.save.ExifSaver;
 import tim.prune.save.FileSaver;
 import tim.prune.tips.TipManager;
@@ -83,6 +85,17 @@ public class App
 		_track = new Track();
 		_trackInfo = new TrackInfo(_track);
 		FunctionLibrary.initialise(this);
+		// Values derived from the points must be invalidated before anything else uses them,
+		// including the caller which sent the change, so this can't wait for the event thread
+		UpdateMessageBroker.addImmediateSubscriber(new DataSubscriber() {
+			public void dataUpdated(byte inUpdateType)
+			{
+				if ((inUpdateType & (DATA_ADDED_OR_REMOVED | DATA_EDITED)) > 0) {
+					_trackInfo.getSelection().markInvalid(Math.max(0, UpdateMessageBroker.getChangeStart()));
+				}
+			}
+			public void actionCompleted(String inMessage) {}
+		});
 		_colCaretaker = new ColourerCaretaker(this);
 		UpdateMessageBroker.addSubscriber(_colCaretaker);
 		_colCaretaker.setColourer(Config.getPointColourer());
@@ -111,7 +124,7 @@ public class App
 	 */
 	public boolean hasDataUnsaved()
 	{
-		return (_undoStack.size() > _lastSavePosition
+		return (_undoStack.getPosition() > _lastSavePosition
 			&& (_track.getNumPoints() > 0 || _trackInfo.getPhotoList().hasModifiedMedia()));
 	}
 
@@ -647,7 +660,54 @@ public class App
 		// Check whether loaded array can be properly parsed into a Track
 		Track loadedTrack = new Track();
 		loadedTrack.load(inFieldArray, inDataArray, inOptions);
-		if (loadedTrack.getNumPoints() <= 0)
+		informDataLoaded(loadedTrack, inSourceInfo, inTrackNameList, inLinkInfo);
+	}
+
+	/**
+	 * Receive data loaded by an xml handler, either as columns of points or as a data array
+	 * @param inHandler handler which parsed the file
+	 * @param inSourceInfo information about the source of the data
+	 * @param inLinkInfo links to photo/audio clips
+	 */
+	public void informDataLoaded(XmlHandler inHandler, SourceInfo inSourceInfo, MediaLinkInfo inLinkInfo)
+	{
+		PointColumns columns = inHandler.getPointColumns();
+		if (columns == null)
+		{
+			informDataLoaded(inHandler.getFieldArray(), inHandler.getDataArray(), null,
+				inSourceInfo, inHandler.getTrackNameList(), inLinkInfo);
+		}
+		else {
+			informDataLoaded(columns, inSourceInfo, inHandler.getTrackNameList(), inLinkInfo);
+		}
+	}
+
+	/**
+	 * Receive loaded data held in columns and determine whether to filter on tracks or not
+	 * @param inColumns columns of loaded points
+	 * @param inSourceInfo information about the source of the data
+	 * @param inTrackNameList information about the track names
+	 * @param inLinkInfo links to photo/audio clips
+	 */
+	public void informDataLoaded(PointColumns inColumns, SourceInfo inSourceInfo,
+		TrackNameList inTrackNameList, MediaLinkInfo inLinkInfo)
+	{
+		Track loadedTrack = new Track();
+		loadedTrack.load(inColumns);
+		informDataLoaded(loadedTrack, inSourceInfo, inTrackNameList, inLinkInfo);
+	}
+
+	/**
+	 * Check the loaded track and determine whether to filter on tracks or not
+	 * @param inLoadedTrack track of loaded points
+	 * @param inSourceInfo information about the source of the data
+	 * @param inTrackNameList information about the track names
+	 * @param inLinkInfo links to photo/audio clips
+	 */
+	private void informDataLoaded(Track inLoadedTrack, SourceInfo inSourceInfo,
+		TrackNameList inTrackNameList, MediaLinkInfo inLinkInfo)
+	{
+		if (inLoadedTrack.getNumPoints() <= 0)
 		{
 			String msgKey = (inSourceInfo == null ? "error.load.nopointsintext" : "error.load.nopoints");
 			showErrorMessage("error.load.dialogtitle", msgKey);
@@ -656,7 +716,7 @@ public class App
 			return;
 		}
 		// Check for doubled track
-		if (Checker.isDoubledTrack(loadedTrack)) {
+		if (Checker.isDoubledTrack(inLoadedTrack)) {
 			JOptionPane.showMessageDialog(_frame, I18nManager.getText("dialog.open.contentsdoubled"),
 				I18nManager.getText("function.open"), JOptionPane.WARNING_MESSAGE);
 		}
@@ -667,18 +727,18 @@ public class App
 		{
 			String[] linkArray = inLinkInfo.getLinkArray();
 			if (linkArray != null) {
-				new AsyncMediaLoader(this, inLinkInfo.getZipFile(), linkArray, loadedTrack, inSourceInfo.getFile()).begin();
+				new AsyncMediaLoader(this, inLinkInfo.getZipFile(), linkArray, inLoadedTrack, inSourceInfo.getFile()).begin();
 			}
 		}
 		// Look at TrackNameList, decide whether to filter or not
 		if (inTrackNameList != null && inTrackNameList.getNumTracks() > 1)
 		{
 			// Launch a dialog to let the user choose which tracks to load, then continue
-			new SelectTracksFunction(this, loadedTrack, inSourceInfo, inTrackNameList).begin();
+			new SelectTracksFunction(this, inLoadedTrack, inSourceInfo, inTrackNameList).begin();
 		}
 		else {
 			// go directly to load
-			informDataLoaded(loadedTrack, inSourceInfo);
+			informDataLoaded(inLoadedTrack, inSourceInfo);
 		}
 		setCurrentMode(AppMode.NORMAL);
 	}
@@ -737,7 +797,7 @@ public class App
 				_track.load(inLoadedTrack);
 				if (inSourceInfo != null)
 				{
-					_lastSavePosition = _undoStack.size();
+					_lastSavePosition = _undoStack.getPosition();
 					// set source information
 					inSourceInfo.populatePointObjects(_track, _track.getNumPoints());
 					_trackInfo.getFileInfo().replaceSource(inSourceInfo);
@@ -756,7 +816,7 @@ public class App
 			_track.load(inLoadedTrack);
 			if (inSourceInfo != null)
 			{
-				_lastSavePosition = _undoStack.size();
+				_lastSavePosition = _undoStack.getPosition();
 				inSourceInfo.populatePointObjects(_track, _track.getNumPoints());
 				_trackInfo.getFileInfo().addSource(inSourceInfo);
 			}
@@ -864,7 +924,7 @@ public class App
 	 */
 	public void informDataSaved()
 	{
-		_lastSavePosition = _undoStack.size();
+		_lastSavePosition = _undoStack.getPosition();
 	}
 
 
@@ -942,7 +1002,7 @@ public class App
 	 */
 	public DataStatus getCurrentDataStatus()
 	{
-		return new DataStatus(_undoStack.size(), _undoStack.getNumUndos());
+		return new DataStatus(_undoStack.getPosition(), _undoStack.getNumUndos());
 	}
 
 
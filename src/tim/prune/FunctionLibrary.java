@@ -40,6 +40,7 @@ import tim.prune.function.ShowThreeDFunction;
 import tim.prune.function.SingleNumericParameterFunction;
 import tim.prune.function.StopAudioFunction;
 import tim.prune.function.autoplay.AutoplayFunction;
+import tim.prune.function.cache.PrefetchTilesFunction;
 import tim.prune.function.charts.Charter;
 import tim.prune.function.compress.CompressTrackFunction;
 import tim.prune.function.compress.DeleteMarkedPointsFunction;
@@ -69,6 +70,7 @@ import tim.prune.save.GpxExporter;
 import tim.prune.save.ImageExporter;
 import tim.prune.save.KmlExporter;
 import tim.prune.save.PovExporter;
+import tim.prune.save.SessionSaver;
 
 
 /**
@@ -80,6 +82,7 @@ public abstract class FunctionLibrary
 	public static GenericFunction FUNCTION_KMLEXPORT = null;
 	public static PovExporter FUNCTION_POVEXPORT     = null;
 	public static GenericFunction FUNCTION_IMAGEEXPORT = null;
+	public static GenericFunction FUNCTION_SAVESESSION = null;
 	public static GenericFunction FUNCTION_GPSLOAD  = null;
 	public static GenericFunction FUNCTION_GPSSAVE  = null;
 	public static GenericFunction FUNCTION_IMPORTBABEL = null;
@@ -105,6 +108,7 @@ public abstract class FunctionLibrary
 	public static GenericFunction FUNCTION_SEARCH_WIKIPEDIA = null;
 	public static GenericFunction FUNCTION_SEARCH_OSMPOIS = null;
 	public static GenericFunction FUNCTION_DOWNLOAD_OSM = null;
+	public static GenericFunction FUNCTION_PREFETCH_TILES = null;
 	public static GenericFunction FUNCTION_ADD_TIME_OFFSET  = null;
 	public static GenericFunction FUNCTION_ADD_ALTITUDE_OFFSET  = null;
 	public static GenericFunction FUNCTION_CONVERT_NAMES_TO_TIMES  = null;
@@ -157,6 +161,7 @@ public abstract class FunctionLibrary
 		FUNCTION_KMLEXPORT = new KmlExporter(inApp);
 		FUNCTION_POVEXPORT = new PovExporter(inApp);
 		FUNCTION_IMAGEEXPORT = new ImageExporter(inApp);
+		FUNCTION_SAVESESSION = new SessionSaver(inApp);
 		FUNCTION_GPSLOAD   = new BabelLoadFromGps(inApp);
 		FUNCTION_GPSSAVE   = new GpsSaver(inApp);
 		FUNCTION_IMPORTBABEL = new BabelLoadFromFile(inApp);
@@ -182,6 +187,7 @@ public abstract class FunctionLibrary
 		FUNCTION_SEARCH_WIKIPEDIA = new SearchWikipediaNames(inApp);
 		FUNCTION_SEARCH_OSMPOIS = new SearchOsmPoisFunction(inApp);
 		FUNCTION_DOWNLOAD_OSM = new DownloadOsmFunction(inApp);
+		FUNCTION_PREFETCH_TILES = new PrefetchTilesFunction(inApp);
 		FUNCTION_ADD_TIME_OFFSET = new AddTimeOffset(inApp);
 		FUNCTION_ADD_ALTITUDE_OFFSET = new AddAltitudeOffset(inApp);
 		FUNCTION_CONVERT_NAMES_TO_TIMES = new ConvertNamesToTimes(inApp);
@@ -1,18 +1,45 @@
 package tim.prune;
 
+import java.util.ArrayList;
+
+import javax.swing.SwingUtilities;
+
 /**
  * Class responsible for distributing update information
- * to all registered listeners
+ * to all registered listeners.
+ * Updates are collected together and delivered on the event dispatch thread,
+ * so that a burst of edits only causes one recalculation by each listener.
+ * Immediate subscribers are instead informed of each data change on the calling thread
+ * before informSubscribers returns, for cached values which must never be stale.
  */
 public abstract class UpdateMessageBroker
 {
-	private static final int MAXIMUM_NUMBER_SUBSCRIBERS = 8;
+	private static final int MAXIMUM_NUMBER_SUBSCRIBERS = 10;
 	/** Array of all subscribers */
 	private static DataSubscriber[] _subscribers = new DataSubscriber[MAXIMUM_NUMBER_SUBSCRIBERS];
+	/** Array of subscribers to be informed straight away */
+	private static DataSubscriber[] _immediateSubscribers = new DataSubscriber[MAXIMUM_NUMBER_SUBSCRIBERS];
 	/** Index from which to start looking for an empty slot*/
 	private static int _searchStartIndex = 0;
 	/** Enable/disabled flag */
 	private static boolean _enabled = true;
+	/** Changes waiting to be delivered, combined together */
+	private static byte _pendingChanges = 0;
+	/** Range of changed points waiting to be delivered */
+	private static int _pendingStart = -1, _pendingEnd = -1;
+	/** Flag set if the changed points aren't known */
+	private static boolean _pendingWholeTrack = false;
+	/** Messages waiting to be delivered */
+	private static ArrayList<String> _pendingMessages = new ArrayList<String>();
+	/** Flag set when a delivery has been scheduled */
+	private static boolean _deliveryScheduled = false;
+	/** Range of changed points for the update being delivered */
+	private static int _changeStart = -1, _changeEnd = -1;
+	/** Range of changed points for the update being delivered immediately on the current thread, or null */
+	private static final ThreadLocal<int[]> _immediateRange = new ThreadLocal<int[]>();
+
+	/** Change types which affect the points */
+	private static final byte DATA_CHANGES = DataSubscriber.DATA_ADDED_OR_REMOVED | DataSubscriber.DATA_EDITED;
 
 
 	/**
@@ -33,6 +60,24 @@ public abstract class UpdateMessageBroker
 		}
 	}
 
+	/**
+	 * Add a subscriber to be informed of data changes straight away on the calling thread,
+	 * rather than later on the event dispatch thread.  Only for quick invalidation of cached values,
+	 * and it doesn't receive the completion messages
+	 * @param inSub DataSubscriber to add
+	 */
+	public static synchronized void addImmediateSubscriber(DataSubscriber inSub)
+	{
+		for (int i=0; i<MAXIMUM_NUMBER_SUBSCRIBERS; i++)
+		{
+			if (_immediateSubscribers[i] == null)
+			{
+				_immediateSubscribers[i] = inSub;
+				break;
+			}
+		}
+	}
+
 	/**
 	 * Remove the given subscriber from the list
 	 * @param inSub subscriber to remove
@@ -46,6 +91,9 @@ public abstract class UpdateMessageBroker
 				_subscribers[i] = null;
 				// Could break out of the loop here but we want to make sure we remove all of them
 			}
+			if (_immediateSubscribers[i] == inSub) {
+				_immediateSubscribers[i] = null;
+			}
 		}
 		_searchStartIndex = 0; // for the next add, start from beginning to ensure all gaps are filled
 	}
@@ -75,14 +123,45 @@ public abstract class UpdateMessageBroker
 	 */
 	public static void informSubscribers(byte inChange)
 	{
-		// TODO: Launch separate thread so that whatever caused the inform can finish
+		informSubscribers(inChange, -1, -1);
+	}
+
+
+	/**
+	 * Send message to all subscribers, giving the range of points affected.
+	 * Immediate subscribers are informed before this method returns, the others
+	 * get the message combined with any others sent before they are delivered,
+	 * all delivered together on the event dispatch thread
+	 * @param inChange Change that occurred
+	 * @param inStartIndex index of first changed point, or -1 if not known
+	 * @param inEndIndex index of last changed point, or -1 if not known
+	 */
+	public static void informSubscribers(byte inChange, int inStartIndex, int inEndIndex)
+	{
 		if (!_enabled) return;
-		for (int i=0; i<_subscribers.length; i++)
+		synchronized (UpdateMessageBroker.class)
 		{
-			if (_subscribers[i] != null)
+			if ((inChange & DATA_CHANGES) != 0) {
+				informImmediateSubscribers(inChange, inStartIndex, inEndIndex);
+			}
+			if ((inChange & DATA_CHANGES) != 0)
 			{
-				_subscribers[i].dataUpdated(inChange);
+				if (inStartIndex < 0 || inEndIndex < inStartIndex) {
+					_pendingWholeTrack = true;
+				}
+				else if ((_pendingChanges & DATA_CHANGES) == 0)
+				{
+					_pendingStart = inStartIndex;
+					_pendingEnd = inEndIndex;
+				}
+				else
+				{
+					_pendingStart = Math.min(_pendingStart, inStartIndex);
+					_pendingEnd = Math.max(_pendingEnd, inEndIndex);
+				}
 			}
+			_pendingChanges |= inChange;
+			scheduleDelivery();
 		}
 	}
 
@@ -93,12 +172,114 @@ public abstract class UpdateMessageBroker
 	public static void informSubscribers(String inMessage)
 	{
 		if (!_enabled) return;
-		for (int i=0; i<_subscribers.length; i++)
+		synchronized (UpdateMessageBroker.class)
+		{
+			_pendingMessages.add(inMessage);
+			scheduleDelivery();
+		}
+	}
+
+	/**
+	 * Inform the immediate subscribers of a data change on the calling thread
+	 * @param inChange Change that occurred
+	 * @param inStartIndex index of first changed point, or -1 if not known
+	 * @param inEndIndex index of last changed point, or -1 if not known
+	 */
+	private static void informImmediateSubscribers(byte inChange, int inStartIndex, int inEndIndex)
+	{
+		final boolean hasRange = inStartIndex >= 0 && inEndIndex >= inStartIndex;
+		_immediateRange.set(new int[] {hasRange ? inStartIndex : -1, hasRange ? inEndIndex : -1});
+		try
 		{
-			if (_subscribers[i] != null)
+			for (int i=0; i<_immediateSubscribers.length; i++)
 			{
-				_subscribers[i].actionCompleted(inMessage);
+				if (_immediateSubscribers[i] != null) {
+					_immediateSubscribers[i].dataUpdated(inChange);
+				}
 			}
 		}
+		finally {
+			_immediateRange.remove();
+		}
+	}
+
+	/**
+	 * Make sure that the pending messages will be delivered on the event dispatch thread
+	 */
+	private static void scheduleDelivery()
+	{
+		if (!_deliveryScheduled)
+		{
+			_deliveryScheduled = true;
+			SwingUtilities.invokeLater(new Runnable() {
+				public void run() {
+					deliverMessages();
+				}
+			});
+		}
+	}
+
+	/**
+	 * Deliver all the pending messages to the subscribers
+	 */
+	private static void deliverMessages()
+	{
+		final byte changes;
+		final int startIndex, endIndex;
+		final String[] messages;
+		synchronized (UpdateMessageBroker.class)
+		{
+			changes = _pendingChanges;
+			final boolean hasRange = (changes & DATA_CHANGES) != 0 && !_pendingWholeTrack;
+			startIndex = hasRange ? _pendingStart : -1;
+			endIndex = hasRange ? _pendingEnd : -1;
+			messages = _pendingMessages.toArray(new String[0]);
+			_pendingChanges = 0;
+			_pendingWholeTrack = false;
+			_pendingStart = _pendingEnd = -1;
+			_pendingMessages.clear();
+			_deliveryScheduled = false;
+		}
+		if (changes != 0)
+		{
+			_changeStart = startIndex;
+			_changeEnd = endIndex;
+			for (int i=0; i<_subscribers.length; i++)
+			{
+				if (_subscribers[i] != null)
+				{
+					_subscribers[i].dataUpdated(changes);
+				}
+			}
+			_changeStart = _changeEnd = -1;
+		}
+		for (String message : messages)
+		{
+			for (int i=0; i<_subscribers.length; i++)
+			{
+				if (_subscribers[i] != null)
+				{
+					_subscribers[i].actionCompleted(message);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return index of the first changed point of the update being delivered, or -1 if not known
+	 */
+	public static int getChangeStart()
+	{
+		final int[] immediateRange = _immediateRange.get();
+		return immediateRange == null ? _changeStart : immediateRange[0];
+	}
+
+	/**
+	 * @return index of the last changed point of the update being delivered, or -1 if not known
+	 */
+	public static int getChangeEnd()
+	{
+		final int[] immediateRange = _immediateRange.get();
+		return immediateRange == null ? _changeEnd : immediateRange[1];
 	}
 }
@@ -69,6 +69,8 @@ public abstract class Config
 	public static final String KEY_WINDOW_BOUNDS = "prune.windowbounds";
 	/** Key for path to disk cache */
 	public static final String KEY_DISK_CACHE = "prune.diskcache";
+	/** Key for flag to store tiles in packed files instead of one file each */
+	public static final String KEY_DISK_CACHE_PACKED = "prune.diskcachepacked";
 	/** Key for working online flag */
 	public static final String KEY_ONLINE_MODE = "prune.onlinemode";
 	/** Key for width of thumbnails in kmz */
@@ -111,6 +113,8 @@ public abstract class Config
 	public static final String KEY_TIMEZONE_ID = "prune.timezoneid";
 	/** Last used latlon range */
 	public static final String KEY_LATLON_RANGE = "prune.latlonrange";
+	/** Memory budget for the undo stack, in MB */
+	public static final String KEY_UNDO_MEMORY_BUDGET = "prune.undomemorybudget";
 
 
 	/** Initialise the default properties */
@@ -210,6 +214,8 @@ public abstract class Config
 		props.put(KEY_TERRAIN_GRID_SIZE, "50");
 		props.put(KEY_ALTITUDE_TOLERANCE, "0"); // 0, all exact as before
 		props.put(KEY_WAYPOINT_ICON_SIZE, "1"); // medium size
+		props.put(KEY_UNDO_MEMORY_BUDGET, "256"); // megabytes
+		props.put(KEY_DISK_CACHE_PACKED, "0"); // one file per tile
 		return props;
 	}
 
@@ -378,7 +384,7 @@ public abstract class Config
 	{
 		return inKey != null && (
 			inKey.equals(KEY_SHOW_MAP) || inKey.equals(KEY_AUTOSAVE_SETTINGS) || inKey.equals(KEY_ONLINE_MODE)
-			|| inKey.equals(KEY_ANTIALIAS));
+			|| inKey.equals(KEY_ANTIALIAS) || inKey.equals(KEY_DISK_CACHE_PACKED));
 	}
 
 	/**
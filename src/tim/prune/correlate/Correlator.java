@@ -28,7 +28,6 @@ import tim.prune.App;
 import tim.prune.GenericFunction;
 import tim.prune.I18nManager;
 import tim.prune.config.TimezoneHelper;
-import tim.prune.data.DataPoint;
 import tim.prune.data.Distance;
 import tim.prune.data.Field;
 import tim.prune.data.MediaObject;
@@ -52,6 +51,7 @@ public abstract class Correlator extends GenericFunction
 	private boolean _previewEnabled = false; // flag required to enable preview function on final panel
 	private boolean[] _cardEnabled = null; // flag for each card
 	private TimeZone _timezone = null;
+	private PointTimeIndex _timeIndex = null;
 	private JTextField _offsetHourBox = null, _offsetMinBox = null, _offsetSecBox = null;
 	private JRadioButton _mediaLaterOption = null, _pointLaterOption = null;
 	private JRadioButton _timeLimitRadio = null, _distLimitRadio = null;
@@ -649,23 +649,12 @@ public abstract class Correlator extends GenericFunction
 		PointMediaPair pair = new PointMediaPair(inMedia);
 		if (inMedia.hasTimestamp())
 		{
-			// Add/subtract offset to media timestamp
-			Timestamp mediaStamp = getMediaTimestamp(inMedia);
-			int numPoints = inTrack.getNumPoints();
-			for (int i=0; i<numPoints; i++)
-			{
-				DataPoint point = inTrack.getPoint(i);
-				if (point.getPhoto() == null && point.getAudio() == null)
-				{
-					Timestamp pointStamp = point.getTimestamp();
-					if (pointStamp != null && pointStamp.isValid())
-					{
-						long numSeconds = pointStamp.getSecondsSince(mediaStamp, _timezone)
-							+ inOffset.getTotalSeconds();
-						pair.addPoint(point, numSeconds);
-					}
-				}
+			if (_timeIndex == null || !_timeIndex.isValidFor(inTrack, _timezone)) {
+				_timeIndex = new PointTimeIndex(inTrack, _timezone);
 			}
+			// Look up the points either side of the media timestamp
+			long mediaMillis = getMediaTimestamp(inMedia).getMilliseconds(_timezone);
+			_timeIndex.populatePair(pair, mediaMillis, inOffset.getTotalSeconds());
 		}
 		return pair;
 	}
@@ -19,7 +19,7 @@ public class OptionsChangedListener implements KeyListener, ActionListener, Item
 	private int _threadCount = 0;
 
 	/** Default delay time from change to preview trigger */
-	private static final long PREVIEW_DELAY_TIME = 2500L;
+	private static final long PREVIEW_DELAY_TIME = 500L;
 
 
 	/**
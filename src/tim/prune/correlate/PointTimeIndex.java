@@ -0,0 +1,202 @@
+package tim.prune.correlate;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.TimeZone;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Timestamp;
+import tim.prune.data.Track;
+
+/**
+ * Index of the timestamped points of a track, sorted by time,
+ * so that the points either side of a media item can be found
+ * with a binary search instead of looping over the whole track.
+ * Segments don't have to be in time order.
+ */
+public class PointTimeIndex
+{
+	/** Track from which the index was built */
+	private final Track _track;
+	/** Version of the track when the index was built */
+	private final int _trackVersion;
+	/** Timezone used for the point timestamps */
+	private final TimeZone _timezone;
+	/** Sorted milliseconds of each point */
+	private final long[] _millis;
+	/** Point indexes in the same order as the milliseconds */
+	private final int[] _pointIndexes;
+
+
+	/**
+	 * Constructor
+	 * @param inTrack track to index
+	 * @param inTimezone timezone to use for interpreting timestamps
+	 */
+	public PointTimeIndex(Track inTrack, TimeZone inTimezone)
+	{
+		_track = inTrack;
+		_trackVersion = inTrack.getVersion();
+		_timezone = inTimezone;
+		final int numPoints = inTrack.getNumPoints();
+		// Collect the times of all the points with valid timestamps
+		long[] times = new long[numPoints];
+		int[] indexes = new int[numPoints];
+		int numTimed = 0;
+		boolean sorted = true;
+		for (int i=0; i<numPoints; i++)
+		{
+			Timestamp stamp = inTrack.getPoint(i).getTimestamp();
+			if (stamp != null && stamp.isValid())
+			{
+				times[numTimed] = stamp.getMilliseconds(inTimezone);
+				indexes[numTimed] = i;
+				if (numTimed > 0 && times[numTimed] < times[numTimed-1]) {
+					sorted = false;
+				}
+				numTimed++;
+			}
+		}
+		_millis = Arrays.copyOf(times, numTimed);
+		_pointIndexes = Arrays.copyOf(indexes, numTimed);
+		if (!sorted) {
+			sortByTime();
+		}
+	}
+
+	/**
+	 * Sort the times, keeping the point indexes in step and ties in point order
+	 */
+	private void sortByTime()
+	{
+		final int numTimed = _millis.length;
+		Long[] order = new Long[numTimed];
+		for (int i=0; i<numTimed; i++) {
+			order[i] = Long.valueOf(i);
+		}
+		final long[] times = _millis.clone();
+		final int[] indexes = _pointIndexes.clone();
+		Arrays.sort(order, new Comparator<Long>() {
+			public int compare(Long inFirst, Long inSecond)
+			{
+				final long firstTime = times[inFirst.intValue()], secondTime = times[inSecond.intValue()];
+				if (firstTime != secondTime) {
+					return firstTime < secondTime ? -1 : 1;
+				}
+				return inFirst.compareTo(inSecond);
+			}
+		});
+		for (int i=0; i<numTimed; i++)
+		{
+			final int from = order[i].intValue();
+			_millis[i] = times[from];
+			_pointIndexes[i] = indexes[from];
+		}
+	}
+
+	/**
+	 * @param inTrack track
+	 * @param inTimezone timezone
+	 * @return true if this index was built from the current state of the given track
+	 */
+	public boolean isValidFor(Track inTrack, TimeZone inTimezone)
+	{
+		return inTrack == _track && inTrack.getVersion() == _trackVersion
+			&& (inTimezone == null ? _timezone == null : inTimezone.equals(_timezone));
+	}
+
+	/**
+	 * Find the points either side of the given media time and add them to the pair
+	 * @param inPair pair to populate
+	 * @param inMediaMillis milliseconds of the media item
+	 * @param inOffsetSeconds offset in seconds to add to each point
+	 */
+	public void populatePair(PointMediaPair inPair, long inMediaMillis, long inOffsetSeconds)
+	{
+		final int numTimed = _millis.length;
+		// first position whose seconds difference is positive
+		int lo = 0, hi = numTimed;
+		while (lo < hi)
+		{
+			final int mid = (lo + hi) >>> 1;
+			if (getSeconds(mid, inMediaMillis, inOffsetSeconds) > 0L) {
+				hi = mid;
+			}
+			else {
+				lo = mid + 1;
+			}
+		}
+		addPointBefore(inPair, lo - 1, inMediaMillis, inOffsetSeconds);
+		addPointAfter(inPair, lo, inMediaMillis, inOffsetSeconds);
+	}
+
+	/**
+	 * Add the latest free point at or before the given position,
+	 * taking the first in the track if several share the same number of seconds
+	 */
+	private void addPointBefore(PointMediaPair inPair, int inPosition, long inMediaMillis, long inOffsetSeconds)
+	{
+		int pos = inPosition;
+		while (pos >= 0 && !isFree(pos)) {
+			pos--;
+		}
+		if (pos < 0) {
+			return;
+		}
+		final long seconds = getSeconds(pos, inMediaMillis, inOffsetSeconds);
+		int bestIndex = _pointIndexes[pos];
+		for (pos--; pos >= 0 && getSeconds(pos, inMediaMillis, inOffsetSeconds) == seconds; pos--)
+		{
+			if (_pointIndexes[pos] < bestIndex && isFree(pos)) {
+				bestIndex = _pointIndexes[pos];
+			}
+		}
+		inPair.addPoint(_track.getPoint(bestIndex), seconds);
+	}
+
+	/**
+	 * Add the earliest free point at or after the given position,
+	 * or at zero seconds, taking the first in the track if several share the same number of seconds
+	 */
+	private void addPointAfter(PointMediaPair inPair, int inPosition, long inMediaMillis, long inOffsetSeconds)
+	{
+		final int numTimed = _millis.length;
+		// Points exactly at zero seconds count as after as well as before
+		int pos = inPosition;
+		while (pos > 0 && getSeconds(pos - 1, inMediaMillis, inOffsetSeconds) == 0L) {
+			pos--;
+		}
+		while (pos < numTimed && !isFree(pos)) {
+			pos++;
+		}
+		if (pos >= numTimed) {
+			return;
+		}
+		final long seconds = getSeconds(pos, inMediaMillis, inOffsetSeconds);
+		int bestIndex = _pointIndexes[pos];
+		for (pos++; pos < numTimed && getSeconds(pos, inMediaMillis, inOffsetSeconds) == seconds; pos++)
+		{
+			if (_pointIndexes[pos] < bestIndex && isFree(pos)) {
+				bestIndex = _pointIndexes[pos];
+			}
+		}
+		inPair.addPoint(_track.getPoint(bestIndex), seconds);
+	}
+
+	/**
+	 * @return seconds from the media to the point at the given position, with the offset applied
+	 */
+	private long getSeconds(int inPosition, long inMediaMillis, long inOffsetSeconds)
+	{
+		return (_millis[inPosition] - inMediaMillis) / 1000L + inOffsetSeconds;
+	}
+
+	/**
+	 * @return true if the point at the given position doesn't already have any media
+	 */
+	private boolean isFree(int inPosition)
+	{
+		DataPoint point = _track.getPoint(_pointIndexes[inPosition]);
+		return point.getPhoto() == null && point.getAudio() == null;
+	}
+}
@@ -84,6 +84,21 @@ public class Altitude
 		return _value;
 	}
 
+	/**
+	 * @return raw value including any decimal places, as parsed from the string
+	 */
+	public double getDoubleValue()
+	{
+		if (_valid && _stringValue != null)
+		{
+			try {
+				return Double.parseDouble(_stringValue.trim());
+			}
+			catch (NumberFormatException nfe) {} // use int value
+		}
+		return _value;
+	}
+
 	/**
 	 * @param inAltUnit altitude units to use
 	 * @return rounded value in specified units
@@ -51,81 +51,96 @@ public class AltitudeRange
 	 */
 	public void addValue(Altitude inAltitude)
 	{
-		final int wiggleLimit = Config.getConfigInt(Config.KEY_ALTITUDE_TOLERANCE) / 100;
-
 		if (inAltitude != null && inAltitude.isValid())
 		{
-			int altValue = (int) inAltitude.getMetricValue();
-			_range.addValue(altValue);
-			// Compare with previous value if any
-			if (_gotPreviousValue)
+			addMetricValue((int) inAltitude.getMetricValue(), getWiggleLimit());
+		}
+	}
+
+	/**
+	 * @return the current tolerance in metres for climb and descent calculations
+	 */
+	public static int getWiggleLimit()
+	{
+		return Config.getConfigInt(Config.KEY_ALTITUDE_TOLERANCE) / 100;
+	}
+
+	/**
+	 * Add a metric value to the range
+	 * @param inValue altitude value in metres
+	 * @param inWiggleLimit tolerance in metres, from getWiggleLimit()
+	 */
+	public void addMetricValue(int inValue, int inWiggleLimit)
+	{
+		_range.addValue(inValue);
+		// Compare with previous value if any
+		if (_gotPreviousValue)
+		{
+			if (inValue != _previousValue)
 			{
-				if (altValue != _previousValue)
+				// Got an altitude value which is different from the previous one
+				final boolean locallyUp = (inValue > _previousValue);
+				final boolean overallUp = _gotPreviousMinimum && _previousValue > _previousExtreme;
+				final boolean overallDn = _gotPreviousMaximum && _previousValue < _previousExtreme;
+				final boolean moreThanWiggle = Math.abs(inValue - _previousValue) > inWiggleLimit;
+				// Do we know whether we're going up or down yet?
+				if (!_gotPreviousMinimum && !_gotPreviousMaximum)
 				{
-					// Got an altitude value which is different from the previous one
-					final boolean locallyUp = (altValue > _previousValue);
-					final boolean overallUp = _gotPreviousMinimum && _previousValue > _previousExtreme;
-					final boolean overallDn = _gotPreviousMaximum && _previousValue < _previousExtreme;
-					final boolean moreThanWiggle = Math.abs(altValue - _previousValue) > wiggleLimit;
-					// Do we know whether we're going up or down yet?
-					if (!_gotPreviousMinimum && !_gotPreviousMaximum)
+					// we don't know whether we're going up or down yet - check limit
+					if (moreThanWiggle)
 					{
-						// we don't know whether we're going up or down yet - check limit
-						if (moreThanWiggle)
-						{
-							if (locallyUp) {_gotPreviousMinimum = true;}
-							else {_gotPreviousMaximum = true;}
-							_previousExtreme = _previousValue;
-							_previousValue = altValue;
-							_gotPreviousValue = true;
-						}
+						if (locallyUp) {_gotPreviousMinimum = true;}
+						else {_gotPreviousMaximum = true;}
+						_previousExtreme = _previousValue;
+						_previousValue = inValue;
+						_gotPreviousValue = true;
 					}
-					else if (overallUp)
+				}
+				else if (overallUp)
+				{
+					if (locallyUp) {
+						// we're still going up - do nothing
+						_previousValue = inValue;
+					}
+					else if (moreThanWiggle)
 					{
-						if (locallyUp) {
-							// we're still going up - do nothing
-							_previousValue = altValue;
-						}
-						else if (moreThanWiggle)
+						// we're going up but have dropped over a maximum
+						// Add the climb from _previousExtreme up to _previousValue
+						_climb += (_previousValue - _previousExtreme);
+						_previousExtreme = _previousValue;
+						_gotPreviousMinimum = false; _gotPreviousMaximum = true;
+						_previousValue = inValue;
+						_gotPreviousValue = true;
+					}
+				}
+				else if (overallDn)
+				{
+					if (locallyUp) {
+						if (moreThanWiggle)
 						{
-							// we're going up but have dropped over a maximum
-							// Add the climb from _previousExtreme up to _previousValue
-							_climb += (_previousValue - _previousExtreme);
+							// we're going down but have climbed up from a minimum
+							// Add the descent from _previousExtreme down to _previousValue
+							_descent += (_previousExtreme - _previousValue);
 							_previousExtreme = _previousValue;
-							_gotPreviousMinimum = false; _gotPreviousMaximum = true;
-							_previousValue = altValue;
+							_gotPreviousMinimum = true; _gotPreviousMaximum = false;
+							_previousValue = inValue;
 							_gotPreviousValue = true;
 						}
 					}
-					else if (overallDn)
-					{
-						if (locallyUp) {
-							if (moreThanWiggle)
-							{
-								// we're going down but have climbed up from a minimum
-								// Add the descent from _previousExtreme down to _previousValue
-								_descent += (_previousExtreme - _previousValue);
-								_previousExtreme = _previousValue;
-								_gotPreviousMinimum = true; _gotPreviousMaximum = false;
-								_previousValue = altValue;
-								_gotPreviousValue = true;
-							}
-						}
-						else {
-							// we're still going down - do nothing
-							_previousValue = altValue;
-							_gotPreviousValue = true;
-						}
+					else {
+						// we're still going down - do nothing
+						_previousValue = inValue;
+						_gotPreviousValue = true;
 					}
-					// TODO: Behaviour when WIGGLE_LIMIT == 0 should be same as before, all differences cumulated
 				}
+				// TODO: Behaviour when WIGGLE_LIMIT == 0 should be same as before, all differences cumulated
 			}
-			else
-			{
-				// we haven't got a previous value at all, so it's the start of a new segment
-				_previousValue = altValue;
-				_gotPreviousValue = true;
-			}
+		}
+		else
+		{
+			// we haven't got a previous value at all, so it's the start of a new segment
+			_previousValue = inValue;
+			_gotPreviousValue = true;
 		}
 	}
 
@@ -25,8 +25,8 @@ public abstract class Checker
 		{
 			DataPoint firstPoint = inTrack.getPoint(i);
 			DataPoint secondPoint = inTrack.getPoint(i + halfNum);
-			if (!firstPoint.getLatitude().equals(secondPoint.getLatitude())
-				|| !firstPoint.getLongitude().equals(secondPoint.getLongitude())) {
+			if (firstPoint.getLatitudeValue() != secondPoint.getLatitudeValue()
+				|| firstPoint.getLongitudeValue() != secondPoint.getLongitudeValue()) {
 				return false;
 			}
 		}
@@ -26,6 +26,10 @@ public class DataPoint
 	private boolean _startOfSegment = false;
 	private boolean _markedForDeletion = false;
 	private int _modifyCount = 0;
+	/** Column storage holding the values until they're needed as objects, or null */
+	private volatile PointColumns _columns = null;
+	/** Row index within the column storage */
+	private int _row = -1;
 
 
 	/**
@@ -122,6 +126,44 @@ public class DataPoint
 	}
 
 
+	/**
+	 * Constructor for a point held in column storage, without any objects being created yet
+	 * @param inColumns column storage
+	 * @param inRow row index within the columns
+	 */
+	DataPoint(PointColumns inColumns, int inRow)
+	{
+		_columns = inColumns;
+		_row = inRow;
+		_fieldList = inColumns.getFieldList();
+		_startOfSegment = inColumns.getSegmentStart(inRow);
+		_waypointName = inColumns.getValue(inRow, Field.WAYPT_NAME);
+	}
+
+
+	/**
+	 * Create all the value objects from the column storage, if not already done.
+	 * The values are read from the columns until the objects are complete,
+	 * so points can be inflated by one thread while another thread reads them.
+	 */
+	private void inflate()
+	{
+		if (_columns != null)
+		{
+			synchronized (this)
+			{
+				PointColumns columns = _columns;
+				if (columns != null)
+				{
+					_fieldValues = columns.getValues(_row);
+					parseFields(null, columns.getOptions());
+					_columns = null;
+				}
+			}
+		}
+	}
+
+
 	/**
 	 * Get the value for the given field
 	 * @param inField field to interrogate
@@ -140,6 +182,10 @@ public class DataPoint
 	 */
 	private String getFieldValue(int inIndex)
 	{
+		PointColumns columns = _columns;
+		if (columns != null) {
+			return columns.getValue(_row, inIndex);
+		}
 		if (_fieldValues == null || inIndex < 0 || inIndex >= _fieldValues.length)
 			return null;
 		return _fieldValues[inIndex];
@@ -154,6 +200,7 @@ public class DataPoint
 	 */
 	public void setFieldValue(Field inField, String inValue, boolean inUndo)
 	{
+		inflate();
 		// See if this data point already has this field
 		int fieldIndex = _fieldList.getFieldIndex(inField);
 		// Add to field list if necessary
@@ -228,51 +275,73 @@ public class DataPoint
 	/** @return latitude */
 	public Coordinate getLatitude()
 	{
+		inflate();
 		return _latitude;
 	}
 	/** @return longitude */
 	public Coordinate getLongitude()
 	{
+		inflate();
 		return _longitude;
 	}
 	/** @return true if point has altitude */
 	public boolean hasAltitude()
 	{
+		PointColumns columns = _columns;
+		if (columns != null) {
+			return columns.hasAltitude(_row);
+		}
 		return _altitude != null && _altitude.isValid();
 	}
 	/** @return altitude */
 	public Altitude getAltitude()
 	{
+		inflate();
 		return _altitude;
 	}
 	/** @return true if point has horizontal speed (loaded as field) */
 	public boolean hasHSpeed()
 	{
+		if (_columns != null && getFieldValue(Field.SPEED) == null) {
+			return false;
+		}
+		inflate();
 		return _hSpeed != null && _hSpeed.isValid();
 	}
 	/** @return horizontal speed */
 	public Speed getHSpeed()
 	{
+		inflate();
 		return _hSpeed;
 	}
 	/** @return true if point has vertical speed (loaded as field) */
 	public boolean hasVSpeed()
 	{
+		if (_columns != null && getFieldValue(Field.VERTICAL_SPEED) == null) {
+			return false;
+		}
+		inflate();
 		return _vSpeed != null && _vSpeed.isValid();
 	}
 	/** @return vertical speed */
 	public Speed getVSpeed()
 	{
+		inflate();
 		return _vSpeed;
 	}
 	/** @return true if point has timestamp */
 	public boolean hasTimestamp()
 	{
+		PointColumns columns = _columns;
+		if (columns != null) {
+			return columns.hasTimestamp(_row);
+		}
 		return _timestamp.isValid();
 	}
 	/** @return timestamp */
 	public Timestamp getTimestamp()
 	{
+		inflate();
 		return _timestamp;
 	}
 	/** @return waypoint name, if any */
@@ -317,15 +386,15 @@ public class DataPoint
 	public boolean isDuplicate(DataPoint inOther)
 	{
 		if (inOther == null) return false;
-		if (_longitude == null || _latitude == null
-			|| inOther._longitude == null || inOther._latitude == null)
+		if ((_columns == null && (_longitude == null || _latitude == null))
+			|| (inOther._columns == null && (inOther._longitude == null || inOther._latitude == null)))
 		{
 			return false;
 		}
 		// Make sure photo points aren't specified as duplicates
 		if (_photo != null) return false;
 		// Compare latitude and longitude
-		if (!_longitude.equals(inOther._longitude) || !_latitude.equals(inOther._latitude))
+		if (getLongitudeValue() != inOther.getLongitudeValue() || getLatitudeValue() != inOther.getLatitudeValue())
 		{
 			return false;
 		}
@@ -346,6 +415,7 @@ public class DataPoint
 	 */
 	public void addAltitudeOffset(double inOffset, Unit inUnit, int inDecimals)
 	{
+		inflate();
 		if (hasAltitude())
 		{
 			_altitude.addOffset(inOffset, inUnit, inDecimals);
@@ -360,6 +430,7 @@ public class DataPoint
 	 */
 	public void resetAltitude(Altitude inClone)
 	{
+		inflate();
 		_altitude.reset(inClone);
 		_fieldValues[_fieldList.getFieldIndex(Field.ALTITUDE)] = _altitude.getStringValue(null);
 		setModified(true);
@@ -371,6 +442,7 @@ public class DataPoint
 	 */
 	public void addTimeOffsetSeconds(long inOffset)
 	{
+		inflate();
 		if (hasTimestamp())
 		{
 			_timestamp.addOffsetSeconds(inOffset);
@@ -434,6 +506,10 @@ public class DataPoint
 	 */
 	public boolean isValid()
 	{
+		PointColumns columns = _columns;
+		if (columns != null) {
+			return columns.isValid(_row);
+		}
 		return _latitude.isValid() && _longitude.isValid();
 	}
 
@@ -475,9 +551,9 @@ public class DataPoint
 		// Loop over points
 		for (int i=0; i<inNumPoints; i++)
 		{
-			Coordinate latitude = Coordinate.interpolate(_latitude, inEndPoint.getLatitude(), i, inNumPoints);
-			Coordinate longitude = Coordinate.interpolate(_longitude, inEndPoint.getLongitude(), i, inNumPoints);
-			Altitude altitude = Altitude.interpolate(_altitude, inEndPoint.getAltitude(), i, inNumPoints);
+			Coordinate latitude = Coordinate.interpolate(getLatitude(), inEndPoint.getLatitude(), i, inNumPoints);
+			Coordinate longitude = Coordinate.interpolate(getLongitude(), inEndPoint.getLongitude(), i, inNumPoints);
+			Altitude altitude = Altitude.interpolate(getAltitude(), inEndPoint.getAltitude(), i, inNumPoints);
 			range[i] = new DataPoint(latitude, longitude, altitude);
 		}
 		return range;
@@ -512,10 +588,10 @@ public class DataPoint
 			return 0.0;
 		final double TO_RADIANS = Math.PI / 180.0;
 		// Get lat and long from points
-		double lat1 = inPoint1.getLatitude().getDouble() * TO_RADIANS;
-		double lat2 = inPoint2.getLatitude().getDouble() * TO_RADIANS;
-		double lon1 = inPoint1.getLongitude().getDouble() * TO_RADIANS;
-		double lon2 = inPoint2.getLongitude().getDouble() * TO_RADIANS;
+		double lat1 = inPoint1.getLatitudeValue() * TO_RADIANS;
+		double lat2 = inPoint2.getLatitudeValue() * TO_RADIANS;
+		double lon1 = inPoint1.getLongitudeValue() * TO_RADIANS;
+		double lon2 = inPoint2.getLongitudeValue() * TO_RADIANS;
 		// Formula given by Wikipedia:Great-circle_distance as follows:
 		// angle = 2 arcsin( sqrt( (sin ((lat2-lat1)/2))^^2 + cos(lat1)cos(lat2)(sin((lon2-lon1)/2))^^2))
 		double firstSine = Math.sin((lat2-lat1) / 2.0);
@@ -527,6 +603,41 @@ public class DataPoint
 	}
 
 
+	/**
+	 * @return column storage holding this point's values, or null if the values are held as objects
+	 */
+	PointColumns getColumns()
+	{
+		return _columns;
+	}
+
+	/**
+	 * @return row index within the column storage
+	 */
+	int getRow()
+	{
+		return _row;
+	}
+
+	/**
+	 * @return latitude in degrees, without creating any objects
+	 */
+	public double getLatitudeValue()
+	{
+		PointColumns columns = _columns;
+		return columns == null ? _latitude.getDouble() : columns.getLatitude(_row);
+	}
+
+	/**
+	 * @return longitude in degrees, without creating any objects
+	 */
+	public double getLongitudeValue()
+	{
+		PointColumns columns = _columns;
+		return columns == null ? _longitude.getDouble() : columns.getLongitude(_row);
+	}
+
+
 	/**
 	 * Resize the value array
 	 * @param inNewIndex new index to allow
@@ -548,6 +659,11 @@ public class DataPoint
 	 */
 	public DataPoint clonePoint()
 	{
+		PointColumns columns = _columns;
+		if (columns != null) {
+			// Rows in the columns are never changed, so they can be shared
+			return new DataPoint(columns, _row);
+		}
 		// Copy all values (note that photo not copied)
 		String[] valuesCopy = new String[_fieldValues.length];
 		System.arraycopy(_fieldValues, 0, valuesCopy, 0, _fieldValues.length);
@@ -14,6 +14,8 @@ public class MidpointData
 	private double[] _yValues = null;
 	// Validity flags
 	private boolean[] _valids = null;
+	// Index of the valid midpoints
+	private SpatialIndex _spatialIndex = null;
 	// Flag to set data stale
 	private boolean _needRefresh = true;
 
@@ -34,6 +36,7 @@ public class MidpointData
 	private synchronized void updateData()
 	{
 		_needRefresh = false;
+		_spatialIndex = null;
 		if (_track == null) return;
 		// Make arrays the right size
 		final int numPoints = _track.getNumPoints();
@@ -59,6 +62,7 @@ public class MidpointData
 			}
 			_valids[i] = pointValid;
 		}
+		_spatialIndex = new SpatialIndex(_xValues, _yValues, _valids, null, false);
 	}
 
 	/**
@@ -73,25 +77,10 @@ public class MidpointData
 	{
 		if (_track == null) return -1;
 		if (_needRefresh) updateData();
-		final int numPoints = _track.getNumPoints();
-		int nearestPoint = 0;
-		double nearestDist = -1.0;
-		double currDist;
-		for (int i=1; i < numPoints; i++)
-		{
-			if (_valids[i])
-			{
-				currDist = Math.abs(_xValues[i] - inX) + Math.abs(_yValues[i] - inY);
-				if (currDist < nearestDist || nearestDist < 0.0)
-				{
-					nearestPoint = i;
-					nearestDist = currDist;
-				}
-			}
-		}
-		// Check whether it's within required distance
-		if (nearestDist > inMaxDist && inMaxDist > 0.0) {
-			return -1;
+		if (_spatialIndex == null) return -1;
+		int nearestPoint = _spatialIndex.findNearest(inX, inY, inMaxDist, false);
+		if (nearestPoint < 0 && inMaxDist <= 0.0) {
+			return 0; // no valid midpoints at all
 		}
 		return nearestPoint;
 	}
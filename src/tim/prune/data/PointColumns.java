@@ -0,0 +1,590 @@
+package tim.prune.data;
+
+import java.math.BigDecimal;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Columnar storage for large numbers of points, holding the
+ * coordinates, altitudes and timestamps in primitive arrays
+ * instead of as separate Strings and objects for each point.
+ * DataPoints created from these columns just refer to their row
+ * until their values are really needed as objects.
+ * Rows are never modified once added, so edits are always
+ * made to the DataPoint objects and not to the columns.
+ */
+public class PointColumns
+{
+	/** Field list shared by all the points */
+	private FieldList _fieldList = null;
+	/** Creation options such as units */
+	private PointCreateOptions _options = null;
+	/** Number of rows added so far */
+	private int _numRows = 0;
+	/** Coordinates and altitudes, NaN if not present */
+	private double[] _latitudes = null, _longitudes = null, _altitudes = null;
+	/** Timestamps in milliseconds since 1970 */
+	private long[] _timestamps = null;
+	/** Flags for each row starting a new segment */
+	private BitSet _segmentStarts = new BitSet();
+	/** Other field values, one column per field index, only created when needed */
+	private String[][] _stringColumns = null;
+	/** Text of timestamps which couldn't be parsed, only created when needed */
+	private String[] _timestampTexts = null;
+
+	/** Value used for a missing altitude */
+	public static final double NO_ALTITUDE = Double.NaN;
+	/** Value used for a missing timestamp */
+	public static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	/** Initial number of rows to allocate */
+	private static final int INITIAL_CAPACITY = 1000;
+
+
+	/**
+	 * Constructor
+	 * @param inFieldList list of fields, will be extended as required
+	 * @param inOptions creation options such as units
+	 */
+	public PointColumns(FieldList inFieldList, PointCreateOptions inOptions)
+	{
+		_fieldList = (inFieldList == null ? new FieldList() : inFieldList);
+		_fieldList.extendList(Field.LATITUDE);
+		_fieldList.extendList(Field.LONGITUDE);
+		_options = (inOptions == null ? new PointCreateOptions() : inOptions);
+		_latitudes  = new double[INITIAL_CAPACITY];
+		_longitudes = new double[INITIAL_CAPACITY];
+		_altitudes  = new double[INITIAL_CAPACITY];
+		_timestamps = new long[INITIAL_CAPACITY];
+		_stringColumns = new String[_fieldList.getNumFields()][];
+	}
+
+	/**
+	 * Constructor using arrays which have already been filled, for example read from a file
+	 * @param inFieldList list of fields
+	 * @param inOptions creation options such as units
+	 * @param inLatitudes latitudes in degrees, one for each row
+	 * @param inLongitudes longitudes in degrees
+	 * @param inAltitudes altitudes in the units given by the options, or NO_ALTITUDE
+	 * @param inTimestamps milliseconds since 1970, or NO_TIMESTAMP
+	 * @param inSegmentStarts flags for each row starting a new segment
+	 */
+	public PointColumns(FieldList inFieldList, PointCreateOptions inOptions, double[] inLatitudes,
+		double[] inLongitudes, double[] inAltitudes, long[] inTimestamps, BitSet inSegmentStarts)
+	{
+		_fieldList = inFieldList;
+		_options = (inOptions == null ? new PointCreateOptions() : inOptions);
+		_numRows = inLatitudes.length;
+		_latitudes  = inLatitudes;
+		_longitudes = inLongitudes;
+		_altitudes  = inAltitudes;
+		_timestamps = inTimestamps;
+		_segmentStarts = inSegmentStarts;
+		_stringColumns = new String[_fieldList.getNumFields()][];
+	}
+
+	/**
+	 * Copy the current points of the given track into new columns,
+	 * without creating objects for points which are still held in columns
+	 * @param inTrack track to copy
+	 * @return columns holding all the points of the track
+	 */
+	public static PointColumns fromTrack(Track inTrack)
+	{
+		final int numPoints = inTrack.getNumPoints();
+		// Keep the altitude units of the first point with an altitude
+		PointCreateOptions options = new PointCreateOptions();
+		for (int i=0; i<numPoints; i++)
+		{
+			DataPoint point = inTrack.getPoint(i);
+			if (point.hasAltitude())
+			{
+				options.setAltitudeUnits(getAltitudeUnit(point));
+				break;
+			}
+		}
+		final Unit altUnit = options.getAltitudeUnits();
+		PointColumns columns = new PointColumns(new FieldList(), options);
+		columns.ensureCapacity(numPoints);
+		for (int i=0; i<numPoints; i++)
+		{
+			DataPoint point = inTrack.getPoint(i);
+			PointColumns pointColumns = point.getColumns();
+			final int pointRow = point.getRow();
+			double altitude = NO_ALTITUDE;
+			long timestamp = NO_TIMESTAMP;
+			if (pointColumns != null)
+			{
+				altitude = pointColumns.getAltitude(pointRow);
+				timestamp = pointColumns.getTimestamp(pointRow);
+			}
+			else
+			{
+				if (point.hasAltitude()) {
+					altitude = point.getAltitude().getDoubleValue();
+				}
+				if (point.hasTimestamp()) {
+					timestamp = point.getTimestamp().getMilliseconds(null);
+				}
+			}
+			if (!Double.isNaN(altitude) && getAltitudeUnit(point) != altUnit) {
+				altitude = altitude / getAltitudeUnit(point).getMultFactorFromStd() * altUnit.getMultFactorFromStd();
+			}
+			final int row = columns.addRow(point.getLatitudeValue(), point.getLongitudeValue(),
+				altitude, timestamp, point.getSegmentStart());
+			if (timestamp == NO_TIMESTAMP) {
+				columns.setTimestampText(row, point.getFieldValue(Field.TIMESTAMP));
+			}
+			// Copy the other fields, with speeds converted to the default units
+			FieldList fields = point.getFieldList();
+			for (int f=0; f<fields.getNumFields(); f++)
+			{
+				final Field field = fields.getField(f);
+				if (field == null || isNumericField(field)) {
+					continue;
+				}
+				String value = point.getFieldValue(field);
+				if (value != null && field == Field.SPEED) {
+					value = getSpeedInDefaultUnits(point, false);
+				}
+				else if (value != null && field == Field.VERTICAL_SPEED) {
+					value = getSpeedInDefaultUnits(point, true);
+				}
+				columns.setValue(row, field, value);
+			}
+		}
+		return columns;
+	}
+
+	/**
+	 * @param inPoint point with an altitude
+	 * @return units of the point's altitude
+	 */
+	private static Unit getAltitudeUnit(DataPoint inPoint)
+	{
+		if (inPoint.getColumns() != null) {
+			return inPoint.getColumns().getOptions().getAltitudeUnits();
+		}
+		Unit unit = inPoint.getAltitude().getUnit();
+		return unit == null ? UnitSetLibrary.UNITS_METRES : unit;
+	}
+
+	/**
+	 * @param inPoint point with a speed value
+	 * @param inVertical true for vertical speed, false for horizontal
+	 * @return speed in metres per second, with vertical speeds positive upwards
+	 */
+	private static String getSpeedInDefaultUnits(DataPoint inPoint, boolean inVertical)
+	{
+		final PointColumns pointColumns = inPoint.getColumns();
+		Speed speed = null;
+		if (pointColumns != null)
+		{
+			final PointCreateOptions options = pointColumns.getOptions();
+			final String value = pointColumns.getValue(inPoint.getRow(), inVertical ? Field.VERTICAL_SPEED : Field.SPEED);
+			speed = new Speed(value, inVertical ? options.getVerticalSpeedUnits() : options.getSpeedUnits());
+			if (inVertical && !options.getVerticalSpeedsUpwards()) {
+				speed.invert();
+			}
+		}
+		else {
+			speed = inVertical ? inPoint.getVSpeed() : inPoint.getHSpeed();
+		}
+		return speed.isValid() ? formatDecimal(speed.getValueInMetresPerSec()) : null;
+	}
+
+	/**
+	 * Add a new row to the end of the columns
+	 * @param inLatitude latitude in degrees
+	 * @param inLongitude longitude in degrees
+	 * @param inAltitude altitude in the units given by the options, or NO_ALTITUDE
+	 * @param inTimestamp milliseconds since 1970, or NO_TIMESTAMP
+	 * @param inSegmentStart true if this point starts a new segment
+	 * @return index of the new row
+	 */
+	public int addRow(double inLatitude, double inLongitude, double inAltitude,
+		long inTimestamp, boolean inSegmentStart)
+	{
+		ensureCapacity(_numRows + 1);
+		final int row = _numRows;
+		_latitudes[row]  = inLatitude;
+		_longitudes[row] = inLongitude;
+		_altitudes[row]  = inAltitude;
+		_timestamps[row] = inTimestamp;
+		if (!Double.isNaN(inAltitude)) {
+			_fieldList.extendList(Field.ALTITUDE);
+		}
+		if (inTimestamp != NO_TIMESTAMP) {
+			_fieldList.extendList(Field.TIMESTAMP);
+		}
+		if (inSegmentStart)
+		{
+			_fieldList.extendList(Field.NEW_SEGMENT);
+			_segmentStarts.set(row);
+		}
+		_numRows++;
+		return row;
+	}
+
+	/**
+	 * Set a String value for the given row, for fields other than
+	 * coordinates, altitude, timestamp and segment flag
+	 * @param inRow row index
+	 * @param inField field to set
+	 * @param inValue value to set
+	 */
+	public void setValue(int inRow, Field inField, String inValue)
+	{
+		if (inRow < 0 || inRow >= _numRows || isNumericField(inField)) {
+			throw new IllegalArgumentException("Cannot set " + inField.getName() + " for row " + inRow);
+		}
+		if (inValue == null) {
+			return;
+		}
+		final int fieldIndex = _fieldList.extendList(inField);
+		if (fieldIndex >= _stringColumns.length) {
+			_stringColumns = Arrays.copyOf(_stringColumns, _fieldList.getNumFields());
+		}
+		if (_stringColumns[fieldIndex] == null) {
+			_stringColumns[fieldIndex] = new String[_latitudes.length];
+		}
+		_stringColumns[fieldIndex][inRow] = inValue;
+	}
+
+	/**
+	 * Keep the text of a timestamp which couldn't be parsed, so that it isn't lost
+	 * @param inRow row index, which mustn't have a timestamp
+	 * @param inText text of timestamp
+	 */
+	public void setTimestampText(int inRow, String inText)
+	{
+		if (inRow < 0 || inRow >= _numRows || hasTimestamp(inRow)) {
+			throw new IllegalArgumentException("Cannot set timestamp text for row " + inRow);
+		}
+		if (inText == null) {
+			return;
+		}
+		_fieldList.extendList(Field.TIMESTAMP);
+		if (_timestampTexts == null) {
+			_timestampTexts = new String[_latitudes.length];
+		}
+		_timestampTexts[inRow] = inText;
+	}
+
+	/**
+	 * Set the text of all the timestamps which couldn't be parsed at once
+	 * @param inTexts texts for each row, with nulls for rows with valid or missing timestamps
+	 */
+	public void setTimestampTexts(String[] inTexts)
+	{
+		if (inTexts.length != _numRows) {
+			throw new IllegalArgumentException("Cannot set timestamp texts for " + inTexts.length + " rows");
+		}
+		_fieldList.extendList(Field.TIMESTAMP);
+		_timestampTexts = Arrays.copyOf(inTexts, _latitudes.length);
+	}
+
+	/**
+	 * Set all the String values of the given field at once
+	 * @param inField field to set, other than coordinates, altitude, timestamp and segment flag
+	 * @param inValues values for each row, with nulls for missing values
+	 */
+	public void setValues(Field inField, String[] inValues)
+	{
+		if (inValues.length != _numRows || isNumericField(inField)) {
+			throw new IllegalArgumentException("Cannot set " + inField.getName() + " for " + inValues.length + " rows");
+		}
+		final int fieldIndex = _fieldList.extendList(inField);
+		if (fieldIndex >= _stringColumns.length) {
+			_stringColumns = Arrays.copyOf(_stringColumns, _fieldList.getNumFields());
+		}
+		_stringColumns[fieldIndex] = Arrays.copyOf(inValues, _latitudes.length);
+	}
+
+	/**
+	 * Add all the rows of the given columns to the end of these ones
+	 * @param inOther other columns, for example from another part of the same file
+	 */
+	public void append(PointColumns inOther)
+	{
+		final int numOther = inOther._numRows;
+		ensureCapacity(_numRows + numOther);
+		System.arraycopy(inOther._latitudes, 0, _latitudes, _numRows, numOther);
+		System.arraycopy(inOther._longitudes, 0, _longitudes, _numRows, numOther);
+		System.arraycopy(inOther._altitudes, 0, _altitudes, _numRows, numOther);
+		System.arraycopy(inOther._timestamps, 0, _timestamps, _numRows, numOther);
+		for (int i = inOther._segmentStarts.nextSetBit(0); i >= 0; i = inOther._segmentStarts.nextSetBit(i+1)) {
+			_segmentStarts.set(_numRows + i);
+		}
+		if (inOther._timestampTexts != null)
+		{
+			if (_timestampTexts == null) {
+				_timestampTexts = new String[_latitudes.length];
+			}
+			System.arraycopy(inOther._timestampTexts, 0, _timestampTexts, _numRows, numOther);
+		}
+		// Copy the fields, including the string columns
+		for (int f=0; f<inOther._fieldList.getNumFields(); f++)
+		{
+			final Field field = inOther._fieldList.getField(f);
+			if (field == null) {
+				continue;
+			}
+			final int fieldIndex = _fieldList.extendList(field);
+			if (f < inOther._stringColumns.length && inOther._stringColumns[f] != null)
+			{
+				if (fieldIndex >= _stringColumns.length) {
+					_stringColumns = Arrays.copyOf(_stringColumns, _fieldList.getNumFields());
+				}
+				if (_stringColumns[fieldIndex] == null) {
+					_stringColumns[fieldIndex] = new String[_latitudes.length];
+				}
+				System.arraycopy(inOther._stringColumns[f], 0, _stringColumns[fieldIndex], _numRows, numOther);
+			}
+		}
+		_numRows += numOther;
+	}
+
+	/**
+	 * @param inField field to check
+	 * @return true if this field is held in a primitive column
+	 */
+	public static boolean isNumericField(Field inField)
+	{
+		return inField == Field.LATITUDE || inField == Field.LONGITUDE || inField == Field.ALTITUDE
+			|| inField == Field.TIMESTAMP || inField == Field.NEW_SEGMENT;
+	}
+
+	/**
+	 * Make sure the arrays are big enough for the given number of rows
+	 * @param inNumRows number of rows required
+	 */
+	private void ensureCapacity(int inNumRows)
+	{
+		if (inNumRows > _latitudes.length) {
+			resize(Math.max(inNumRows, _latitudes.length * 2));
+		}
+	}
+
+	/**
+	 * Resize all the columns to the given size
+	 * @param inSize new size of arrays
+	 */
+	private void resize(int inSize)
+	{
+		_latitudes  = Arrays.copyOf(_latitudes, inSize);
+		_longitudes = Arrays.copyOf(_longitudes, inSize);
+		_altitudes  = Arrays.copyOf(_altitudes, inSize);
+		_timestamps = Arrays.copyOf(_timestamps, inSize);
+		if (_timestampTexts != null) {
+			_timestampTexts = Arrays.copyOf(_timestampTexts, inSize);
+		}
+		for (int i=0; i<_stringColumns.length; i++)
+		{
+			if (_stringColumns[i] != null) {
+				_stringColumns[i] = Arrays.copyOf(_stringColumns[i], inSize);
+			}
+		}
+	}
+
+	/**
+	 * Release the unused space at the end of the columns once all rows have been added
+	 */
+	public void trimToSize()
+	{
+		if (_numRows < _latitudes.length) {
+			resize(_numRows);
+		}
+	}
+
+	/**
+	 * @return number of rows
+	 */
+	public int getNumRows()
+	{
+		return _numRows;
+	}
+
+	/**
+	 * @return field list for the points
+	 */
+	public FieldList getFieldList()
+	{
+		return _fieldList;
+	}
+
+	/**
+	 * @return creation options used for the points
+	 */
+	public PointCreateOptions getOptions()
+	{
+		return _options;
+	}
+
+	/**
+	 * @param inRow row index
+	 * @return latitude in degrees
+	 */
+	public double getLatitude(int inRow)
+	{
+		return _latitudes[inRow];
+	}
+
+	/**
+	 * @param inRow row index
+	 * @return longitude in degrees
+	 */
+	public double getLongitude(int inRow)
+	{
+		return _longitudes[inRow];
+	}
+
+	/**
+	 * @param inRow row index
+	 * @return altitude in the units of the options, or NO_ALTITUDE
+	 */
+	public double getAltitude(int inRow)
+	{
+		return _altitudes[inRow];
+	}
+
+	/**
+	 * @param inRow row index
+	 * @return timestamp in milliseconds, or NO_TIMESTAMP
+	 */
+	public long getTimestamp(int inRow)
+	{
+		return _timestamps[inRow];
+	}
+
+	/**
+	 * @param inRow row index
+	 * @return true if the row has valid coordinates
+	 */
+	public boolean isValid(int inRow)
+	{
+		return !Double.isNaN(_latitudes[inRow]) && !Double.isNaN(_longitudes[inRow])
+			&& Math.abs(_latitudes[inRow]) <= 90.0 && Math.abs(_longitudes[inRow]) <= 180.0;
+	}
+
+	/**
+	 * @param inRow row index
+	 * @return true if the row has an altitude
+	 */
+	public boolean hasAltitude(int inRow)
+	{
+		return !Double.isNaN(_altitudes[inRow]);
+	}
+
+	/**
+	 * @param inRow row index
+	 * @return true if the row has a timestamp
+	 */
+	public boolean hasTimestamp(int inRow)
+	{
+		return _timestamps[inRow] != NO_TIMESTAMP;
+	}
+
+	/**
+	 * @param inRow row index
+	 * @return true if the row starts a new segment
+	 */
+	public boolean getSegmentStart(int inRow)
+	{
+		return _segmentStarts.get(inRow);
+	}
+
+	/**
+	 * Get the value of the given field as a String
+	 * @param inRow row index
+	 * @param inField field to get
+	 * @return String value, or null if not present
+	 */
+	public String getValue(int inRow, Field inField)
+	{
+		return getValue(inRow, _fieldList.getFieldIndex(inField));
+	}
+
+	/**
+	 * Get the value at the given field index as a String
+	 * @param inRow row index
+	 * @param inFieldIndex index of field in field list
+	 * @return String value, or null if not present
+	 */
+	public String getValue(int inRow, int inFieldIndex)
+	{
+		final Field field = _fieldList.getField(inFieldIndex);
+		if (field == null) {
+			return null;
+		}
+		if (field == Field.LATITUDE) {
+			return formatDecimal(_latitudes[inRow]);
+		}
+		if (field == Field.LONGITUDE) {
+			return formatDecimal(_longitudes[inRow]);
+		}
+		if (field == Field.ALTITUDE) {
+			return hasAltitude(inRow) ? formatDecimal(_altitudes[inRow]) : null;
+		}
+		if (field == Field.TIMESTAMP)
+		{
+			if (hasTimestamp(inRow)) {
+				return Instant.ofEpochMilli(_timestamps[inRow]).toString();
+			}
+			return _timestampTexts == null ? null : _timestampTexts[inRow];
+		}
+		if (field == Field.NEW_SEGMENT) {
+			return getSegmentStart(inRow) ? "1" : null;
+		}
+		if (inFieldIndex < _stringColumns.length && _stringColumns[inFieldIndex] != null) {
+			return _stringColumns[inFieldIndex][inRow];
+		}
+		return null;
+	}
+
+	/**
+	 * @param inRow row index
+	 * @return array of String values for all the fields in the field list
+	 */
+	public String[] getValues(int inRow)
+	{
+		final int numFields = _fieldList.getNumFields();
+		String[] values = new String[numFields];
+		for (int i=0; i<numFields; i++) {
+			values[i] = getValue(inRow, i);
+		}
+		return values;
+	}
+
+	/**
+	 * @param inValue double value
+	 * @return shortest plain decimal String for this value, or null if not a number
+	 */
+	private static String formatDecimal(double inValue)
+	{
+		if (Double.isNaN(inValue)) {
+			return null;
+		}
+		if (inValue == Math.rint(inValue) && Math.abs(inValue) < 1.0e15) {
+			return Long.toString((long) inValue);
+		}
+		return BigDecimal.valueOf(inValue).toPlainString();
+	}
+
+	/**
+	 * Create the DataPoint objects for all the valid rows
+	 * @return array of DataPoints referring to these columns
+	 */
+	public DataPoint[] createPoints()
+	{
+		DataPoint[] points = new DataPoint[_numRows];
+		int numValid = 0;
+		for (int i=0; i<_numRows; i++)
+		{
+			if (isValid(i)) {
+				points[numValid++] = new DataPoint(this, i);
+			}
+		}
+		return numValid == _numRows ? points : Arrays.copyOf(points, numValid);
+	}
+}
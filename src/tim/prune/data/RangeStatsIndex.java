@@ -0,0 +1,326 @@
+package tim.prune.data;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Cumulative index over all the points of a track, so that the distance
+ * and moving time of any range can be found without walking through its points.
+ * Each array holds the running total up to and including that point,
+ * calculated in the same way as RangeStats does point by point.
+ * The altitude extremes of blocks of points are held in a sparse table,
+ * so the minimum and maximum of any range only need the points at its ends.
+ * Edits only invalidate the index from the first changed point onwards,
+ * and the rest is recalculated the next time it's needed.
+ */
+public class RangeStatsIndex
+{
+	/** Track to calculate from */
+	private Track _track = null;
+	/** Number of points which are still valid */
+	private int _numValid = 0;
+	/** Cumulative distances in radians, including and excluding segment gaps */
+	private double[] _totalDistances = null, _movingDistances = null;
+	/** Cumulative moving time in milliseconds */
+	private long[] _movingMillis = null;
+	/** Timestamp of the last track point in the same segment, or NO_TIMESTAMP */
+	private long[] _movingTimestamps = null;
+	/** Metric altitudes of the track points, or NO_ALTITUDE */
+	private int[] _altitudes = null;
+	/** Flags for waypoints and for timestamped track points */
+	private BitSet _waypoints = new BitSet(), _timedPoints = new BitSet();
+	/** Lowest and highest altitudes of the 2^level blocks starting at each block, by level */
+	private int[][] _blockMinimums = null, _blockMaximums = null;
+
+	/** Value used for a missing timestamp */
+	private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	/** Value used for a missing altitude */
+	private static final int NO_ALTITUDE = Integer.MIN_VALUE;
+	/** Number of points in each block of the altitude table */
+	private static final int BLOCK_SIZE = 64;
+
+
+	/**
+	 * Constructor
+	 * @param inTrack track to index
+	 */
+	public RangeStatsIndex(Track inTrack)
+	{
+		_track = inTrack;
+	}
+
+	/**
+	 * Invalidate the index from the given point onwards
+	 * @param inIndex index of first changed point
+	 */
+	public void invalidateFrom(int inIndex)
+	{
+		_numValid = Math.max(0, Math.min(_numValid, inIndex));
+	}
+
+	/**
+	 * Make sure that the index covers all the points of the track
+	 */
+	private void update()
+	{
+		final int numPoints = _track.getNumPoints();
+		if (_numValid > numPoints) {
+			_numValid = numPoints;
+		}
+		if (_numValid == numPoints && _altitudes != null && _altitudes.length >= numPoints) {
+			return;
+		}
+		if (_altitudes == null || _altitudes.length < numPoints) {
+			resize(Math.max(numPoints, 1000));
+		}
+		final int firstChanged = _numValid;
+		// Take the running values from the last valid point
+		final int prevIndex = _numValid - 1;
+		DataPoint prevPoint = null;
+		final int prevTrackIndex = (prevIndex < 0 ? -1 : _waypoints.previousClearBit(prevIndex));
+		if (prevTrackIndex >= 0) {
+			prevPoint = _track.getPoint(prevTrackIndex);
+		}
+		double totalDistance = (prevIndex < 0 ? 0.0 : _totalDistances[prevIndex]);
+		double movingDistance = (prevIndex < 0 ? 0.0 : _movingDistances[prevIndex]);
+		long movingMillis = (prevIndex < 0 ? 0L : _movingMillis[prevIndex]);
+		long movingTimestamp = (prevIndex < 0 ? NO_TIMESTAMP : _movingTimestamps[prevIndex]);
+		_waypoints.clear(_numValid, Math.max(_numValid, _waypoints.length()));
+		_timedPoints.clear(_numValid, Math.max(_numValid, _timedPoints.length()));
+
+		for (int i=_numValid; i<numPoints; i++)
+		{
+			DataPoint point = _track.getPoint(i);
+			if (point.isWaypoint())
+			{
+				_waypoints.set(i);
+				_altitudes[i] = NO_ALTITUDE;
+			}
+			else
+			{
+				final boolean segmentStart = point.getSegmentStart();
+				if (segmentStart) {
+					movingTimestamp = NO_TIMESTAMP;
+				}
+				if (prevPoint != null)
+				{
+					final double rads = DataPoint.calculateRadiansBetween(prevPoint, point);
+					totalDistance += rads;
+					if (!segmentStart) {
+						movingDistance += rads;
+					}
+				}
+				if (point.hasTimestamp())
+				{
+					_timedPoints.set(i);
+					final long millis = point.getTimestamp().getMilliseconds(null);
+					if (movingTimestamp != NO_TIMESTAMP && millis > movingTimestamp) {
+						movingMillis += (millis - movingTimestamp);
+					}
+					movingTimestamp = millis;
+				}
+				_altitudes[i] = point.hasAltitude() ? (int) point.getAltitude().getMetricValue() : NO_ALTITUDE;
+				prevPoint = point;
+			}
+			_totalDistances[i] = totalDistance;
+			_movingDistances[i] = movingDistance;
+			_movingMillis[i] = movingMillis;
+			_movingTimestamps[i] = movingTimestamp;
+		}
+		_numValid = numPoints;
+		updateAltitudeTable(firstChanged / BLOCK_SIZE);
+	}
+
+	/**
+	 * Recalculate the table of block altitudes from the given block onwards
+	 * @param inFirstBlock index of first changed block
+	 */
+	private void updateAltitudeTable(int inFirstBlock)
+	{
+		final int numBlocks = (_numValid + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		int numLevels = 1;
+		while ((1 << numLevels) <= numBlocks) {
+			numLevels++;
+		}
+		if (_blockMinimums == null || _blockMinimums.length != numLevels
+			|| _blockMinimums[0].length < numBlocks)
+		{
+			final int capacity = Math.max(numBlocks, _altitudes.length / BLOCK_SIZE + 1);
+			_blockMinimums = new int[numLevels][capacity];
+			_blockMaximums = new int[numLevels][capacity];
+			inFirstBlock = 0;
+		}
+		for (int b=inFirstBlock; b<numBlocks; b++)
+		{
+			int min = Integer.MAX_VALUE, max = NO_ALTITUDE;
+			final int end = Math.min(_numValid, (b + 1) * BLOCK_SIZE);
+			for (int i=b*BLOCK_SIZE; i<end; i++)
+			{
+				if (_altitudes[i] != NO_ALTITUDE)
+				{
+					min = Math.min(min, _altitudes[i]);
+					max = Math.max(max, _altitudes[i]);
+				}
+			}
+			_blockMinimums[0][b] = min;
+			_blockMaximums[0][b] = max;
+		}
+		// Each entry combines two entries of the level below, so only those covering changed blocks are redone
+		for (int level=1; level<numLevels; level++)
+		{
+			final int half = 1 << (level - 1);
+			for (int b=Math.max(0, inFirstBlock - 2 * half + 1); b + 2 * half <= numBlocks; b++)
+			{
+				_blockMinimums[level][b] = Math.min(_blockMinimums[level-1][b], _blockMinimums[level-1][b + half]);
+				_blockMaximums[level][b] = Math.max(_blockMaximums[level-1][b], _blockMaximums[level-1][b + half]);
+			}
+		}
+	}
+
+	/**
+	 * Resize all the arrays
+	 * @param inSize new size
+	 */
+	private void resize(int inSize)
+	{
+		if (_altitudes == null)
+		{
+			_totalDistances = new double[inSize];
+			_movingDistances = new double[inSize];
+			_movingMillis = new long[inSize];
+			_movingTimestamps = new long[inSize];
+			_altitudes = new int[inSize];
+		}
+		else
+		{
+			_totalDistances = Arrays.copyOf(_totalDistances, inSize);
+			_movingDistances = Arrays.copyOf(_movingDistances, inSize);
+			_movingMillis = Arrays.copyOf(_movingMillis, inSize);
+			_movingTimestamps = Arrays.copyOf(_movingTimestamps, inSize);
+			_altitudes = Arrays.copyOf(_altitudes, inSize);
+		}
+	}
+
+	/**
+	 * @param inStart start index (inclusive)
+	 * @param inEnd end index (inclusive)
+	 * @return index of first track point in range, or -1 if none
+	 */
+	private int getFirstTrackPoint(int inStart, int inEnd)
+	{
+		final int index = _waypoints.nextClearBit(inStart);
+		return index <= inEnd ? index : -1;
+	}
+
+	/**
+	 * @param inStart start index (inclusive)
+	 * @param inEnd end index (inclusive)
+	 * @return total distance of the range in radians, including segment gaps
+	 */
+	public double getTotalDistanceRadians(int inStart, int inEnd)
+	{
+		update();
+		final int firstIndex = getFirstTrackPoint(inStart, inEnd);
+		return firstIndex < 0 ? 0.0 : _totalDistances[inEnd] - _totalDistances[firstIndex];
+	}
+
+	/**
+	 * @param inStart start index (inclusive)
+	 * @param inEnd end index (inclusive)
+	 * @return moving distance of the range in radians, excluding segment gaps
+	 */
+	public double getMovingDistanceRadians(int inStart, int inEnd)
+	{
+		update();
+		final int firstIndex = getFirstTrackPoint(inStart, inEnd);
+		return firstIndex < 0 ? 0.0 : _movingDistances[inEnd] - _movingDistances[firstIndex];
+	}
+
+	/**
+	 * @param inStart start index (inclusive)
+	 * @param inEnd end index (inclusive)
+	 * @return number of milliseconds within the segments of the range
+	 */
+	public long getMovingMilliseconds(int inStart, int inEnd)
+	{
+		update();
+		// The first timestamp of the range doesn't count from anything before the range
+		final int firstTimed = _timedPoints.nextSetBit(inStart);
+		if (firstTimed < 0 || firstTimed > inEnd) {
+			return 0L;
+		}
+		return _movingMillis[inEnd] - _movingMillis[firstTimed];
+	}
+
+	/**
+	 * Get the lowest and highest altitudes of a range, using the block table
+	 * for the whole blocks and only looking at the points at each end
+	 * @param inStart start index (inclusive)
+	 * @param inEnd end index (inclusive)
+	 * @return range of metric altitudes of the track points
+	 */
+	public IntegerRange getAltitudeExtremes(int inStart, int inEnd)
+	{
+		update();
+		IntegerRange range = new IntegerRange();
+		final int firstBlock = (inStart + BLOCK_SIZE - 1) / BLOCK_SIZE;
+		final int lastBlock = (inEnd + 1) / BLOCK_SIZE - 1;
+		if (firstBlock > lastBlock)
+		{
+			addAltitudes(range, inStart, inEnd);
+			return range;
+		}
+		addAltitudes(range, inStart, firstBlock * BLOCK_SIZE - 1);
+		addAltitudes(range, (lastBlock + 1) * BLOCK_SIZE, inEnd);
+		// Two overlapping runs of blocks cover the whole blocks in between
+		int level = 0;
+		while ((2 << level) <= lastBlock - firstBlock + 1) {
+			level++;
+		}
+		final int secondStart = lastBlock - (1 << level) + 1;
+		final int max = Math.max(_blockMaximums[level][firstBlock], _blockMaximums[level][secondStart]);
+		if (max != NO_ALTITUDE)
+		{
+			range.addValue(max);
+			range.addValue(Math.min(_blockMinimums[level][firstBlock], _blockMinimums[level][secondStart]));
+		}
+		return range;
+	}
+
+	/**
+	 * Add the altitudes of the given points to the range
+	 * @param inRange range to add to
+	 * @param inStart start index (inclusive)
+	 * @param inEnd end index (inclusive)
+	 */
+	private void addAltitudes(IntegerRange inRange, int inStart, int inEnd)
+	{
+		for (int i=inStart; i<=inEnd; i++)
+		{
+			if (_altitudes[i] != NO_ALTITUDE) {
+				inRange.addValue(_altitudes[i]);
+			}
+		}
+	}
+
+	/**
+	 * Get the altitude range including the climb and descent, which depend on
+	 * the whole sequence of altitudes and so have to be worked out each time
+	 * @param inStart start index (inclusive)
+	 * @param inEnd end index (inclusive)
+	 * @return altitude range of the track points, including segment gaps
+	 */
+	public AltitudeRange getAltitudeRange(int inStart, int inEnd)
+	{
+		update();
+		AltitudeRange range = new AltitudeRange();
+		final int wiggleLimit = AltitudeRange.getWiggleLimit();
+		for (int i=inStart; i<=inEnd; i++)
+		{
+			if (_altitudes[i] != NO_ALTITUDE) {
+				range.addMetricValue(_altitudes[i], wiggleLimit);
+			}
+		}
+		return range;
+	}
+}
@@ -15,7 +15,12 @@ public class Selection
 	private int _startIndex = -1, _endIndex = -1;
 	private int _currentPhotoIndex = -1;
 	private int _currentAudioIndex = -1;
-	private RangeStats _rangeStats = null;
+	private boolean _statsValid = false;
+	private double _movingDistanceRads = 0.0;
+	private long _movingMilliseconds = 0L;
+	private IntegerRange _altitudeExtremes = null;
+	private AltitudeRange _altitudeRange = null;
+	private int _altitudeTolerance = 0;
 
 
 	/**
@@ -29,11 +34,37 @@ public class Selection
 
 
 	/**
-	 * Mark selection invalid so it will be recalculated
+	 * Mark selection invalid so it will be recalculated,
+	 * because the track data may have changed
 	 */
 	public void markInvalid()
 	{
-		_rangeStats = null;
+		markInvalid(0);
+	}
+
+
+	/**
+	 * Mark selection invalid so it will be recalculated,
+	 * because the track data may have changed from the given point onwards
+	 * @param inFromIndex index of first changed point
+	 */
+	public void markInvalid(int inFromIndex)
+	{
+		if (_track != null) {
+			_track.invalidateDerivedValues(inFromIndex);
+		}
+		rangeChanged();
+	}
+
+
+	/**
+	 * The selected range has changed so its details need to be recalculated
+	 */
+	private void rangeChanged()
+	{
+		_statsValid = false;
+		_altitudeExtremes = null;
+		_altitudeRange = null;
 	}
 
 
@@ -60,7 +91,7 @@ public class Selection
 	 */
 	private void recalculate()
 	{
-		if (_rangeStats != null) {
+		if (_statsValid) {
 			return;
 		}
 		final int numPoints = _track.getNumPoints();
@@ -72,12 +103,16 @@ public class Selection
 		}
 		if (numPoints > 0 && hasRangeSelected())
 		{
-			_rangeStats = new RangeStats(_track, _startIndex, _endIndex);
+			RangeStatsIndex index = _track.getRangeStatsIndex();
+			_movingDistanceRads = index.getMovingDistanceRadians(_startIndex, _endIndex);
+			_movingMilliseconds = index.getMovingMilliseconds(_startIndex, _endIndex);
 		}
 		else
 		{
-			_rangeStats = new RangeStats();
+			_movingDistanceRads = 0.0;
+			_movingMilliseconds = 0L;
 		}
+		_statsValid = true;
 	}
 
 
@@ -101,12 +136,36 @@ public class Selection
 	}
 
 	/**
+	 * @return lowest and highest metric altitudes of the range, which are quick to find
+	 */
+	public IntegerRange getAltitudeExtremes()
+	{
+		recalculate();
+		if (_altitudeExtremes == null)
+		{
+			_altitudeExtremes = hasRangeSelected() ? _track.getRangeStatsIndex().getAltitudeExtremes(_startIndex, _endIndex)
+				: new IntegerRange();
+		}
+		return _altitudeExtremes;
+	}
+
+	/**
+	 * Get the altitude range including the climb and descent, which need all the
+	 * points of the range, so should only be asked for when they're really needed
 	 * @return altitude range
 	 */
 	public AltitudeRange getAltitudeRange()
 	{
 		recalculate();
-		return _rangeStats.getTotalAltitudeRange();
+		final int tolerance = AltitudeRange.getWiggleLimit();
+		if (_altitudeRange == null || tolerance != _altitudeTolerance)
+		{
+			// Climb and descent can't be added up from the index, so just work out the range when needed
+			_altitudeTolerance = tolerance;
+			_altitudeRange = hasRangeSelected() ? _track.getRangeStatsIndex().getAltitudeRange(_startIndex, _endIndex)
+				: new AltitudeRange();
+		}
+		return _altitudeRange;
 	}
 
 
@@ -116,7 +175,7 @@ public class Selection
 	public long getMovingSeconds()
 	{
 		recalculate();
-		return _rangeStats.getMovingDurationInSeconds();
+		return _movingMilliseconds / 1000;
 	}
 
 	/**
@@ -124,7 +183,8 @@ public class Selection
 	 */
 	public double getMovingDistance()
 	{
-		return _rangeStats.getMovingDistance();
+		recalculate();
+		return Distance.convertRadiansToDistance(_movingDistanceRads);
 	}
 
 	/**
@@ -136,7 +196,7 @@ public class Selection
 		selectRange(-1, -1);
 		_currentPhotoIndex = -1;
 		_currentAudioIndex = -1;
-		markInvalid();
+		rangeChanged();
 		check();
 	}
 
@@ -150,7 +210,7 @@ public class Selection
 	{
 		_startIndex = inStartIndex;
 		_endIndex = inEndIndex;
-		markInvalid();
+		rangeChanged();
 		check();
 	}
 
@@ -183,7 +243,7 @@ public class Selection
 				_endIndex = _track.getNumPoints() - 1;
 			}
 		}
-		markInvalid();
+		rangeChanged();
 		UpdateMessageBroker.informSubscribers();
 	}
 
@@ -215,7 +275,7 @@ public class Selection
 				_startIndex = 0;
 			}
 		}
-		markInvalid();
+		rangeChanged();
 		UpdateMessageBroker.informSubscribers();
 	}
 
@@ -237,7 +297,7 @@ public class Selection
 		// Clear selected range
 		_startIndex = _endIndex = -1;
 		// Check for consistency and fire update
-		markInvalid();
+		rangeChanged();
 		check();
 	}
 
@@ -254,7 +314,7 @@ public class Selection
 			_endIndex--;
 			if (_currentPoint < _startIndex)
 				_startIndex--;
-			markInvalid();
+			rangeChanged();
 		}
 		check();
 	}
@@ -317,7 +377,7 @@ public class Selection
 		{
 			// track is empty, clear selections
 			_currentPoint = _startIndex = _endIndex = -1;
-			markInvalid();
+			rangeChanged();
 		}
 		UpdateMessageBroker.informSubscribers(DataSubscriber.SELECTION_CHANGED);
 	}
@@ -0,0 +1,195 @@
+package tim.prune.data;
+
+/**
+ * Two-dimensional tree over the scaled x and y values of points,
+ * used to find the nearest point to a click without looping over all points.
+ * Distances are measured as the sum of the x and y distances,
+ * optionally wrapping the x values around at the date line.
+ * The index is built once from the arrays and then only queried,
+ * so it has to be recreated whenever the values change.
+ */
+class SpatialIndex
+{
+	/** x and y values, indexed by point index */
+	private final double[] _xValues, _yValues;
+	/** Flags for points to be skipped when only track points are wanted, or null */
+	private final boolean[] _skipFlags;
+	/** Point indices in tree order, each range being split at its midpoint */
+	private final int[] _order;
+	/** Split axis for each node in tree order, true for x */
+	private final boolean[] _splitOnX;
+	/** true to wrap the x distances around */
+	private final boolean _wrapX;
+
+	// Working variables for the current search
+	private int _bestIndex = -1;
+	private double _bestDist = 0.0;
+	private boolean _skipping = false;
+
+
+	/**
+	 * Constructor
+	 * @param inXValues array of x values
+	 * @param inYValues array of y values
+	 * @param inIncluded flags for points to include in the index, or null for all
+	 * @param inSkipFlags flags for points which can be skipped by searches, or null
+	 * @param inWrapX true to wrap x values around between 0 and 1
+	 */
+	SpatialIndex(double[] inXValues, double[] inYValues, boolean[] inIncluded,
+		boolean[] inSkipFlags, boolean inWrapX)
+	{
+		_xValues = inXValues;
+		_yValues = inYValues;
+		_skipFlags = inSkipFlags;
+		_wrapX = inWrapX;
+		int numIncluded = 0;
+		final int numPoints = inXValues.length;
+		for (int i=0; i<numPoints; i++)
+		{
+			if (inIncluded == null || inIncluded[i]) {
+				numIncluded++;
+			}
+		}
+		_order = new int[numIncluded];
+		_splitOnX = new boolean[numIncluded];
+		int n = 0;
+		for (int i=0; i<numPoints; i++)
+		{
+			if (inIncluded == null || inIncluded[i]) {
+				_order[n++] = i;
+			}
+		}
+		build(0, numIncluded);
+	}
+
+	/**
+	 * Build the tree for the given range by splitting at the median
+	 * @param inStart start of range (inclusive)
+	 * @param inEnd end of range (exclusive)
+	 */
+	private void build(int inStart, int inEnd)
+	{
+		while (inEnd - inStart > 1)
+		{
+			// Split along whichever axis has the bigger spread
+			double minX = Double.MAX_VALUE, maxX = -Double.MAX_VALUE;
+			double minY = Double.MAX_VALUE, maxY = -Double.MAX_VALUE;
+			for (int i=inStart; i<inEnd; i++)
+			{
+				final int p = _order[i];
+				minX = Math.min(minX, _xValues[p]); maxX = Math.max(maxX, _xValues[p]);
+				minY = Math.min(minY, _yValues[p]); maxY = Math.max(maxY, _yValues[p]);
+			}
+			final boolean splitOnX = (maxX - minX) >= (maxY - minY);
+			final int mid = (inStart + inEnd) >>> 1;
+			select(inStart, inEnd - 1, mid, splitOnX ? _xValues : _yValues);
+			_splitOnX[mid] = splitOnX;
+			// Recurse into the smaller half, loop round for the bigger one
+			build(inStart, mid);
+			inStart = mid + 1;
+		}
+	}
+
+	/**
+	 * Partially sort the given range so that the k-th element is in place,
+	 * with all smaller values before it and all larger values after it
+	 * @param inLeft left index (inclusive)
+	 * @param inRight right index (inclusive)
+	 * @param inK index to put in place
+	 * @param inValues values to compare
+	 */
+	private void select(int inLeft, int inRight, int inK, double[] inValues)
+	{
+		while (inRight > inLeft)
+		{
+			final double pivot = inValues[_order[(inLeft + inRight) >>> 1]];
+			int i = inLeft, j = inRight;
+			while (i <= j)
+			{
+				while (inValues[_order[i]] < pivot) {i++;}
+				while (inValues[_order[j]] > pivot) {j--;}
+				if (i <= j)
+				{
+					final int temp = _order[i];
+					_order[i] = _order[j];
+					_order[j] = temp;
+					i++; j--;
+				}
+			}
+			if (inK <= j) {
+				inRight = j;
+			}
+			else if (inK >= i) {
+				inLeft = i;
+			}
+			else {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Find the nearest point to the given coordinates
+	 * @param inX x coordinate
+	 * @param inY y coordinate
+	 * @param inMaxDist maximum distance, or a negative value for no limit
+	 * @param inSkip true to ignore the points flagged for skipping
+	 * @return index of nearest point, or -1 if none found within the distance
+	 */
+	synchronized int findNearest(double inX, double inY, double inMaxDist, boolean inSkip)
+	{
+		_bestIndex = -1;
+		_bestDist = (inMaxDist > 0.0 ? inMaxDist : Double.MAX_VALUE);
+		_skipping = inSkip && _skipFlags != null;
+		search(0, _order.length, inX, inY);
+		if (_wrapX)
+		{
+			search(0, _order.length, inX - 1.0, inY);
+			search(0, _order.length, inX + 1.0, inY);
+		}
+		return _bestIndex;
+	}
+
+	/**
+	 * Search the given range of the tree for a point nearer than the current best
+	 * @param inStart start of range (inclusive)
+	 * @param inEnd end of range (exclusive)
+	 * @param inX x coordinate
+	 * @param inY y coordinate
+	 */
+	private void search(int inStart, int inEnd, double inX, double inY)
+	{
+		while (inEnd > inStart)
+		{
+			final int mid = (inStart + inEnd) >>> 1;
+			final int p = _order[mid];
+			if (!_skipping || !_skipFlags[p])
+			{
+				final double dist = Math.abs(_xValues[p] - inX) + Math.abs(_yValues[p] - inY);
+				// Ties go to the lowest point index, like a loop over all the points would give
+				if (dist < _bestDist || (dist == _bestDist && (_bestIndex < 0 || p < _bestIndex)))
+				{
+					_bestDist = dist;
+					_bestIndex = p;
+				}
+			}
+			if (inEnd - inStart == 1) {
+				return;
+			}
+			final double diff = _splitOnX[mid] ? (inX - _xValues[p]) : (inY - _yValues[p]);
+			// Search the near side first, then the far side only if it could contain a nearer point
+			if (diff < 0.0)
+			{
+				search(inStart, mid, inX, inY);
+				if (-diff > _bestDist) {return;}
+				inStart = mid + 1;
+			}
+			else
+			{
+				search(mid + 1, inEnd, inX, inY);
+				if (diff > _bestDist) {return;}
+				inEnd = mid;
+			}
+		}
+	}
+}
@@ -3,6 +3,8 @@ package tim.prune.data;
 import java.text.DateFormat;
 import java.text.ParsePosition;
 import java.text.SimpleDateFormat;
+import java.time.DateTimeException;
+import java.time.LocalDate;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.TimeZone;
@@ -35,6 +37,8 @@ public class TimestampUtc extends Timestamp
 	private static long MSECS_SINCE_1990 = 0L;
 	private static long TWENTY_YEARS_IN_SECS = 0L;
 	private static final long GARTRIP_OFFSET = 631065600L;
+	/** Result of the quick parse if the String isn't in the usual form */
+	private static final long NO_FAST_PARSE = Long.MIN_VALUE;
 
 	/** Identifier for the parsing strategy to use */
 	private enum ParseType
@@ -102,6 +106,14 @@ public class TimestampUtc extends Timestamp
 		_text = null;
 		if (inString != null && !inString.equals(""))
 		{
+			final long millis = parseUtcTimestamp(inString);
+			if (millis != NO_FAST_PARSE)
+			{
+				_milliseconds = millis;
+				_valid = true;
+				_text = inString;
+				return;
+			}
 			// Try each of the parse types in turn
 			for (ParseType type : ALL_PARSE_TYPES)
 			{
@@ -116,6 +128,61 @@ public class TimestampUtc extends Timestamp
 		}
 	}
 
+	/**
+	 * Quickly parse the most common form of timestamp, yyyy-MM-ddTHH:mm:ss with
+	 * optional milliseconds and a Z, without trying all the parse types
+	 * @param inValue String to parse
+	 * @return timestamp in milliseconds, or NO_FAST_PARSE if it's not in this form
+	 */
+	private static long parseUtcTimestamp(String inValue)
+	{
+		final int length = inValue.length();
+		if ((length != 20 && length != 24) || inValue.charAt(4) != '-' || inValue.charAt(7) != '-'
+			|| inValue.charAt(10) != 'T' || inValue.charAt(13) != ':' || inValue.charAt(16) != ':'
+			|| inValue.charAt(length-1) != 'Z' || (length == 24 && inValue.charAt(19) != '.'))
+		{
+			return NO_FAST_PARSE;
+		}
+		final int year = parseDigits(inValue, 0, 4), month = parseDigits(inValue, 5, 2),
+			day = parseDigits(inValue, 8, 2), hour = parseDigits(inValue, 11, 2),
+			minute = parseDigits(inValue, 14, 2), second = parseDigits(inValue, 17, 2),
+			millis = (length == 24 ? parseDigits(inValue, 20, 3) : 0);
+		if (year < 0 || month < 1 || month > 12 || day < 1 || day > 31 || hour < 0 || hour > 23
+			|| minute < 0 || minute > 59 || second < 0 || second > 59 || millis < 0)
+		{
+			return NO_FAST_PARSE;
+		}
+		try
+		{
+			final long epochDay = LocalDate.of(year, month, day).toEpochDay();
+			return ((epochDay * 24 + hour) * 60 + minute) * 60000L + second * 1000L + millis;
+		}
+		catch (DateTimeException dte) {
+			return NO_FAST_PARSE; // eg 31st of a short month
+		}
+	}
+
+	/**
+	 * @param inValue String to parse
+	 * @param inStart index of first digit
+	 * @param inNumDigits number of digits
+	 * @return parsed value, or -1 if not all digits
+	 */
+	private static int parseDigits(String inValue, int inStart, int inNumDigits)
+	{
+		int value = 0;
+		for (int i=inStart; i<inStart+inNumDigits; i++)
+		{
+			final char c = inValue.charAt(i);
+			if (c < '0' || c > '9') {
+				return -1;
+			}
+			value = value * 10 + (c - '0');
+		}
+		return value;
+	}
+
+
 	/**
 	 * Try to parse the given string in the specified way
 	 * @param inString String to parse
@@ -205,11 +272,15 @@ public class TimestampUtc extends Timestamp
 	private boolean parseString(String inString, DateFormat inDateFormat)
 	{
 		ParsePosition pPos = new ParsePosition(0);
-		Date date = inDateFormat.parse(inString, pPos);
+		Date date = null;
+		// Formats are shared, so only one thread can use each one at a time
+		synchronized (inDateFormat)
+		{
+			date = inDateFormat.parse(inString, pPos);
+		}
 		if (date != null && inString.length() == pPos.getIndex()) // require use of _all_ the string, not just the beginning
 		{
-			CALENDAR.setTime(date);
-			_milliseconds = CALENDAR.getTimeInMillis();
+			_milliseconds = date.getTime();
 			return true;
 		}
 
@@ -2,6 +2,7 @@ package tim.prune.data;
 
 import java.util.List;
 
+import tim.prune.DataSubscriber;
 import tim.prune.UpdateMessageBroker;
 import tim.prune.function.edit.FieldEdit;
 import tim.prune.function.edit.FieldEditList;
@@ -20,6 +21,15 @@ public class Track
 	private double[] _xValues = null;
 	private double[] _yValues = null;
 	private boolean _scaled = false;
+	// Index of scaled values for finding nearest points, created when needed
+	private SpatialIndex _spatialIndex = null;
+	// Cumulative index for range statistics, created when needed
+	private RangeStatsIndex _rangeStatsIndex = null;
+	// Version number, increased whenever the points change
+	private int _version = 0;
+	// Speeds and gradients, and the version they were calculated for
+	private TrackSpeeds _speeds = null;
+	private int _speedsVersion = -1;
 	private int _numPoints = 0;
 	private boolean _hasTrackpoint = false;
 	private boolean _hasWaypoint = false;
@@ -42,6 +52,7 @@ public class Track
 		_numPoints = 0;
 		// needs to be scaled
 		_scaled = false;
+		invalidateDerivedValues(0);
 	}
 
 	/**
@@ -58,6 +69,25 @@ public class Track
 		_scaled = false;
 	}
 
+	/**
+	 * Load the valid points from the given columns
+	 * @param inColumns columns of loaded points
+	 */
+	public void load(PointColumns inColumns)
+	{
+		_masterFieldList = inColumns.getFieldList();
+		_dataPoints = inColumns.createPoints();
+		_numPoints = _dataPoints.length;
+		// Set first track point to be start of segment
+		DataPoint firstTrackPoint = getNextTrackPoint(0);
+		if (firstTrackPoint != null && !firstTrackPoint.getSegmentStart()) {
+			firstTrackPoint.setSegmentStart(true);
+		}
+		// needs to be scaled
+		_scaled = false;
+		invalidateDerivedValues(0);
+	}
+
 	/**
 	 * Load method, for initialising and reinitialising data
 	 * @param inFieldArray array of Field objects describing fields
@@ -101,6 +131,7 @@ public class Track
 		}
 		// needs to be scaled
 		_scaled = false;
+		invalidateDerivedValues(0);
 	}
 
 
@@ -115,6 +146,7 @@ public class Track
 		_dataPoints = inOther._dataPoints;
 		// needs to be scaled
 		_scaled = false;
+		invalidateDerivedValues(0);
 	}
 
 	/**
@@ -123,6 +155,7 @@ public class Track
 	public void requestRescale()
 	{
 		_scaled = false;
+		invalidateDerivedValues(0);
 	}
 
 	/**
@@ -155,8 +188,10 @@ public class Track
 		_numPoints = totalPoints;
 		// needs to be scaled again
 		_scaled = false;
+		final int firstNewIndex = totalPoints - inOtherTrack.getNumPoints();
+		invalidateDerivedValues(firstNewIndex);
 		// inform listeners
-		UpdateMessageBroker.informSubscribers();
+		UpdateMessageBroker.informSubscribers(DataSubscriber.ALL, firstNewIndex, totalPoints - 1);
 	}
 
 
@@ -171,6 +206,7 @@ public class Track
 			_numPoints = inNewSize;
 			// needs to be scaled again
 			_scaled = false;
+			invalidateDerivedValues(inNewSize);
 			UpdateMessageBroker.informSubscribers();
 		}
 	}
@@ -213,6 +249,7 @@ public class Track
 			System.arraycopy(newPointArray, 0, _dataPoints, 0, numCopied);
 			_numPoints = _dataPoints.length;
 			_scaled = false;
+			invalidateDerivedValues(0);
 		}
 		return numDeleted;
 	}
@@ -272,6 +309,7 @@ public class Track
 		_numPoints -= numToDelete;
 		// needs to be scaled again
 		_scaled = false;
+		invalidateDerivedValues(inStart);
 		return true;
 	}
 
@@ -307,7 +345,8 @@ public class Track
 		if (nextTrackPoint != null) {nextTrackPoint.setSegmentStart(true);}
 		// needs to be scaled again
 		_scaled = false;
-		UpdateMessageBroker.informSubscribers();
+		invalidateDerivedValues(inStart);
+		UpdateMessageBroker.informSubscribers(DataSubscriber.ALL, inStart, _numPoints - 1);
 		return true;
 	}
 
@@ -339,6 +378,7 @@ public class Track
 				p.setModified(inUndo);
 			}
 		}
+		invalidateDerivedValues(inStart);
 		return foundTimestamp;
 	}
 
@@ -373,6 +413,7 @@ public class Track
 		}
 		// needs to be scaled again
 		_scaled = false;
+		invalidateDerivedValues(inStart);
 		return foundAlt;
 	}
 
@@ -396,7 +437,7 @@ public class Track
 			{
 				waypoints[numWaypoints] = point;
 				pointIndices[numWaypoints] = getNearestPointIndex(
-					_xValues[i], _yValues[i], -1.0, true);
+					getX(i), getY(i), -1.0, true);
 				numWaypoints++;
 			}
 		}
@@ -430,6 +471,7 @@ public class Track
 		_dataPoints = dataCopy;
 		// needs to be scaled again to recalc x, y
 		_scaled = false;
+		invalidateDerivedValues(0);
 		UpdateMessageBroker.informSubscribers();
 		return true;
 	}
@@ -489,6 +531,7 @@ public class Track
 			// Copy array references
 			_dataPoints = newPointArray;
 			_scaled = false;
+			invalidateDerivedValues(Math.min(inSectionStart, inMoveTo));
 			return true;
 		}
 		return false;
@@ -578,6 +621,7 @@ public class Track
 	 */
 	public void appendPoints(DataPoint[] inPoints)
 	{
+		final int firstNewIndex = _numPoints;
 		// Insert points into track
 		if (inPoints != null && inPoints.length > 0)
 		{
@@ -585,7 +629,7 @@ public class Track
 		}
 		// needs to be scaled again to recalc x, y
 		_scaled = false;
-		UpdateMessageBroker.informSubscribers();
+		UpdateMessageBroker.informSubscribers(DataSubscriber.ALL, firstNewIndex, _numPoints - 1);
 	}
 
 
@@ -706,8 +750,8 @@ public class Track
 			if (_dataPoints[i].getFieldValue(inField) != null)
 			{
 				// Check altitudes and timestamps
-				if ((inField != Field.ALTITUDE || _dataPoints[i].getAltitude().isValid())
-					&& (inField != Field.TIMESTAMP || _dataPoints[i].getTimestamp().isValid()))
+				if ((inField != Field.ALTITUDE || _dataPoints[i].hasAltitude())
+					&& (inField != Field.TIMESTAMP || _dataPoints[i].hasTimestamp()))
 				{
 					return true;
 				}
@@ -836,8 +880,8 @@ public class Track
 			DataPoint point = getPoint(p);
 			if (point != null && point.isValid())
 			{
-				_longRange.addValue(point.getLongitude().getDouble());
-				_latRange.addValue(point.getLatitude().getDouble());
+				_longRange.addValue(point.getLongitudeValue());
+				_latRange.addValue(point.getLatitudeValue());
 				if (point.isWaypoint())
 					_hasWaypoint = true;
 				else
@@ -850,14 +894,15 @@ public class Track
 		_yValues = new double[getNumPoints()];
 		_xRange = new DoubleRange();
 		_yRange = new DoubleRange();
+		_spatialIndex = null;
 		for (p=0; p < getNumPoints(); p++)
 		{
 			DataPoint point = getPoint(p);
 			if (point != null)
 			{
-				_xValues[p] = MapUtils.getXFromLongitude(point.getLongitude().getDouble());
+				_xValues[p] = MapUtils.getXFromLongitude(point.getLongitudeValue());
 				_xRange.addValue(_xValues[p]);
-				_yValues[p] = MapUtils.getYFromLatitude(point.getLatitude().getDouble());
+				_yValues[p] = MapUtils.getYFromLatitude(point.getLatitudeValue());
 				_yRange.addValue(_yValues[p]);
 			}
 		}
@@ -876,42 +921,31 @@ public class Track
 	 */
 	public int getNearestPointIndex(double inX, double inY, double inMaxDist, boolean inJustTrackPoints)
 	{
-		int nearestPoint = 0;
-		double nearestDist = -1.0;
-		double mDist, yDist;
-		for (int i=0; i < getNumPoints(); i++)
-		{
-			if (!inJustTrackPoints || !_dataPoints[i].isWaypoint())
-			{
-				yDist = Math.abs(_yValues[i] - inY);
-				if (yDist < nearestDist || nearestDist < 0.0)
-				{
-					// y dist is within range, so check x too
-					mDist = yDist + getMinXDist(_xValues[i] - inX);
-					if (mDist < nearestDist || nearestDist < 0.0)
-					{
-						nearestPoint = i;
-						nearestDist = mDist;
-					}
-				}
-			}
-		}
-		// Check whether it's within required distance
-		if (nearestDist > inMaxDist && inMaxDist > 0.0)
-		{
-			return -1;
+		SpatialIndex index = getSpatialIndex();
+		int nearestPoint = index.findNearest(inX, inY, inMaxDist, inJustTrackPoints);
+		if (nearestPoint < 0 && inMaxDist <= 0.0) {
+			return 0; // no candidate points at all
 		}
 		return nearestPoint;
 	}
 
 	/**
-	 * @param inX x value of point
-	 * @return minimum wrapped value
+	 * @return spatial index of the scaled values, creating it if necessary
 	 */
-	private static final double getMinXDist(double inX)
+	private synchronized SpatialIndex getSpatialIndex()
 	{
-		// TODO: Should be abs(mod(inX-0.5,1)-0.5) - means two adds, one mod, one abs instead of two adds, 3 abss and two compares
-		return Math.min(Math.min(Math.abs(inX), Math.abs(inX-1.0)), Math.abs(inX+1.0));
+		if (!_scaled) {scalePoints();}
+		if (_spatialIndex == null)
+		{
+			// Waypoints can be skipped if just track points are wanted
+			boolean[] waypointFlags = new boolean[_numPoints];
+			for (int i=0; i<_numPoints; i++) {
+				waypointFlags[i] = _dataPoints[i].isWaypoint();
+			}
+			// x values wrap around at the date line
+			_spatialIndex = new SpatialIndex(_xValues, _yValues, null, waypointFlags, true);
+		}
+		return _spatialIndex;
 	}
 
 	/**
@@ -992,6 +1026,51 @@ public class Track
 				prevFlag = currFlag;
 			}
 		}
+		invalidateDerivedValues(inStartIndex);
+	}
+
+	/**
+	 * @return cumulative index for calculating range statistics
+	 */
+	public RangeStatsIndex getRangeStatsIndex()
+	{
+		if (_rangeStatsIndex == null) {
+			_rangeStatsIndex = new RangeStatsIndex(this);
+		}
+		return _rangeStatsIndex;
+	}
+
+	/**
+	 * @return speeds, vertical speeds and gradients for all points
+	 */
+	public TrackSpeeds getSpeeds()
+	{
+		if (_speeds == null || _speedsVersion != _version)
+		{
+			_speeds = new TrackSpeeds(this);
+			_speedsVersion = _version;
+		}
+		return _speeds;
+	}
+
+	/**
+	 * @return version number, which changes whenever the points change
+	 */
+	public int getVersion()
+	{
+		return _version;
+	}
+
+	/**
+	 * Invalidate the values derived from the points, from the given point onwards
+	 * @param inIndex index of first changed point
+	 */
+	public void invalidateDerivedValues(int inIndex)
+	{
+		_version++;
+		if (_rangeStatsIndex != null) {
+			_rangeStatsIndex.invalidateFrom(inIndex);
+		}
 	}
 
 	////////////////// Cloning and replacing ///////////////////
@@ -1058,7 +1137,8 @@ public class Track
 		_numPoints++;
 		// needs to be scaled again
 		_scaled = false;
-		UpdateMessageBroker.informSubscribers();
+		invalidateDerivedValues(inIndex);
+		UpdateMessageBroker.informSubscribers(DataSubscriber.ALL, inIndex, _numPoints - 1);
 		return true;
 	}
 
@@ -1091,7 +1171,8 @@ public class Track
 		_numPoints += inPoints.length;
 		// needs to be scaled again
 		_scaled = false;
-		UpdateMessageBroker.informSubscribers();
+		invalidateDerivedValues(inIndex);
+		UpdateMessageBroker.informSubscribers(DataSubscriber.ALL, inIndex, _numPoints - 1);
 		return true;
 	}
 
@@ -1109,6 +1190,7 @@ public class Track
 		_dataPoints = inContents;
 		_numPoints = _dataPoints.length;
 		_scaled = false;
+		invalidateDerivedValues(0);
 		UpdateMessageBroker.informSubscribers();
 		return true;
 	}
@@ -1149,8 +1231,10 @@ public class Track
 			}
 			// point possibly needs to be scaled again
 			_scaled = false;
+			final int pointIndex = getPointIndex(inPoint);
+			invalidateDerivedValues(pointIndex);
 			// trigger listeners
-			UpdateMessageBroker.informSubscribers();
+			UpdateMessageBroker.informSubscribers(DataSubscriber.ALL, pointIndex, pointIndex);
 			return true;
 		}
 		return false;
@@ -0,0 +1,315 @@
+package tim.prune.data;
+
+import java.util.Arrays;
+
+/**
+ * Speeds, vertical speeds and gradients for all the points of a track,
+ * calculated together in one pass and then kept until the track changes.
+ * The values are worked out in the same way as SpeedCalculator and
+ * GradientCalculator, but the timestamps, altitudes and distances are first
+ * copied into primitive arrays so that the time windows around each point
+ * don't have to go back to the point objects each time.
+ * Speeds are held in metres per second, and missing values are NaN.
+ */
+public class TrackSpeeds
+{
+	/** Number of points */
+	private int _numPoints = 0;
+	/** Horizontal speeds in metres per second */
+	private double[] _speeds = null;
+	/** Vertical speeds in metres per second */
+	private double[] _verticalSpeeds = null;
+	/** Gradients, either in radians or as a ratio of given speeds */
+	private double[] _gradients = null;
+
+	/** Value used for a missing timestamp */
+	private static final long NO_TIMESTAMP = Long.MIN_VALUE;
+	/** Flag for waypoints */
+	private static final byte FLAG_WAYPOINT = 1;
+	/** Flag for segment starts */
+	private static final byte FLAG_SEGMENT = 2;
+	/** Minimum time window in milliseconds */
+	private static final long MIN_TIME_DIFFERENCE_MS = 1000L;
+
+
+	/**
+	 * Constructor, calculating all the values
+	 * @param inTrack track object
+	 */
+	public TrackSpeeds(Track inTrack)
+	{
+		_numPoints = (inTrack == null ? 0 : inTrack.getNumPoints());
+		_speeds = new double[_numPoints];
+		_verticalSpeeds = new double[_numPoints];
+		_gradients = new double[_numPoints];
+		if (_numPoints > 0) {
+			calculate(inTrack);
+		}
+	}
+
+	/**
+	 * Calculate all the values for the given track
+	 * @param inTrack track object
+	 */
+	private void calculate(Track inTrack)
+	{
+		final int numPoints = _numPoints;
+		byte[] flags = new byte[numPoints];
+		long[] millis = new long[numPoints];
+		double[] altitudes = new double[numPoints];
+		// Distance in radians from the previous track point
+		double[] distances = new double[numPoints];
+		double[] givenSpeeds = null, givenVertSpeeds = null;
+		// Indexes of the previous and next track points
+		int[] prevTrackPoints = new int[numPoints];
+		int[] nextTrackPoints = new int[numPoints];
+
+		DataPoint prevPoint = null;
+		int prevIndex = -1;
+		for (int i=0; i<numPoints; i++)
+		{
+			DataPoint point = inTrack.getPoint(i);
+			if (point.isWaypoint()) {
+				flags[i] |= FLAG_WAYPOINT;
+			}
+			if (point.getSegmentStart()) {
+				flags[i] |= FLAG_SEGMENT;
+			}
+			millis[i] = point.hasTimestamp() ? point.getTimestamp().getMilliseconds(null) : NO_TIMESTAMP;
+			altitudes[i] = point.hasAltitude() ? point.getAltitude().getMetricValue() : Double.NaN;
+			if (point.hasHSpeed())
+			{
+				if (givenSpeeds == null) {givenSpeeds = makeNanArray(numPoints);}
+				givenSpeeds[i] = point.getHSpeed().getValueInMetresPerSec();
+			}
+			if (point.hasVSpeed())
+			{
+				if (givenVertSpeeds == null) {givenVertSpeeds = makeNanArray(numPoints);}
+				givenVertSpeeds[i] = point.getVSpeed().getValueInMetresPerSec();
+			}
+			prevTrackPoints[i] = prevIndex;
+			if (!point.isWaypoint())
+			{
+				if (prevPoint != null) {
+					distances[i] = DataPoint.calculateRadiansBetween(prevPoint, point);
+				}
+				prevPoint = point;
+				prevIndex = i;
+			}
+		}
+		int nextIndex = -1;
+		for (int i=numPoints-1; i>=0; i--)
+		{
+			nextTrackPoints[i] = nextIndex;
+			if ((flags[i] & FLAG_WAYPOINT) == 0) {
+				nextIndex = i;
+			}
+		}
+
+		for (int i=0; i<numPoints; i++)
+		{
+			_speeds[i] = calculateSpeed(i, flags, millis, distances, givenSpeeds);
+			_verticalSpeeds[i] = calculateVerticalSpeed(i, flags, millis, altitudes, givenVertSpeeds);
+			_gradients[i] = calculateGradient(i, flags, altitudes, distances,
+				prevTrackPoints[i], nextTrackPoints[i], givenSpeeds, givenVertSpeeds);
+		}
+	}
+
+	/**
+	 * @param inSize size of array
+	 * @return new array filled with NaN
+	 */
+	private static double[] makeNanArray(int inSize)
+	{
+		double[] values = new double[inSize];
+		Arrays.fill(values, Double.NaN);
+		return values;
+	}
+
+	/**
+	 * Check whether the window around the point is wide enough
+	 * @param inEarlyMillis earlier timestamp, or NO_TIMESTAMP
+	 * @param inLateMillis later timestamp, or NO_TIMESTAMP
+	 * @return true if we can stop looking now
+	 */
+	private static boolean hasSufficientTimeDifference(long inEarlyMillis, long inLateMillis)
+	{
+		return inEarlyMillis != NO_TIMESTAMP && inLateMillis != NO_TIMESTAMP
+			&& (inLateMillis - inEarlyMillis) >= MIN_TIME_DIFFERENCE_MS;
+	}
+
+	/**
+	 * Calculate the horizontal speed at the given index
+	 * @return speed in metres per second, or NaN
+	 */
+	private double calculateSpeed(int inIndex, byte[] inFlags, long[] inMillis,
+		double[] inDistances, double[] inGivenSpeeds)
+	{
+		if (inGivenSpeeds != null && !Double.isNaN(inGivenSpeeds[inIndex])) {
+			return inGivenSpeeds[inIndex];
+		}
+		final long pointMillis = inMillis[inIndex];
+		if (pointMillis == NO_TIMESTAMP || (inFlags[inIndex] & FLAG_WAYPOINT) != 0) {
+			return Double.NaN;
+		}
+		double totalRadians = 0.0;
+		long earlyMillis = pointMillis, lateMillis = pointMillis;
+		// Count backwards, adding the distance from each valid point to the next track point
+		if ((inFlags[inIndex] & FLAG_SEGMENT) == 0)
+		{
+			int q = inIndex;
+			for (int j=inIndex-1; j>=0; j--)
+			{
+				final boolean isWaypoint = (inFlags[j] & FLAG_WAYPOINT) != 0;
+				if (!isWaypoint && inMillis[j] != NO_TIMESTAMP && inMillis[j] < pointMillis)
+				{
+					totalRadians += inDistances[q];
+					earlyMillis = inMillis[j];
+				}
+				if ((inFlags[j] & FLAG_SEGMENT) != 0 || hasSufficientTimeDifference(inMillis[j], pointMillis)) {
+					break;
+				}
+				if (!isWaypoint) {
+					q = j;
+				}
+			}
+		}
+		// Count forwards, adding the distance to each valid point from the previous track point
+		for (int j=inIndex+1; j<_numPoints; j++)
+		{
+			final byte flags = inFlags[j];
+			if (flags == 0 && inMillis[j] != NO_TIMESTAMP && inMillis[j] >= pointMillis)
+			{
+				totalRadians += inDistances[j];
+				lateMillis = inMillis[j];
+			}
+			if ((flags & FLAG_SEGMENT) != 0 || hasSufficientTimeDifference(pointMillis, inMillis[j])) {
+				break;
+			}
+		}
+		final long milliseconds = lateMillis - earlyMillis;
+		if (milliseconds >= MIN_TIME_DIFFERENCE_MS)
+		{
+			return Distance.convertRadiansToDistance(totalRadians, UnitSetLibrary.UNITS_METRES)
+				/ milliseconds * 1000.0;
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Calculate the vertical speed at the given index
+	 * @return vertical speed in metres per second, or NaN
+	 */
+	private double calculateVerticalSpeed(int inIndex, byte[] inFlags, long[] inMillis,
+		double[] inAltitudes, double[] inGivenSpeeds)
+	{
+		if (inGivenSpeeds != null && !Double.isNaN(inGivenSpeeds[inIndex])) {
+			return inGivenSpeeds[inIndex];
+		}
+		final long pointMillis = inMillis[inIndex];
+		if (pointMillis == NO_TIMESTAMP || Double.isNaN(inAltitudes[inIndex])
+			|| (inFlags[inIndex] & FLAG_WAYPOINT) != 0)
+		{
+			return Double.NaN;
+		}
+		long earlyMillis = pointMillis, lateMillis = pointMillis;
+		double firstAltitude = inAltitudes[inIndex], lastAltitude = firstAltitude;
+		// Count backwards until timestamp earlier than now
+		if ((inFlags[inIndex] & FLAG_SEGMENT) == 0)
+		{
+			for (int j=inIndex-1; j>=0; j--)
+			{
+				if ((inFlags[j] & FLAG_WAYPOINT) == 0 && inMillis[j] != NO_TIMESTAMP && inMillis[j] < pointMillis)
+				{
+					earlyMillis = inMillis[j];
+					if (!Double.isNaN(inAltitudes[j])) {firstAltitude = inAltitudes[j];}
+				}
+				if ((inFlags[j] & FLAG_SEGMENT) != 0 || hasSufficientTimeDifference(inMillis[j], pointMillis)) {
+					break;
+				}
+			}
+		}
+		// Count forwards until timestamp later than now
+		for (int j=inIndex+1; j<_numPoints; j++)
+		{
+			final byte flags = inFlags[j];
+			if (flags == 0 && inMillis[j] != NO_TIMESTAMP && inMillis[j] >= pointMillis)
+			{
+				lateMillis = inMillis[j];
+				if (!Double.isNaN(inAltitudes[j])) {lastAltitude = inAltitudes[j];}
+			}
+			if ((flags & FLAG_SEGMENT) != 0 || hasSufficientTimeDifference(pointMillis, inMillis[j])) {
+				break;
+			}
+		}
+		final long milliseconds = lateMillis - earlyMillis;
+		if (milliseconds >= MIN_TIME_DIFFERENCE_MS) {
+			return (lastAltitude - firstAltitude) / milliseconds * 1000.0;
+		}
+		return Double.NaN;
+	}
+
+	/**
+	 * Calculate the gradient at the given index
+	 * @return gradient value, or NaN
+	 */
+	private static double calculateGradient(int inIndex, byte[] inFlags, double[] inAltitudes,
+		double[] inDistances, int inPrevIndex, int inNextIndex, double[] inGivenSpeeds, double[] inGivenVertSpeeds)
+	{
+		if (Double.isNaN(inAltitudes[inIndex]) || (inFlags[inIndex] & FLAG_WAYPOINT) != 0) {
+			return Double.NaN;
+		}
+		// If the point has horizontal and vertical speeds already then just use those
+		if (inGivenSpeeds != null && inGivenVertSpeeds != null
+			&& !Double.isNaN(inGivenSpeeds[inIndex]) && !Double.isNaN(inGivenVertSpeeds[inIndex]))
+		{
+			return inGivenVertSpeeds[inIndex] / inGivenSpeeds[inIndex];
+		}
+		if ((inFlags[inIndex] & FLAG_SEGMENT) != 0 || inPrevIndex < 0 || inNextIndex < 0
+			|| (inFlags[inNextIndex] & FLAG_SEGMENT) != 0
+			|| Double.isNaN(inAltitudes[inPrevIndex]) || Double.isNaN(inAltitudes[inNextIndex]))
+		{
+			return Double.NaN;
+		}
+		// Use the previous track point and the next track point
+		final double horizDist = Distance.convertRadiansToDistance(inDistances[inIndex] + inDistances[inNextIndex],
+			UnitSetLibrary.UNITS_METRES);
+		final double heightDiff = inAltitudes[inNextIndex] - inAltitudes[inPrevIndex];
+		return Math.atan2(heightDiff, horizDist);
+	}
+
+	/**
+	 * @return number of points
+	 */
+	public int getNumPoints()
+	{
+		return _numPoints;
+	}
+
+	/**
+	 * @param inIndex point index
+	 * @return horizontal speed in metres per second, or NaN if not available
+	 */
+	public double getSpeed(int inIndex)
+	{
+		return _speeds[inIndex];
+	}
+
+	/**
+	 * @param inIndex point index
+	 * @return vertical speed in metres per second, or NaN if not available
+	 */
+	public double getVerticalSpeed(int inIndex)
+	{
+		return _verticalSpeeds[inIndex];
+	}
+
+	/**
+	 * @param inIndex point index
+	 * @return gradient, or NaN if not available
+	 */
+	public double getGradient(int inIndex)
+	{
+		return _gradients[inIndex];
+	}
+}
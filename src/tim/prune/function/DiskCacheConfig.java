@@ -27,6 +27,7 @@ import tim.prune.I18nManager;
 import tim.prune.UpdateMessageBroker;
 import tim.prune.config.Config;
 import tim.prune.function.cache.ManageCacheFunction;
+import tim.prune.gui.map.PackedTileStore;
 
 /**
  * Class to show the popup window for setting the path to disk cache
@@ -35,6 +36,7 @@ public class DiskCacheConfig extends GenericFunction
 {
 	private JDialog _dialog = null;
 	private JCheckBox _cacheCheckbox = null;
+	private JCheckBox _packedCheckbox = null;
 	private JTextField _cacheDirBox = null;
 	private JButton _browseButton = null;
 	private JButton _okButton = null, _manageButton = null;
@@ -101,6 +103,13 @@ public class DiskCacheConfig extends GenericFunction
 		JPanel dirHolderPanel = new JPanel();
 		dirHolderPanel.setLayout(new BorderLayout());
 		dirHolderPanel.add(dirPanel, BorderLayout.NORTH);
+		_packedCheckbox = new JCheckBox(I18nManager.getText("dialog.diskcache.usepacked"));
+		_packedCheckbox.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				enableButtons();
+			}
+		});
+		dirHolderPanel.add(_packedCheckbox, BorderLayout.SOUTH);
 		dialogPanel.add(dirHolderPanel, BorderLayout.CENTER);
 
 		// OK, Cancel buttons at the bottom right
@@ -154,6 +163,7 @@ public class DiskCacheConfig extends GenericFunction
 		final String path = _cacheDirBox.getText();
 		_cacheDirBox.setEditable(checkState);
 		_browseButton.setEnabled(checkState);
+		_packedCheckbox.setEnabled(checkState);
 		boolean ok = false;
 		// If checkbox has stayed off then disable ok
 		if (!_initialCheckState && !checkState) {ok = false;}
@@ -199,6 +209,7 @@ public class DiskCacheConfig extends GenericFunction
 		String currPath = Config.getConfigString(Config.KEY_DISK_CACHE);
 		_cacheCheckbox.setSelected(currPath != null);
 		_cacheDirBox.setText(currPath==null?"":currPath);
+		_packedCheckbox.setSelected(Config.getConfigBoolean(Config.KEY_DISK_CACHE_PACKED));
 		enableButtons();
 		// Remember current state
 		_initialCheckState = _cacheCheckbox.isSelected();
@@ -248,6 +259,9 @@ public class DiskCacheConfig extends GenericFunction
 			}
 		}
 		Config.setConfigString(Config.KEY_DISK_CACHE, cachePath);
+		Config.setConfigBoolean(Config.KEY_DISK_CACHE_PACKED, _packedCheckbox.isSelected());
+		// Save the indexes of any packed files before the layout or path changes
+		PackedTileStore.closeAll();
 		// inform subscribers so that tiles are wiped from memory and refetched
 		UpdateMessageBroker.informSubscribers(DataSubscriber.MAPSERVER_CHANGED);
 	}
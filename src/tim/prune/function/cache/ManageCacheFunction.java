@@ -10,6 +10,7 @@ import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.File;
+import java.util.ArrayList;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -35,6 +36,8 @@ import tim.prune.GenericFunction;
 import tim.prune.I18nManager;
 import tim.prune.config.Config;
 import tim.prune.gui.WholeNumberField;
+import tim.prune.gui.map.PackedTileFile;
+import tim.prune.gui.map.PackedTileStore;
 
 /**
  * Function class to manage the tile cache on local disk
@@ -48,7 +51,7 @@ public class ManageCacheFunction extends GenericFunction implements Runnable
 	private File _cacheDir = null;
 	private TileCacheModel _model = null;
 	private JTable _setsTable = null;
-	private JButton _deleteSetButton = null;
+	private JButton _deleteSetButton = null, _packSetButton = null;
 	private JLabel _tileSetLabel = null, _zoomLabel = null;
 	private JLabel _ageLabel = null;
 	private JRadioButton _deleteAllRadio = null;
@@ -161,6 +164,7 @@ public class ManageCacheFunction extends GenericFunction implements Runnable
 				public void valueChanged(ListSelectionEvent e) {
 					ListSelectionModel lsm = (ListSelectionModel) e.getSource();
 					_deleteSetButton.setEnabled(!lsm.isSelectionEmpty());
+					_packSetButton.setEnabled(!lsm.isSelectionEmpty());
 				}
 			});
 
@@ -176,6 +180,13 @@ public class ManageCacheFunction extends GenericFunction implements Runnable
 			}
 		});
 		leftPanel.add(_deleteSetButton);
+		_packSetButton = new JButton(I18nManager.getText("button.pack"));
+		_packSetButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent arg0) {
+				packCurrentSets();
+			}
+		});
+		leftPanel.add(_packSetButton);
 		// right group
 		JPanel rightPanel = new JPanel();
 		rightPanel.setLayout(new FlowLayout(FlowLayout.RIGHT));
@@ -289,6 +300,7 @@ public class ManageCacheFunction extends GenericFunction implements Runnable
 		// Set controls according to current config
 		_setsTable.setModel(new TileSetTableModel(_model));
 		_deleteSetButton.setEnabled(false);
+		_packSetButton.setEnabled(false);
 		// Set column widths after model has been set
 		_setsTable.getColumnModel().getColumn(0).setPreferredWidth(220);
 		_setsTable.getColumnModel().getColumn(1).setPreferredWidth(200);
@@ -378,6 +390,60 @@ public class ManageCacheFunction extends GenericFunction implements Runnable
 	}
 
 
+	/**
+	 * Move the tiles of the currently selected tilesets into packed files,
+	 * one for each zoom level, in a separate thread
+	 */
+	private void packCurrentSets()
+	{
+		final ArrayList<File> dirs = new ArrayList<File>();
+		for (int i=0; i<_setsTable.getRowCount(); i++)
+		{
+			if (_setsTable.isRowSelected(i)) {
+				dirs.add(new File(_model.getCacheDir(), _model.getTileSet(i).getPath()));
+			}
+		}
+		// Show the progress bar while the tiles are moved
+		_cards.first(_cardPanel);
+		new Thread(new Runnable() {
+			public void run()
+			{
+				int totalPacked = 0;
+				for (File dir : dirs) {
+					totalPacked += packTiles(dir);
+				}
+				JOptionPane.showMessageDialog(_dialog,
+					I18nManager.getTextWithNumber("dialog.diskcache.packedtiles", totalPacked),
+					I18nManager.getText(getNameKey()), JOptionPane.INFORMATION_MESSAGE);
+				// reload model
+				ManageCacheFunction.this.run();
+			}
+		}).start();
+	}
+
+	/**
+	 * Move the tiles from each zoom directory of a tileset into a packed file
+	 * @param inDir directory of tileset
+	 * @return number of tiles moved
+	 */
+	private static int packTiles(File inDir)
+	{
+		int numPacked = 0;
+		File[] subdirs = inDir.listFiles();
+		if (subdirs != null)
+		{
+			for (File subdir : subdirs)
+			{
+				if (subdir.isDirectory() && TileSet.isNumeric(subdir.getName()))
+				{
+					File packFile = new File(inDir, subdir.getName() + "." + PackedTileFile.FILE_EXTENSION);
+					numPacked += PackedTileStore.importDirectory(subdir, packFile);
+				}
+			}
+		}
+		return numPacked;
+	}
+
 	/**
 	 * Delete recursively all files which are older than the age limit
 	 * @param inDir directory to delete from
@@ -395,6 +461,12 @@ public class ManageCacheFunction extends GenericFunction implements Runnable
 				if (subdir.isDirectory()) {
 					numDeleted += deleteFilesFrom(subdir, inMaxDays);
 				}
+				else if (subdir.isFile() && TileSet.getPackedZoom(subdir) >= 0)
+				{
+					// Remove the old tiles from inside the packed file
+					final long minTime = (inMaxDays < 0 ? 0L : now - (inMaxDays + 1) * 24L * 60 * 60 * 1000);
+					numDeleted += PackedTileStore.removeTiles(subdir, minTime);
+				}
 				else if (subdir.isFile() && subdir.exists() && _TILEFILTER.accept(subdir))
 				{
 					long fileAge = (now - subdir.lastModified()) / 1000 / 60 / 60 / 24;
@@ -0,0 +1,313 @@
+package tim.prune.function.cache;
+
+import java.awt.BorderLayout;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+import java.awt.event.ActionEvent;
+import java.awt.event.ActionListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+
+import javax.swing.BorderFactory;
+import javax.swing.BoxLayout;
+import javax.swing.ButtonGroup;
+import javax.swing.JButton;
+import javax.swing.JDialog;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JProgressBar;
+import javax.swing.JRadioButton;
+import javax.swing.SwingUtilities;
+
+import tim.prune.App;
+import tim.prune.GenericFunction;
+import tim.prune.I18nManager;
+import tim.prune.config.Config;
+import tim.prune.data.Track;
+import tim.prune.gui.WholeNumberField;
+import tim.prune.gui.map.DiskTileCacher;
+import tim.prune.gui.map.MapSource;
+import tim.prune.gui.map.MapSourceLibrary;
+import tim.prune.gui.map.PackedTileStore;
+
+/**
+ * Function to download all the map tiles around the current track
+ * into the disk cache, so that the map can be used offline
+ */
+public class PrefetchTilesFunction extends GenericFunction implements Runnable
+{
+	private JDialog _dialog = null;
+	private JRadioButton _boxRadio = null, _corridorRadio = null;
+	private WholeNumberField _distanceField = null;
+	private WholeNumberField _minZoomField = null, _maxZoomField = null;
+	private JLabel _estimateLabel = null;
+	private JProgressBar _progressBar = null;
+	private JButton _startButton = null;
+	/** Current map source */
+	private MapSource _mapSource = null;
+	/** Area to fetch */
+	private TileArea _area = null;
+	/** Number of tiles to fetch */
+	private long _numTiles = 0L;
+	/** Zoom range to fetch, taken from the fields when the fetch starts */
+	private int _fetchMinZoom = 0, _fetchMaxZoom = 0;
+	/** Prefetcher while running, otherwise null */
+	private volatile TilePrefetcher _prefetcher = null;
+
+	/** Number of threads to fetch with, as allowed by the usage policies of the tile servers */
+	private static final int NUM_THREADS = 2;
+	/** Maximum number of requests per second */
+	private static final double MAX_REQUESTS_PER_SECOND = 5.0;
+	/** Maximum number of tiles to fetch at once */
+	private static final long MAX_NUM_TILES = 50000L;
+
+
+	/**
+	 * Constructor
+	 * @param inApp App object
+	 */
+	public PrefetchTilesFunction(App inApp) {
+		super(inApp);
+	}
+
+	/** @return name key */
+	public String getNameKey() {
+		return "function.prefetchtiles";
+	}
+
+	/**
+	 * Begin the function
+	 */
+	public void begin()
+	{
+		final String cachePath = Config.getConfigString(Config.KEY_DISK_CACHE);
+		if (cachePath == null || cachePath.equals(""))
+		{
+			_app.showErrorMessage(getNameKey(), "error.cache.notthere");
+			return;
+		}
+		if (!Config.getConfigBoolean(Config.KEY_ONLINE_MODE))
+		{
+			_app.showErrorMessage(getNameKey(), "error.prefetchtiles.offline");
+			return;
+		}
+		_mapSource = MapSourceLibrary.getSource(Config.getConfigInt(Config.KEY_MAPSOURCE_INDEX));
+		if (_mapSource == null) {
+			return;
+		}
+		if (_dialog == null)
+		{
+			_dialog = new JDialog(_parentFrame, I18nManager.getText(getNameKey()), true);
+			_dialog.setLocationRelativeTo(_parentFrame);
+			_dialog.setDefaultCloseOperation(JDialog.DISPOSE_ON_CLOSE);
+			_dialog.addWindowListener(new WindowAdapter() {
+				public void windowClosing(WindowEvent e) {
+					cancelFetch();
+				}
+			});
+			_dialog.getContentPane().add(makeDialogComponents());
+			_dialog.pack();
+		}
+		final int maxZoom = _mapSource.getMaxZoomLevel();
+		if (_maxZoomField.getValue() == 0 || _maxZoomField.getValue() > maxZoom)
+		{
+			_minZoomField.setValue(Math.min(10, maxZoom));
+			_maxZoomField.setValue(Math.min(16, maxZoom));
+		}
+		_progressBar.setVisible(false);
+		setInputsEnabled(true);
+		updateEstimate();
+		_dialog.setVisible(true);
+	}
+
+	/**
+	 * Create dialog components
+	 * @return Panel containing all gui elements in dialog
+	 */
+	private JPanel makeDialogComponents()
+	{
+		JPanel dialogPanel = new JPanel();
+		dialogPanel.setLayout(new BorderLayout(0, 10));
+		dialogPanel.add(new JLabel(I18nManager.getText("dialog.prefetchtiles.desc")), BorderLayout.NORTH);
+
+		ActionListener changeListener = new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				updateEstimate();
+			}
+		};
+		JPanel mainPanel = new JPanel();
+		mainPanel.setLayout(new BoxLayout(mainPanel, BoxLayout.Y_AXIS));
+		JPanel radioPanel = new JPanel();
+		radioPanel.setLayout(new FlowLayout(FlowLayout.LEFT));
+		_boxRadio = new JRadioButton(I18nManager.getText("dialog.prefetchtiles.box"), true);
+		_corridorRadio = new JRadioButton(I18nManager.getText("dialog.prefetchtiles.corridor"));
+		ButtonGroup radioGroup = new ButtonGroup();
+		radioGroup.add(_boxRadio);
+		radioGroup.add(_corridorRadio);
+		_boxRadio.addActionListener(changeListener);
+		_corridorRadio.addActionListener(changeListener);
+		radioPanel.add(_boxRadio);
+		radioPanel.add(_corridorRadio);
+		mainPanel.add(radioPanel);
+
+		JPanel gridPanel = new JPanel();
+		gridPanel.setLayout(new GridLayout(3, 2, 10, 2));
+		gridPanel.add(new JLabel(I18nManager.getText("dialog.prefetchtiles.distance")));
+		_distanceField = new WholeNumberField(3);
+		_distanceField.setValue(2);
+		_distanceField.addActionListener(changeListener);
+		gridPanel.add(_distanceField);
+		gridPanel.add(new JLabel(I18nManager.getText("dialog.prefetchtiles.minzoom")));
+		_minZoomField = new WholeNumberField(2);
+		_minZoomField.addActionListener(changeListener);
+		gridPanel.add(_minZoomField);
+		gridPanel.add(new JLabel(I18nManager.getText("dialog.prefetchtiles.maxzoom")));
+		_maxZoomField = new WholeNumberField(2);
+		_maxZoomField.addActionListener(changeListener);
+		gridPanel.add(_maxZoomField);
+		mainPanel.add(gridPanel);
+
+		JPanel estimatePanel = new JPanel();
+		estimatePanel.setLayout(new FlowLayout(FlowLayout.LEFT));
+		_estimateLabel = new JLabel(" ");
+		estimatePanel.add(_estimateLabel);
+		mainPanel.add(estimatePanel);
+		_progressBar = new JProgressBar();
+		mainPanel.add(_progressBar);
+		dialogPanel.add(mainPanel, BorderLayout.CENTER);
+
+		// button panel at bottom
+		JPanel buttonPanel = new JPanel();
+		buttonPanel.setLayout(new FlowLayout(FlowLayout.RIGHT));
+		_startButton = new JButton(I18nManager.getText("button.ok"));
+		_startButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				startFetch();
+			}
+		});
+		buttonPanel.add(_startButton);
+		JButton cancelButton = new JButton(I18nManager.getText("button.cancel"));
+		cancelButton.addActionListener(new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				cancelFetch();
+				_dialog.dispose();
+			}
+		});
+		buttonPanel.add(cancelButton);
+		dialogPanel.add(buttonPanel, BorderLayout.SOUTH);
+		dialogPanel.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 15));
+		return dialogPanel;
+	}
+
+	/**
+	 * Enable or disable the options, so they can't be changed during the fetch
+	 * @param inEnabled true to enable
+	 */
+	private void setInputsEnabled(boolean inEnabled)
+	{
+		_boxRadio.setEnabled(inEnabled);
+		_corridorRadio.setEnabled(inEnabled);
+		_distanceField.setEnabled(inEnabled);
+		_minZoomField.setEnabled(inEnabled);
+		_maxZoomField.setEnabled(inEnabled);
+		_startButton.setEnabled(inEnabled);
+	}
+
+	/**
+	 * Recalculate the area and the estimated number of tiles after the options changed
+	 */
+	private void updateEstimate()
+	{
+		if (_prefetcher != null) {
+			return;
+		}
+		final Track track = _app.getTrackInfo().getTrack();
+		final double distanceMetres = _distanceField.getValue() * 1000.0;
+		_area = (_corridorRadio.isSelected() ? TileArea.forCorridor(track, distanceMetres)
+			: TileArea.forTrackBox(track, distanceMetres));
+		final int minZoom = _minZoomField.getValue();
+		final int maxZoom = Math.min(_maxZoomField.getValue(), _mapSource.getMaxZoomLevel());
+		_numTiles = 0L;
+		if (_area != null && minZoom <= maxZoom) {
+			_numTiles = _area.countTiles(minZoom, maxZoom) * _mapSource.getNumLayers();
+		}
+		final long numMegabytes = (_numTiles * TilePrefetcher.AVERAGE_TILE_BYTES + 512 * 1024) / (1024 * 1024);
+		if (_numTiles > MAX_NUM_TILES) {
+			_estimateLabel.setText(String.format(I18nManager.getText("dialog.prefetchtiles.toomany"), _numTiles, MAX_NUM_TILES));
+		}
+		else {
+			_estimateLabel.setText(String.format(I18nManager.getText("dialog.prefetchtiles.estimate"), _numTiles, numMegabytes));
+		}
+		_startButton.setEnabled(_numTiles > 0L && _numTiles <= MAX_NUM_TILES);
+	}
+
+	/**
+	 * Start the fetch in a separate thread
+	 */
+	private void startFetch()
+	{
+		if (!_startButton.isEnabled()) {return;}
+		File cacheDir = new File(Config.getConfigString(Config.KEY_DISK_CACHE));
+		if (!cacheDir.isDirectory() && !cacheDir.mkdirs())
+		{
+			_app.showErrorMessage(getNameKey(), "error.cache.notthere");
+			return;
+		}
+		final String basePath = cacheDir.getAbsolutePath();
+		_prefetcher = new TilePrefetcher(_mapSource, basePath, DiskTileCacher.getStore(basePath),
+			NUM_THREADS, MAX_REQUESTS_PER_SECOND);
+		_fetchMinZoom = _minZoomField.getValue();
+		_fetchMaxZoom = _maxZoomField.getValue();
+		setInputsEnabled(false);
+		_progressBar.setMinimum(0);
+		_progressBar.setMaximum((int) _numTiles);
+		_progressBar.setValue(0);
+		_progressBar.setVisible(true);
+		new Thread(this).start();
+	}
+
+	/**
+	 * Cancel the fetch if it's running, keeping the tiles fetched so far
+	 */
+	private void cancelFetch()
+	{
+		TilePrefetcher prefetcher = _prefetcher;
+		if (prefetcher != null) {
+			prefetcher.cancel();
+		}
+	}
+
+	/**
+	 * Run the fetch - launched to run in another thread
+	 */
+	public void run()
+	{
+		final boolean completed = _prefetcher.fetch(_area, _fetchMinZoom, _fetchMaxZoom, new TilePrefetcher.Listener() {
+			public void prefetchProgress(final long inNumHandled, long inTotal)
+			{
+				SwingUtilities.invokeLater(new Runnable() {
+					public void run() {
+						_progressBar.setValue((int) inNumHandled);
+					}
+				});
+			}
+		});
+		if (Config.getConfigBoolean(Config.KEY_DISK_CACHE_PACKED)) {
+			PackedTileStore.closeAll(); // save the indexes
+		}
+		final String messageKey = (completed ? "dialog.prefetchtiles.done" : "dialog.prefetchtiles.cancelled");
+		final String message = String.format(I18nManager.getText(messageKey),
+			_prefetcher.getNumDownloaded(), _prefetcher.getNumSkipped(), _prefetcher.getNumFailed());
+		_prefetcher = null;
+		SwingUtilities.invokeLater(new Runnable() {
+			public void run()
+			{
+				_dialog.dispose();
+				JOptionPane.showMessageDialog(_parentFrame, message,
+					I18nManager.getText(getNameKey()), JOptionPane.INFORMATION_MESSAGE);
+			}
+		});
+	}
+}
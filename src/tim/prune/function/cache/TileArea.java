@@ -0,0 +1,230 @@
+package tim.prune.function.cache;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.TreeMap;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Track;
+import tim.prune.gui.map.MapUtils;
+
+/**
+ * Class to describe an area of the map for which tiles should be fetched,
+ * either a simple rectangle or a corridor around a track.
+ * The area is held as a list of rectangles in scaled map coordinates,
+ * which are converted to rows of tile index ranges for each zoom level.
+ */
+public class TileArea
+{
+	/** Rectangles as min x, max x, min y, max y, each from 0 to 1 */
+	private final ArrayList<double[]> _rectangles = new ArrayList<double[]>();
+
+	/** Circumference of the earth at the equator in metres */
+	private static final double EARTH_CIRCUMFERENCE = 40075016.686;
+
+
+	/**
+	 * Make an area covering the given range of latitudes and longitudes
+	 * @param inMinLat minimum latitude
+	 * @param inMaxLat maximum latitude
+	 * @param inMinLon minimum longitude
+	 * @param inMaxLon maximum longitude
+	 * @return area
+	 */
+	public static TileArea forBox(double inMinLat, double inMaxLat, double inMinLon, double inMaxLon)
+	{
+		TileArea area = new TileArea();
+		area.addRectangle(MapUtils.getXFromLongitude(inMinLon), MapUtils.getXFromLongitude(inMaxLon),
+			MapUtils.getYFromLatitude(inMaxLat), MapUtils.getYFromLatitude(inMinLat));
+		return area;
+	}
+
+	/**
+	 * Make an area covering the bounding box of the track, extended by the given distance
+	 * @param inTrack track
+	 * @param inDistanceMetres distance around the track in metres
+	 * @return area, or null if the track is empty
+	 */
+	public static TileArea forTrackBox(Track inTrack, double inDistanceMetres)
+	{
+		if (inTrack == null || inTrack.getNumPoints() == 0) {
+			return null;
+		}
+		final double maxAbsLat = Math.max(Math.abs(inTrack.getLatRange().getMinimum()),
+			Math.abs(inTrack.getLatRange().getMaximum()));
+		final double buffer = getScaledDistance(inDistanceMetres, maxAbsLat);
+		TileArea area = new TileArea();
+		area.addRectangle(inTrack.getXRange().getMinimum() - buffer, inTrack.getXRange().getMaximum() + buffer,
+			inTrack.getYRange().getMinimum() - buffer, inTrack.getYRange().getMaximum() + buffer);
+		return area;
+	}
+
+	/**
+	 * Make an area covering a corridor of the given distance either side of the track
+	 * @param inTrack track
+	 * @param inDistanceMetres distance from the track in metres
+	 * @return area, or null if the track is empty
+	 */
+	public static TileArea forCorridor(Track inTrack, double inDistanceMetres)
+	{
+		if (inTrack == null || inTrack.getNumPoints() == 0) {
+			return null;
+		}
+		TileArea area = new TileArea();
+		final double distance = Math.max(inDistanceMetres, 1.0);
+		int prevIndex = -1;
+		for (int i=0; i<inTrack.getNumPoints(); i++)
+		{
+			DataPoint point = inTrack.getPoint(i);
+			final double x = inTrack.getX(i), y = inTrack.getY(i);
+			final double buffer = getScaledDistance(distance, Math.abs(point.getLatitude().getDouble()));
+			if (point.isWaypoint() || prevIndex < 0 || point.getSegmentStart())
+			{
+				// Waypoints and segment starts aren't joined to the previous point
+				area.addRectangle(x - buffer, x + buffer, y - buffer, y + buffer);
+			}
+			else
+			{
+				// Split long lines into pieces no longer than the buffer, so that the rectangles follow the line
+				final double prevX = inTrack.getX(prevIndex), prevY = inTrack.getY(prevIndex);
+				final double length = Math.max(Math.abs(x - prevX), Math.abs(y - prevY));
+				final int numPieces = Math.max(1, (int) Math.ceil(length / buffer));
+				for (int p=0; p<numPieces; p++)
+				{
+					final double x1 = prevX + (x - prevX) * p / numPieces, x2 = prevX + (x - prevX) * (p + 1) / numPieces;
+					final double y1 = prevY + (y - prevY) * p / numPieces, y2 = prevY + (y - prevY) * (p + 1) / numPieces;
+					area.addRectangle(Math.min(x1, x2) - buffer, Math.max(x1, x2) + buffer,
+						Math.min(y1, y2) - buffer, Math.max(y1, y2) + buffer);
+				}
+			}
+			if (!point.isWaypoint()) {
+				prevIndex = i;
+			}
+		}
+		return area;
+	}
+
+	/**
+	 * @param inMetres distance on the ground in metres
+	 * @param inAbsLatitude absolute latitude in degrees
+	 * @return distance in scaled map coordinates
+	 */
+	private static double getScaledDistance(double inMetres, double inAbsLatitude)
+	{
+		final double latitude = Math.min(inAbsLatitude, 85.0);
+		return inMetres / (EARTH_CIRCUMFERENCE * Math.cos(Math.toRadians(latitude)));
+	}
+
+	/**
+	 * Add a rectangle to the area, clipped to the map
+	 */
+	private void addRectangle(double inMinX, double inMaxX, double inMinY, double inMaxY)
+	{
+		_rectangles.add(new double[] {clip(inMinX), clip(inMaxX), clip(inMinY), clip(inMaxY)});
+	}
+
+	/** @return value limited to the range 0 to 1 */
+	private static double clip(double inValue)
+	{
+		return Math.max(0.0, Math.min(1.0, inValue));
+	}
+
+	/**
+	 * Get the tiles covering the area at the given zoom level
+	 * @param inZoom zoom level
+	 * @return map from y index to sorted, non-overlapping ranges of x indices as {first, last}
+	 */
+	public TreeMap<Integer, int[][]> getTileRows(int inZoom)
+	{
+		final int numTiles = 1 << inZoom;
+		TreeMap<Integer, ArrayList<int[]>> rows = new TreeMap<Integer, ArrayList<int[]>>();
+		for (double[] rect : _rectangles)
+		{
+			final int minX = getTileIndex(rect[0], numTiles), maxX = getTileIndex(rect[1], numTiles);
+			final int minY = getTileIndex(rect[2], numTiles), maxY = getTileIndex(rect[3], numTiles);
+			for (int y=minY; y<=maxY; y++)
+			{
+				ArrayList<int[]> ranges = rows.get(y);
+				if (ranges == null)
+				{
+					ranges = new ArrayList<int[]>();
+					rows.put(y, ranges);
+				}
+				ranges.add(new int[] {minX, maxX});
+			}
+		}
+		// Merge the overlapping ranges in each row
+		TreeMap<Integer, int[][]> result = new TreeMap<Integer, int[][]>();
+		for (Map.Entry<Integer, ArrayList<int[]>> row : rows.entrySet()) {
+			result.put(row.getKey(), mergeRanges(row.getValue()));
+		}
+		return result;
+	}
+
+	/**
+	 * @param inValue scaled coordinate from 0 to 1
+	 * @param inNumTiles number of tiles in each direction
+	 * @return tile index
+	 */
+	private static int getTileIndex(double inValue, int inNumTiles)
+	{
+		return Math.min(inNumTiles - 1, (int) (inValue * inNumTiles));
+	}
+
+	/**
+	 * @param inRanges list of ranges of x indices
+	 * @return sorted ranges with the overlapping and adjacent ones joined together
+	 */
+	private static int[][] mergeRanges(ArrayList<int[]> inRanges)
+	{
+		int[][] ranges = inRanges.toArray(new int[inRanges.size()][]);
+		Arrays.sort(ranges, new Comparator<int[]>() {
+			public int compare(int[] inFirst, int[] inSecond) {
+				return Integer.compare(inFirst[0], inSecond[0]);
+			}
+		});
+		int numMerged = 0;
+		for (int[] range : ranges)
+		{
+			if (numMerged > 0 && range[0] <= ranges[numMerged-1][1] + 1) {
+				ranges[numMerged-1] = new int[] {ranges[numMerged-1][0], Math.max(ranges[numMerged-1][1], range[1])};
+			}
+			else {
+				ranges[numMerged++] = range;
+			}
+		}
+		return Arrays.copyOf(ranges, numMerged);
+	}
+
+	/**
+	 * @param inZoom zoom level
+	 * @return number of tiles covering the area at this zoom level
+	 */
+	public long countTiles(int inZoom)
+	{
+		long numTiles = 0L;
+		for (int[][] ranges : getTileRows(inZoom).values())
+		{
+			for (int[] range : ranges) {
+				numTiles += range[1] - range[0] + 1;
+			}
+		}
+		return numTiles;
+	}
+
+	/**
+	 * @param inMinZoom minimum zoom level
+	 * @param inMaxZoom maximum zoom level
+	 * @return number of tiles covering the area over the range of zoom levels
+	 */
+	public long countTiles(int inMinZoom, int inMaxZoom)
+	{
+		long numTiles = 0L;
+		for (int z=inMinZoom; z<=inMaxZoom; z++) {
+			numTiles += countTiles(z);
+		}
+		return numTiles;
+	}
+}
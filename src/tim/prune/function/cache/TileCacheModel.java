@@ -130,7 +130,7 @@ public class TileCacheModel
 
 	/**
 	 * @param inDir directory to test
-	 * @return true if the subdirectories meet the normal osm layout
+	 * @return true if the subdirectories meet the normal osm layout, or it holds packed tiles
 	 */
 	private static boolean looksLikeCacheDir(File inDir)
 	{
@@ -149,7 +149,13 @@ public class TileCacheModel
 					{
 						numFound = true;
 					}
-					else return false; // either a file or non-numeric directory
+					// or there may be packed files for the zoom levels
+					else if (subdir.isFile() && TileSet.getPackedZoom(subdir) >= 0) {
+						numFound = true;
+					}
+					else if (!subdir.isFile() || !TileSet.isPackedIndex(subdir)) {
+						return false; // either another file or non-numeric directory
+					}
 				}
 			}
 		}
@@ -0,0 +1,332 @@
+package tim.prune.function.cache;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import tim.prune.gui.map.DiskTileCacher;
+import tim.prune.gui.map.MapSource;
+import tim.prune.gui.map.TileDownloadScheduler;
+import tim.prune.gui.map.TileStore;
+
+/**
+ * Class to fetch all the tiles of an area into the disk cache,
+ * using several threads but limiting the overall request rate.
+ * Tiles which are already in the store are skipped, so running
+ * the same fetch again resumes where a cancelled one stopped.
+ * Each download claims the tile in the shared download scheduler,
+ * so the map view and the fetch never download the same tile at once.
+ */
+public class TilePrefetcher
+{
+	/** Map source to fetch tiles from */
+	private final MapSource _mapSource;
+	/** Base path of disk cache */
+	private final String _basePath;
+	/** Store to save tiles to */
+	private final TileStore _store;
+	/** Number of threads to fetch with */
+	private final int _numThreads;
+	/** Minimum time between requests in nanoseconds */
+	private final long _requestInterval;
+	/** Time of the next allowed request in nanoseconds */
+	private long _nextRequestTime = 0L;
+	/** Flag set when cancelled */
+	private volatile boolean _cancelled = false;
+	/** Counts of tiles handled so far */
+	private long _numDownloaded = 0L, _numSkipped = 0L, _numFailed = 0L;
+	/** Total number of bytes downloaded */
+	private long _numBytes = 0L;
+
+	/** Typical size of a tile in bytes, used for the estimate before fetching */
+	public static final int AVERAGE_TILE_BYTES = 15 * 1024;
+
+
+	/**
+	 * Interface for being informed of the progress of the fetch
+	 */
+	public interface Listener
+	{
+		/**
+		 * Called from the fetching threads after each tile
+		 * @param inNumHandled number of tiles handled so far, including skipped and failed ones
+		 * @param inTotal total number of tiles to handle
+		 */
+		public void prefetchProgress(long inNumHandled, long inTotal);
+	}
+
+
+	/**
+	 * Constructor
+	 * @param inMapSource map source to fetch from
+	 * @param inBasePath base path of disk cache
+	 * @param inStore store to save tiles to
+	 * @param inNumThreads number of threads to fetch with
+	 * @param inMaxRequestsPerSecond maximum number of requests per second
+	 */
+	public TilePrefetcher(MapSource inMapSource, String inBasePath, TileStore inStore,
+		int inNumThreads, double inMaxRequestsPerSecond)
+	{
+		_mapSource = inMapSource;
+		_basePath = inBasePath;
+		_store = inStore;
+		_numThreads = Math.max(1, inNumThreads);
+		_requestInterval = (long) (1000000000.0 / Math.max(0.01, inMaxRequestsPerSecond));
+	}
+
+	/**
+	 * @param inArea area to fetch
+	 * @param inMinZoom minimum zoom level
+	 * @param inMaxZoom maximum zoom level
+	 * @param inNumLayers number of layers of the map source
+	 * @return estimated number of bytes to download if none of the tiles are already stored
+	 */
+	public static long estimateBytes(TileArea inArea, int inMinZoom, int inMaxZoom, int inNumLayers)
+	{
+		return inArea.countTiles(inMinZoom, inMaxZoom) * inNumLayers * AVERAGE_TILE_BYTES;
+	}
+
+	/**
+	 * Fetch all the tiles of the given area, blocking until finished or cancelled
+	 * @param inArea area to fetch
+	 * @param inMinZoom minimum zoom level
+	 * @param inMaxZoom maximum zoom level
+	 * @param inListener listener to inform of progress, or null
+	 * @return true if all the tiles were handled, false if cancelled
+	 */
+	public boolean fetch(TileArea inArea, int inMinZoom, int inMaxZoom, final Listener inListener)
+	{
+		final int maxZoom = Math.min(inMaxZoom, _mapSource.getMaxZoomLevel());
+		final long total = inArea.countTiles(inMinZoom, maxZoom) * _mapSource.getNumLayers();
+		final TileQueue queue = new TileQueue(inArea, inMinZoom, maxZoom);
+		ExecutorService executor = Executors.newFixedThreadPool(_numThreads);
+		try
+		{
+			ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+			for (int i=0; i<_numThreads; i++)
+			{
+				futures.add(executor.submit(new Callable<Void>() {
+					public Void call()
+					{
+						int[] tile = null;
+						while (!_cancelled && (tile = queue.getNext()) != null)
+						{
+							for (int layer=0; layer<_mapSource.getNumLayers() && !_cancelled; layer++)
+							{
+								fetchTile(layer, tile[0], tile[1], tile[2]);
+								if (inListener != null) {
+									inListener.prefetchProgress(getNumHandled(), total);
+								}
+							}
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures)
+			{
+				try {
+					future.get();
+				}
+				catch (ExecutionException e) {
+					System.err.println("Tile fetch failed: " + e.getCause());
+				}
+			}
+		}
+		catch (InterruptedException e) {
+			_cancelled = true;
+		}
+		finally {
+			executor.shutdownNow();
+		}
+		return !_cancelled;
+	}
+
+	/**
+	 * Fetch a single tile unless it's already in the store or being downloaded for the map
+	 */
+	private void fetchTile(final int inLayer, final int inZoom, final int inX, final int inY)
+	{
+		if (_store.containsTile(_mapSource, inLayer, inZoom, inX, inY))
+		{
+			synchronized (this) {_numSkipped++;}
+			return;
+		}
+		URL url = null;
+		try {
+			url = new URL(_mapSource.makeURL(inLayer, inZoom, inX, inY));
+		}
+		catch (MalformedURLException e) {} // leave url null
+		final boolean[] saved = new boolean[1];
+		boolean claimed = true;
+		if (url != null && !DiskTileCacher.isBlocked(url))
+		{
+			try
+			{
+				waitForTurn();
+				final URL tileUrl = url;
+				claimed = TileDownloadScheduler.getSharedScheduler().runNow(
+					DiskTileCacher.getDownloadKey(_basePath, _mapSource, inLayer, inZoom, inX, inY),
+					new Runnable() {
+						public void run() {
+							saved[0] = downloadTile(tileUrl, inLayer, inZoom, inX, inY);
+						}
+					});
+			}
+			catch (InterruptedException e) {
+				_cancelled = true;
+			}
+		}
+		synchronized (this)
+		{
+			if (!claimed) {
+				_numSkipped++; // already being downloaded for the map
+			}
+			else if (saved[0]) {
+				_numDownloaded++;
+			}
+			else if (!_cancelled) {
+				_numFailed++;
+			}
+		}
+	}
+
+	/**
+	 * Download a single tile and save it to the store
+	 * @return true if the tile was saved
+	 */
+	private boolean downloadTile(URL inUrl, int inLayer, int inZoom, int inX, int inY)
+	{
+		byte[] data = null;
+		try {
+			data = DiskTileCacher.downloadBytes(inUrl);
+		}
+		catch (IOException e) {} // including 404 for tiles which don't exist
+		DiskTileCacher.downloadFinished(inUrl, data != null);
+		final boolean saved = data != null && data.length > 0
+			&& _store.saveTile(_mapSource, inLayer, inZoom, inX, inY, data);
+		if (saved)
+		{
+			synchronized (this) {_numBytes += data.length;}
+		}
+		return saved;
+	}
+
+	/**
+	 * Wait until the next request is allowed by the rate limit
+	 * @throws InterruptedException if interrupted while waiting
+	 */
+	private void waitForTurn() throws InterruptedException
+	{
+		final long requestTime;
+		synchronized (this)
+		{
+			requestTime = Math.max(System.nanoTime(), _nextRequestTime);
+			_nextRequestTime = requestTime + _requestInterval;
+		}
+		final long waitTime = requestTime - System.nanoTime();
+		if (waitTime > 0L) {
+			Thread.sleep(waitTime / 1000000L, (int) (waitTime % 1000000L));
+		}
+	}
+
+	/**
+	 * Cancel the fetch, letting the requests in progress finish
+	 */
+	public void cancel() {
+		_cancelled = true;
+	}
+
+	/** @return number of tiles handled so far */
+	public synchronized long getNumHandled() {
+		return _numDownloaded + _numSkipped + _numFailed;
+	}
+
+	/** @return number of tiles downloaded and saved */
+	public synchronized long getNumDownloaded() {
+		return _numDownloaded;
+	}
+
+	/** @return number of tiles skipped because they were already stored */
+	public synchronized long getNumSkipped() {
+		return _numSkipped;
+	}
+
+	/** @return number of tiles which couldn't be downloaded or saved */
+	public synchronized long getNumFailed() {
+		return _numFailed;
+	}
+
+	/** @return number of bytes downloaded */
+	public synchronized long getNumBytes() {
+		return _numBytes;
+	}
+
+
+	/**
+	 * Queue of tiles to fetch, going through the rows of each zoom level in turn
+	 * so that the tile lists are only generated for one zoom level at a time
+	 */
+	private static class TileQueue
+	{
+		private final TileArea _area;
+		private final int _maxZoom;
+		private int _zoom;
+		private Iterator<Map.Entry<Integer, int[][]>> _rows = null;
+		private int _y = 0;
+		private int[][] _ranges = null;
+		private int _rangeIndex = 0, _x = 0;
+
+		private TileQueue(TileArea inArea, int inMinZoom, int inMaxZoom)
+		{
+			_area = inArea;
+			_zoom = inMinZoom;
+			_maxZoom = inMaxZoom;
+		}
+
+		/**
+		 * @return next tile as zoom, x and y, or null if there are no more
+		 */
+		private synchronized int[] getNext()
+		{
+			while (_ranges == null || _rangeIndex >= _ranges.length)
+			{
+				while (_rows == null || !_rows.hasNext())
+				{
+					if (_rows != null) {
+						_zoom++;
+					}
+					if (_zoom > _maxZoom) {
+						return null;
+					}
+					TreeMap<Integer, int[][]> rows = _area.getTileRows(_zoom);
+					_rows = rows.entrySet().iterator();
+				}
+				Map.Entry<Integer, int[][]> row = _rows.next();
+				_y = row.getKey();
+				_ranges = row.getValue();
+				_rangeIndex = 0;
+				_x = (_ranges.length > 0 ? _ranges[0][0] : 0);
+			}
+			int[] tile = new int[] {_zoom, _x, _y};
+			_x++;
+			if (_x > _ranges[_rangeIndex][1])
+			{
+				_rangeIndex++;
+				if (_rangeIndex < _ranges.length) {
+					_x = _ranges[_rangeIndex][0];
+				}
+			}
+			return tile;
+		}
+	}
+}
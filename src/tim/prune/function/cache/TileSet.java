@@ -2,6 +2,9 @@ package tim.prune.function.cache;
 
 import java.io.File;
 
+import tim.prune.gui.map.PackedTileFile;
+import tim.prune.gui.map.PackedTileStore;
+
 
 /**
  * Class to hold information about a single tile set
@@ -39,6 +42,11 @@ public class TileSet
 					RowInfo row = makeRowInfo(subdir);
 					_rowInfo.addRow(row);
 				}
+				else if (subdir != null && subdir.isFile() && getPackedZoom(subdir) >= 0)
+				{
+					// Packed tiles are counted from the index without looking at the tiles
+					_rowInfo.addRow(makePackedRowInfo(subdir));
+				}
 			}
 		}
 	}
@@ -88,6 +96,51 @@ public class TileSet
 		return false;
 	}
 
+	/**
+	 * @param inFile file in tileset directory
+	 * @return zoom level if it's a packed tile file, otherwise -1
+	 */
+	public static int getPackedZoom(File inFile)
+	{
+		final String name = inFile.getName();
+		final String suffix = "." + PackedTileFile.FILE_EXTENSION;
+		if (name.endsWith(suffix))
+		{
+			final String zoom = name.substring(0, name.length() - suffix.length());
+			if (isNumeric(zoom) && zoom.length() < 3) {
+				return Integer.parseInt(zoom);
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @param inFile file in tileset directory
+	 * @return true if it's the index of a packed tile file
+	 */
+	public static boolean isPackedIndex(File inFile)
+	{
+		return inFile.getName().endsWith("." + PackedTileFile.INDEX_EXTENSION);
+	}
+
+	/**
+	 * Make a RowInfo object from the given packed file
+	 * @param inFile packed file for a single zoom level
+	 * @return RowInfo object describing tiles and size
+	 */
+	private static RowInfo makePackedRowInfo(File inFile)
+	{
+		RowInfo row = new RowInfo();
+		row.setZoom(getPackedZoom(inFile));
+		PackedTileFile packFile = PackedTileStore.acquireFile(inFile, false);
+		if (packFile != null)
+		{
+			row.addTiles(packFile.getNumTiles(), packFile.getNumBytes());
+			PackedTileStore.releaseFile(packFile);
+		}
+		return row;
+	}
+
 	/**
 	 * Make a RowInfo object from the given directory
 	 * @param inDir directory for a single zoom level
@@ -48,7 +48,7 @@ public class ClosePointsAlgorithm extends SingleParameterAlgorithm
 		int prevTrackPointIndex = 0;
 		double pointDist = 0.0;
 		int numDeleted = 0;
-		for (int i=1; i<numPoints; i++)
+		for (int i=1; i<numPoints && !isCancelled(); i++)
 		{
 			// don't delete points already deleted
 			if (!inFlags[i])
@@ -5,6 +5,9 @@ import java.awt.Dimension;
 import java.awt.FlowLayout;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 import javax.swing.BorderFactory;
 import javax.swing.Box;
@@ -13,6 +16,7 @@ import javax.swing.JButton;
 import javax.swing.JDialog;
 import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.SwingUtilities;
 
 import tim.prune.App;
 import tim.prune.I18nManager;
@@ -30,6 +34,12 @@ public class CompressTrackFunction extends MarkAndDeleteFunction
 	private JButton _okButton = null;
 	private CompressionAlgorithm[] _algorithms = null;
 	private SummaryLabel _summaryLabel = null;
+	/** Number of the latest calculation, so that older ones can be abandoned */
+	private volatile int _previewNumber = 0;
+	/** Flag set when OK has been pressed and the final calculation is running */
+	private boolean _finishing = false;
+	/** Single worker thread for all the calculations, so they run one after the other */
+	private ExecutorService _worker = null;
 
 
 	/**
@@ -62,25 +72,122 @@ public class CompressTrackFunction extends MarkAndDeleteFunction
 			_dialog.getContentPane().add(makeDialogComponents());
 			_dialog.pack();
 		}
+		_finishing = false;
 		preview();
 		_dialog.setVisible(true);
 	}
 
 	/**
-	 * Preview the compression by calling each algorithm in turn
-	 * @return array of delete flags
+	 * Preview the compression on the worker thread,
+	 * and show the result unless the settings have changed again in the meantime
 	 */
-	private boolean[] preview()
+	private void preview()
 	{
-		int numToDelete = 0;
+		if (_finishing) {
+			return; // settings can't change any more
+		}
+		final int previewNumber = startCalculation();
+		final int[] numsDeleted = new int[_algorithms.length];
+		getWorker().execute(new Runnable() {
+			public void run()
+			{
+				if (calculate(numsDeleted, previewNumber) != null)
+				{
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							if (previewNumber == _previewNumber) {
+								showResults(numsDeleted);
+							}
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * Read the settings and cancel any calculation still running, must be called on the event thread
+	 * @return number of the new calculation
+	 */
+	private int startCalculation()
+	{
+		for (int i=0; i<_algorithms.length; i++) {
+			_algorithms[i].readSettings();
+		}
+		final int calculationNumber = ++_previewNumber;
+		cancelCalculation();
+		return calculationNumber;
+	}
+
+	/**
+	 * Cancel the calculation in progress, if any
+	 */
+	private void cancelCalculation()
+	{
+		for (int i=0; i<_algorithms.length; i++) {
+			_algorithms[i].cancel();
+		}
+	}
+
+	/**
+	 * @return worker for running the calculations
+	 */
+	private ExecutorService getWorker()
+	{
+		if (_worker == null)
+		{
+			_worker = Executors.newSingleThreadExecutor(new ThreadFactory() {
+				public Thread newThread(Runnable inRunnable)
+				{
+					Thread thread = new Thread(inRunnable, "CompressTrack");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
+		return _worker;
+	}
+
+	/**
+	 * Calculate the compression by calling each algorithm in turn, on the worker thread
+	 * @param inNumsDeleted array to fill with the number of points deleted by each algorithm
+	 * @param inCalculationNumber number of calculation
+	 * @return array of delete flags, or null if a newer calculation has been started
+	 */
+	private boolean[] calculate(int[] inNumsDeleted, int inCalculationNumber)
+	{
+		// Clear the cancel flags before checking the number, so a newer calculation can't be missed
+		for (int i=0; i<_algorithms.length; i++) {
+			_algorithms[i].clearCancelled();
+		}
+		if (inCalculationNumber != _previewNumber) {
+			return null;
+		}
 		boolean[] deleteFlags = new boolean[_track.getNumPoints()];
 		for (int i=0; i<_algorithms.length; i++)
 		{
-			numToDelete += _algorithms[i].preview(deleteFlags);
+			inNumsDeleted[i] = _algorithms[i].calculate(deleteFlags);
+			if (inNumsDeleted[i] < 0) {
+				return null; // cancelled
+			}
+		}
+		return deleteFlags;
+	}
+
+	/**
+	 * Show the results of the compression
+	 * @param inNumsDeleted number of points deleted by each algorithm
+	 */
+	private void showResults(int[] inNumsDeleted)
+	{
+		int numToDelete = 0;
+		for (int i=0; i<_algorithms.length; i++)
+		{
+			_algorithms[i].showResult(inNumsDeleted[i]);
+			numToDelete += inNumsDeleted[i];
 		}
 		_summaryLabel.setValue(numToDelete);
 		_okButton.setEnabled(numToDelete > 0);
-		return deleteFlags;
 	}
 
 
@@ -127,6 +234,9 @@ public class CompressTrackFunction extends MarkAndDeleteFunction
 		cancelButton.addActionListener(new ActionListener() {
 			public void actionPerformed(ActionEvent e)
 			{
+				// Abandon any calculation still running
+				_previewNumber++;
+				cancelCalculation();
 				_dialog.dispose();
 			}
 		});
@@ -163,17 +273,44 @@ public class CompressTrackFunction extends MarkAndDeleteFunction
 
 
 	/**
-	 * Finish the dialog when OK pressed
+	 * OK pressed, so calculate with the latest settings on the worker thread
 	 */
 	private void finish()
 	{
-		boolean[] deleteFlags = preview();
-		// All flags are now combined in deleteFlags array
+		// Abandon any preview still running, and stop any more from starting
+		final int calculationNumber = startCalculation();
+		_finishing = true;
+		_okButton.setEnabled(false);
+		getWorker().execute(new Runnable() {
+			public void run()
+			{
+				final boolean[] deleteFlags = calculate(new int[_algorithms.length], calculationNumber);
+				if (deleteFlags != null)
+				{
+					SwingUtilities.invokeLater(new Runnable() {
+						public void run() {
+							// Only use the result if the dialog hasn't been closed in the meantime
+							if (calculationNumber == _previewNumber && _dialog.isVisible()) {
+								markPoints(deleteFlags);
+							}
+						}
+					});
+				}
+			}
+		});
+	}
+
+	/**
+	 * Mark the points for deletion and close the dialog, on the event thread
+	 * @param inDeleteFlags combined delete flags from all the algorithms
+	 */
+	private void markPoints(boolean[] inDeleteFlags)
+	{
 		int numMarked = 0;
-		for (int i=0; i<deleteFlags.length; i++)
+		for (int i=0; i<inDeleteFlags.length; i++)
 		{
 			DataPoint point = _track.getPoint(i);
-			boolean deletePoint = deleteFlags[i] && !point.hasMedia();
+			boolean deletePoint = inDeleteFlags[i] && !point.hasMedia();
 			point.setMarkedForDeletion(deletePoint);
 			if (deletePoint) numMarked++;
 		}
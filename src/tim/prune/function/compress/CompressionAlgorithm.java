@@ -4,22 +4,43 @@ import java.awt.BorderLayout;
 import java.awt.Component;
 import java.awt.event.ActionListener;
 
+import java.util.Arrays;
+
 import javax.swing.BorderFactory;
 import javax.swing.JCheckBox;
 import javax.swing.JPanel;
 
 import tim.prune.I18nManager;
 import tim.prune.data.Track;
+import tim.prune.function.Cancellable;
 
 /**
- * Abstract class to act as an algorithm for track compression
+ * Abstract class to act as an algorithm for track compression.
+ * The settings are read from the gui first, so that the compression itself
+ * can be run on a background thread, and the result is remembered so that
+ * it doesn't need to be calculated again if nothing has changed.
+ * A calculation which is no longer wanted can be cancelled part-way through.
  */
-public abstract class CompressionAlgorithm
+public abstract class CompressionAlgorithm implements Cancellable
 {
 	protected JCheckBox _activateCheckBox = null;
 	protected SummaryLabel _summaryLabel = null;
 	protected Track _track = null;
 	protected TrackDetails _trackDetails = null;
+	/** Activation flag and setting read from the gui */
+	private volatile boolean _activated = false;
+	private volatile double _setting = 0.0;
+	/** Setting used by the current calculation */
+	private double _calculationSetting = 0.0;
+	/** Track version, setting and flags used for the previous result */
+	private int _resultVersion = -1;
+	private double _resultSetting = 0.0;
+	private boolean[] _resultInputFlags = null;
+	/** Flags and number of points deleted by the previous result */
+	private boolean[] _resultFlags = null;
+	private int _resultNumDeleted = 0;
+	/** Flag set to abandon the calculation in progress */
+	private volatile boolean _cancelled = false;
 
 
 	/**
@@ -68,24 +89,110 @@ public abstract class CompressionAlgorithm
 	}
 
 	/**
-	 * Preview the algorithm by counting the number of points deleted
+	 * Read the settings from the gui components, must be called on the event thread
+	 */
+	public void readSettings()
+	{
+		_activated = _activateCheckBox.isSelected();
+		_setting = readSetting();
+	}
+
+
+	/**
+	 * Cancel the calculation in progress, if any, and any calculations
+	 * started before the cancelled flag is cleared again
+	 */
+	public void cancel()
+	{
+		_cancelled = true;
+	}
+
+	/**
+	 * Clear the cancelled flag before starting a new calculation
+	 */
+	public void clearCancelled()
+	{
+		_cancelled = false;
+	}
+
+	/**
+	 * @return true if the calculation has been cancelled, so the compression should stop
+	 */
+	protected boolean isCancelled()
+	{
+		return _cancelled;
+	}
+
+	/**
+	 * Calculate the compression using the settings previously read,
+	 * reusing the previous result if the track, settings and flags are unchanged
 	 * @param inFlags array of deletion flags from previous algorithms
-	 * @return number of points to be deleted by this algorithm
+	 * @return number of points to be deleted by this algorithm, or -1 if cancelled
 	 */
-	public int preview(boolean[] inFlags)
+	public synchronized int calculate(boolean[] inFlags)
 	{
-		int numDeleted = 0;
-		if (isActivated())
+		if (!_activated) {
+			return 0;
+		}
+		final int version = _track.getVersion();
+		final double setting = _setting;
+		_calculationSetting = setting;
+		if (_resultFlags == null || version != _resultVersion
+			|| Double.compare(setting, _resultSetting) != 0
+			|| !Arrays.equals(inFlags, _resultInputFlags))
 		{
-			// Run the compression and set the deletion flags
+			_resultVersion = version;
+			_resultSetting = setting;
+			_resultInputFlags = inFlags.clone();
 			_trackDetails.initialise();
-			numDeleted = compress(inFlags);
-			_summaryLabel.setValue(numDeleted);
+			final int numDeleted = compress(inFlags);
+			if (isCancelled())
+			{
+				// Flags are only partly calculated, so they can't be used again
+				_resultFlags = null;
+				return -1;
+			}
+			_resultNumDeleted = numDeleted;
+			_resultFlags = inFlags.clone();
+		}
+		else {
+			System.arraycopy(_resultFlags, 0, inFlags, 0, inFlags.length);
+		}
+		return _resultNumDeleted;
+	}
+
+
+	/**
+	 * Show the result of the calculation, must be called on the event thread
+	 * @param inNumDeleted number of points to be deleted by this algorithm
+	 */
+	public void showResult(int inNumDeleted)
+	{
+		if (_activated) {
+			_summaryLabel.setValue(inNumDeleted);
 		}
 		else {
 			_summaryLabel.clearValue();
 		}
-		return numDeleted;
+	}
+
+
+	/**
+	 * Read the setting from the gui components, if any
+	 * @return value of the setting
+	 */
+	protected double readSetting()
+	{
+		return 0.0;
+	}
+
+
+	/**
+	 * @return value of the setting to use for the current calculation
+	 */
+	protected double getSetting()
+	{
+		return _calculationSetting;
 	}
 
 
@@ -2,6 +2,10 @@ package tim.prune.function.compress;
 
 import java.awt.Component;
 import java.awt.event.ActionListener;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
 
 import tim.prune.data.DataPoint;
 import tim.prune.data.Track;
@@ -11,6 +15,19 @@ import tim.prune.data.Track;
  */
 public class DouglasPeuckerAlgorithm extends SingleParameterAlgorithm
 {
+	/** Deviation of each point, so that points are kept if it's above the threshold */
+	private double[] _deviations = null;
+	/** Track version and previous flags used to calculate the deviations */
+	private int _deviationsVersion = -1;
+	private boolean[] _deviationsFlags = null;
+	/** Lowest threshold for which the deviations are known, as ranges aren't split below it */
+	private double _deviationsFloor = 0.0;
+
+	/** Minimum number of points to give to each parallel task */
+	private static final int MIN_POINTS_PER_TASK = 100000;
+	/** Deviation of points which are never kept */
+	private static final double NO_DEVIATION = -1.0;
+
 	/**
 	 * Constructor
 	 * @param inTrack track object
@@ -39,22 +56,62 @@ public class DouglasPeuckerAlgorithm extends SingleParameterAlgorithm
 		}
 		double threshold = _trackDetails.getTrackSpan() * param;
 
+		// The deviations only depend on the track and the previous flags, and are valid
+		// for any threshold above the one they were calculated for
+		if (_deviations == null || _deviationsVersion != _track.getVersion()
+			|| !Arrays.equals(inFlags, _deviationsFlags) || threshold < _deviationsFloor)
+		{
+			_deviations = null;
+			double[] deviations = calculateDeviations(inFlags, threshold);
+			if (isCancelled()) {
+				return 0;
+			}
+			_deviations = deviations;
+			_deviationsVersion = _track.getVersion();
+			_deviationsFlags = inFlags.clone();
+			_deviationsFloor = threshold;
+		}
+		// Keep only the points whose deviation is above the threshold
+		final int numPoints = _track.getNumPoints();
+		int numDeleted = 0;
+		for (int i=1; i<numPoints; i++)
+		{
+			if (!inFlags[i] && !(_deviations[i] > threshold))
+			{
+				inFlags[i] = true;
+				numDeleted++;
+			}
+		}
+		return numDeleted;
+	}
+
+
+	/**
+	 * Split all the segments as far as the given threshold, to find out at which threshold each point would be kept
+	 * @param inFlags deletion flags from previous algorithms
+	 * @param inFloor lowest threshold to split ranges for
+	 * @return array of deviations for each point
+	 */
+	private double[] calculateDeviations(boolean[] inFlags, double inFloor)
+	{
 		int numPoints = _track.getNumPoints();
-		int origNumDeleted = countFlags(inFlags);
 		// Convert inFlags into keepFlags
 		int[] keepFlags = new int[numPoints];
 		int segStart = -1, segEnd = -1;
+		// Start and end indexes of each segment to compress
+		int[] segments = new int[64];
+		int numSegments = 0;
 		// Loop over all points in track
 		for (int i=0; i<numPoints; i++)
 		{
 			DataPoint currPoint = _track.getPoint(i);
 			if (currPoint.getSegmentStart())
 			{
-				// new segment found, so process previous one
+				// new segment found, so remember previous one
 				if (segStart > -1 && segEnd > segStart)
 				{
 					keepFlags[segEnd] = 1; // keep
-					compressSegment(keepFlags, segStart, segEnd, threshold);
+					segments = addSegment(segments, numSegments++, segStart, segEnd);
 					segStart = segEnd = -1;
 				}
 			}
@@ -73,62 +130,200 @@ public class DouglasPeuckerAlgorithm extends SingleParameterAlgorithm
 		// Last segment, if any
 		if (segStart >= 0 && segEnd > segStart) {
 			keepFlags[segEnd] = 1; // keep
-			compressSegment(keepFlags, segStart, segEnd, threshold);
+			segments = addSegment(segments, numSegments++, segStart, segEnd);
 		}
-		// Convert keepFlags back into inFlags
-		for (int i=1; i<numPoints; i++) {
-			if (keepFlags[i] < 1) inFlags[i] = true;
+		// Points which are kept anyway have an infinite deviation, the others start with none
+		double[] deviations = new double[numPoints];
+		for (int i=0; i<numPoints; i++) {
+			deviations[i] = (keepFlags[i] == 1 ? Double.POSITIVE_INFINITY : NO_DEVIATION);
 		}
-		return countFlags(inFlags) - origNumDeleted;
+		compressSegments(keepFlags, deviations, segments, numSegments, inFloor);
+		return deviations;
 	}
 
 
 	/**
-	 * Count the number of true flags in the given array
-	 * @param inFlags array of boolean flags
-	 * @return number of flags which are set to true
+	 * Add a segment to the array of start and end indexes
+	 * @param inSegments array of segment indexes
+	 * @param inSegmentNum number of this segment
+	 * @param inStart start index of segment
+	 * @param inEnd end index of segment
+	 * @return the same array, or a bigger one if necessary
 	 */
-	private static int countFlags(boolean[] inFlags)
+	private static int[] addSegment(int[] inSegments, int inSegmentNum, int inStart, int inEnd)
 	{
-		int numDeleted = 0;
-		for (int i=0; i<inFlags.length; i++) {
-			if (inFlags[i]) numDeleted++;
+		int[] segments = inSegments;
+		if (inSegmentNum * 2 + 1 >= segments.length) {
+			segments = Arrays.copyOf(segments, segments.length * 2);
 		}
-		return numDeleted;
+		segments[inSegmentNum * 2] = inStart;
+		segments[inSegmentNum * 2 + 1] = inEnd;
+		return segments;
 	}
 
 	/**
-	 * Compress the given segment (recursively)
+	 * Compress all the segments, in parallel if they're big enough.
+	 * Each segment only changes the flags and deviations between its own start and end,
+	 * so the segments don't interfere with each other.
 	 * @param inFlags int array of deletion flags for entire track
-	 * @param inSegStart index of start of segment
-	 * @param inSegEnd index of end of segment
-	 * @param inThreshold threshold to use
+	 * @param inDeviations array of deviations for entire track
+	 * @param inSegments start and end indexes of segments
+	 * @param inNumSegments number of segments
+	 * @param inFloor lowest threshold to split ranges for
 	 */
-	private void compressSegment(int[] inFlags, int inSegStart, int inSegEnd,
-		double inThreshold)
+	private void compressSegments(int[] inFlags, double[] inDeviations, int[] inSegments, int inNumSegments,
+		double inFloor)
 	{
-		// System.out.println("Compress segment " + inSegStart + "-" + inSegEnd);
-		final int numPoints = inSegEnd - inSegStart + 1;
-		if (numPoints < 3) {return;} // segment too short to compress
-		// Calculate parameters of straight line between first and last
-		XYpoint startxy = new XYpoint(_track.getX(inSegStart), _track.getY(inSegStart));
-		XYpoint endxy = new XYpoint(_track.getX(inSegEnd), _track.getY(inSegEnd));
-		XYpoint ab = startxy.vectorTo(endxy);
-		final double dist2AB = ab.len2();
-		// create unit vector perpendicular to AB
-		final double distAB = ab.len();
-		XYpoint perpendicular = new XYpoint(ab.y/distAB, -ab.x/distAB);
-		// Check whether distAB is 0.0 - if so, find furthest point from startxy and compress from start to here and here to end
-		if (distAB <= 0.0)
+		if (inNumSegments == 0) {
+			return;
+		}
+		// Make sure that the scaled values are calculated before the tasks start
+		_track.getX(0);
+		// Group the segments into tasks of roughly similar sizes
+		ArrayList<SegmentTask> tasks = new ArrayList<SegmentTask>();
+		int firstSegment = 0, taskSize = 0;
+		for (int s=0; s<inNumSegments; s++)
 		{
-			final int furthestIndex = getFurthestPointIndex(inSegStart, inSegEnd);
-			if (furthestIndex > inSegStart)
+			taskSize += inSegments[s*2 + 1] - inSegments[s*2] + 1;
+			if (taskSize >= MIN_POINTS_PER_TASK || s == inNumSegments - 1)
 			{
-				compressSegment(inFlags, inSegStart, furthestIndex, inThreshold);
-				compressSegment(inFlags, furthestIndex, inSegEnd, inThreshold);
+				tasks.add(new SegmentTask(inFlags, inDeviations, inSegments, firstSegment, s + 1, inFloor));
+				firstSegment = s + 1;
+				taskSize = 0;
 			}
-			return;
 		}
+		if (tasks.size() == 1) {
+			tasks.get(0).compute();
+		}
+		else {
+			ForkJoinTask.invokeAll(tasks);
+		}
+	}
+
+	/**
+	 * Task to compress a group of segments
+	 */
+	private class SegmentTask extends RecursiveAction
+	{
+		private final int[] _flags, _segments;
+		private final double[] _deviations;
+		private final int _firstSegment, _endSegment;
+		private final double _floor;
+
+		/** Constructor */
+		private SegmentTask(int[] inFlags, double[] inDeviations, int[] inSegments,
+			int inFirstSegment, int inEndSegment, double inFloor)
+		{
+			_flags = inFlags;
+			_deviations = inDeviations;
+			_segments = inSegments;
+			_firstSegment = inFirstSegment;
+			_endSegment = inEndSegment;
+			_floor = inFloor;
+		}
+
+		/** Compress each of the segments in turn */
+		protected void compute()
+		{
+			SegmentStack stack = new SegmentStack();
+			for (int s=_firstSegment; s<_endSegment && !isCancelled(); s++)
+			{
+				stack.push(_segments[s*2], _segments[s*2 + 1], Double.POSITIVE_INFINITY);
+				compressSegment(_flags, _deviations, stack, _floor);
+			}
+		}
+	}
+
+	/**
+	 * Stack of ranges still to be split, each with the deviation of the range containing it
+	 */
+	private static class SegmentStack
+	{
+		private int[] _indexes = new int[64];
+		private double[] _deviations = new double[32];
+		private int _size = 0;
+
+		/** Push a range onto the stack */
+		private void push(int inStart, int inEnd, double inDeviation)
+		{
+			if (_size == _deviations.length)
+			{
+				_indexes = Arrays.copyOf(_indexes, _indexes.length * 2);
+				_deviations = Arrays.copyOf(_deviations, _deviations.length * 2);
+			}
+			_indexes[_size * 2] = inStart;
+			_indexes[_size * 2 + 1] = inEnd;
+			_deviations[_size] = inDeviation;
+			_size++;
+		}
+	}
+
+	/**
+	 * Split the ranges on the stack as far as the floor, using a loop instead of recursion.
+	 * Each point chosen for a split gets the smaller of its own deviation and that of
+	 * its parent range, so that it's kept exactly when all the splits above it would be made.
+	 * Ranges whose furthest point isn't above the floor aren't split, as no threshold
+	 * from the floor upwards would keep any of their points.
+	 * @param inFlags int array of deletion flags for entire track
+	 * @param inDeviations array of deviations for entire track
+	 * @param inStack stack of ranges
+	 * @param inFloor lowest threshold to split ranges for
+	 */
+	private void compressSegment(int[] inFlags, double[] inDeviations, SegmentStack inStack, double inFloor)
+	{
+		while (inStack._size > 0 && !isCancelled())
+		{
+			inStack._size--;
+			final int segStart = inStack._indexes[inStack._size * 2];
+			final int segEnd = inStack._indexes[inStack._size * 2 + 1];
+			final double parentDeviation = inStack._deviations[inStack._size];
+			if (segEnd - segStart < 2) {continue;} // segment too short to compress
+
+			final double abX = _track.getX(segEnd) - _track.getX(segStart);
+			final double abY = _track.getY(segEnd) - _track.getY(segStart);
+			if (Math.sqrt(abX * abX + abY * abY) <= 0.0)
+			{
+				// Start and end are the same, so find furthest point from start and split there without keeping it
+				final int furthestIndex = getFurthestPointIndex(segStart, segEnd);
+				if (furthestIndex > segStart)
+				{
+					inStack.push(furthestIndex, segEnd, parentDeviation);
+					inStack.push(segStart, furthestIndex, parentDeviation);
+				}
+			}
+			else
+			{
+				final int splitIndex = findSplitPoint(inFlags, inDeviations, segStart, segEnd);
+				if (splitIndex > segStart && inDeviations[splitIndex] > inFloor)
+				{
+					inFlags[splitIndex] = 1;
+					final double deviation = Math.min(inDeviations[splitIndex], parentDeviation);
+					inDeviations[splitIndex] = deviation;
+					inStack.push(splitIndex, segEnd, deviation);
+					inStack.push(segStart, splitIndex, deviation);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Find the point furthest from the line between the start and end of the range
+	 * @param inFlags int array of deletion flags for entire track
+	 * @param inDeviations array in which to put the distance of the furthest point
+	 * @param inSegStart index of start of range
+	 * @param inSegEnd index of end of range
+	 * @return index of furthest point, or -1 if there aren't any points to check
+	 */
+	private int findSplitPoint(int[] inFlags, double[] inDeviations, int inSegStart, int inSegEnd)
+	{
+		// Calculate parameters of straight line between first and last
+		final double startX = _track.getX(inSegStart), startY = _track.getY(inSegStart);
+		final double endX = _track.getX(inSegEnd), endY = _track.getY(inSegEnd);
+		final double abX = endX - startX, abY = endY - startY;
+		final double dist2AB = abX * abX + abY * abY;
+		// create unit vector perpendicular to AB
+		final double distAB = Math.sqrt(dist2AB);
+		final double perpX = abY / distAB, perpY = -abX / distAB;
 
 		double maxDist = -1.0, dist = -1.0;
 		int furthestIndex = -1;
@@ -136,19 +331,20 @@ public class DouglasPeuckerAlgorithm extends SingleParameterAlgorithm
 		{
 			if (inFlags[i] == 0) // unknown status
 			{
-				XYpoint currPoint = new XYpoint(_track.getX(i), _track.getY(i));
-				XYpoint ac = startxy.vectorTo(currPoint);
-				double distAP = ab.dot(ac) / dist2AB;
+				final double acX = _track.getX(i) - startX, acY = _track.getY(i) - startY;
+				double distAP = (abX * acX + abY * acY) / dist2AB;
 				// calc distance from point to line depending on distAP
 				if (distAP < 0.0) {
-					dist = ac.len(); // outside line segment AB on the A side
+					dist = Math.sqrt(acX * acX + acY * acY); // outside line segment AB on the A side
 				}
-				else if (distAP > 1.0) {
-					dist = endxy.vectorTo(currPoint).len(); // outside on the B side
+				else if (distAP > 1.0)
+				{
+					final double bcX = _track.getX(i) - endX, bcY = _track.getY(i) - endY;
+					dist = Math.sqrt(bcX * bcX + bcY * bcY); // outside on the B side
 				}
 				else {
 					// P lies between A and B so use dot product
-					dist = Math.abs(perpendicular.dot(ac));
+					dist = Math.abs(perpX * acX + perpY * acY);
 				}
 				if (dist > maxDist)
 				{
@@ -157,14 +353,10 @@ public class DouglasPeuckerAlgorithm extends SingleParameterAlgorithm
 				}
 			}
 		}
-		// Check furthest point and see if it's further than the threshold
-		if (maxDist > inThreshold)
-		{
-			inFlags[furthestIndex] = 1;
-			// Make recursive calls for bit before and bit after kept point
-			compressSegment(inFlags, inSegStart, furthestIndex, inThreshold);
-			compressSegment(inFlags, furthestIndex, inSegEnd, inThreshold);
+		if (furthestIndex >= 0) {
+			inDeviations[furthestIndex] = maxDist;
 		}
+		return furthestIndex;
 	}
 
 
@@ -35,7 +35,7 @@ public class DuplicatePointAlgorithm extends CompressionAlgorithm
 		int numPoints = _track.getNumPoints();
 		int numDeleted = 0;
 		// Loop over all points looking for duplicates
-		for (int i=1; i<numPoints; i++)
+		for (int i=1; i<numPoints && !isCancelled(); i++)
 		{
 			// Don't delete points which are already marked as deleted
 			if (!inFlags[i])
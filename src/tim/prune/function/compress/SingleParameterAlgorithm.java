@@ -65,7 +65,7 @@ public abstract class SingleParameterAlgorithm extends CompressionAlgorithm
 	 * Parse the text field to get parameter
 	 * @return parameter given as double
 	 */
-	protected double getParameter()
+	protected double readSetting()
 	{
 		double param = 0.0;
 		try {
@@ -76,6 +76,14 @@ public abstract class SingleParameterAlgorithm extends CompressionAlgorithm
 		return param;
 	}
 
+	/**
+	 * @return parameter given as double, as read from the text field
+	 */
+	protected double getParameter()
+	{
+		return getSetting();
+	}
+
 	/**
 	 * @return the text field component
 	 */
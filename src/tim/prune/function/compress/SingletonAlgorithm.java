@@ -37,7 +37,7 @@ public class SingletonAlgorithm extends SingleParameterAlgorithm
 		double threshold = param * _trackDetails.getMeanRadians();
 		DataPoint currPoint = null, prevPoint = null;
 		// Loop over all points looking for points far away from neighbours
-		for (int i=0; i<numPoints; i++)
+		for (int i=0; i<numPoints && !isCancelled(); i++)
 		{
 			currPoint = _track.getPoint(i);
 			// Don't delete points which are already marked as deleted
@@ -19,6 +19,8 @@ public class TrackDetails
 	private boolean[] _segmentEnds = null;
 	/** Mean distance between track points in radians */
 	private double _meanRadians = 0.0;
+	/** Version of the track when the details were calculated */
+	private int _trackVersion = -1;
 
 
 	/**
@@ -31,10 +33,16 @@ public class TrackDetails
 	}
 
 	/**
-	 * Recalculate all details
+	 * Recalculate all details, if the track has changed since last time
 	 */
 	public void initialise()
 	{
+		if (_trackVersion == _track.getVersion() && _segmentStarts != null
+			&& _segmentStarts.length == _track.getNumPoints())
+		{
+			return;
+		}
+		_trackVersion = _track.getVersion();
 		// calculate track span
 		double xRange = _track.getXRange().getRange();
 		double yRange = _track.getYRange().getRange();
@@ -1,6 +1,8 @@
 package tim.prune.function.sew;
 
-import java.util.TreeSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 
 import tim.prune.App;
 import tim.prune.GenericFunction;
@@ -10,17 +12,31 @@ import tim.prune.data.DataPoint;
 import tim.prune.data.Track;
 import tim.prune.function.Cancellable;
 import tim.prune.gui.GenericProgressDialog;
-import tim.prune.undo.UndoException;
 import tim.prune.undo.UndoSewSegments;
 
 /**
  * Function to sew the track segments together if possible,
- * reversing and moving as required
+ * reversing and moving as required.
+ * First the pairs of segment ends at the same location are found,
+ * then the chains of joined segments are followed to decide the order
+ * and direction of each segment, and finally the track is rebuilt in one go.
  */
 public class SewTrackSegmentsFunction extends GenericFunction implements Runnable, Cancellable
 {
-	/** Set of sorted segment endpoints */
-	private TreeSet<SegmentEnd> _nodes = null;
+	/** Start and end indexes of each segment */
+	private int[] _segmentStarts = null, _segmentEnds = null;
+	/** Number of segments */
+	private int _numSegments = 0;
+	/** For each segment end (start=2n, end=2n+1), the segment end it's joined to, or -1 */
+	private int[] _partners = null;
+	/** New start index and reversed flag of each segment */
+	private int[] _newStarts = null;
+	private boolean[] _reversed = null;
+	/** Index after the end of each chain of more than one segment */
+	private int[] _chainEnds = null;
+	private int _numChainEnds = 0;
+	/** Number of joins made */
+	private int _numJoins = 0;
 	/** Cancel flag */
 	private boolean _cancelled = false;
 
@@ -41,6 +57,7 @@ public class SewTrackSegmentsFunction extends GenericFunction implements Runnabl
 	public void begin()
 	{
 		// Run in separate thread, with progress bar
+		_cancelled = false;
 		new Thread(this).start();
 	}
 
@@ -52,113 +69,102 @@ public class SewTrackSegmentsFunction extends GenericFunction implements Runnabl
 		// Make a progress bar
 		GenericProgressDialog progressDialog = new GenericProgressDialog(getNameKey(), null, _parentFrame, this);
 		progressDialog.show();
-		// Make an undo object to store the current points and sequence
-		UndoSewSegments undo = new UndoSewSegments(_app.getTrackInfo().getTrack());
+		final Track track = _app.getTrackInfo().getTrack();
+		// Make an undo object to store the current points and sequence, before the flags are changed
+		UndoSewSegments undo = new UndoSewSegments(track);
+		DataPoint[] points = sewPoints(track, progressDialog);
+		progressDialog.close();
+		if (points == null) {
+			return; // not enough segments, or cancelled
+		}
 
-		// Make list of all the segment ends
-		_nodes = buildNodeList(_app.getTrackInfo().getTrack());
-		final int numNodes = (_nodes == null ? 0 : _nodes.size());
-		if (numNodes < 4)
+		final int numDeleted = track.getNumPoints() - points.length;
+		if (_numJoins > 0 || numDeleted > 0)
 		{
-			System.out.println("Can't do anything with this, not enough segments");
-			progressDialog.close();
+			track.replaceContents(points);
+			// Give Undo object back to App to confirm
+			final String confirmMessage = (_numJoins > 0 ? I18nManager.getTextWithNumber("confirm.sewsegments", _numJoins)
+				: "" + numDeleted + " " + I18nManager.getText("confirm.deletepoint.multi"));
+			_app.completeFunction(undo, confirmMessage);
+			UpdateMessageBroker.informSubscribers();
 		}
 		else
 		{
-			progressDialog.showProgress(10, 100); // Say 10% for building the nodes
+			// Nothing done
+			_app.showErrorMessageNoLookup(getNameKey(), I18nManager.getTextWithNumber("error.sewsegments.nothingdone", _numSegments));
+		}
+	}
 
-			// Disable messaging because we're probably doing a lot of reverses and moves
-			UpdateMessageBroker.enableMessaging(false);
-			// Set now contains all pairs of segment ends, ends at the same location are adjacent
-			// Now we're just interested in pairs of nodes, not three or more at the same location
-			SegmentEnd firstNode = null, secondNode = null;
-			int numJoins = 0, currNode = 0;
-			for (SegmentEnd node : _nodes)
-			{
-				if (!node.isActive()) {continue;}
-				if (firstNode == null)
-				{
-					firstNode = node;
-				}
-				else if (secondNode == null)
-				{
-					if (node.atSamePointAs(firstNode)) {
-						secondNode = node;
-					}
-					else {
-						firstNode = node;
-					}
-				}
-				else if (node.atSamePointAs(secondNode))
-				{
-					// Found three colocated nodes, not interested
-					firstNode = secondNode = null;
-				}
-				else
-				{
-					// Found a pair
-					joinSegments(firstNode, secondNode);
-					numJoins++;
-					firstNode = node; secondNode = null;
-				}
-				if (_cancelled) {break;}
-				final double fractionDone = 1.0 * currNode / numNodes;
-				progressDialog.showProgress(10 + (int) (fractionDone * 80), 100);
-				currNode++;
-			}
-			if (firstNode != null && secondNode != null)
-			{
-				joinSegments(firstNode, secondNode);
-				numJoins++;
-			}
+	/**
+	 * Work out the new order of the points with the segments sewn together.
+	 * The track itself isn't changed, but the segment flags of its points are
+	 * @param inTrack track object
+	 * @param inProgress progress dialog, or null
+	 * @return new array of points, or null if there aren't enough segments or it was cancelled
+	 */
+	DataPoint[] sewPoints(Track inTrack, GenericProgressDialog inProgress)
+	{
+		// Make list of all the segment ends
+		ArrayList<SegmentEnd> nodes = buildNodeList(inTrack);
+		if (nodes.size() < 4)
+		{
+			System.out.println("Can't do anything with this, not enough segments");
+			return null;
+		}
+		showProgress(inProgress, 10); // Say 10% for building the nodes
 
-			progressDialog.showProgress(90, 100); // Say 90%, only duplicate point deletion left
+		// Sort the nodes so that ends at the same location are adjacent
+		Collections.sort(nodes);
+		_numJoins = findPairs(nodes);
+		showProgress(inProgress, 30);
 
-			// Delete the duplicate points
-			final int numDeleted = _cancelled ? 0 : deleteSegmentStartPoints(_app.getTrackInfo().getTrack());
+		// Work out the new order of the points
+		DataPoint[] points = _cancelled ? null : rebuildPoints(inTrack, inProgress);
+		if (_cancelled || points == null) {
+			return null;
+		}
+		showProgress(inProgress, 90); // Say 90%, only duplicate point deletion left
 
-			progressDialog.close();
-			// Enable the messaging again
-			UpdateMessageBroker.enableMessaging(true);
-			if (_cancelled) // TODO: Also revert if any of the operations failed
-			{
-				// try to restore using undo object
-				try {
-					undo.performUndo(_app.getTrackInfo());
-				}
-				catch (UndoException ue) {
-					_app.showErrorMessage("oops", "CANNOT UNDO");
-				}
-			}
-			else if (numJoins > 0 || numDeleted > 0)
-			{
-				// Give Undo object back to App to confirm
-				final String confirmMessage = (numJoins > 0 ? I18nManager.getTextWithNumber("confirm.sewsegments", numJoins)
-					: "" + numDeleted + " " + I18nManager.getText("confirm.deletepoint.multi"));
-				_app.completeFunction(undo, confirmMessage);
-				UpdateMessageBroker.informSubscribers();
-			}
-			else
-			{
-				// Nothing done
-				_app.showErrorMessageNoLookup(getNameKey(), I18nManager.getTextWithNumber("error.sewsegments.nothingdone", numNodes/2));
-			}
+		// Now change the segment flags and delete the duplicate points
+		setSegmentFlags(points);
+		return deleteSegmentStartPoints(points);
+	}
+
+	/**
+	 * @return number of joins made by the last call to sewPoints
+	 */
+	int getNumJoins()
+	{
+		return _numJoins;
+	}
+
+	/**
+	 * Show the progress, if there's a progress dialog
+	 * @param inProgress progress dialog, or null
+	 * @param inPercent percentage done
+	 */
+	private static void showProgress(GenericProgressDialog inProgress, int inPercent)
+	{
+		if (inProgress != null) {
+			inProgress.showProgress(inPercent, 100);
 		}
 	}
 
 	/**
-	 * Build a sorted list of all the segment start points and end points
-	 * Creates a TreeSet containing two SegmentEnd objects for each segment
+	 * Build a list of all the segment start points and end points,
+	 * and remember the start and end index of each segment
 	 * @param inTrack track object
-	 * @return sorted list of segment ends
+	 * @return list of segment ends, two for each segment
 	 */
-	private static TreeSet<SegmentEnd> buildNodeList(Track inTrack)
+	private ArrayList<SegmentEnd> buildNodeList(Track inTrack)
 	{
-		TreeSet<SegmentEnd> nodes = new TreeSet<SegmentEnd>();
+		ArrayList<SegmentEnd> nodes = new ArrayList<SegmentEnd>();
 		final int numPoints = inTrack.getNumPoints();
-		DataPoint prevTrackPoint = null;
-		int       prevTrackPointIndex = -1;
-		SegmentEnd segmentStart = null;
+		_segmentStarts = new int[16];
+		_segmentEnds = new int[16];
+		_numSegments = 0;
+		DataPoint prevTrackPoint = null, segmentStartPoint = null;
+		int prevTrackPointIndex = -1, segmentStartIndex = -1;
 		for (int i=0; i<numPoints; i++)
 		{
 			DataPoint point = inTrack.getPoint(i);
@@ -167,137 +173,305 @@ public class SewTrackSegmentsFunction extends GenericFunction implements Runnabl
 				if (point.getSegmentStart())
 				{
 					// Start of new segment - does previous one need to be saved?
-					if (segmentStart != null && prevTrackPointIndex > 0 && prevTrackPointIndex != segmentStart.getPointIndex())
-					{
-						// Finish previous segment and store in list
-						SegmentEnd segmentEnd = new SegmentEnd(prevTrackPoint, prevTrackPointIndex);
-						segmentStart.setOtherEnd(segmentEnd);
-						segmentEnd.setOtherEnd(segmentStart);
-						// Don't add closed loops
-						if (!segmentStart.atSamePointAs(segmentEnd))
-						{
-							nodes.add(segmentStart);
-							nodes.add(segmentEnd);
-						}
-					}
+					addSegment(nodes, segmentStartPoint, segmentStartIndex, prevTrackPoint, prevTrackPointIndex);
 					// Remember segment start
-					segmentStart = new SegmentEnd(point, i);
+					segmentStartPoint = point;
+					segmentStartIndex = i;
 				}
 				prevTrackPoint = point;
 				prevTrackPointIndex = i;
 			}
 		}
-		// Probably need to deal with segmentStart and prevTrackPoint, prevTrackPointIndex
-		if (segmentStart != null && prevTrackPointIndex > 0 && prevTrackPointIndex != segmentStart.getPointIndex())
+		// Finish last segment
+		addSegment(nodes, segmentStartPoint, segmentStartIndex, prevTrackPoint, prevTrackPointIndex);
+		return nodes;
+	}
+
+	/**
+	 * Add the segment to the list if it has more than one point and isn't a closed loop
+	 * @param inNodes list of segment ends
+	 * @param inStartPoint first point of segment
+	 * @param inStartIndex index of first point
+	 * @param inEndPoint last point of segment
+	 * @param inEndIndex index of last point
+	 */
+	private void addSegment(ArrayList<SegmentEnd> inNodes, DataPoint inStartPoint, int inStartIndex,
+		DataPoint inEndPoint, int inEndIndex)
+	{
+		if (inStartPoint == null || inEndIndex <= 0 || inEndIndex == inStartIndex) {
+			return;
+		}
+		SegmentEnd segmentStart = new SegmentEnd(inStartPoint, inStartIndex, _numSegments, true);
+		SegmentEnd segmentEnd = new SegmentEnd(inEndPoint, inEndIndex, _numSegments, false);
+		// Don't add closed loops
+		if (segmentStart.atSamePointAs(segmentEnd)) {
+			return;
+		}
+		if (_numSegments == _segmentStarts.length)
+		{
+			_segmentStarts = Arrays.copyOf(_segmentStarts, _numSegments * 2);
+			_segmentEnds = Arrays.copyOf(_segmentEnds, _numSegments * 2);
+		}
+		_segmentStarts[_numSegments] = inStartIndex;
+		_segmentEnds[_numSegments] = inEndIndex;
+		_numSegments++;
+		inNodes.add(segmentStart);
+		inNodes.add(segmentEnd);
+	}
+
+	/**
+	 * Find the pairs of segment ends at the same location
+	 * (we're not interested in three or more at the same location)
+	 * @param inNodes sorted list of segment ends
+	 * @return number of joins which will be made
+	 */
+	private int findPairs(ArrayList<SegmentEnd> inNodes)
+	{
+		_partners = new int[_numSegments * 2];
+		Arrays.fill(_partners, -1);
+		// Union-find of the segments, to avoid closing a chain into a loop
+		int[] chains = new int[_numSegments];
+		for (int i=0; i<_numSegments; i++) {
+			chains[i] = i;
+		}
+		int numJoins = 0;
+		final int numNodes = inNodes.size();
+		int groupStart = 0;
+		while (groupStart < numNodes)
 		{
-			// Finish last segment and store in list
-			SegmentEnd segmentEnd = new SegmentEnd(prevTrackPoint, prevTrackPointIndex);
-			segmentStart.setOtherEnd(segmentEnd);
-			segmentEnd.setOtherEnd(segmentStart);
-			// Don't add closed loops
-			if (!segmentStart.atSamePointAs(segmentEnd))
+			int groupEnd = groupStart + 1;
+			while (groupEnd < numNodes && inNodes.get(groupEnd).atSamePointAs(inNodes.get(groupStart))) {
+				groupEnd++;
+			}
+			if (groupEnd - groupStart == 2)
 			{
-				nodes.add(segmentStart);
-				nodes.add(segmentEnd);
+				SegmentEnd first = inNodes.get(groupStart), second = inNodes.get(groupStart + 1);
+				final int firstChain = findChain(chains, first.getSegmentNum());
+				final int secondChain = findChain(chains, second.getSegmentNum());
+				if (firstChain != secondChain)
+				{
+					chains[secondChain] = firstChain;
+					final int firstId = getNodeId(first), secondId = getNodeId(second);
+					_partners[firstId] = secondId;
+					_partners[secondId] = firstId;
+					numJoins++;
+				}
 			}
+			groupStart = groupEnd;
 		}
-		return nodes;
+		return numJoins;
 	}
 
 	/**
-	 * Join the two segments together represented by the given nodes
-	 * @param inFirstNode first node (order doesn't matter)
-	 * @param inSecondNode other node
+	 * @param inChains array of parent chains
+	 * @param inSegment segment number
+	 * @return number of the chain containing this segment
 	 */
-	private void joinSegments(SegmentEnd inFirstNode, SegmentEnd inSecondNode)
+	private static int findChain(int[] inChains, int inSegment)
 	{
-		final Track track = _app.getTrackInfo().getTrack();
-		// System.out.println("Join: (" + inFirstNode.getPointIndex() + "-" + inFirstNode.getOtherPointIndex() + ") with ("
-		//	+ inSecondNode.getPointIndex() + "-" + inSecondNode.getOtherPointIndex() + ")");
-		// System.out.println("    : " + (inFirstNode.isStart() ? "start" : "end") + " to " + (inSecondNode.isStart() ? "start" : "end"));
-		final boolean moveSecondBeforeFirst = inFirstNode.isStart();
-		if (inFirstNode.isStart() == inSecondNode.isStart())
+		int chain = inSegment;
+		while (inChains[chain] != chain)
+		{
+			inChains[chain] = inChains[inChains[chain]];
+			chain = inChains[chain];
+		}
+		return chain;
+	}
+
+	/**
+	 * @param inNode segment end
+	 * @return id of this segment end, 2n for the start or 2n+1 for the end of segment n
+	 */
+	private static int getNodeId(SegmentEnd inNode)
+	{
+		return inNode.getSegmentNum() * 2 + (inNode.isStart() ? 0 : 1);
+	}
+
+	/**
+	 * Rebuild the point array, putting each chain of joined segments
+	 * where its earliest segment was, and keeping the direction of that segment
+	 * @param inTrack track object
+	 * @param inProgress progress dialog
+	 * @return new array of points, or null if cancelled
+	 */
+	private DataPoint[] rebuildPoints(Track inTrack, GenericProgressDialog inProgress)
+	{
+		final int numPoints = inTrack.getNumPoints();
+		DataPoint[] points = new DataPoint[numPoints];
+		_newStarts = new int[_numSegments];
+		Arrays.fill(_newStarts, -1);
+		_reversed = new boolean[_numSegments];
+		_chainEnds = new int[_numSegments];
+		_numChainEnds = 0;
+		int[] chain = new int[_numSegments];
+		int pointIndex = 0, copiedUpTo = 0;
+		for (int s=0; s<_numSegments; s++)
 		{
-			if (track.reverseRange(inSecondNode.getEarlierIndex(), inSecondNode.getLaterIndex()))
+			// Copy the points between the previous segment and this one
+			pointIndex = copyPoints(inTrack, copiedUpTo, _segmentStarts[s] - 1, false, points, pointIndex);
+			copiedUpTo = _segmentEnds[s] + 1;
+			if (_newStarts[s] >= 0) {continue;} // already placed
+			// Follow the chain in both directions from this segment
+			final int chainLength = followChain(s, chain);
+			for (int c=0; c<chainLength; c++)
 			{
-				inSecondNode.reverseSegment();
-				// System.out.println("    : Reverse segment: " + inSecondNode.getEarlierIndex() + " - " + inSecondNode.getLaterIndex());
+				final int segment = chain[c];
+				_newStarts[segment] = pointIndex;
+				pointIndex = copyPoints(inTrack, _segmentStarts[segment], _segmentEnds[segment],
+					_reversed[segment], points, pointIndex);
 			}
-			else {
-				System.err.println("Oops, reverse range didn't work");
-				// TODO: Abort?
+			if (chainLength > 1) {
+				_chainEnds[_numChainEnds++] = pointIndex;
 			}
+			if (_cancelled) {return null;}
+			showProgress(inProgress, 30 + (int) (60.0 * s / _numSegments));
 		}
-		if (moveSecondBeforeFirst)
+		copyPoints(inTrack, copiedUpTo, numPoints - 1, false, points, pointIndex);
+		return points;
+	}
+
+	/**
+	 * Find all the segments joined to the given one, in order
+	 * @param inSegment segment to start from
+	 * @param inChain array to fill with the segment numbers
+	 * @return number of segments in the chain
+	 */
+	private int followChain(int inSegment, int[] inChain)
+	{
+		// First go backwards from the start of this segment, putting the segments at the end of the array
+		int numBefore = 0;
+		int node = _partners[inSegment * 2];
+		while (node >= 0)
 		{
-			if ((inSecondNode.getLaterIndex()+1) != inFirstNode.getPointIndex())
-			{
-				// System.out.println("    : Move second segment before first");
-				cutAndMoveSegment(inSecondNode.getEarlierIndex(), inSecondNode.getLaterIndex(), inFirstNode.getPointIndex());
-			}
+			final int segment = node / 2;
+			// If we arrived at the end of the segment, it keeps its direction
+			final boolean arrivedAtStart = (node % 2 == 0);
+			numBefore++;
+			inChain[inChain.length - numBefore] = segment;
+			_reversed[segment] = arrivedAtStart;
+			node = _partners[arrivedAtStart ? node + 1 : node - 1];
+		}
+		// Move them to the beginning
+		System.arraycopy(inChain, inChain.length - numBefore, inChain, 0, numBefore);
+		int chainLength = numBefore;
+		inChain[chainLength++] = inSegment;
+		_reversed[inSegment] = false;
+		// Then go forwards from the end of this segment
+		node = _partners[inSegment * 2 + 1];
+		while (node >= 0)
+		{
+			final int segment = node / 2;
+			// If we arrived at the start of the segment, it keeps its direction
+			final boolean arrivedAtStart = (node % 2 == 0);
+			inChain[chainLength++] = segment;
+			_reversed[segment] = !arrivedAtStart;
+			node = _partners[arrivedAtStart ? node + 1 : node - 1];
 		}
-		else if ((inFirstNode.getLaterIndex()+1) != inSecondNode.getPointIndex())
+		return chainLength;
+	}
+
+	/**
+	 * Copy a range of points into the new array
+	 * @param inTrack track object
+	 * @param inStart start index (inclusive)
+	 * @param inEnd end index (inclusive)
+	 * @param inReverse true to copy the points in reverse order
+	 * @param inPoints new point array
+	 * @param inIndex index at which to start copying
+	 * @return index after the copied points
+	 */
+	private static int copyPoints(Track inTrack, int inStart, int inEnd, boolean inReverse,
+		DataPoint[] inPoints, int inIndex)
+	{
+		int index = inIndex;
+		if (inReverse)
 		{
-			// System.out.println("    : Move first segment before second (because " + (inFirstNode.getLaterIndex()+1) + " isn't " + inSecondNode.getPointIndex() + ")");
-			cutAndMoveSegment(inFirstNode.getEarlierIndex(), inFirstNode.getLaterIndex(), inSecondNode.getPointIndex());
+			for (int i=inEnd; i>=inStart; i--) {
+				inPoints[index++] = inTrack.getPoint(i);
+			}
 		}
-		// Now merge the SegmentEnds so that they're not split up again
-		if (inSecondNode.getEarlierIndex() == (inFirstNode.getLaterIndex()+1)) {
-			// System.out.println("second node is now directly after the first node");
+		else
+		{
+			for (int i=inStart; i<=inEnd; i++) {
+				inPoints[index++] = inTrack.getPoint(i);
+			}
 		}
-		else if (inFirstNode.getEarlierIndex() == (inSecondNode.getLaterIndex()+1)) {
-			//System.out.println("first node is now directly after the second node");
+		return index;
+	}
+
+	/**
+	 * Set the segment flags so that each segment starts with a segment flag,
+	 * including the reversed ones, and the point after each chain starts a new segment
+	 * @param inPoints rebuilt point array
+	 */
+	private void setSegmentFlags(DataPoint[] inPoints)
+	{
+		for (int s=0; s<_numSegments; s++)
+		{
+			final int start = _newStarts[s];
+			if (_reversed[s]) {
+				shiftSegmentStarts(inPoints, start, start + _segmentEnds[s] - _segmentStarts[s]);
+			}
+			setSegmentStart(inPoints, start);
 		}
-		else {
-			System.err.println("Why aren't the segments directly consecutive after the join?");
+		for (int i=0; i<_numChainEnds; i++) {
+			setSegmentStart(inPoints, _chainEnds[i]);
 		}
-		// Find the earliest and latest ends of these two segments
-		SegmentEnd earlierSegmentEnd = (inFirstNode.getEarlierIndex() < inSecondNode.getEarlierIndex() ? inFirstNode : inSecondNode).getEarlierEnd();
-		SegmentEnd laterSegmentEnd   = (inFirstNode.getLaterIndex() > inSecondNode.getLaterIndex() ? inFirstNode : inSecondNode).getLaterEnd();
-		// Get rid of the inner two segment ends, join the earliest and latest together
-		earlierSegmentEnd.getOtherEnd().deactivate();
-		laterSegmentEnd.getOtherEnd().deactivate();
-		earlierSegmentEnd.setOtherEnd(laterSegmentEnd);
-		laterSegmentEnd.setOtherEnd(earlierSegmentEnd);
 	}
 
 	/**
-	 * Cut and move the segment to a different position
-	 * @param inSegmentStart start index of segment
-	 * @param inSegmentEnd end index of segment
-	 * @param inMoveToPos index before which the segment should be moved
+	 * Shift the segment flags of a reversed range, in the same way as Track.shiftSegmentStarts
+	 * @param inPoints point array
+	 * @param inStart start index
+	 * @param inEnd end index
 	 */
-	private void cutAndMoveSegment(int inSegmentStart, int inSegmentEnd, int inMoveToPos)
+	private static void shiftSegmentStarts(DataPoint[] inPoints, int inStart, int inEnd)
 	{
-		if (!_app.getTrackInfo().getTrack().cutAndMoveSection(inSegmentStart, inSegmentEnd, inMoveToPos))
+		boolean prevFlag = true;
+		for (int i=inStart; i<=inEnd; i++)
 		{
-			System.err.println("   Oops, cut and move didn't work");
-			// TODO: Throw exception? Return false?
+			DataPoint point = inPoints[i];
+			if (point != null && !point.isWaypoint())
+			{
+				final boolean currFlag = point.getSegmentStart();
+				point.setSegmentStart(prevFlag);
+				prevFlag = currFlag;
+			}
 		}
-		else
+	}
+
+	/**
+	 * Set the segment flag of the next track point from the given index
+	 * @param inPoints point array
+	 * @param inIndex index to start looking from
+	 */
+	private static void setSegmentStart(DataPoint[] inPoints, int inIndex)
+	{
+		for (int i=inIndex; i<inPoints.length; i++)
 		{
-			// Loop over each node to inform it of the index changes
-			for (SegmentEnd node : _nodes) {
-				node.adjustPointIndex(inSegmentStart, inSegmentEnd, inMoveToPos);
+			if (inPoints[i].isValid() && !inPoints[i].isWaypoint())
+			{
+				inPoints[i].setSegmentStart(true);
+				return;
 			}
 		}
 	}
 
 	/**
 	 * The final step of the sewing, removing the duplicate points at the start of each segment
-	 * @param inTrack track object
-	 * @return number of points deleted
+	 * @param inPoints point array
+	 * @return new point array without the duplicates
 	 */
-	private static int deleteSegmentStartPoints(Track inTrack)
+	private static DataPoint[] deleteSegmentStartPoints(DataPoint[] inPoints)
 	{
-		final int numPoints = inTrack.getNumPoints();
+		final int numPoints = inPoints.length;
 		boolean[] deleteFlags = new boolean[numPoints];
 		// Loop over points in track, setting delete flags
 		int numToDelete = 0;
 		DataPoint prevPoint = null;
 		for (int i=0; i<numPoints; i++)
 		{
-			DataPoint point = inTrack.getPoint(i);
+			DataPoint point = inPoints[i];
 			if (!point.isWaypoint())
 			{
 				if (prevPoint != null && point.getSegmentStart() && point.isDuplicate(prevPoint))
@@ -315,13 +489,11 @@ public class SewTrackSegmentsFunction extends GenericFunction implements Runnabl
 		for (int i=0; i<numPoints; i++)
 		{
 			if (!deleteFlags[i]) {
-				pointCopies[copyIndex] = inTrack.getPoint(i);
+				pointCopies[copyIndex] = inPoints[i];
 				copyIndex++;
 			}
 		}
-		// Finally, replace the copied points in the track
-		inTrack.replaceContents(pointCopies);
-		return numToDelete;
+		return pointCopies;
 	}
 
 	/** Function cancelled by progress dialog */
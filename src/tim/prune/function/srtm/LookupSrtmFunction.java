@@ -4,8 +4,16 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.net.URL;
-import java.util.HashSet;
-import java.util.zip.ZipEntry;
+import java.nio.ShortBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.zip.ZipInputStream;
 
 import javax.swing.JOptionPane;
@@ -42,14 +50,33 @@ public class LookupSrtmFunction extends GenericFunction implements Runnable
 	private boolean _hadToDownload = false;
 	/** Count the number of tiles downloaded and cached */
 	private int _numCached = 0;
+	/** Count the number of tiles finished, for the progress bar */
+	private int _numTilesDone = 0;
 	/** Flag to check whether this function is currently running or not */
 	private boolean _running = false;
 
-	/** Expected size of hgt file in bytes */
-	private static final long HGT_SIZE = 2884802L;
 	/** Altitude below which is considered void */
 	private static final int VOID_VAL = -32768;
 
+
+	/**
+	 * Growable list of the indices of the points within a single tile
+	 */
+	private static final class PointBucket
+	{
+		private int[] _indices = new int[16];
+		private int _numPoints = 0;
+
+		/** Add the given point index */
+		private void add(int inIndex)
+		{
+			if (_numPoints == _indices.length) {
+				_indices = Arrays.copyOf(_indices, _numPoints * 2);
+			}
+			_indices[_numPoints++] = inIndex;
+		}
+	}
+
 	/**
 	 * Constructor
 	 * @param inApp  App object
@@ -127,18 +154,26 @@ public class LookupSrtmFunction extends GenericFunction implements Runnable
 			overwriteZeros = true;
 		}
 
-		// Now loop again to extract the required tiles
-		HashSet<SrtmTile> tileSet = new HashSet<SrtmTile>();
+		// Now loop again to put the points needing altitudes into a bucket for each tile
+		LinkedHashMap<SrtmTile, PointBucket> buckets = new LinkedHashMap<SrtmTile, PointBucket>();
 		for (int i = 0; i < _track.getNumPoints(); i++)
 		{
 			// Consider points which don't have altitudes or have zero values
-			if (!_track.getPoint(i).hasAltitude()
-				|| (overwriteZeros && _track.getPoint(i).getAltitude().getValue() == 0))
+			DataPoint point = _track.getPoint(i);
+			if (!point.hasAltitude()
+				|| (overwriteZeros && point.getAltitude().getValue() == 0))
 			{
-				tileSet.add(new SrtmTile(_track.getPoint(i)));
+				SrtmTile tile = new SrtmTile(point);
+				PointBucket bucket = buckets.get(tile);
+				if (bucket == null)
+				{
+					bucket = new PointBucket();
+					buckets.put(tile, bucket);
+				}
+				bucket.add(i);
 			}
 		}
-		lookupValues(tileSet, overwriteZeros);
+		lookupValues(buckets);
 		// Finished
 		_running = false;
 		// Show tip if lots of online lookups were necessary
@@ -152,17 +187,18 @@ public class LookupSrtmFunction extends GenericFunction implements Runnable
 
 
 	/**
-	 * Lookup the values from SRTM data
-	 * @param inTileSet set of tiles to get
-	 * @param inOverwriteZeros true to overwrite zero altitude values
+	 * Lookup the values from SRTM data.
+	 * The tiles are read and interpolated in parallel, then the altitudes
+	 * are all set on this thread afterwards, as setting a field may change
+	 * the field list shared between points.
+	 * @param inBuckets indices of the points to look up for each tile
 	 */
-	private void lookupValues(HashSet<SrtmTile> inTileSet, boolean inOverwriteZeros)
+	private void lookupValues(Map<SrtmTile, PointBucket> inBuckets)
 	{
 		UndoLookupSrtm undo = new UndoLookupSrtm(_app.getTrackInfo());
-		int numAltitudesFound = 0;
 		TileFinder tileFinder = new TileFinder();
 		String errorMessage = null;
-		final int numTiles = inTileSet.size();
+		final int numTiles = inBuckets.size();
 
 		// Update progress bar
 		if (_progress != null)
@@ -170,51 +206,61 @@ public class LookupSrtmFunction extends GenericFunction implements Runnable
 			_progress.setMaximum(numTiles);
 			_progress.setValue(0);
 		}
-		int currentTileIndex = 0;
 		_numCached = 0;
-		for (SrtmTile tile : inTileSet)
+		_numTilesDone = 0;
+		// Altitude for each point, or NaN if not found
+		final double[] altitudes = new double[_track.getNumPoints()];
+		Arrays.fill(altitudes, Double.NaN);
+		final int numThreads = Math.max(1, Math.min(numTiles, Runtime.getRuntime().availableProcessors()));
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		ArrayList<Future<String>> results = new ArrayList<Future<String>>();
+		for (Map.Entry<SrtmTile, PointBucket> entry : inBuckets.entrySet())
 		{
-			URL url = tileFinder.getUrl(tile);
-			if (url != null)
-			{
-				try
+			final SrtmTile tile = entry.getKey();
+			final PointBucket bucket = entry.getValue();
+			final URL url = tileFinder.getUrl(tile);
+			if (url == null) {
+				continue;
+			}
+			results.add(executor.submit(new Callable<String>() {
+				public String call()
 				{
-					// Set progress
-					_progress.setValue(currentTileIndex++);
-					final int ARRLENGTH = 1201 * 1201;
-					int[] heights = new int[ARRLENGTH];
-					// Open zipinputstream on url and check size
-					ZipInputStream inStream = getStreamToSrtmData(url);
-					boolean entryOk = false;
-					if (inStream != null)
+					if (_progress.isCancelled()) {
+						return null;
+					}
+					try
 					{
-						ZipEntry entry = inStream.getNextEntry();
-						entryOk = (entry != null && entry.getSize() == HGT_SIZE);
-						if (entryOk)
-						{
-							// Read entire file contents into one byte array
-							for (int i = 0; i < ARRLENGTH; i++)
-							{
-								heights[i] = inStream.read() * 256 + inStream.read();
-								if (heights[i] >= 32768) {heights[i] -= 65536;}
-							}
+						ShortBuffer heights = getHeights(tile, url);
+						if (heights != null) {
+							interpolateAltitudes(tile, heights, bucket, altitudes);
 						}
-						// else {
-						//	System.out.println("length not ok: " + entry.getSize());
-						// }
-						// Close stream from url
-						inStream.close();
+						return null;
 					}
-
-					if (entryOk)
-					{
-						numAltitudesFound += applySrtmTileToWholeTrack(tile, heights, inOverwriteZeros);
+					catch (IOException ioe) {
+						return ioe.getClass().getName() + " - " + ioe.getMessage();
+					}
+					finally {
+						tileFinished();
 					}
 				}
-				catch (IOException ioe) {
-					errorMessage = ioe.getClass().getName() + " - " + ioe.getMessage();
+			}));
+		}
+		executor.shutdown();
+		for (Future<String> result : results)
+		{
+			try
+			{
+				String message = result.get();
+				if (message != null) {
+					errorMessage = message;
 				}
 			}
+			catch (InterruptedException e) {
+				errorMessage = e.getClass().getName();
+			}
+			catch (ExecutionException e) {
+				errorMessage = e.getCause().getClass().getName() + " - " + e.getCause().getMessage();
+			}
 		}
 
 		_progress.dispose();
@@ -222,6 +268,21 @@ public class LookupSrtmFunction extends GenericFunction implements Runnable
 			return;
 		}
 
+		// Set the altitudes found, all covered by the single undo
+		int numAltitudesFound = 0;
+		for (int p = 0; p < altitudes.length; p++)
+		{
+			final double altitude = altitudes[p];
+			if (!Double.isNaN(altitude))
+			{
+				DataPoint point = _track.getPoint(p);
+				point.setFieldValue(Field.ALTITUDE, ""+altitude, false);
+				// depending on settings, this value may have been added as feet, we need to force metres
+				point.getAltitude().reset(new Altitude((int)altitude, UnitSetLibrary.UNITS_METRES));
+				numAltitudesFound++;
+			}
+		}
+
 		if (numAltitudesFound > 0)
 		{
 			// Inform app including undo information
@@ -245,6 +306,50 @@ public class LookupSrtmFunction extends GenericFunction implements Runnable
 		}
 	}
 
+	/**
+	 * A tile has been finished, so move the progress bar on
+	 */
+	private synchronized void tileFinished()
+	{
+		_numTilesDone++;
+		_progress.setValue(_numTilesDone);
+	}
+
+	/**
+	 * Count a tile which was downloaded into the cache
+	 */
+	private synchronized void tileCached()
+	{
+		_numCached++;
+	}
+
+	/**
+	 * Get the heights for the given tile, either already decoded or from the zip file
+	 * @param inTile tile to get
+	 * @param inUrl URL for online resource
+	 * @return buffer of heights, or null if not available
+	 */
+	private ShortBuffer getHeights(SrtmTile inTile, URL inUrl)
+	throws IOException
+	{
+		ShortBuffer heights = SrtmTileStore.getHeights(inTile);
+		if (heights == null)
+		{
+			// Open zipinputstream on url, and unzip it into the store
+			ZipInputStream inStream = getStreamToSrtmData(inUrl);
+			if (inStream != null)
+			{
+				try {
+					heights = SrtmTileStore.storeHeights(inTile, inStream);
+				}
+				finally {
+					inStream.close();
+				}
+			}
+		}
+		return heights;
+	}
+
 	/**
 	 * See whether the SRTM file is already available locally first, then try online
 	 * @param inUrl URL for online resource
@@ -270,7 +375,7 @@ public class LookupSrtmFunction extends GenericFunction implements Runnable
 		// System.out.println("Result: " + result);
 		if (result == TileDownloader.Result.DOWNLOADED)
 		{
-			_numCached++;
+			tileCached();
 			return getStreamToLocalHgtFile(inUrl);
 		}
 		// If we don't have a cache, we may be able to download it temporarily
@@ -311,62 +416,47 @@ public class LookupSrtmFunction extends GenericFunction implements Runnable
 	}
 
 	/**
-	 * Given the height data read in from file, apply the given tile to all points
-	 * in the track with missing altitude
+	 * Given the height data read in from file, interpolate the altitudes
+	 * of all the points in the tile's bucket
 	 * @param inTile tile being applied
 	 * @param inHeights height data read in from file
-	 * @param inOverwriteZeros true to overwrite zero altitude values
-	 * @return number of altitudes found
+	 * @param inBucket indices of points within this tile
+	 * @param inAltitudes array to fill with altitudes, indexed by point
 	 */
-	private int applySrtmTileToWholeTrack(SrtmTile inTile, int[] inHeights, boolean inOverwriteZeros)
+	private void interpolateAltitudes(SrtmTile inTile, ShortBuffer inHeights, PointBucket inBucket,
+		double[] inAltitudes)
 	{
-		int numAltitudesFound = 0;
-		// Loop over all points in track, try to apply altitude from array
-		for (int p = 0; p < _track.getNumPoints(); p++)
+		for (int b = 0; b < inBucket._numPoints; b++)
 		{
+			final int p = inBucket._indices[b];
 			DataPoint point = _track.getPoint(p);
-			if (!point.hasAltitude()
-				|| (inOverwriteZeros && point.getAltitude().getValue() == 0))
+			double x = (point.getLongitude().getDouble() - inTile.getLongitude()) * 1200;
+			double y = 1201 - (point.getLatitude().getDouble() - inTile.getLatitude()) * 1200;
+			int idx1 = ((int)y)*1201 + (int)x;
+			try
 			{
-				if (new SrtmTile(point).equals(inTile))
+				int[] fouralts = {inHeights.get(idx1), inHeights.get(idx1+1), inHeights.get(idx1-1201), inHeights.get(idx1-1200)};
+				int numVoids = (fouralts[0]==VOID_VAL?1:0) + (fouralts[1]==VOID_VAL?1:0)
+					+ (fouralts[2]==VOID_VAL?1:0) + (fouralts[3]==VOID_VAL?1:0);
+				double altitude = 0.0;
+				switch (numVoids)
 				{
-					double x = (point.getLongitude().getDouble() - inTile.getLongitude()) * 1200;
-					double y = 1201 - (point.getLatitude().getDouble() - inTile.getLatitude()) * 1200;
-					int idx1 = ((int)y)*1201 + (int)x;
-					try
-					{
-						int[] fouralts = {inHeights[idx1], inHeights[idx1+1], inHeights[idx1-1201], inHeights[idx1-1200]};
-						int numVoids = (fouralts[0]==VOID_VAL?1:0) + (fouralts[1]==VOID_VAL?1:0)
-							+ (fouralts[2]==VOID_VAL?1:0) + (fouralts[3]==VOID_VAL?1:0);
-						// if (numVoids > 0) System.out.println(numVoids + " voids found");
-						double altitude = 0.0;
-						switch (numVoids)
-						{
-							case 0:	altitude = bilinearInterpolate(fouralts, x, y); break;
-							case 1: altitude = bilinearInterpolate(fixVoid(fouralts), x, y); break;
-							case 2:
-							case 3: altitude = averageNonVoid(fouralts); break;
-							default: altitude = VOID_VAL;
-						}
-						// Special case for terrain tracks, don't interpolate voids yet
-						if (!_normalTrack && numVoids > 0) {
-							altitude = VOID_VAL;
-						}
-						if (altitude != VOID_VAL)
-						{
-							point.setFieldValue(Field.ALTITUDE, ""+altitude, false);
-							// depending on settings, this value may have been added as feet, we need to force metres
-							point.getAltitude().reset(new Altitude((int)altitude, UnitSetLibrary.UNITS_METRES));
-							numAltitudesFound++;
-						}
-					}
-					catch (ArrayIndexOutOfBoundsException obe) {
-						// System.err.println("lat=" + point.getLatitude().getDouble() + ", x=" + x + ", y=" + y + ", idx=" + idx1);
-					}
+					case 0:	altitude = bilinearInterpolate(fouralts, x, y); break;
+					case 1: altitude = bilinearInterpolate(fixVoid(fouralts), x, y); break;
+					case 2:
+					case 3: altitude = averageNonVoid(fouralts); break;
+					default: altitude = VOID_VAL;
+				}
+				// Special case for terrain tracks, don't interpolate voids yet
+				if (!_normalTrack && numVoids > 0) {
+					altitude = VOID_VAL;
+				}
+				if (altitude != VOID_VAL) {
+					inAltitudes[p] = altitude;
 				}
 			}
+			catch (IndexOutOfBoundsException obe) {} // point outside tile, ignore
 		}
-		return numAltitudesFound;
 	}
 
 	/**
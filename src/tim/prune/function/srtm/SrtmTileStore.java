@@ -0,0 +1,183 @@
+package tim.prune.function.srtm;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+import tim.prune.config.Config;
+
+/**
+ * Class to hold the decoded height data of SRTM tiles.
+ * Each tile is unzipped just once into a raw hgt file in the disk cache,
+ * which is then memory-mapped, so that later lookups don't need to read
+ * or unzip anything. The most recently used tiles are kept ready.
+ */
+public abstract class SrtmTileStore
+{
+	/** Recently used tiles, most recently used last */
+	private static final Map<SrtmTile, ShortBuffer> TILES = new LinkedHashMap<SrtmTile, ShortBuffer>(32, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<SrtmTile, ShortBuffer> inEldest) {
+			return size() > MAX_NUM_TILES;
+		}
+	};
+
+	/** Maximum number of tiles to keep */
+	private static final int MAX_NUM_TILES = 16;
+	/** Expected size of hgt file in bytes */
+	public static final int HGT_SIZE = 1201 * 1201 * 2;
+
+
+	/**
+	 * Get the heights for the given tile, if they're available without downloading or unzipping
+	 * @param inTile tile to get
+	 * @return buffer of 1201 x 1201 heights, or null if not available
+	 */
+	public static synchronized ShortBuffer getHeights(SrtmTile inTile)
+	{
+		ShortBuffer heights = TILES.get(inTile);
+		if (heights == null)
+		{
+			File rawFile = getRawFile(inTile);
+			if (rawFile != null && rawFile.isFile() && rawFile.length() == HGT_SIZE)
+			{
+				try
+				{
+					heights = mapFile(rawFile);
+					TILES.put(inTile, heights);
+				}
+				catch (IOException ioe) {
+					System.err.println("Failed to map " + rawFile.getName() + ": " + ioe.getMessage());
+				}
+			}
+		}
+		return heights;
+	}
+
+	/**
+	 * Unzip the heights for the given tile from the stream, and keep them for later
+	 * @param inTile tile being read
+	 * @param inStream zip stream containing hgt file
+	 * @return buffer of 1201 x 1201 heights, or null if the stream didn't contain them
+	 * @throws IOException if the stream couldn't be read
+	 */
+	public static ShortBuffer storeHeights(SrtmTile inTile, ZipInputStream inStream) throws IOException
+	{
+		ZipEntry entry = inStream.getNextEntry();
+		// Size may be unknown until the entry has been read, in which case the read has to fill the array
+		if (entry == null || (entry.getSize() != HGT_SIZE && entry.getSize() >= 0L)) {
+			return null;
+		}
+		byte[] data = new byte[HGT_SIZE];
+		int totalRead = 0;
+		while (totalRead < HGT_SIZE)
+		{
+			final int numRead = inStream.read(data, totalRead, HGT_SIZE - totalRead);
+			if (numRead < 0) {
+				return null;
+			}
+			totalRead += numRead;
+		}
+
+		ShortBuffer heights = null;
+		File rawFile = getRawFile(inTile);
+		if (rawFile != null && saveRawFile(data, rawFile))
+		{
+			// Use the mapped file so the data doesn't have to stay on the heap
+			try {
+				heights = mapFile(rawFile);
+			}
+			catch (IOException ioe) {} // just keep data in memory
+		}
+		if (heights == null) {
+			heights = ByteBuffer.wrap(data).asShortBuffer().asReadOnlyBuffer();
+		}
+		synchronized (SrtmTileStore.class)
+		{
+			TILES.put(inTile, heights);
+		}
+		return heights;
+	}
+
+	/**
+	 * Forget all the tiles held in memory
+	 */
+	public static synchronized void clear()
+	{
+		TILES.clear();
+	}
+
+	/**
+	 * @param inTile srtm tile
+	 * @return file to hold raw hgt data in the disk cache, or null if there's no disk cache
+	 */
+	private static File getRawFile(SrtmTile inTile)
+	{
+		final String diskCachePath = Config.getConfigString(Config.KEY_DISK_CACHE);
+		if (diskCachePath == null) {
+			return null;
+		}
+		final String zipName = inTile.getTileName();
+		return new File(new File(diskCachePath, "srtm"), zipName.substring(0, zipName.length() - 4));
+	}
+
+	/**
+	 * Save the raw data to file, via a temporary file so that a partial file can't be used
+	 * @param inData data to save
+	 * @param inFile file to write
+	 * @return true if file saved
+	 */
+	private static boolean saveRawFile(byte[] inData, File inFile)
+	{
+		File dir = inFile.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			return false;
+		}
+		File tempFile = new File(dir, inFile.getName() + ".temp");
+		FileOutputStream outStream = null;
+		boolean saved = false;
+		try
+		{
+			outStream = new FileOutputStream(tempFile);
+			outStream.write(inData);
+			outStream.close();
+			outStream = null;
+			saved = tempFile.renameTo(inFile) || (inFile.delete() && tempFile.renameTo(inFile));
+		}
+		catch (IOException ioe) {
+			System.err.println("Failed to save " + inFile.getName() + ": " + ioe.getMessage());
+		}
+		finally
+		{
+			try {if (outStream != null) outStream.close();} catch (IOException e) {}
+			if (!saved) {tempFile.delete();}
+		}
+		return saved;
+	}
+
+	/**
+	 * Map the given raw hgt file into memory
+	 * @param inFile file to map
+	 * @return read-only buffer of heights
+	 * @throws IOException if the file couldn't be mapped
+	 */
+	private static ShortBuffer mapFile(File inFile) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(inFile, "r");
+		try
+		{
+			// Mapping stays valid after the file is closed
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, HGT_SIZE).asShortBuffer();
+		}
+		finally {
+			raf.close();
+		}
+	}
+}
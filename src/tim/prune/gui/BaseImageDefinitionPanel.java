@@ -78,6 +78,14 @@ public class BaseImageDefinitionPanel extends JPanel implements BaseImageConsume
 		_baseImageConfig.setImageDefinition(inDefinition);
 	}
 
+	/**
+	 * @param inMaxSize maximum size of image in pixels
+	 */
+	public void setMaxImageSize(int inMaxSize)
+	{
+		_baseImageConfig.setMaxImageSize(inMaxSize);
+	}
+
 	/**
 	 * Change the base image by calling the BaseImageConfigDialog
 	 */
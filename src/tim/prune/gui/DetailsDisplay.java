@@ -8,6 +8,8 @@ import java.awt.Font;
 import java.awt.Insets;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
+import java.awt.event.HierarchyEvent;
+import java.awt.event.HierarchyListener;
 import java.util.TimeZone;
 
 import javax.swing.BorderFactory;
@@ -18,6 +20,7 @@ import javax.swing.JComboBox;
 import javax.swing.JLabel;
 import javax.swing.JPanel;
 import javax.swing.JProgressBar;
+import javax.swing.Timer;
 import javax.swing.border.EtchedBorder;
 
 import tim.prune.DataSubscriber;
@@ -32,6 +35,7 @@ import tim.prune.data.AudioClip;
 import tim.prune.data.Coordinate;
 import tim.prune.data.DataPoint;
 import tim.prune.data.Field;
+import tim.prune.data.IntegerRange;
 import tim.prune.data.Photo;
 import tim.prune.data.Selection;
 import tim.prune.data.SourceInfo;
@@ -64,6 +68,8 @@ public class DetailsDisplay extends GenericDisplay
 	private JLabel _durationLabel = null;
 	private JLabel _altRangeLabel = null, _updownLabel = null;
 	private JLabel _aveSpeedLabel = null;
+	/** Timer to show the climb and descent once the selection stops changing */
+	private Timer _climbTimer = null;
 
 	// Photo details
 	private JPanel _photoDetailsPanel = null;
@@ -112,6 +118,8 @@ public class DetailsDisplay extends GenericDisplay
 	private static final String LABEL_RANGE_DESCENT = ", " + I18nManager.getText("details.range.descent") + ": ";
 	private static final String LABEL_AUDIO_FILE = I18nManager.getText("details.audio.file") + ": ";
 	private static final String LABEL_FULL_PATH = I18nManager.getText("details.media.fullpath") + ": ";
+	/** Delay in milliseconds before working out the climb and descent of a changed range */
+	private static final int CLIMB_DELAY_MILLIS = 250;
 
 
 	/**
@@ -172,6 +180,20 @@ public class DetailsDisplay extends GenericDisplay
 		_altRangeLabel = new JLabel("");
 		rangeDetailsPanel.add(_altRangeLabel);
 		_updownLabel = new JLabel("");
+		_climbTimer = new Timer(CLIMB_DELAY_MILLIS, new ActionListener() {
+			public void actionPerformed(ActionEvent e) {
+				showClimbAndDescent();
+			}
+		});
+		_climbTimer.setRepeats(false);
+		_updownLabel.addHierarchyListener(new HierarchyListener() {
+			public void hierarchyChanged(HierarchyEvent e)
+			{
+				if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && _updownLabel.isShowing()) {
+					showClimbAndDescent();
+				}
+			}
+		});
 		rangeDetailsPanel.add(_updownLabel);
 		rangeDetailsPanel.setAlignmentX(Component.LEFT_ALIGNMENT);
 
@@ -288,6 +310,25 @@ public class DetailsDisplay extends GenericDisplay
 	}
 
 
+	/**
+	 * Show the climb and descent of the selected range, if they can be seen
+	 */
+	private void showClimbAndDescent()
+	{
+		Selection selection = _trackInfo.getSelection();
+		if (_track == null || !selection.hasRangeSelected() || !_updownLabel.isShowing()) {
+			return;
+		}
+		AltitudeRange altRange = selection.getAltitudeRange();
+		if (altRange.hasRange())
+		{
+			Unit altUnit = Config.getUnitSet().getAltitudeUnit();
+			String altUnitsLabel = I18nManager.getText(altUnit.getShortnameKey());
+			_updownLabel.setText(LABEL_RANGE_CLIMB + altRange.getClimb(altUnit) + altUnitsLabel
+				+ LABEL_RANGE_DESCENT + altRange.getDescent(altUnit) + altUnitsLabel);
+		}
+	}
+
 	/**
 	 * Notification that Track has been updated
 	 * @param inUpdateType byte to specify what has been updated
@@ -297,7 +338,6 @@ public class DetailsDisplay extends GenericDisplay
 		// Update current point data, if any
 		DataPoint currentPoint = _trackInfo.getCurrentPoint();
 		Selection selection = _trackInfo.getSelection();
-		if ((inUpdateType | DATA_ADDED_OR_REMOVED) > 0) selection.markInvalid();
 		int currentPointIndex = selection.getCurrentPointIndex();
 		_speedLabel.setText("");
 		UnitSet unitSet = UnitSetLibrary.getUnitSet(_distUnitsDropdown.getSelectedIndex());
@@ -436,6 +476,7 @@ public class DetailsDisplay extends GenericDisplay
 			_altRangeLabel.setText("");
 			_updownLabel.setText("");
 			_aveSpeedLabel.setText("");
+			_climbTimer.stop();
 		}
 		else
 		{
@@ -455,22 +496,24 @@ public class DetailsDisplay extends GenericDisplay
 				_durationLabel.setText("");
 				_aveSpeedLabel.setText("");
 			}
-			AltitudeRange altRange = selection.getAltitudeRange();
+			IntegerRange extremes = selection.getAltitudeExtremes();
 			Unit altUnit = Config.getUnitSet().getAltitudeUnit();
 			String altUnitsLabel = I18nManager.getText(altUnit.getShortnameKey());
-			if (altRange.hasRange())
+			if (extremes.hasValues())
 			{
 				_altRangeLabel.setText(LABEL_RANGE_ALTITUDE
-					+ altRange.getMinimum(altUnit) + altUnitsLabel + " "
+					+ (int) (extremes.getMinimum() * altUnit.getMultFactorFromStd()) + altUnitsLabel + " "
 					+ I18nManager.getText("details.altitude.to") + " "
-					+ altRange.getMaximum(altUnit) + altUnitsLabel);
-				_updownLabel.setText(LABEL_RANGE_CLIMB + altRange.getClimb(altUnit) + altUnitsLabel
-					+ LABEL_RANGE_DESCENT + altRange.getDescent(altUnit) + altUnitsLabel);
+					+ (int) (extremes.getMaximum() * altUnit.getMultFactorFromStd()) + altUnitsLabel);
+				// Climb and descent go through the whole range, so wait until it stops changing
+				_updownLabel.setText("");
+				_climbTimer.restart();
 			}
 			else
 			{
 				_altRangeLabel.setText("");
 				_updownLabel.setText("");
+				_climbTimer.stop();
 			}
 		}
 		// show photo details and thumbnail
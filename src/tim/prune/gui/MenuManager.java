@@ -56,6 +56,7 @@ public class MenuManager implements DataSubscriber
 	private JMenuItem _exportGpxItem = null;
 	private JMenuItem _exportPovItem = null;
 	private JMenuItem _exportImageItem = null;
+	private JMenuItem _saveSessionItem = null;
 	private JMenu     _recentFileMenu = null;
 	private JMenuItem _undoItem = null;
 	private JMenuItem _clearUndoItem = null;
@@ -103,6 +104,7 @@ public class MenuManager implements DataSubscriber
 	private JMenuItem _searchOpencachingDeItem = null;
 	private JMenuItem _searchMapillaryItem = null;
 	private JMenuItem _downloadOsmItem = null;
+	private JMenuItem _prefetchTilesItem = null;
 	private JMenuItem _getWeatherItem = null;
 	private JMenuItem _distanceItem = null;
 	private JMenuItem _viewFullDetailsItem = null;
@@ -241,6 +243,9 @@ public class MenuManager implements DataSubscriber
 		// Image
 		_exportImageItem = makeMenuItem(FunctionLibrary.FUNCTION_IMAGEEXPORT, false);
 		fileMenu.add(_exportImageItem);
+		// Session
+		_saveSessionItem = makeMenuItem(FunctionLibrary.FUNCTION_SAVESESSION, false);
+		fileMenu.add(_saveSessionItem);
 		fileMenu.addSeparator();
 		// Exit
 		JMenuItem exitMenuItem = new JMenuItem(I18nManager.getText("menu.file.exit"));
@@ -298,6 +303,8 @@ public class MenuManager implements DataSubscriber
 		onlineMenu.add(_searchMapillaryItem);
 		_downloadOsmItem = makeMenuItem(FunctionLibrary.FUNCTION_DOWNLOAD_OSM, false);
 		onlineMenu.add(_downloadOsmItem);
+		_prefetchTilesItem = makeMenuItem(FunctionLibrary.FUNCTION_PREFETCH_TILES, false);
+		onlineMenu.add(_prefetchTilesItem);
 		_getWeatherItem = makeMenuItem(FunctionLibrary.FUNCTION_GET_WEATHER_FORECAST, false);
 		onlineMenu.add(_getWeatherItem);
 		menubar.add(onlineMenu);
@@ -869,6 +876,7 @@ public class MenuManager implements DataSubscriber
 		_exportGpxItem.setEnabled(hasData);
 		_exportPovItem.setEnabled(hasMultiplePoints);
 		_exportImageItem.setEnabled(hasMultiplePoints);
+		_saveSessionItem.setEnabled(hasData);
 		_compressItem.setEnabled(hasData);
 		_markRectangleItem.setEnabled(hasData);
 		_markUphillLiftsItem.setEnabled(hasData && _track.hasAltitudeData());
@@ -889,6 +897,7 @@ public class MenuManager implements DataSubscriber
 		_nearbyWikipediaItem.setEnabled(hasData);
 		_nearbyOsmPoiItem.setEnabled(hasData);
 		_downloadOsmItem.setEnabled(hasData);
+		_prefetchTilesItem.setEnabled(hasData);
 		_getWeatherItem.setEnabled(hasData);
 		_findWaypointItem.setEnabled(hasData && _track.hasWaypoints());
 		// have we got any timestamps?
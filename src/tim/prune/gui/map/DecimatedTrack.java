@@ -0,0 +1,235 @@
+package tim.prune.gui.map;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Track;
+
+/**
+ * Class to hold simplified versions of the track for painting at each zoom level.
+ * Track points which fall on the same pixel as the previously kept track point
+ * are left out, as drawing them again wouldn't change the picture.
+ * Pixel positions are absolute for the zoom level, so panning doesn't need a rebuild.
+ * The full track is still used for selecting points.
+ */
+public class DecimatedTrack
+{
+	/** Track object */
+	private Track _track = null;
+	/** Number of points in the track when the lists were made */
+	private int _numPoints = -1;
+	/** Indices of waypoints, and of points with photos or audio */
+	private int[] _waypointIndices = null, _mediaIndices = null;
+	/** Simplified tracks for the most recently used zoom levels */
+	private Map<Integer, ZoomLevel> _levels = new LinkedHashMap<Integer, ZoomLevel>(8, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Integer, ZoomLevel> inEldest) {
+			return size() > MAX_NUM_LEVELS;
+		}
+	};
+
+	/** Number of zoom levels to keep */
+	private static final int MAX_NUM_LEVELS = 3;
+
+	/** Point flags used for decimating, also used by the track tile renderer */
+	static final byte FLAG_WAYPOINT = 1, FLAG_SEGMENT_START = 2, FLAG_DELETED = 16;
+
+
+	/**
+	 * Class to hold the kept track points for a single zoom level
+	 */
+	public static class ZoomLevel
+	{
+		/** Number of track points kept */
+		private int _numKept = 0;
+		/** Indices of the kept points */
+		private int[] _indices = null;
+		/** Absolute pixel positions of the kept points */
+		private int[] _xPixels = null, _yPixels = null;
+
+		/** @return number of track points kept */
+		public int getNumPoints() {
+			return _numKept;
+		}
+
+		/** @return point index of the given kept point */
+		public int getIndex(int inKept) {
+			return _indices[inKept];
+		}
+
+		/** @return absolute x pixel of the given kept point */
+		public int getXPixel(int inKept) {
+			return _xPixels[inKept];
+		}
+
+		/** @return absolute y pixel of the given kept point */
+		public int getYPixel(int inKept) {
+			return _yPixels[inKept];
+		}
+
+		/**
+		 * @param inPointIndex point index
+		 * @return position of the first kept point with an index at or after the given one
+		 */
+		public int getFirstKeptFrom(int inPointIndex)
+		{
+			int pos = Arrays.binarySearch(_indices, 0, _numKept, inPointIndex);
+			return pos >= 0 ? pos : (-pos - 1);
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 * @param inTrack track object
+	 */
+	public DecimatedTrack(Track inTrack)
+	{
+		_track = inTrack;
+	}
+
+	/**
+	 * Throw away all the simplified tracks, because the track has changed
+	 */
+	public synchronized void invalidate()
+	{
+		_levels.clear();
+		_numPoints = -1;
+	}
+
+	/**
+	 * Check that the cached data still matches the size of the track
+	 */
+	private void checkTrackSize()
+	{
+		if (_numPoints != _track.getNumPoints())
+		{
+			_levels.clear();
+			_numPoints = _track.getNumPoints();
+			int numWaypoints = 0, numMedia = 0;
+			int[] waypoints = new int[_numPoints];
+			int[] media = new int[_numPoints];
+			for (int i=0; i<_numPoints; i++)
+			{
+				DataPoint point = _track.getPoint(i);
+				if (point.isWaypoint()) {
+					waypoints[numWaypoints++] = i;
+				}
+				if (point.hasMedia()) {
+					media[numMedia++] = i;
+				}
+			}
+			_waypointIndices = new int[numWaypoints];
+			System.arraycopy(waypoints, 0, _waypointIndices, 0, numWaypoints);
+			_mediaIndices = new int[numMedia];
+			System.arraycopy(media, 0, _mediaIndices, 0, numMedia);
+		}
+	}
+
+	/**
+	 * @return indices of all the waypoints
+	 */
+	public synchronized int[] getWaypointIndices()
+	{
+		checkTrackSize();
+		return _waypointIndices;
+	}
+
+	/**
+	 * @return indices of all the points with photos or audio clips
+	 */
+	public synchronized int[] getMediaIndices()
+	{
+		checkTrackSize();
+		return _mediaIndices;
+	}
+
+	/**
+	 * Get the simplified track for the given zoom level, making it if necessary
+	 * @param inZoom zoom level
+	 * @return kept track points for this zoom level
+	 */
+	public synchronized ZoomLevel getZoomLevel(int inZoom)
+	{
+		checkTrackSize();
+		ZoomLevel level = _levels.get(inZoom);
+		if (level == null)
+		{
+			level = buildZoomLevel(inZoom);
+			_levels.put(inZoom, level);
+		}
+		return level;
+	}
+
+	/**
+	 * Make the simplified track for the given zoom level
+	 * @param inZoom zoom level
+	 * @return kept track points
+	 */
+	private ZoomLevel buildZoomLevel(int inZoom)
+	{
+		int[] xPixels = new int[_numPoints];
+		int[] yPixels = new int[_numPoints];
+		byte[] flags = new byte[_numPoints];
+		for (int i=0; i<_numPoints; i++)
+		{
+			DataPoint point = _track.getPoint(i);
+			if (point.isWaypoint())
+			{
+				flags[i] = FLAG_WAYPOINT;
+				continue;
+			}
+			xPixels[i] = MapPosition.transformToPixels(_track.getX(i), inZoom);
+			yPixels[i] = MapPosition.transformToPixels(_track.getY(i), inZoom);
+			if (point.getSegmentStart()) {flags[i] |= FLAG_SEGMENT_START;}
+			if (point.getDeleteFlag()) {flags[i] |= FLAG_DELETED;}
+		}
+		return decimate(_numPoints, xPixels, yPixels, 0, flags);
+	}
+
+	/**
+	 * Leave out the track points which fall on the same pixel as the previously kept track point
+	 * @param inNumPoints number of points
+	 * @param inXPixels x pixel positions of all the points
+	 * @param inYPixels y pixel positions of all the points
+	 * @param inShift number of zoom levels to shift the pixel positions down by
+	 * @param inFlags flags of all the points, of which waypoint, segment start and deleted are used
+	 * @return kept track points, with their pixel positions after shifting
+	 */
+	static ZoomLevel decimate(int inNumPoints, int[] inXPixels, int[] inYPixels, int inShift, byte[] inFlags)
+	{
+		ZoomLevel level = new ZoomLevel();
+		int[] indices = new int[inNumPoints];
+		int[] xPixels = new int[inNumPoints];
+		int[] yPixels = new int[inNumPoints];
+		int numKept = 0;
+		int prevX = 0, prevY = 0;
+		boolean prevDeleted = false;
+		for (int i=0; i<inNumPoints; i++)
+		{
+			final byte flag = inFlags[i];
+			if ((flag & FLAG_WAYPOINT) != 0) {
+				continue;
+			}
+			final int px = inXPixels[i] >> inShift, py = inYPixels[i] >> inShift;
+			final boolean deleted = (flag & FLAG_DELETED) != 0;
+			// Keep segment starts and points on a new pixel, and changes in deletion marking
+			if (numKept == 0 || px != prevX || py != prevY || (flag & FLAG_SEGMENT_START) != 0
+				|| deleted != prevDeleted)
+			{
+				indices[numKept] = i;
+				xPixels[numKept] = px;
+				yPixels[numKept] = py;
+				numKept++;
+				prevX = px; prevY = py;
+				prevDeleted = deleted;
+			}
+		}
+		level._numKept = numKept;
+		level._indices = Arrays.copyOf(indices, numKept);
+		level._xPixels = Arrays.copyOf(xPixels, numKept);
+		level._yPixels = Arrays.copyOf(yPixels, numKept);
+		return level;
+	}
+}
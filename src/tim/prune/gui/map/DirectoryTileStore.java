@@ -0,0 +1,89 @@
+package tim.prune.gui.map;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Tile store holding each tile as a separate file,
+ * using the same directory structure as the tile servers
+ */
+public class DirectoryTileStore implements TileStore
+{
+	/** Base directory of disk cache */
+	private final File _baseDir;
+
+
+	/**
+	 * Constructor
+	 * @param inBaseDir base directory of disk cache
+	 */
+	public DirectoryTileStore(File inBaseDir)
+	{
+		_baseDir = inBaseDir;
+	}
+
+	/**
+	 * Get the specified tile from its file and decode it
+	 */
+	public MapTile getTile(MapSource inMapSource, int inLayer, int inZoom, int inX, int inY)
+	{
+		File tileFile = new File(_baseDir, inMapSource.makeFilePath(inLayer, inZoom, inX, inY));
+		if (tileFile.exists() && tileFile.canRead() && tileFile.length() > 0)
+		{
+			long fileStamp = tileFile.lastModified();
+			boolean isExpired = ((System.currentTimeMillis()-fileStamp) > DiskTileCacher.CACHE_TIME_LIMIT);
+			BufferedImage image = TileDecoder.decode(tileFile);
+			if (image != null) {
+				return new MapTile(image, isExpired);
+			}
+			System.err.println("Failed to decode tile: " + tileFile.getAbsolutePath());
+		}
+		return null;
+	}
+
+	/**
+	 * Check whether the file for the specified tile exists and hasn't expired
+	 */
+	public boolean containsTile(MapSource inMapSource, int inLayer, int inZoom, int inX, int inY)
+	{
+		File tileFile = new File(_baseDir, inMapSource.makeFilePath(inLayer, inZoom, inX, inY));
+		return tileFile.length() > 0
+			&& (System.currentTimeMillis() - tileFile.lastModified()) <= DiskTileCacher.CACHE_TIME_LIMIT;
+	}
+
+	/**
+	 * Save the specified tile to its file, via a temporary file so that a partial tile can't be used
+	 */
+	public boolean saveTile(MapSource inMapSource, int inLayer, int inZoom, int inX, int inY, byte[] inData)
+	{
+		File tileFile = new File(_baseDir, inMapSource.makeFilePath(inLayer, inZoom, inX, inY));
+		File dir = tileFile.getParentFile();
+		if (!(dir.exists() || dir.mkdirs()) || !dir.canWrite()) {
+			return false;
+		}
+		File tempFile = new File(tileFile.getAbsolutePath() + ".temp");
+		FileOutputStream out = null;
+		try
+		{
+			out = new FileOutputStream(tempFile);
+			out.write(inData);
+			out.close();
+			out = null;
+		}
+		catch (IOException e)
+		{
+			try {if (out != null) out.close();} catch (IOException e2) {} // ignore
+			tempFile.delete();
+			return false;
+		}
+		// Move temp file to desired file location
+		if (tempFile.renameTo(tileFile) || (tileFile.delete() && tempFile.renameTo(tileFile))) {
+			return true;
+		}
+		System.out.println("Failed to rename temp file: " + tempFile.getAbsolutePath());
+		tempFile.delete();
+		return false;
+	}
+}
@@ -1,10 +1,7 @@
 package tim.prune.gui.map;
 
-import java.awt.Image;
-import java.awt.Toolkit;
-import java.awt.image.ImageObserver;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -12,6 +9,7 @@ import java.net.URLConnection;
 import java.util.HashSet;
 
 import tim.prune.GpsPrune;
+import tim.prune.config.Config;
 
 /**
  * Class to control the reading and saving of map tiles
@@ -21,21 +19,19 @@ public class DiskTileCacher implements Runnable
 {
 	/** URL to get image from */
 	private URL _url = null;
-	/** File to save image to */
-	private File _file = null;
-	/** Observer to be notified */
-	private ImageObserver _observer = null;
-	/** True if cacher is active, false if blocked */
-	private boolean _active = false;
+	/** Store to save image to */
+	private TileStore _store = null;
+	/** Map source of tile */
+	private MapSource _mapSource = null;
+	/** Tile manager to be notified */
+	private MapTileManager _manager = null;
+	/** Layer, zoom and indices of tile */
+	private int _layer = 0, _zoom = 0, _x = 0, _y = 0;
 
 	/** Time limit to cache images for */
-	private static final long CACHE_TIME_LIMIT = 20 * 24 * 60 * 60 * 1000; // 20 days in ms
+	static final long CACHE_TIME_LIMIT = 20 * 24 * 60 * 60 * 1000; // 20 days in ms
 	/** Hashset of all blocked / 404 tiles to avoid requesting them again */
 	private static final HashSet<String> BLOCKED_URLS = new HashSet<String>();
-	/**Hashset of files which are currently being processed */
-	private static final HashSet<String> DOWNLOADING_FILES = new HashSet<String>();
-	/** Number of currently active threads */
-	private static int NUMBER_ACTIVE_THREADS = 0;
 	/** Flag to remember whether any server connection is possible */
 	private static boolean CONNECTION_ACTIVE = true;
 	/** Flag to remember whether we have already tried to create the base path */
@@ -45,54 +41,74 @@ public class DiskTileCacher implements Runnable
 	/**
 	 * Private constructor
 	 * @param inUrl URL to get
-	 * @param inFile file to save to
+	 * @param inStore store to save to
+	 * @param inMapSource map source
+	 * @param inManager tile manager to inform when load complete
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
 	 */
-	private DiskTileCacher(URL inUrl, File inFile, ImageObserver inObserver)
+	private DiskTileCacher(URL inUrl, TileStore inStore, MapSource inMapSource, MapTileManager inManager,
+		int inLayer, int inZoom, int inX, int inY)
 	{
 		_url = inUrl;
-		_file = inFile;
-		_observer = inObserver;
-		_active = registerCacher(inFile.getAbsolutePath());
+		_store = inStore;
+		_mapSource = inMapSource;
+		_manager = inManager;
+		_layer = inLayer;
+		_zoom = inZoom;
+		_x = inX; _y = inY;
 	}
 
 	/**
-	 * Get the specified tile from the disk cache
+	 * Get the tile store for the given disk cache, according to the configured layout
 	 * @param inBasePath base path to whole disk cache
-	 * @param inTilePath relative path to requested tile
-	 * @return tile image if available, or null if not there
+	 * @return tile store, or null if there's no disk cache
 	 */
-	public static MapTile getTile(String inBasePath, String inTilePath)
+	public static TileStore getStore(String inBasePath)
 	{
 		if (inBasePath == null) {return null;}
-		File tileFile = new File(inBasePath, inTilePath);
-		Image image = null;
-		if (tileFile.exists() && tileFile.canRead() && tileFile.length() > 0)
-		{
-			long fileStamp = tileFile.lastModified();
-			boolean isExpired = ((System.currentTimeMillis()-fileStamp) > CACHE_TIME_LIMIT);
-			try
-			{
-				image = Toolkit.getDefaultToolkit().createImage(tileFile.getAbsolutePath());
-				return new MapTile(image, isExpired);
-			}
-			catch (Exception e) {
-				System.err.println("createImage: " + e.getClass().getName() + " _ " + e.getMessage());
-			}
+		File baseDir = new File(inBasePath);
+		if (Config.getConfigBoolean(Config.KEY_DISK_CACHE_PACKED)) {
+			return new PackedTileStore(baseDir);
 		}
-		return null;
+		return new DirectoryTileStore(baseDir);
+	}
+
+	/**
+	 * Get the specified tile from the disk cache and decode it.
+	 * This accesses the file system, so shouldn't be called while painting
+	 * @param inBasePath base path to whole disk cache
+	 * @param inMapSource map source
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return tile with decoded image if available, or null if not there or unreadable
+	 */
+	public static MapTile getTile(String inBasePath, MapSource inMapSource, int inLayer, int inZoom, int inX, int inY)
+	{
+		TileStore store = getStore(inBasePath);
+		return store == null ? null : store.getTile(inMapSource, inLayer, inZoom, inX, inY);
 	}
 
 	/**
-	 * Save the specified image tile to disk
+	 * Save the specified image tile to disk, using the download scheduler
 	 * @param inUrl url to get image from
 	 * @param inBasePath base path to disk cache
-	 * @param inTilePath relative path to this tile
-	 * @param inObserver observer to inform when load complete
+	 * @param inMapSource map source
+	 * @param inManager tile manager to inform when load complete
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
 	 * @throws CacheFailure if tile could not be saved
 	 */
-	public static void saveTile(URL inUrl, String inBasePath, String inTilePath, ImageObserver inObserver) throws CacheFailure
+	public static void saveTile(URL inUrl, String inBasePath, MapSource inMapSource, MapTileManager inManager,
+		int inLayer, int inZoom, int inX, int inY) throws CacheFailure
 	{
-		if (inBasePath == null || inTilePath == null) {return;}
+		if (inBasePath == null || inMapSource == null) {return;}
 		// save file if possible
 		File basePath = new File(inBasePath);
 		if (!checkBasePath(basePath))
@@ -100,210 +116,142 @@ public class DiskTileCacher implements Runnable
 			// Can't write to base path
 			throw new CacheFailure();
 		}
-		File tileFile = new File(basePath, inTilePath);
 
 		// Check if it has already failed
-		if (BLOCKED_URLS.contains(inUrl.toString())) {
+		if (isBlocked(inUrl)) {
 			return;
 		}
 
-		File dir = tileFile.getParentFile();
-		// Construct a cacher to load the image if necessary
-		if ((dir.exists() || dir.mkdirs()) && dir.canWrite())
-		{
-			DiskTileCacher cacher = new DiskTileCacher(inUrl, tileFile, inObserver);
-			cacher.startDownloading();
-		}
+		// Scheduler ignores the request if this tile is already being downloaded
+		DiskTileCacher cacher = new DiskTileCacher(inUrl, getStore(inBasePath), inMapSource, inManager,
+			inLayer, inZoom, inX, inY);
+		TileDownloadScheduler.getSharedScheduler().schedule(getDownloadKey(inBasePath, inMapSource, inLayer, inZoom, inX, inY),
+			inManager, inLayer, inZoom, inX, inY, cacher);
 	}
 
 	/**
-	 * Check the given base path, and try (once) to create it if necessary
-	 * @return true if base path can be written to
+	 * @param inBasePath base path to disk cache
+	 * @param inMapSource map source
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return key identifying the download of this tile in the shared scheduler
 	 */
-	private static boolean checkBasePath(File inBasePath)
+	public static String getDownloadKey(String inBasePath, MapSource inMapSource, int inLayer, int inZoom, int inX, int inY)
 	{
-		if (!inBasePath.exists() && !TRIED_TO_CREATE_BASEPATH)
-		{
-			TRIED_TO_CREATE_BASEPATH = true;
-			System.out.println("Base path '" + inBasePath.getAbsolutePath() + "' does not exist, trying to create");
-			return inBasePath.mkdirs();
-		}
-		return inBasePath.exists() && inBasePath.isDirectory() && inBasePath.canWrite();
+		return inBasePath + "/" + inMapSource.makeFilePath(inLayer, inZoom, inX, inY);
 	}
 
 	/**
-	 * Start downloading the configured tile
+	 * @param inUrl url of tile
+	 * @return true if this url has already failed and shouldn't be requested again
 	 */
-	private void startDownloading()
+	public static boolean isBlocked(URL inUrl)
 	{
-		if (_active)
-		{
-			new Thread(this).start();
+		synchronized (BLOCKED_URLS) {
+			return BLOCKED_URLS.contains(inUrl.toString());
 		}
 	}
 
 	/**
-	 * Run method for loading URL asynchronously and saving to file
+	 * Remember the result of a download, blocking the url if it failed
+	 * @param inUrl url of tile
+	 * @param inSuccess true if the download worked
 	 */
-	public void run()
+	public static void downloadFinished(URL inUrl, boolean inSuccess)
 	{
-		waitUntilAllowedToRun();
-		if (doDownload())
+		synchronized (BLOCKED_URLS)
 		{
-			if (!CONNECTION_ACTIVE)
+			if (!inSuccess)
+			{
+				BLOCKED_URLS.add(inUrl.toString());
+				CONNECTION_ACTIVE = false;
+			}
+			else if (!CONNECTION_ACTIVE)
 			{
 				// wasn't active before but this download worked - we've come back online
 				BLOCKED_URLS.clear();
 				CONNECTION_ACTIVE = true;
 			}
 		}
-		// Release file and thread
-		unregisterCacher(_file.getAbsolutePath());
-		threadFinished();
 	}
 
 	/**
-	 * Blocks (in separate thread) until allowed by concurrent thread limit
+	 * Check the given base path, and try (once) to create it if necessary
+	 * @return true if base path can be written to
 	 */
-	private void waitUntilAllowedToRun()
+	private static boolean checkBasePath(File inBasePath)
 	{
-		while (!canStartNewThread())
+		if (!inBasePath.exists() && !TRIED_TO_CREATE_BASEPATH)
 		{
-			try {
-				Thread.sleep(400);
-			}
-			catch (InterruptedException e) {}
+			TRIED_TO_CREATE_BASEPATH = true;
+			System.out.println("Base path '" + inBasePath.getAbsolutePath() + "' does not exist, trying to create");
+			return inBasePath.mkdirs();
 		}
+		return inBasePath.exists() && inBasePath.isDirectory() && inBasePath.canWrite();
 	}
 
 	/**
-	 * @return true if download was successful
+	 * Run method for loading URL asynchronously and saving to the store
 	 */
-	private boolean doDownload()
+	public void run()
 	{
-		boolean finished = false;
-		InputStream in = null;
-		FileOutputStream out = null;
-		File tempFile = new File(_file.getAbsolutePath() + ".temp");
-
-		if (tempFile.exists())
-		{
-			tempFile.delete();
-		}
-		try
-		{
-			if (!tempFile.createNewFile()) {return false;}
+		if (doDownload()) {
+			downloadFinished(_url, true);
 		}
-		catch (Exception e) {return false;}
+	}
 
+	/**
+	 * Download the contents of the given url, identifying ourselves to the server
+	 * @param inUrl url to get
+	 * @return downloaded bytes
+	 * @throws IOException if the download failed, including when the server returns an error
+	 */
+	public static byte[] downloadBytes(URL inUrl) throws IOException
+	{
+		InputStream in = null;
 		try
 		{
-			// Open streams from URL and to file
-			out = new FileOutputStream(tempFile);
-			//System.out.println("DiskTileCacher opening URL: " + _url.toString());
 			// Set http user agent on connection
-			URLConnection conn = _url.openConnection();
+			URLConnection conn = inUrl.openConnection();
 			conn.setRequestProperty("User-Agent", "GpsPrune v" + GpsPrune.VERSION_NUMBER);
 			in = conn.getInputStream();
-			int d = 0;
-			// Loop over each byte in the stream (maybe buffering is more efficient?)
-			while ((d = in.read()) >= 0) {
-				out.write(d);
+			ByteArrayOutputStream out = new ByteArrayOutputStream(32 * 1024);
+			byte[] buffer = new byte[8192];
+			int numRead = 0;
+			while ((numRead = in.read(buffer)) >= 0) {
+				out.write(buffer, 0, numRead);
 			}
-			finished = true;
-		}
-		catch (IOException e)
-		{
-			System.err.println("ioe: " + e.getClass().getName() + " - " + e.getMessage());
-			BLOCKED_URLS.add(_url.toString());
-			CONNECTION_ACTIVE = false;
+			return out.toByteArray();
 		}
 		finally
 		{
-			// clean up files
-			try {in.close();} catch (Exception e) {} // ignore
-			try {out.close();} catch (Exception e) {} // ignore
-			if (!finished)
-			{
-				tempFile.delete();
-			}
-		}
-		boolean success = false;
-		// Move temp file to desired file location
-		if (tempFile.exists() && tempFile.length() > 0L)
-		{
-			if (tempFile.renameTo(_file))
-			{
-				success = true;
-			}
-			else if (_file.delete() && tempFile.renameTo(_file))
-			{
-				success = true;
-			}
-			else
-			{
-				System.out.println("Failed to rename temp file: " + tempFile.getAbsolutePath());
-				tempFile.delete();
-			}
+			try {if (in != null) in.close();} catch (IOException e) {} // ignore
 		}
-
-		// Tell parent that load is finished (parameters ignored)
-		_observer.imageUpdate(null, ImageObserver.ALLBITS, 0, 0, 0, 0);
-		return success;
 	}
 
-	// Blocking of cachers working on same file
-
 	/**
-	 * Register a cacher writing to the specified file path
-	 * @param inFilePath destination path to tile file
-	 * @return true if nobody else has claimed this file yet
+	 * @return true if download was successful
 	 */
-	private synchronized static boolean registerCacher(String inFilePath)
+	private boolean doDownload()
 	{
-		if (DOWNLOADING_FILES.contains(inFilePath))
-		{
-			return false;
+		byte[] data = null;
+		try {
+			data = downloadBytes(_url);
 		}
-		// Nobody has claimed this file yet
-		DOWNLOADING_FILES.add(inFilePath);
-		return true;
-	}
-
-	/**
-	 * Cacher has finished dealing with the specified file
-	 * @param inFilePath destination path to tile file
-	 */
-	private synchronized static void unregisterCacher(String inFilePath)
-	{
-		DOWNLOADING_FILES.remove(inFilePath);
-	}
-
-	// Limiting of active threads
-
-	/**
-	 * @return true if another thread is allowed to become active
-	 */
-	private synchronized static boolean canStartNewThread()
-	{
-		final int MAXIMUM_NUM_THREADS = 8;
-		if (NUMBER_ACTIVE_THREADS < MAXIMUM_NUM_THREADS)
+		catch (IOException e)
 		{
-			NUMBER_ACTIVE_THREADS++;
-			return true;
+			System.err.println("ioe: " + e.getClass().getName() + " - " + e.getMessage());
+			downloadFinished(_url, false);
 		}
-		// Already too many threads active
-		return false;
-	}
+		final boolean success = data != null && data.length > 0
+			&& _store.saveTile(_mapSource, _layer, _zoom, _x, _y, data);
 
-	/**
-	 * Inform that one of the previously active threads has now completed
-	 */
-	private synchronized static void threadFinished()
-	{
-		if (NUMBER_ACTIVE_THREADS > 0)
-		{
-			NUMBER_ACTIVE_THREADS--;
+		// Decode the new tile here so that it's ready to draw, then pass it back to the manager
+		if (success) {
+			_manager.notifyImageLoaded(_mapSource, TileDecoder.decode(data), _layer, _x, _y, _zoom);
 		}
+		return success;
 	}
 }
@@ -40,6 +40,8 @@ public class MapCanvas extends JPanel implements MouseListener, MouseMotionListe
 	private Selection _selection = null;
 	/** Object to keep track of midpoints */
 	private MidpointData _midpoints = null;
+	/** Simplified track for painting at each zoom level */
+	private DecimatedTrack _decimatedTrack = null;
 	/** Index of point clicked at mouseDown */
 	private int _clickedPoint = -1;
 	/** Previously selected point */
@@ -48,8 +50,10 @@ public class MapCanvas extends JPanel implements MouseListener, MouseMotionListe
 	private MapTileManager _tileManager = new MapTileManager(this);
 	/** Image to display */
 	private BufferedImage _mapImage = null;
-	/** Second image for drawing track (only needed for alpha blending) */
-	private BufferedImage _trackImage = null;
+	/** Renderer for the track tiles drawn on top of the map */
+	private TrackTileRenderer _trackTiles = null;
+	/** Flag to check the track tiles against the track */
+	private boolean _trackChanged = true;
 	/** Slider for transparency */
 	private JSlider _transparencySlider = null;
 	/** Checkbox for scale bar */
@@ -125,6 +129,8 @@ public class MapCanvas extends JPanel implements MouseListener, MouseMotionListe
 		_track = inTrackInfo.getTrack();
 		_selection = inTrackInfo.getSelection();
 		_midpoints = new MidpointData();
+		_decimatedTrack = new DecimatedTrack(_track);
+		_trackTiles = new TrackTileRenderer(this);
 		_mapPosition = new MapPosition();
 		addMouseListener(this);
 		addMouseMotionListener(this);
@@ -560,8 +566,8 @@ public class MapCanvas extends JPanel implements MouseListener, MouseMotionListe
 		// Only get map tiles if selected
 		if (showMap)
 		{
-			// init tile cacher
-			_tileManager.centreMap(_mapPosition.getZoom(), _mapPosition.getCentreTileX(), _mapPosition.getCentreTileY());
+			// init tile manager
+			_tileManager.setZoom(_mapPosition.getZoom());
 
 			boolean loadingFailed = false;
 			if (_mapImage == null) return;
@@ -578,6 +584,8 @@ public class MapCanvas extends JPanel implements MouseListener, MouseMotionListe
 				// Loop over tiles drawing each one
 				int[] tileIndices = _mapPosition.getTileIndices(getWidth(), getHeight());
 				int[] pixelOffsets = _mapPosition.getDisplayOffsets(getWidth(), getHeight());
+				// Let the tile manager cancel downloads for tiles which aren't visible any more
+				_tileManager.setVisibleTiles(tileIndices[0], tileIndices[1], tileIndices[2], tileIndices[3]);
 				for (int tileX = tileIndices[0]; tileX <= tileIndices[1] && !loadingFailed; tileX++)
 				{
 					int x = (tileX - tileIndices[0]) * 256 - pixelOffsets[0];
@@ -588,6 +596,10 @@ public class MapCanvas extends JPanel implements MouseListener, MouseMotionListe
 						for (int l=0; l<numLayers; l++)
 						{
 							Image image = _tileManager.getTile(l, tileX, tileY, true);
+							if (image == null) {
+								// Show a scaled tile from another zoom level until the real one arrives
+								image = _tileManager.getPlaceholderTile(l, tileX, tileY);
+							}
 							if (image != null) {
 								g.drawImage(image, x, y, 256, 256, null);
 							}
@@ -621,29 +633,12 @@ public class MapCanvas extends JPanel implements MouseListener, MouseMotionListe
 			boolean pointsPainted = true;
 			try
 			{
-				if (trackOpacity > 0.9f)
-				{
-					// Track is fully opaque, just draw it directly
-					pointsPainted = paintPoints(g);
-					_trackImage = null;
-				}
-				else
+				if (trackOpacity < 0.9f)
 				{
-					// Track is partly transparent, so use a separate BufferedImage
-					if (_trackImage == null || _trackImage.getWidth() != getWidth() || _trackImage.getHeight() != getHeight())
-					{
-						_trackImage = new BufferedImage(getWidth(), getHeight(), BufferedImage.TYPE_INT_ARGB);
-					}
-					// Clear to transparent
-					Graphics2D gTrack = _trackImage.createGraphics();
-					gTrack.setComposite(AlphaComposite.getInstance(AlphaComposite.CLEAR, 0.0f));
-					gTrack.fillRect(0, 0, getWidth(), getHeight());
-					gTrack.setPaintMode();
-					// Draw the track onto this separate image
-					pointsPainted = paintPoints(gTrack);
+					// Track is partly transparent, so blend it with the map
 					((Graphics2D) g).setComposite(AlphaComposite.getInstance(AlphaComposite.SRC_OVER, trackOpacity));
-					g.drawImage(_trackImage, 0, 0, null);
 				}
+				pointsPainted = paintPoints(g);
 			}
 			catch (NullPointerException npe) {} // ignore, probably due to data being changed during drawing
 			catch (ArrayIndexOutOfBoundsException obe) {} // also ignore
@@ -686,240 +681,153 @@ public class MapCanvas extends JPanel implements MouseListener, MouseMotionListe
 		final int winHeight = getHeight();
 		final int halfWinWidth  = winWidth / 2;
 		final int halfWinHeight = winHeight / 2;
+		final int zoom = _mapPosition.getZoom();
 
-		final int numPoints = _track.getNumPoints();
-		final int[] xPixels = new int[numPoints];
-		final int[] yPixels = new int[numPoints];
-
-		final int pointSeparationForArrowsSqd = 400;
-		final int pointSeparation1dForArrows = (int) (Math.sqrt(pointSeparationForArrowsSqd) * 0.7);
-		final int hugePointSeparationForArrows = 120;
+		// Only consider the track points which aren't on the same pixel as the previous one
+		final DecimatedTrack.ZoomLevel decimatedTrack = _decimatedTrack.getZoomLevel(zoom);
+		final int numKeptPoints = decimatedTrack.getNumPoints();
 
 		// try to set line width for painting
-		if (inG instanceof Graphics2D)
-		{
-			int lineWidth = Config.getConfigInt(Config.KEY_LINE_WIDTH);
-			if (lineWidth < 1 || lineWidth > 4) {lineWidth = 2;}
+		int lineWidth = Config.getConfigInt(Config.KEY_LINE_WIDTH);
+		if (lineWidth < 1 || lineWidth > 4) {lineWidth = 2;}
+		if (inG instanceof Graphics2D) {
 			((Graphics2D) inG).setStroke(new BasicStroke(lineWidth));
 		}
 
-		boolean pointsPainted = false;
-		// draw track points
-		inG.setColor(pointColour);
-		int prevX = -1, prevY = -1;
-		final int connectState = _connectCheckBox.getCurrentState();
-		final boolean drawLines = (connectState != 3);  // 0, 1 or 2
-		final boolean drawPoints = (connectState != 1); // 0, 2 or 3
-		final boolean drawArrows = (connectState == 0); // 0
-
-		boolean prevPointVisible = false, currPointVisible = false;
-		boolean anyWaypoints = false;
-		boolean isWaypoint = false;
-		boolean drawnLastArrow = false;	// avoid painting arrows on adjacent lines, looks too busy
-		for (int i=0; i<numPoints; i++)
+		// Make sure the track tiles match the current track and drawing style
+		if (_trackChanged)
 		{
-			// Calculate pixel position of point from its x, y coordinates
-			int px = halfWinWidth  + _mapPosition.getXFromCentre(_track.getX(i));
-			int py = halfWinHeight + _mapPosition.getYFromCentre(_track.getY(i));
-			px = wrapLongitudeValue(px, winWidth, _mapPosition.getZoom());
-			// Remember these calculated pixel values so they don't have to be recalculated
-			xPixels[i] = px; yPixels[i] = py;
-
-			currPointVisible = px >= 0 && px < winWidth && py >= 0 && py < winHeight;
-			isWaypoint = _track.getPoint(i).isWaypoint();
-			anyWaypoints = anyWaypoints || isWaypoint;
-			if (!isWaypoint)
-			{
-				if (currPointVisible || (drawLines && prevPointVisible))
-				{
-					// For track points, work out which colour to use
-					if (_track.getPoint(i).getDeleteFlag()) {
-						inG.setColor(currentColour);
-					}
-					else if (pointColourer != null)
-					{  // use the point colourer if there is one
-						Color trackColour = pointColourer.getColour(i);
-						inG.setColor(trackColour);
-					}
-					else
-					{
-						inG.setColor(pointColour);
-					}
-
-					// Draw rectangle for track point if it's visible
-					if (currPointVisible)
-					{
-						if (drawPoints) {
-							inG.drawRect(px-2, py-2, 3, 3);
-						}
-						pointsPainted = true;
-					}
-				}
-
-				// Connect track points if either of them are visible
-				if (drawLines
-				 && (currPointVisible || prevPointVisible)
-				 && !(prevX == -1 && prevY == -1)
-				 && !_track.getPoint(i).getSegmentStart())
-				{
-					inG.drawLine(prevX, prevY, px, py);
-					pointsPainted = true;
+			_trackTiles.trackChanged(_track, pointColourer, pointColour, currentColour);
+			_trackChanged = false;
+		}
+		_trackTiles.setStyle(_connectCheckBox.getCurrentState(), lineWidth, Config.getConfigBoolean(Config.KEY_ANTIALIAS),
+			textColour, secondColour, _waypointIconDefinition);
 
-					// Now consider whether we need to draw an arrow as well
-					if (drawArrows)
-					{
-						final double pointDist = Math.max(Math.abs(prevX - px), Math.abs(prevY - py));
-						final int separationLimit = (drawnLastArrow ? hugePointSeparationForArrows : pointSeparation1dForArrows);
-						if (pointDist > separationLimit)
-						{
-							final double pointSeparationSqd = (prevX-px) * (prevX-px) + (prevY-py) * (prevY-py);
-							if (pointSeparationSqd > pointSeparationForArrowsSqd)
-							{
-								final double midX = (prevX + px) / 2.0;
-								final double midY = (prevY + py) / 2.0;
-								final boolean midPointVisible = midX >= 0 && midX < winWidth && midY >= 0 && midY < winHeight;
-								if (midPointVisible)
-								{
-									final double alpha = Math.atan2(py - prevY, px - prevX);
-									//System.out.println("Draw arrow from (" + prevX + "," + prevY + ") to (" + px + "," + py
-									//	+ ") with angle" + (int) (alpha * 180/Math.PI));
-									final double MID_TO_VERTEX = 3.0;
-									final double arrowX = MID_TO_VERTEX * Math.cos(alpha);
-									final double arrowY = MID_TO_VERTEX * Math.sin(alpha);
-									final double vertexX = midX + arrowX;
-									final double vertexY = midY + arrowY;
-									inG.drawLine((int)(midX-arrowX-2*arrowY), (int)(midY-arrowY+2*arrowX), (int)vertexX, (int)vertexY);
-									inG.drawLine((int)(midX-arrowX+2*arrowY), (int)(midY-arrowY-2*arrowX), (int)vertexX, (int)vertexY);
-								}
-								drawnLastArrow = midPointVisible;
-							}
-						}
-						else
-						{
-							drawnLastArrow = false;
-						}
-					}
+		// Draw the visible track tiles which are ready, the renderer informs us when the others are
+		int[] tileIndices = _mapPosition.getTileIndices(winWidth, winHeight);
+		int[] pixelOffsets = _mapPosition.getDisplayOffsets(winWidth, winHeight);
+		for (int tileX = tileIndices[0]; tileX <= tileIndices[1]; tileX++)
+		{
+			int x = (tileX - tileIndices[0]) * 256 - pixelOffsets[0];
+			for (int tileY = tileIndices[2]; tileY <= tileIndices[3]; tileY++)
+			{
+				int y = (tileY - tileIndices[2]) * 256 - pixelOffsets[1];
+				Image tile = _trackTiles.getTile(zoom, tileX, tileY);
+				if (tile != null) {
+					inG.drawImage(tile, x, y, null);
 				}
-				prevX = px; prevY = py;
 			}
-			prevPointVisible = currPointVisible;
 		}
 
-		// Loop over points, just drawing blobs for waypoints
+		// Check whether any points are visible, only needed if the bounds are being checked
+		boolean pointsPainted = !_checkBounds;
+		for (int k=0; k<numKeptPoints && !pointsPainted; k++)
+		{
+			int px = wrapLongitudeValue(halfWinWidth + _mapPosition.getXFromCentrePixels(decimatedTrack.getXPixel(k)),
+				winWidth, zoom);
+			int py = halfWinHeight + _mapPosition.getYFromCentrePixels(decimatedTrack.getYPixel(k));
+			pointsPainted = px >= 0 && px < winWidth && py >= 0 && py < winHeight;
+		}
+
+		// Loop over waypoints, just counting the visible ones
 		inG.setColor(textColour);
 		FontMetrics fm = inG.getFontMetrics();
 		int nameHeight = fm.getHeight();
-		if (anyWaypoints)
+		final int[] waypointIndices = _decimatedTrack.getWaypointIndices();
+		if (waypointIndices.length > 0)
 		{
 			int numWaypoints = 0;
-			for (int i=0; i<_track.getNumPoints(); i++)
+			for (int i : waypointIndices)
 			{
-				if (_track.getPoint(i).isWaypoint())
+				int px = getScreenX(i);
+				int py = getScreenY(i);
+				if (px >= 0 && px < winWidth && py >= 0 && py < winHeight)
 				{
-					int px = xPixels[i];
-					int py = yPixels[i];
-					if (px >= 0 && px < winWidth && py >= 0 && py < winHeight)
-					{
-						if (_waypointIconDefinition == null)
-						{
-							inG.fillRect(px-3, py-3, 6, 6);
-						}
-						else
-						{
-							ImageIcon icon = _waypointIconDefinition.getImageIcon();
-							if (icon != null)
-							{
-								inG.drawImage(icon.getImage(), px-_waypointIconDefinition.getXOffset(),
-									py-_waypointIconDefinition.getYOffset(), null);
-							}
-						}
-						pointsPainted = true;
-						numWaypoints++;
-					}
+					pointsPainted = true;
+					numWaypoints++;
 				}
 			}
 			// Take more care with waypoint names if less than 100 are visible
 			final int numNameSteps = (numWaypoints > 100 ? 1 : 4);
 			final int numPointSteps = (numWaypoints > 1000 ? 2 : 1);
 
-			// Loop over points again, now draw names for waypoints
+			// Loop over waypoints again, now draw names
 			int[] nameXs = {0, 0, 0, 0};
 			int[] nameYs = {0, 0, 0, 0};
-			for (int i=0; i<_track.getNumPoints(); i += numPointSteps)
+			for (int w=0; w<waypointIndices.length; w += numPointSteps)
 			{
-				if (_track.getPoint(i).isWaypoint())
+				final int i = waypointIndices[w];
+				int px = getScreenX(i);
+				int py = getScreenY(i);
+				if (px >= 0 && px < winWidth && py >= 0 && py < winHeight)
 				{
-					int px = xPixels[i];
-					int py = yPixels[i];
-					if (px >= 0 && px < winWidth && py >= 0 && py < winHeight)
+					// Figure out where to draw waypoint name so it doesn't obscure track
+					String waypointName = _track.getPoint(i).getWaypointName();
+					int nameWidth = fm.stringWidth(waypointName);
+					boolean drawnName = false;
+					// Make arrays for coordinates right left up down
+					nameXs[0] = px + 2; nameXs[1] = px - nameWidth - 2;
+					nameXs[2] = nameXs[3] = px - nameWidth/2;
+					nameYs[0] = nameYs[1] = py + (nameHeight/2);
+					nameYs[2] = py - 2; nameYs[3] = py + nameHeight + 2;
+					for (int extraSpace = 0; extraSpace < numNameSteps && !drawnName; extraSpace++)
 					{
-						// Figure out where to draw waypoint name so it doesn't obscure track
-						String waypointName = _track.getPoint(i).getWaypointName();
-						int nameWidth = fm.stringWidth(waypointName);
-						boolean drawnName = false;
-						// Make arrays for coordinates right left up down
-						nameXs[0] = px + 2; nameXs[1] = px - nameWidth - 2;
-						nameXs[2] = nameXs[3] = px - nameWidth/2;
-						nameYs[0] = nameYs[1] = py + (nameHeight/2);
-						nameYs[2] = py - 2; nameYs[3] = py + nameHeight + 2;
-						for (int extraSpace = 0; extraSpace < numNameSteps && !drawnName; extraSpace++)
+						// Shift arrays for coordinates right left up down
+						nameXs[0] += 3; nameXs[1] -= 3;
+						nameYs[2] -= 3; nameYs[3] += 3;
+						// Check each direction in turn right left up down
+						for (int a=0; a<4; a++)
 						{
-							// Shift arrays for coordinates right left up down
-							nameXs[0] += 3; nameXs[1] -= 3;
-							nameYs[2] -= 3; nameYs[3] += 3;
-							// Check each direction in turn right left up down
-							for (int a=0; a<4; a++)
+							if (nameXs[a] > 0 && (nameXs[a] + nameWidth) < winWidth
+								&& nameYs[a] < winHeight && (nameYs[a] - nameHeight) > 0
+								&& !MapUtils.overlapsPoints(_mapImage, nameXs[a], nameYs[a], nameWidth, nameHeight, textColour))
 							{
-								if (nameXs[a] > 0 && (nameXs[a] + nameWidth) < winWidth
-									&& nameYs[a] < winHeight && (nameYs[a] - nameHeight) > 0
-									&& !MapUtils.overlapsPoints(_mapImage, nameXs[a], nameYs[a], nameWidth, nameHeight, textColour))
-								{
-									// Found a rectangle to fit - draw name here and quit
-									inG.drawString(waypointName, nameXs[a], nameYs[a]);
-									drawnName = true;
-									break;
-								}
+								// Found a rectangle to fit - draw name here and quit
+								inG.drawString(waypointName, nameXs[a], nameYs[a]);
+								drawnName = true;
+								break;
 							}
 						}
 					}
 				}
 			}
 		}
-		// Loop over points, drawing blobs for photo / audio points
-		inG.setColor(secondColour);
-		for (int i=0; i<_track.getNumPoints(); i++)
+		// Photo and audio points are also on the tiles, just check whether they're visible
+		for (int i : _decimatedTrack.getMediaIndices())
 		{
-			if (_track.getPoint(i).hasMedia())
-			{
-				int px = xPixels[i];
-				int py = yPixels[i];
-				if (px >= 0 && px < winWidth && py >= 0 && py < winHeight)
-				{
-					inG.drawRect(px-1, py-1, 2, 2);
-					inG.drawRect(px-2, py-2, 4, 4);
-					pointsPainted = true;
-				}
-			}
+			if (pointsPainted) {break;}
+			int px = getScreenX(i);
+			int py = getScreenY(i);
+			pointsPainted = px >= 0 && px < winWidth && py >= 0 && py < winHeight;
 		}
 
 		// Draw selected range
 		if (_selection.hasRangeSelected())
 		{
 			inG.setColor(rangeColour);
-			for (int i=_selection.getStart(); i<=_selection.getEnd(); i++)
+			final int rangeStart = _selection.getStart(), rangeEnd = _selection.getEnd();
+			for (int k = decimatedTrack.getFirstKeptFrom(rangeStart);
+				k < numKeptPoints && decimatedTrack.getIndex(k) <= rangeEnd; k++)
 			{
-				int px = xPixels[i];
-				int py = yPixels[i];
+				int px = wrapLongitudeValue(halfWinWidth + _mapPosition.getXFromCentrePixels(decimatedTrack.getXPixel(k)),
+					winWidth, zoom);
+				int py = halfWinHeight + _mapPosition.getYFromCentrePixels(decimatedTrack.getYPixel(k));
 				inG.drawRect(px-1, py-1, 2, 2);
 			}
+			for (int i : waypointIndices)
+			{
+				if (i >= rangeStart && i <= rangeEnd) {
+					inG.drawRect(getScreenX(i)-1, getScreenY(i)-1, 2, 2);
+				}
+			}
 		}
 
 		// Draw crosshairs at selected point
 		int selectedPoint = _selection.getCurrentPointIndex();
 		if (selectedPoint >= 0)
 		{
-			int px = xPixels[selectedPoint];
-			int py = yPixels[selectedPoint];
+			int px = getScreenX(selectedPoint);
+			int py = getScreenY(selectedPoint);
 			inG.setColor(currentColour);
 			// crosshairs
 			inG.drawLine(px, 0, px, winHeight);
@@ -964,6 +872,25 @@ public class MapCanvas extends JPanel implements MouseListener, MouseMotionListe
 		return inPx;
 	}
 
+	/**
+	 * @param inIndex point index
+	 * @return x pixel position of the given point on screen, wrapped if necessary
+	 */
+	private int getScreenX(int inIndex)
+	{
+		final int px = getWidth() / 2 + _mapPosition.getXFromCentre(_track.getX(inIndex));
+		return wrapLongitudeValue(px, getWidth(), _mapPosition.getZoom());
+	}
+
+	/**
+	 * @param inIndex point index
+	 * @return y pixel position of the given point on screen
+	 */
+	private int getScreenY(int inIndex)
+	{
+		return getHeight() / 2 + _mapPosition.getYFromCentre(_track.getY(inIndex));
+	}
+
 	/**
 	 * Draw the lines while dragging a point
 	 * @param inG graphics object
@@ -1466,6 +1393,14 @@ public class MapCanvas extends JPanel implements MouseListener, MouseMotionListe
 		if ((inUpdateType & (DataSubscriber.DATA_ADDED_OR_REMOVED + DataSubscriber.DATA_EDITED)) > 0) {
 			_midpoints.updateData(_track);
 		}
+		if ((inUpdateType & (DataSubscriber.DATA_ADDED_OR_REMOVED + DataSubscriber.DATA_EDITED
+			+ DataSubscriber.WAYPOINTS_MODIFIED + DataSubscriber.PHOTOS_MODIFIED)) > 0) {
+			_decimatedTrack.invalidate();
+		}
+		if ((inUpdateType & (DataSubscriber.DATA_ADDED_OR_REMOVED + DataSubscriber.DATA_EDITED
+			+ DataSubscriber.WAYPOINTS_MODIFIED + DataSubscriber.PHOTOS_MODIFIED + DataSubscriber.UNITS_CHANGED)) > 0) {
+			_trackChanged = true;
+		}
 		// See if rect mode has been activated
 		if (_app.getCurrentMode() == App.AppMode.DRAWRECT)
 		{
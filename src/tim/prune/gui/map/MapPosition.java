@@ -117,7 +117,7 @@ public class MapPosition
 	 * @param inZoom zoom value to use
 	 * @return pixels
 	 */
-	private static int transformToPixels(double inValue, int inZoom)
+	static int transformToPixels(double inValue, int inZoom)
 	{
 		return (int) (inValue * MAP_TILE_SIZE * (1 << inZoom));
 	}
@@ -164,6 +164,26 @@ public class MapPosition
 		return transformToPixels(inValue) - _yPosition;
 	}
 
+	/**
+	 * Get the horizontal offset from the centre of an absolute pixel position
+	 * @param inPixels pixel position at the current zoom level
+	 * @return number of pixels right (+ve) or left (-ve) from the centre
+	 */
+	public int getXFromCentrePixels(int inPixels)
+	{
+		return inPixels - _xPosition;
+	}
+
+	/**
+	 * Get the vertical offset from the centre of an absolute pixel position
+	 * @param inPixels pixel position at the current zoom level
+	 * @return number of pixels up (+ve) or down (-ve) from the centre
+	 */
+	public int getYFromCentrePixels(int inPixels)
+	{
+		return inPixels - _yPosition;
+	}
+
 	/**
 	 * Convert a pixel value into a bounds value for sensitivity
 	 * @param inPixels number of pixels
@@ -1,35 +1,86 @@
 package tim.prune.gui.map;
 
+import java.awt.Graphics2D;
 import java.awt.Image;
-import java.awt.image.ImageObserver;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
 import java.net.MalformedURLException;
 import java.net.URL;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import tim.prune.config.Config;
 
 
 /**
  * Class responsible for managing the map tiles,
- * including invoking the correct memory cacher(s) and/or disk cacher(s)
+ * including invoking the shared memory cache and/or disk cacher(s)
  */
-public class MapTileManager implements ImageObserver
+public class MapTileManager
 {
 	/** Consumer object to inform when tiles received */
 	private TileConsumer _consumer = null;
 	/** Current map source */
-	private MapSource _mapSource = null;
-	/** Array of tile caches, one per layer */
-	private MemTileCacher[] _tempCaches = null;
+	private volatile MapSource _mapSource = null;
+	/** Memory cache for tiles, shared with other tile managers */
+	private MemTileCache _memCache = MemTileCache.getSharedCache();
 	/** Flag for whether to download any tiles or just pull from disk */
 	private boolean _downloadTiles = true;
-	/** Flag for whether to return incomplete images or just pass to tile cache until they're done */
-	private boolean _returnIncompleteImages = false;
 	/** Number of layers */
 	private int _numLayers = -1;
 	/** Current zoom level */
 	private int _zoom = 0;
 	/** Number of tiles in each direction for this zoom level */
 	private int _numTileIndices = 1;
+	/** Range of visible tile indices, if known, as min x, max x, min y, max y */
+	private int[] _visibleTiles = null;
+	/** Scaled tiles to show until the real tiles arrive, most recently used last */
+	private final LinkedHashMap<String, Placeholder> _placeholders
+		= new LinkedHashMap<String, Placeholder>(64, 0.75f, true);
+	/** Maximum number of placeholder tiles to keep, according to the number of visible tiles */
+	private int _maxPlaceholders = DEFAULT_NUM_PLACEHOLDERS;
+	/** Number of bytes of placeholder images, which are counted in the memory cache */
+	private long _placeholderBytes = 0L;
+	/** Incremented when the placeholders are thrown away, so that ones still being made are dropped */
+	private int _placeholderVersion = 0;
+	/** Number of tiles received so far, to find out when placeholders could be improved */
+	private final AtomicInteger _numTilesReceived = new AtomicInteger(0);
+
+	/** Size of tiles in pixels */
+	private static final int TILE_SIZE = 256;
+	/** Maximum number of zoom levels to scale tiles up by */
+	private static final int MAX_SCALED_LEVELS = 4;
+	/** Number of placeholder tiles to keep until the number of visible tiles is known */
+	private static final int DEFAULT_NUM_PLACEHOLDERS = 100;
+	/** Number of bytes of a placeholder image */
+	private static final int PLACEHOLDER_BYTES = TILE_SIZE * TILE_SIZE * 4;
+
+
+	/**
+	 * Scaled tile image, or null if none could be made, together with
+	 * the number of tiles received when it was made
+	 */
+	private static final class Placeholder
+	{
+		private final Image _image;
+		private final boolean _isBest;
+		private final int _numTilesReceived;
+
+		/** Constructor */
+		private Placeholder(Image inImage, boolean inIsBest, int inNumTilesReceived)
+		{
+			_image = inImage;
+			_isBest = inIsBest;
+			_numTilesReceived = inNumTilesReceived;
+		}
+
+		/** @return number of bytes used by the image */
+		private int getNumBytes() {
+			return _image == null ? 0 : PLACEHOLDER_BYTES;
+		}
+	}
 
 
 	/**
@@ -41,39 +92,103 @@ public class MapTileManager implements ImageObserver
 		_consumer = inConsumer;
 	}
 
+	/** @param inZoom zoom level to set */
+	public void setZoom(int inZoom)
+	{
+		_zoom = inZoom;
+		// Calculate number of tiles = 2^^zoom
+		_numTileIndices = 1 << _zoom;
+	}
+
+	/**
+	 * Set the range of visible tiles, so that loads and downloads can be prioritised
+	 * and those for tiles which are no longer visible can be cancelled
+	 * @param inMinX minimum x index
+	 * @param inMaxX maximum x index
+	 * @param inMinY minimum y index
+	 * @param inMaxY maximum y index
+	 */
+	public void setVisibleTiles(int inMinX, int inMaxX, int inMinY, int inMaxY)
+	{
+		int[] visibleTiles = {inMinX, inMaxX, inMinY, inMaxY};
+		if (!Arrays.equals(visibleTiles, _visibleTiles))
+		{
+			_visibleTiles = visibleTiles;
+			// Keep placeholders for twice the visible tiles, so that they survive panning
+			final int numVisible = (inMaxX - inMinX + 1) * (inMaxY - inMinY + 1) * Math.max(1, _numLayers);
+			setMaxPlaceholders(Math.max(numVisible, 1) * 2);
+			TileDownloadScheduler.getLoadingScheduler().updateRequests(this);
+			TileDownloadScheduler.getSharedScheduler().updateRequests(this);
+		}
+	}
+
 	/**
-	 * Recentre the map
 	 * @param inZoom zoom level
-	 * @param inTileX x coord of central tile
-	 * @param inTileY y coord of central tile
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return true if the tile is visible or just next to the visible area
 	 */
-	public void centreMap(int inZoom, int inTileX, int inTileY)
+	boolean isTileWanted(int inZoom, int inX, int inY)
 	{
-		setZoom(inZoom);
-		// Pass params onto all memory cachers
-		if (_tempCaches != null) {
-			for (int i=0; i<_tempCaches.length; i++) {
-				_tempCaches[i].centreMap(inZoom, inTileX, inTileY);
+		final int[] visibleTiles = _visibleTiles;
+		if (visibleTiles == null) {return true;}
+		// When overzoomed, the visible tiles are scaled up from a lower zoom level
+		final int shift = getOverzoomShift();
+		if (inZoom != _zoom - shift || inY < (visibleTiles[2] >> shift) - 1
+			|| inY > (visibleTiles[3] >> shift) + 1)
+		{
+			return false;
+		}
+		// x indices may be outside the range 0 to numTiles-1 if the map wraps around
+		final int numTiles = _numTileIndices >> shift;
+		for (int x = inX - numTiles; x <= inX + numTiles; x += numTiles)
+		{
+			if (x >= (visibleTiles[0] >> shift) - 1 && x <= (visibleTiles[1] >> shift) + 1) {
+				return true;
 			}
 		}
+		return false;
 	}
 
-	/** @param inZoom zoom level to set */
-	public void setZoom(int inZoom)
+	/**
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return priority for downloading, with lower numbers coming first
+	 */
+	int getDownloadPriority(int inLayer, int inZoom, int inX, int inY)
 	{
-		_zoom = inZoom;
-		// Calculate number of tiles = 2^^zoom
-		_numTileIndices = 1 << _zoom;
+		final int[] visibleTiles = _visibleTiles;
+		if (visibleTiles == null) {return inLayer;}
+		final int shift = getOverzoomShift();
+		if (inZoom != _zoom - shift) {return Integer.MAX_VALUE;}
+		// Tiles nearest the middle of the view come first, base layers before overlays
+		final int centreX = ((visibleTiles[0] + visibleTiles[1]) / 2) >> shift;
+		final int centreY = ((visibleTiles[2] + visibleTiles[3]) / 2) >> shift;
+		final int numTiles = _numTileIndices >> shift;
+		int distX = Math.abs(inX - centreX) % numTiles;
+		distX = Math.min(distX, numTiles - distX);
+		final int distance = Math.max(distX, Math.abs(inY - centreY));
+		return distance * 4 + Math.min(inLayer, 3);
 	}
 
 	/**
-	 * @return true if zoom is too high for tiles
+	 * @return true if zoom is too high for tiles, even when scaling them up
 	 */
 	public boolean isOverzoomed()
 	{
+		return getOverzoomShift() > MAX_SCALED_LEVELS;
+	}
+
+	/**
+	 * @return number of zoom levels above the maximum zoom of the current map source
+	 */
+	private int getOverzoomShift()
+	{
+		if (_mapSource == null) {return 0;}
 		// Ask current map source what maximum zoom is
-		int maxZoom = (_mapSource == null?0:_mapSource.getMaxZoomLevel());
-		return (_zoom > maxZoom);
+		return Math.max(0, _zoom - _mapSource.getMaxZoomLevel());
 	}
 
 	/**
@@ -85,32 +200,65 @@ public class MapTileManager implements ImageObserver
 		_downloadTiles = inEnabled;
 	}
 
-	/** Configure to return incomplete images instead of going via caches (and another call) */
-	public void setReturnIncompleteImages()
+	/**
+	 * @return memory cache used for tiles
+	 */
+	public MemTileCache getMemoryCache()
 	{
-		_returnIncompleteImages = true;
+		return _memCache;
 	}
 
 	/**
-	 * Clear all the memory caches due to changed config / zoom
+	 * Clear the memory cache to free up the memory when the map isn't shown
 	 */
 	public void clearMemoryCaches()
 	{
-		int numLayers = _mapSource.getNumLayers();
-		if (_tempCaches == null || _tempCaches.length != numLayers)
+		_memCache.clearAll();
+		clearPlaceholders();
+	}
+
+	/**
+	 * Throw away all the placeholder tiles
+	 */
+	private synchronized void clearPlaceholders()
+	{
+		_placeholders.clear();
+		_placeholderVersion++;
+		_memCache.addExternalBytes(-_placeholderBytes);
+		_placeholderBytes = 0L;
+	}
+
+	/**
+	 * @param inMaxPlaceholders maximum number of placeholder tiles to keep
+	 */
+	private synchronized void setMaxPlaceholders(int inMaxPlaceholders)
+	{
+		_maxPlaceholders = inMaxPlaceholders;
+		removeOldPlaceholders();
+	}
+
+	/**
+	 * Throw away the least recently used placeholders until there are few enough
+	 */
+	private synchronized void removeOldPlaceholders()
+	{
+		long numBytesRemoved = 0L;
+		Iterator<Placeholder> iter = _placeholders.values().iterator();
+		while (_placeholders.size() > _maxPlaceholders && iter.hasNext())
 		{
-			// Cachers don't match, so need to create the right number of them
-			_tempCaches = new MemTileCacher[numLayers];
-			for (int i=0; i<numLayers; i++) {
-				_tempCaches[i] = new MemTileCacher();
-			}
-		}
-		else {
-			// Cachers already there, just need to be cleared
-			for (int i=0; i<numLayers; i++) {
-				_tempCaches[i].clearAll();
-			}
+			numBytesRemoved += iter.next().getNumBytes();
+			iter.remove();
 		}
+		_placeholderBytes -= numBytesRemoved;
+		_memCache.addExternalBytes(-numBytesRemoved);
+	}
+
+	/**
+	 * @return number of placeholder tiles held
+	 */
+	synchronized int getNumPlaceholders()
+	{
+		return _placeholders.size();
 	}
 
 	/**
@@ -128,8 +276,8 @@ public class MapTileManager implements ImageObserver
 	{
 		_mapSource = inMapSource;
 		if (_mapSource == null) {_mapSource = MapSourceLibrary.getSource(0);}
-		clearMemoryCaches();
 		_numLayers = _mapSource.getNumLayers();
+		clearPlaceholders();
 	}
 
 	/**
@@ -141,7 +289,11 @@ public class MapTileManager implements ImageObserver
 	}
 
 	/**
-	 * Get a tile from the currently selected map source
+	 * Get a tile from the currently selected map source.
+	 * Only the memory cache is checked here;
+	 * tiles from the disk cache are loaded and decoded by background threads,
+	 * and the consumer is informed when they're ready.
+	 * If the zoom is above the maximum of the map source, the tile to scale up is requested instead.
 	 * @param inLayer layer number, starting from 0
 	 * @param inX x index of tile
 	 * @param inY y index of tile
@@ -152,113 +304,320 @@ public class MapTileManager implements ImageObserver
 	{
 		if (inY < 0 || inY >= _numTileIndices) return null;
 		// Wrap tile indices which are too big or too small
-		inX = ((inX % _numTileIndices) + _numTileIndices) % _numTileIndices;
+		final int x = ((inX % _numTileIndices) + _numTileIndices) % _numTileIndices;
+		final int shift = getOverzoomShift();
+		if (shift > 0)
+		{
+			// Map source doesn't have this tile, so make sure the one to scale up gets loaded
+			requestTile(_mapSource, inLayer, _zoom - shift, x >> shift, inY >> shift, inDownloadIfNecessary);
+			return null;
+		}
+		return requestTile(_mapSource, inLayer, _zoom, x, inY, inDownloadIfNecessary);
+	}
 
+	/**
+	 * Get a tile from the memory cache, or schedule it to be loaded if it's not there
+	 * @param inMapSource map source
+	 * @param inLayer layer number, starting from 0
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @param inDownloadIfNecessary true to download the file if it's not available
+	 * @return selected tile if already loaded, or null otherwise
+	 */
+	private Image requestTile(final MapSource inMapSource, final int inLayer, final int inZoom,
+		final int inX, final int inY, boolean inDownloadIfNecessary)
+	{
 		// Check first in memory cache for tile
-		Image tileImage = null;
-		MemTileCacher tempCache = null;
-		if (_tempCaches != null)
-		{
-			tempCache = _tempCaches[inLayer]; // Should probably guard array indexes here
-			tileImage = tempCache.getTile(inX, inY);
-			if (tileImage != null) {
-				//System.out.println("Got tile from memory: " + inX + ", " + inY);
-				return tileImage;
-			}
+		Image tileImage = _memCache.getTile(inMapSource.getSiteName(inLayer), inLayer, inZoom, inX, inY);
+		if (tileImage != null) {
+			return tileImage;
 		}
 
 		// Tile wasn't in memory, but maybe it's in disk cache (if there is one)
-		String diskCachePath = Config.getConfigString(Config.KEY_DISK_CACHE);
-		boolean useDisk = (diskCachePath != null);
-		boolean onlineMode = Config.getConfigBoolean(Config.KEY_ONLINE_MODE);
-		MapTile mapTile = null;
-		if (useDisk)
+		final String diskCachePath = Config.getConfigString(Config.KEY_DISK_CACHE);
+		final boolean download = inDownloadIfNecessary && _downloadTiles
+			&& Config.getConfigBoolean(Config.KEY_ONLINE_MODE);
+		if (diskCachePath == null)
 		{
-			// Get the map tile from cache
-			mapTile = DiskTileCacher.getTile(diskCachePath, _mapSource.makeFilePath(inLayer, _zoom, inX, inY));
-			if (mapTile != null && mapTile.getImage() != null)
-			{
-				tileImage = mapTile.getImage();
-				if (_returnIncompleteImages) {return tileImage;}
-				// Pass tile to memory cache
-				if (tempCache != null) {
-					tempCache.setTile(tileImage, inX, inY, _zoom);
-				}
-				tileImage.getWidth(this); // trigger the load from file
+			if (download) {
+				startDownload(inMapSource, null, inLayer, inZoom, inX, inY);
 			}
+			return null;
 		}
-		// Maybe we've got an image now, maybe it's expired
-		final boolean shouldDownload = (tileImage == null || mapTile == null || mapTile.isExpired());
+		// Scheduler ignores the request if this tile is already being loaded
+		final String tilePath = inMapSource.makeFilePath(inLayer, inZoom, inX, inY);
+		TileDownloadScheduler.getLoadingScheduler().schedule(diskCachePath + "/" + tilePath, this,
+			inLayer, inZoom, inX, inY, new Runnable() {
+				public void run() {
+					loadTile(inMapSource, diskCachePath, inLayer, inZoom, inX, inY, download);
+				}
+			});
+		return null;
+	}
 
-		// If we're online then try to download the tile
-		if (onlineMode && _downloadTiles && inDownloadIfNecessary && shouldDownload)
+	/**
+	 * Load a tile from the disk cache, and start a download if it's missing or expired
+	 * @param inMapSource map source
+	 * @param inDiskCachePath base path of disk cache
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @param inDownload true to download the tile if necessary
+	 */
+	private void loadTile(MapSource inMapSource, String inDiskCachePath, int inLayer, int inZoom,
+		int inX, int inY, boolean inDownload)
+	{
+		MapTile mapTile = DiskTileCacher.getTile(inDiskCachePath, inMapSource, inLayer, inZoom, inX, inY);
+		Image tileImage = (mapTile == null ? null : mapTile.getImage());
+		if (tileImage != null)
 		{
-			try
-			{
-				URL tileUrl = new URL(_mapSource.makeURL(inLayer, _zoom, inX, inY));
-				if (useDisk)
-				{
-					DiskTileCacher.saveTile(tileUrl, diskCachePath,
-						_mapSource.makeFilePath(inLayer, _zoom, inX, inY), this);
-					// Image will now be copied directly from URL stream to disk cache
-				}
-				else
-				{
-					// Load image asynchronously, using observer
-					// In order to set the http user agent, need to use a TileDownloader instead
-					TileDownloader.triggerLoad(this, tileUrl, inLayer, inX, inY, _zoom);
-				}
-			}
-			catch (MalformedURLException urle) {} // ignore
-			catch (CacheFailure cf) {
-				_consumer.reportCacheFailure();
-			}
+			_memCache.setTile(tileImage, inMapSource.getSiteName(inLayer), inLayer, inZoom, inX, inY);
+			_numTilesReceived.incrementAndGet();
+			_consumer.tilesUpdated(true);
+		}
+		// Maybe we've got an image now, maybe it's expired
+		if (inDownload && (tileImage == null || mapTile.isExpired())) {
+			startDownload(inMapSource, inDiskCachePath, inLayer, inZoom, inX, inY);
 		}
-		return tileImage;
 	}
 
 	/**
-	 * Method called by image loader to inform of updates to the tiles
-	 * @param img the image
-	 * @param infoflags flags describing how much of the image is known
-	 * @param x ignored
-	 * @param y ignored
-	 * @param width ignored
-	 * @param height ignored
-	 * @return false to carry on loading, true to stop
+	 * Start downloading the given tile, either to the disk cache or straight into memory
+	 * @param inMapSource map source
+	 * @param inDiskCachePath base path of disk cache, or null if there isn't one
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
 	 */
-	public boolean imageUpdate(Image img, int infoflags, int x, int y, int width, int height)
+	private void startDownload(MapSource inMapSource, String inDiskCachePath, int inLayer, int inZoom, int inX, int inY)
 	{
-		boolean loaded = (infoflags & ImageObserver.ALLBITS) > 0;
-		boolean error = (infoflags & ImageObserver.ERROR) > 0;
-		if (loaded || error) {
-			_consumer.tilesUpdated(loaded);
+		try
+		{
+			URL tileUrl = new URL(inMapSource.makeURL(inLayer, inZoom, inX, inY));
+			if (inDiskCachePath != null)
+			{
+				DiskTileCacher.saveTile(tileUrl, inDiskCachePath, inMapSource, this, inLayer, inZoom, inX, inY);
+				// Image will now be downloaded and saved in the disk cache
+			}
+			else
+			{
+				// Load image asynchronously
+				// In order to set the http user agent, need to use a TileDownloader instead
+				TileDownloader.triggerLoad(this, inMapSource, tileUrl, inLayer, inX, inY, inZoom);
+			}
+		}
+		catch (MalformedURLException urle) {} // ignore
+		catch (CacheFailure cf) {
+			_consumer.reportCacheFailure();
 		}
-		return !loaded;
 	}
 
 	/**
-	 * Callback method from TileDownloader to let us know that an image has been loaded
-	 * @param inTile Loaded Image object
+	 * Callback method from the downloaders to let us know that an image has been loaded.
+	 * Tiles for a map source which is no longer selected are ignored.
+	 * @param inMapSource map source for which the tile was requested
+	 * @param inTile decoded Image object, or null if the download couldn't be decoded
 	 * @param inLayer layer index from 0
 	 * @param inX x coordinate of tile
 	 * @param inY y coordinate of tile
 	 * @param inZoom zoom level of loaded image
 	 */
-	public void notifyImageLoaded(Image inTile, int inLayer, int inX, int inY, int inZoom)
+	public void notifyImageLoaded(MapSource inMapSource, Image inTile, int inLayer, int inX, int inY, int inZoom)
+	{
+		if (inMapSource != _mapSource) {
+			return;
+		}
+		if (inTile != null)
+		{
+			// Tiles are kept for all zoom levels, so zooming back can use them
+			_memCache.setTile(inTile, inMapSource.getSiteName(inLayer), inLayer, inZoom, inX, inY);
+			_numTilesReceived.incrementAndGet();
+		}
+		_consumer.tilesUpdated(inTile != null);
+	}
+
+	/**
+	 * Get a placeholder to show instead of a tile which isn't loaded yet,
+	 * made by scaling up a tile from a lower zoom level or by scaling down
+	 * the tiles from the next zoom level, if they're in the memory cache.
+	 * The scaling is done by the tile loading threads, so the first request
+	 * just starts it and the consumer is informed when the placeholder is ready.
+	 * Placeholders are kept until a better one can be made, and the real tile
+	 * from getTile should always be preferred once it arrives.
+	 * @param inLayer layer number, starting from 0
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return scaled tile image, or null if there isn't one yet
+	 */
+	public Image getPlaceholderTile(final int inLayer, int inX, final int inY)
+	{
+		final MapSource mapSource = _mapSource;
+		final int zoom = _zoom;
+		if (inY < 0 || inY >= _numTileIndices || mapSource == null) return null;
+		final int x = ((inX % _numTileIndices) + _numTileIndices) % _numTileIndices;
+		final String siteName = mapSource.getSiteName(inLayer);
+		final String key = siteName + ":" + inLayer + ":" + zoom + ":" + x + ":" + inY;
+		final int numTilesReceived = _numTilesReceived.get();
+		final Placeholder placeholder;
+		final int version;
+		synchronized (this)
+		{
+			placeholder = _placeholders.get(key);
+			version = _placeholderVersion;
+		}
+		// Only try again if new tiles have arrived since the last attempt
+		if (placeholder == null || (!placeholder._isBest && placeholder._numTilesReceived != numTilesReceived))
+		{
+			// Scheduler ignores the request if this placeholder is already being made
+			final int shift = getOverzoomShift();
+			TileDownloadScheduler.getLoadingScheduler().schedule("placeholder:" + key, this,
+				inLayer, zoom - shift, x >> shift, inY >> shift, new Runnable() {
+					public void run() {
+						buildPlaceholder(mapSource, key, inLayer, zoom, x, inY, numTilesReceived, version);
+					}
+				});
+		}
+		return placeholder == null ? null : placeholder._image;
+	}
+
+	/**
+	 * Make a placeholder and keep it, unless the placeholders were thrown away in the meantime
+	 * @param inMapSource map source
+	 * @param inKey key of placeholder
+	 * @param inLayer layer number
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @param inNumTilesReceived number of tiles received when the placeholder was requested
+	 * @param inVersion placeholder version when it was requested
+	 */
+	private void buildPlaceholder(MapSource inMapSource, String inKey, int inLayer, int inZoom,
+		int inX, int inY, int inNumTilesReceived, int inVersion)
+	{
+		Placeholder placeholder = makePlaceholder(inMapSource, inLayer, inZoom, inX, inY, inNumTilesReceived);
+		synchronized (this)
+		{
+			if (inVersion != _placeholderVersion) {
+				return;
+			}
+			Placeholder previous = _placeholders.put(inKey, placeholder);
+			final long numBytesAdded = placeholder.getNumBytes() - (previous == null ? 0 : previous.getNumBytes());
+			_placeholderBytes += numBytesAdded;
+			_memCache.addExternalBytes(numBytesAdded);
+			removeOldPlaceholders();
+		}
+		if (placeholder._image != null && _consumer != null) {
+			_consumer.tilesUpdated(true);
+		}
+	}
+
+	/**
+	 * Make a placeholder for the given tile
+	 * @param inMapSource map source
+	 * @param inLayer layer number
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @param inNumTilesReceived number of tiles received so far
+	 * @return placeholder, possibly without an image
+	 */
+	private Placeholder makePlaceholder(MapSource inMapSource, int inLayer, int inZoom, int inX, int inY,
+		int inNumTilesReceived)
 	{
-		if (inTile != null && _tempCaches != null)
+		final String siteName = inMapSource.getSiteName(inLayer);
+		// The nearest tile to scale up is at the zoom level below, or the maximum one of the map source
+		final int minShift = Math.max(1, inZoom - inMapSource.getMaxZoomLevel());
+		Image parent = getParentTile(siteName, inLayer, inZoom, minShift, inX, inY);
+		if (parent != null)
+		{
+			Image image = scaleUp(parent, minShift, inX, inY);
+			return new Placeholder(image, image != null, inNumTilesReceived);
+		}
+		// Otherwise use the tiles from the next zoom level, which are there after zooming out
+		Image[] children = new Image[4];
+		int numChildren = 0;
+		if (inZoom < inMapSource.getMaxZoomLevel())
 		{
-			MemTileCacher tempCache = _tempCaches[inLayer]; // Should probably guard against nulls and array indexes here
-			if (tempCache.getTile(inX, inY) == null)
+			for (int i=0; i<4; i++)
 			{
-				// Check with cache that the zoom level is still valid
-				tempCache.setTile(inTile, inX, inY, inZoom);
-				inTile.getWidth(this); // trigger imageUpdate when image is ready
+				children[i] = _memCache.peekTile(siteName, inLayer, inZoom + 1, inX * 2 + i % 2, inY * 2 + i / 2);
+				if (children[i] != null) {numChildren++;}
 			}
 		}
-		else if (inTile != null) {
-			inTile.getWidth(this);
+		if (numChildren == 4) {
+			return new Placeholder(scaleDown(children), true, inNumTilesReceived);
+		}
+		// Try tiles further down, which are more blurred
+		for (int shift = minShift + 1; shift <= MAX_SCALED_LEVELS; shift++)
+		{
+			parent = getParentTile(siteName, inLayer, inZoom, shift, inX, inY);
+			if (parent != null) {
+				return new Placeholder(scaleUp(parent, shift, inX, inY), false, inNumTilesReceived);
+			}
+		}
+		return new Placeholder(numChildren > 0 ? scaleDown(children) : null, false, inNumTilesReceived);
+	}
+
+	/**
+	 * @param inSiteName site name of map source layer
+	 * @param inLayer layer number
+	 * @param inZoom zoom level of tile
+	 * @param inShift number of zoom levels below the tile's one
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return tile containing the given one from the memory cache, or null if not there
+	 */
+	private Image getParentTile(String inSiteName, int inLayer, int inZoom, int inShift, int inX, int inY)
+	{
+		if (inShift > inZoom) {return null;}
+		return _memCache.peekTile(inSiteName, inLayer, inZoom - inShift, inX >> inShift, inY >> inShift);
+	}
+
+	/**
+	 * Scale up part of a tile from a lower zoom level
+	 * @param inParent tile from lower zoom level
+	 * @param inShift number of zoom levels between the tiles
+	 * @param inX x index of tile to make
+	 * @param inY y index of tile to make
+	 * @return scaled image, or null if the parent tile is too small
+	 */
+	static BufferedImage scaleUp(Image inParent, int inShift, int inX, int inY)
+	{
+		final int width = inParent.getWidth(null) >> inShift;
+		final int height = inParent.getHeight(null) >> inShift;
+		if (width < 1 || height < 1) {return null;}
+		final int mask = (1 << inShift) - 1;
+		final int left = (inX & mask) * width, top = (inY & mask) * height;
+		BufferedImage result = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = result.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		g.drawImage(inParent, 0, 0, TILE_SIZE, TILE_SIZE, left, top, left + width, top + height, null);
+		g.dispose();
+		return result;
+	}
+
+	/**
+	 * Scale down the four tiles from the next zoom level into one
+	 * @param inChildren tiles from next zoom level, top left, top right, bottom left, bottom right,
+	 *        any of which may be null
+	 * @return scaled image
+	 */
+	static BufferedImage scaleDown(Image[] inChildren)
+	{
+		final int halfSize = TILE_SIZE / 2;
+		BufferedImage result = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = result.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		for (int i=0; i<inChildren.length; i++)
+		{
+			if (inChildren[i] != null) {
+				g.drawImage(inChildren[i], (i % 2) * halfSize, (i / 2) * halfSize, halfSize, halfSize, null);
+			}
 		}
+		g.dispose();
+		return result;
 	}
 }
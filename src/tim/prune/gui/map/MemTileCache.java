@@ -0,0 +1,230 @@
+package tim.prune.gui.map;
+
+import java.awt.Image;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Class to act as a memory-based map tile cache, shared by all the tile managers.
+ * Tiles are kept for all sources and zoom levels, and the least recently
+ * used tiles are thrown away when the decoded images use too much memory.
+ * Memory held elsewhere for tiles, such as scaled placeholders, can be
+ * counted against the same limit.
+ * For caching of tiles on disk, see the DiskTileCacher class.
+ */
+public class MemTileCache
+{
+	/** Cached tiles, most recently used last */
+	private LinkedHashMap<TileKey, CachedTile> _tiles = new LinkedHashMap<TileKey, CachedTile>(256, 0.75f, true);
+	/** Maximum number of bytes to hold */
+	private final long _maxBytes;
+	/** Current number of bytes held */
+	private long _numBytes = 0L;
+	/** Number of bytes held outside the cache but counted against its limit */
+	private long _externalBytes = 0L;
+	/** Counters for statistics */
+	private long _numHits = 0L, _numMisses = 0L, _numEvictions = 0L;
+
+	/** Cache shared by all tile managers */
+	private static MemTileCache _sharedCache = null;
+
+	/** Number of bytes assumed for a tile which hasn't been loaded yet */
+	private static final int DEFAULT_TILE_BYTES = 256 * 256 * 4;
+
+
+	/**
+	 * Key for a single tile
+	 */
+	private static final class TileKey
+	{
+		private final String _siteName;
+		private final int _layer, _zoom, _x, _y;
+
+		/** Constructor */
+		private TileKey(String inSiteName, int inLayer, int inZoom, int inX, int inY)
+		{
+			_siteName = inSiteName;
+			_layer = inLayer;
+			_zoom = inZoom;
+			_x = inX;
+			_y = inY;
+		}
+
+		public boolean equals(Object inOther)
+		{
+			if (!(inOther instanceof TileKey)) {return false;}
+			TileKey other = (TileKey) inOther;
+			return _layer == other._layer && _zoom == other._zoom && _x == other._x && _y == other._y
+				&& _siteName.equals(other._siteName);
+		}
+
+		public int hashCode()
+		{
+			return ((_siteName.hashCode() * 31 + _layer) * 31 + _zoom) * 31 + _x * 1021 + _y;
+		}
+	}
+
+	/**
+	 * Tile image together with the number of bytes counted for it
+	 */
+	private static final class CachedTile
+	{
+		private final Image _image;
+		private final int _numBytes;
+
+		/** Constructor */
+		private CachedTile(Image inImage, int inNumBytes)
+		{
+			_image = inImage;
+			_numBytes = inNumBytes;
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 * @param inMaxBytes maximum number of bytes of decoded images to hold
+	 */
+	public MemTileCache(long inMaxBytes)
+	{
+		_maxBytes = inMaxBytes;
+	}
+
+	/**
+	 * @return cache shared by all the tile managers, using up to an eighth of the available memory
+	 */
+	public static synchronized MemTileCache getSharedCache()
+	{
+		if (_sharedCache == null)
+		{
+			final long maxBytes = Math.max(16L << 20, Math.min(256L << 20, Runtime.getRuntime().maxMemory() / 8));
+			_sharedCache = new MemTileCache(maxBytes);
+		}
+		return _sharedCache;
+	}
+
+	/**
+	 * @param inSiteName site name of map source layer
+	 * @param inLayer layer number
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return selected tile if already loaded, or null otherwise
+	 */
+	public synchronized Image getTile(String inSiteName, int inLayer, int inZoom, int inX, int inY)
+	{
+		CachedTile tile = _tiles.get(new TileKey(inSiteName, inLayer, inZoom, inX, inY));
+		if (tile == null)
+		{
+			_numMisses++;
+			return null;
+		}
+		_numHits++;
+		return tile._image;
+	}
+
+	/**
+	 * Look for a tile without counting the request in the statistics,
+	 * for example to find a tile at a different zoom level to scale
+	 * @param inSiteName site name of map source layer
+	 * @param inLayer layer number
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return selected tile if already loaded, or null otherwise
+	 */
+	public synchronized Image peekTile(String inSiteName, int inLayer, int inZoom, int inX, int inY)
+	{
+		CachedTile tile = _tiles.get(new TileKey(inSiteName, inLayer, inZoom, inX, inY));
+		return tile == null ? null : tile._image;
+	}
+
+	/**
+	 * Save the specified tile, throwing away the oldest tiles if necessary
+	 * @param inTile image to save
+	 * @param inSiteName site name of map source layer
+	 * @param inLayer layer number
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 */
+	public synchronized void setTile(Image inTile, String inSiteName, int inLayer, int inZoom, int inX, int inY)
+	{
+		if (inTile == null) {return;}
+		final int width = inTile.getWidth(null), height = inTile.getHeight(null);
+		final int numBytes = (width > 0 && height > 0 ? width * height * 4 : DEFAULT_TILE_BYTES);
+		CachedTile previous = _tiles.put(new TileKey(inSiteName, inLayer, inZoom, inX, inY),
+			new CachedTile(inTile, numBytes));
+		if (previous != null) {
+			_numBytes -= previous._numBytes;
+		}
+		_numBytes += numBytes;
+		removeOldTiles(1);
+	}
+
+	/**
+	 * Count memory held outside the cache against its limit,
+	 * throwing away the oldest tiles if necessary
+	 * @param inNumBytes number of bytes to add, or negative to release them again
+	 */
+	public synchronized void addExternalBytes(long inNumBytes)
+	{
+		_externalBytes = Math.max(0L, _externalBytes + inNumBytes);
+		removeOldTiles(0);
+	}
+
+	/**
+	 * Remove the least recently used tiles until there's space
+	 * @param inMinTiles number of tiles to keep even if there isn't space
+	 */
+	private void removeOldTiles(int inMinTiles)
+	{
+		Iterator<Map.Entry<TileKey, CachedTile>> iter = _tiles.entrySet().iterator();
+		while (_numBytes + _externalBytes > _maxBytes && _tiles.size() > inMinTiles && iter.hasNext())
+		{
+			_numBytes -= iter.next().getValue()._numBytes;
+			iter.remove();
+			_numEvictions++;
+		}
+	}
+
+	/**
+	 * Clear all the cached images
+	 */
+	public synchronized void clearAll()
+	{
+		_tiles.clear();
+		_numBytes = 0L;
+	}
+
+	/** @return number of tiles held */
+	public synchronized int getNumTiles() {
+		return _tiles.size();
+	}
+
+	/** @return number of bytes of decoded images held */
+	public synchronized long getNumBytes() {
+		return _numBytes;
+	}
+
+	/** @return number of bytes held outside the cache but counted against its limit */
+	public synchronized long getExternalBytes() {
+		return _externalBytes;
+	}
+
+	/** @return number of requests which found a tile */
+	public synchronized long getNumHits() {
+		return _numHits;
+	}
+
+	/** @return number of requests which didn't find a tile */
+	public synchronized long getNumMisses() {
+		return _numMisses;
+	}
+
+	/** @return number of tiles thrown away to make space */
+	public synchronized long getNumEvictions() {
+		return _numEvictions;
+	}
+}
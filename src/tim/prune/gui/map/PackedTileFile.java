@@ -0,0 +1,611 @@
+package tim.prune.gui.map;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Append-only container holding all the tiles of one map layer at one zoom level,
+ * so that the disk cache doesn't need a separate file for every tile.
+ * Each record holds the tile indices, modification time and image bytes;
+ * a replaced tile just leaves its old record behind until the file is compacted.
+ * Lookups use an in-memory hash index from tile indices to record positions,
+ * which is saved alongside so that it doesn't have to be rebuilt by scanning the records.
+ */
+public class PackedTileFile
+{
+	/** File holding the records */
+	private final File _dataFile;
+	/** File holding the saved index */
+	private final File _indexFile;
+	/** Channel for reading and appending records, or null if closed */
+	private FileChannel _channel = null;
+	/** Length of data file */
+	private long _dataLength = 0L;
+
+	/** Index keys made from the tile indices, or EMPTY_KEY */
+	private long[] _keys = null;
+	/** Record positions for each key */
+	private long[] _offsets = null;
+	/** Image lengths in bytes for each key */
+	private int[] _lengths = null;
+	/** Modification times in seconds for each key */
+	private int[] _times = null;
+	/** Number of tiles in the index */
+	private int _numTiles = 0;
+	/** Total bytes of tile images in the index */
+	private long _liveBytes = 0L;
+	/** Number of records added since the index was saved */
+	private int _numUnsaved = 0;
+
+	/** File extension for data files */
+	public static final String FILE_EXTENSION = "tilepack";
+	/** File extension for index files */
+	public static final String INDEX_EXTENSION = "tileidx";
+
+	/** Identifier at the start of data and index files, "GPTP" */
+	private static final int FILE_MAGIC = 0x47505450;
+	/** Format version */
+	private static final int FILE_VERSION = 1;
+	/** Size of data file header */
+	private static final int HEADER_SIZE = 8;
+	/** Size of each record header: x, y, seconds, length */
+	private static final int RECORD_HEADER_SIZE = 16;
+	/** Size of index file header: magic, version, data length, number of entries */
+	private static final int INDEX_HEADER_SIZE = 20;
+	/** Size of each index entry: key, offset, length, seconds */
+	private static final int INDEX_ENTRY_SIZE = 24;
+	/** Key value for empty slots, impossible for non-negative indices */
+	private static final long EMPTY_KEY = -1L;
+	/** Minimum number of unused bytes before compaction is worthwhile */
+	private static final long MIN_COMPACT_BYTES = 4L << 20;
+
+
+	/**
+	 * Constructor, opening or creating the file
+	 * @param inDataFile file containing the records
+	 * @throws IOException if the file couldn't be opened or isn't a tile file
+	 */
+	public PackedTileFile(File inDataFile) throws IOException
+	{
+		_dataFile = inDataFile;
+		_indexFile = getIndexFile(inDataFile);
+		open();
+	}
+
+	/**
+	 * @param inDataFile data file
+	 * @return corresponding index file
+	 */
+	public static File getIndexFile(File inDataFile)
+	{
+		final String name = inDataFile.getName();
+		final int dotPos = name.lastIndexOf('.');
+		return new File(inDataFile.getParentFile(), (dotPos > 0 ? name.substring(0, dotPos) : name)
+			+ "." + INDEX_EXTENSION);
+	}
+
+	/**
+	 * Open the data file, load the index and add any records which aren't in it yet
+	 */
+	private void open() throws IOException
+	{
+		File dir = _dataFile.getParentFile();
+		if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Failed to create directory " + dir.getAbsolutePath());
+		}
+		_channel = new RandomAccessFile(_dataFile, "rw").getChannel();
+		_dataLength = _channel.size();
+		if (_dataLength < HEADER_SIZE)
+		{
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+			_channel.truncate(0L);
+			writeFully(header, 0L);
+			_dataLength = HEADER_SIZE;
+		}
+		else
+		{
+			ByteBuffer header = readBuffer(0L, HEADER_SIZE);
+			if (header.getInt() != FILE_MAGIC || header.getInt() != FILE_VERSION)
+			{
+				close();
+				throw new IOException("Not a tile file: " + _dataFile.getAbsolutePath());
+			}
+		}
+		final long indexedLength = loadIndex();
+		final int numScanned = scanRecords(indexedLength);
+		if (numScanned > 1000) {
+			saveIndex();
+		}
+	}
+
+	/**
+	 * Load the saved index, if it's valid
+	 * @return length of data file covered by the index
+	 */
+	private long loadIndex()
+	{
+		initIndex(64);
+		if (!_indexFile.exists()) {
+			return HEADER_SIZE;
+		}
+		RandomAccessFile indexFile = null;
+		try
+		{
+			indexFile = new RandomAccessFile(_indexFile, "r");
+			// Read into memory rather than mapping, so that the file can be replaced afterwards
+			ByteBuffer buffer = ByteBuffer.allocate((int) indexFile.length()).order(ByteOrder.LITTLE_ENDIAN);
+			indexFile.readFully(buffer.array());
+			if (buffer.remaining() < INDEX_HEADER_SIZE || buffer.getInt() != FILE_MAGIC
+				|| buffer.getInt() != FILE_VERSION) {
+				return HEADER_SIZE;
+			}
+			final long indexedLength = buffer.getLong();
+			final int numEntries = buffer.getInt();
+			if (indexedLength > _dataLength || numEntries < 0
+				|| buffer.remaining() < (long) numEntries * INDEX_ENTRY_SIZE) {
+				return HEADER_SIZE;
+			}
+			initIndex(numEntries);
+			for (int i=0; i<numEntries; i++)
+			{
+				final long key = buffer.getLong();
+				final long offset = buffer.getLong();
+				final int length = buffer.getInt();
+				final int seconds = buffer.getInt();
+				addToIndex(key, offset, length, seconds);
+			}
+			return indexedLength;
+		}
+		catch (IOException | RuntimeException e) {
+			initIndex(64);
+			return HEADER_SIZE;
+		}
+		finally
+		{
+			try {if (indexFile != null) indexFile.close();} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Add the records from the given position to the index
+	 * @param inStart position of first record to add
+	 * @return number of records added
+	 */
+	private int scanRecords(long inStart) throws IOException
+	{
+		long offset = inStart;
+		int numScanned = 0;
+		// Read the file in blocks, refilling whenever the next record header isn't in the block
+		ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+		long bufferStart = 0L;
+		buffer.limit(0);
+		while (offset + RECORD_HEADER_SIZE <= _dataLength)
+		{
+			if (offset < bufferStart || offset + RECORD_HEADER_SIZE > bufferStart + buffer.limit())
+			{
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), _dataLength - offset));
+				readFully(buffer, offset);
+				bufferStart = offset;
+			}
+			final int pos = (int) (offset - bufferStart);
+			final int x = buffer.getInt(pos), y = buffer.getInt(pos + 4);
+			final int seconds = buffer.getInt(pos + 8), length = buffer.getInt(pos + 12);
+			if (x < 0 || y < 0 || length < 0 || offset + RECORD_HEADER_SIZE + length > _dataLength) {
+				break;
+			}
+			addToIndex(makeKey(x, y), offset, length, seconds);
+			offset += RECORD_HEADER_SIZE + length;
+			numScanned++;
+		}
+		if (offset < _dataLength)
+		{
+			// Incomplete record at the end, from an interrupted write
+			_channel.truncate(offset);
+			_dataLength = offset;
+		}
+		_numUnsaved += numScanned;
+		return numScanned;
+	}
+
+	/**
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return image bytes of tile, or null if not present
+	 */
+	public synchronized byte[] getTile(int inX, int inY)
+	{
+		final int slot = findSlot(makeKey(inX, inY));
+		if (_channel == null || _keys[slot] == EMPTY_KEY) {
+			return null;
+		}
+		try {
+			return readBuffer(_offsets[slot] + RECORD_HEADER_SIZE, _lengths[slot]).array();
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return modification time of tile in milliseconds, or 0 if not present
+	 */
+	public synchronized long getModifiedTime(int inX, int inY)
+	{
+		final int slot = findSlot(makeKey(inX, inY));
+		return _keys[slot] == EMPTY_KEY ? 0L : (_times[slot] & 0xffffffffL) * 1000L;
+	}
+
+	/**
+	 * Add or replace a tile
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @param inData image bytes
+	 * @param inModifiedTime modification time in milliseconds
+	 * @return true if the tile was saved
+	 */
+	public synchronized boolean putTile(int inX, int inY, byte[] inData, long inModifiedTime)
+	{
+		if (_channel == null || inX < 0 || inY < 0 || inData == null) {
+			return false;
+		}
+		final int seconds = (int) (inModifiedTime / 1000L);
+		ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER_SIZE + inData.length);
+		record.putInt(inX).putInt(inY).putInt(seconds).putInt(inData.length).put(inData).flip();
+		final long offset = _dataLength;
+		try
+		{
+			writeFully(record, offset);
+		}
+		catch (IOException e)
+		{
+			// Throw away whatever was partly written
+			try {_channel.truncate(offset);} catch (IOException e2) {}
+			return false;
+		}
+		_dataLength += record.limit();
+		addToIndex(makeKey(inX, inY), offset, inData.length, seconds);
+		_numUnsaved++;
+		// Keep the saved index reasonably up to date without rewriting it too often
+		if (_numUnsaved > Math.max(1000, _numTiles / 4)) {
+			saveIndex();
+		}
+		return true;
+	}
+
+	/** @return number of tiles */
+	public synchronized int getNumTiles() {
+		return _numTiles;
+	}
+
+	/** @return total number of bytes used by the tile images */
+	public synchronized long getNumBytes() {
+		return _liveBytes;
+	}
+
+	/** @return number of bytes in the data file taken up by replaced tiles */
+	public synchronized long getUnusedBytes()
+	{
+		return _dataLength - HEADER_SIZE - _liveBytes - (long) _numTiles * RECORD_HEADER_SIZE;
+	}
+
+	/**
+	 * @return true if replaced tiles take up enough of the data file to make compaction worthwhile
+	 */
+	public synchronized boolean needsCompacting() {
+		return _channel != null && getUnusedBytes() > Math.max(MIN_COMPACT_BYTES, _liveBytes);
+	}
+
+	/**
+	 * Rewrite the data file with only the current tiles, in their original order
+	 * @param inMinTime minimum modification time in milliseconds of tiles to keep, or 0 to keep all
+	 * @return number of tiles removed
+	 */
+	public synchronized int compact(long inMinTime)
+	{
+		if (_channel == null) {
+			return 0;
+		}
+		// Sort the slots of the tiles to keep by their position in the file
+		final int minSeconds = (int) (inMinTime / 1000L);
+		Integer[] slots = new Integer[_numTiles];
+		int numKept = 0;
+		for (int i=0; i<_keys.length; i++)
+		{
+			if (_keys[i] != EMPTY_KEY && (inMinTime <= 0L || (_times[i] & 0xffffffffL) >= minSeconds)) {
+				slots[numKept++] = Integer.valueOf(i);
+			}
+		}
+		slots = Arrays.copyOf(slots, numKept);
+		Arrays.sort(slots, new Comparator<Integer>() {
+			public int compare(Integer inFirst, Integer inSecond) {
+				return Long.compare(_offsets[inFirst.intValue()], _offsets[inSecond.intValue()]);
+			}
+		});
+		final int numRemoved = _numTiles - numKept;
+		// Remember the entries being kept, with their new positions
+		long[] keptKeys = new long[numKept], keptOffsets = new long[numKept];
+		int[] keptLengths = new int[numKept], keptTimes = new int[numKept];
+		File tempFile = new File(_dataFile.getParentFile(), _dataFile.getName() + ".temp");
+		boolean copied = false;
+		RandomAccessFile tempAccess = null;
+		try
+		{
+			tempAccess = new RandomAccessFile(tempFile, "rw");
+			FileChannel tempChannel = tempAccess.getChannel();
+			tempChannel.truncate(0L);
+			ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+			header.putInt(FILE_MAGIC).putInt(FILE_VERSION).flip();
+			while (header.hasRemaining()) {
+				tempChannel.write(header);
+			}
+			long newOffset = HEADER_SIZE;
+			for (int i=0; i<numKept; i++)
+			{
+				final int slot = slots[i].intValue();
+				keptKeys[i] = _keys[slot];
+				keptOffsets[i] = newOffset;
+				keptLengths[i] = _lengths[slot];
+				keptTimes[i] = _times[slot];
+				newOffset += RECORD_HEADER_SIZE + _lengths[slot];
+				long position = _offsets[slot];
+				long remaining = RECORD_HEADER_SIZE + _lengths[slot];
+				while (remaining > 0L)
+				{
+					final long numCopied = _channel.transferTo(position, remaining, tempChannel);
+					if (numCopied <= 0L) {
+						throw new IOException("Failed to copy tile record");
+					}
+					position += numCopied;
+					remaining -= numCopied;
+				}
+			}
+			tempChannel.force(false);
+			tempAccess.close();
+			tempAccess = null;
+			copied = true;
+		}
+		catch (IOException e) {
+			System.err.println("Failed to compact " + _dataFile.getName() + ": " + e.getMessage());
+		}
+		finally
+		{
+			try {if (tempAccess != null) tempAccess.close();} catch (IOException e) {}
+		}
+		if (!copied)
+		{
+			tempFile.delete();
+			return 0;
+		}
+		closeChannel();
+		_indexFile.delete();
+		final boolean replaced = tempFile.renameTo(_dataFile)
+			|| (_dataFile.delete() && tempFile.renameTo(_dataFile));
+		if (!replaced)
+		{
+			tempFile.delete();
+			// Old file is still there, so just open it again
+			try {open();} catch (IOException e) {closeChannel();}
+			return 0;
+		}
+		try
+		{
+			_channel = new RandomAccessFile(_dataFile, "rw").getChannel();
+			_dataLength = _channel.size();
+			initIndex(numKept);
+			for (int i=0; i<numKept; i++) {
+				addToIndex(keptKeys[i], keptOffsets[i], keptLengths[i], keptTimes[i]);
+			}
+			saveIndex();
+		}
+		catch (IOException e) {
+			closeChannel();
+		}
+		return numRemoved;
+	}
+
+	/**
+	 * Save the index so that it can be loaded quickly next time
+	 */
+	public synchronized void saveIndex()
+	{
+		if (_channel == null) {
+			return;
+		}
+		File tempFile = new File(_indexFile.getParentFile(), _indexFile.getName() + ".temp");
+		boolean saved = false;
+		RandomAccessFile indexAccess = null;
+		try
+		{
+			indexAccess = new RandomAccessFile(tempFile, "rw");
+			FileChannel channel = indexAccess.getChannel();
+			channel.truncate(0L);
+			ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(FILE_MAGIC).putInt(FILE_VERSION).putLong(_dataLength).putInt(_numTiles);
+			for (int i=0; i<_keys.length; i++)
+			{
+				if (_keys[i] == EMPTY_KEY) {
+					continue;
+				}
+				if (buffer.remaining() < INDEX_ENTRY_SIZE)
+				{
+					buffer.flip();
+					while (buffer.hasRemaining()) {
+						channel.write(buffer);
+					}
+					buffer.clear();
+				}
+				buffer.putLong(_keys[i]).putLong(_offsets[i]).putInt(_lengths[i]).putInt(_times[i]);
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				channel.write(buffer);
+			}
+			indexAccess.close();
+			indexAccess = null;
+			saved = tempFile.renameTo(_indexFile) || (_indexFile.delete() && tempFile.renameTo(_indexFile));
+			if (saved) {
+				_numUnsaved = 0;
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Failed to save tile index: " + e.getMessage());
+		}
+		finally
+		{
+			try {if (indexAccess != null) indexAccess.close();} catch (IOException e) {}
+			if (!saved) {tempFile.delete();}
+		}
+	}
+
+	/**
+	 * Close the file, saving the index if it's changed
+	 */
+	public synchronized void close()
+	{
+		if (_numUnsaved > 0) {
+			saveIndex();
+		}
+		closeChannel();
+	}
+
+	/**
+	 * Close the file and delete it together with its index
+	 * @return true if the data file was deleted
+	 */
+	public synchronized boolean delete()
+	{
+		closeChannel();
+		initIndex(64);
+		_indexFile.delete();
+		return _dataFile.delete();
+	}
+
+	/** Close the channel without saving anything */
+	private void closeChannel()
+	{
+		try {if (_channel != null) _channel.close();} catch (IOException e) {}
+		_channel = null;
+	}
+
+	/**
+	 * @return key made from the given tile indices
+	 */
+	private static long makeKey(int inX, int inY)
+	{
+		return ((long) inX << 32) | (inY & 0xffffffffL);
+	}
+
+	/**
+	 * Clear the index
+	 * @param inNumEntries number of entries expected
+	 */
+	private void initIndex(int inNumEntries)
+	{
+		int capacity = 64;
+		while (capacity < inNumEntries * 2) {
+			capacity <<= 1;
+		}
+		_keys = new long[capacity];
+		Arrays.fill(_keys, EMPTY_KEY);
+		_offsets = new long[capacity];
+		_lengths = new int[capacity];
+		_times = new int[capacity];
+		_numTiles = 0;
+		_liveBytes = 0L;
+	}
+
+	/**
+	 * @param inKey key to find
+	 * @return slot holding this key, or the empty slot where it should go
+	 */
+	private int findSlot(long inKey)
+	{
+		final int mask = _keys.length - 1;
+		int slot = (int) ((inKey ^ (inKey >>> 29)) * 0x9E3779B97F4A7C15L >>> 40) & mask;
+		while (_keys[slot] != EMPTY_KEY && _keys[slot] != inKey) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Add an entry to the index, replacing any previous one for the same tile
+	 */
+	private void addToIndex(long inKey, long inOffset, int inLength, int inSeconds)
+	{
+		if (_numTiles * 2 >= _keys.length) {
+			growIndex();
+		}
+		final int slot = findSlot(inKey);
+		if (_keys[slot] == EMPTY_KEY)
+		{
+			_keys[slot] = inKey;
+			_numTiles++;
+		}
+		else {
+			_liveBytes -= _lengths[slot];
+		}
+		_offsets[slot] = inOffset;
+		_lengths[slot] = inLength;
+		_times[slot] = inSeconds;
+		_liveBytes += inLength;
+	}
+
+	/**
+	 * Double the size of the index
+	 */
+	private void growIndex()
+	{
+		final long[] keys = _keys, offsets = _offsets;
+		final int[] lengths = _lengths, times = _times;
+		initIndex(keys.length);
+		for (int i=0; i<keys.length; i++)
+		{
+			if (keys[i] != EMPTY_KEY) {
+				addToIndex(keys[i], offsets[i], lengths[i], times[i]);
+			}
+		}
+	}
+
+	/** Read the given number of bytes into a new buffer */
+	private ByteBuffer readBuffer(long inPosition, int inLength) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(inLength);
+		readFully(buffer, inPosition);
+		buffer.flip();
+		return buffer;
+	}
+
+	/** Fill the buffer from the given position */
+	private void readFully(ByteBuffer inBuffer, long inPosition) throws IOException
+	{
+		long position = inPosition;
+		while (inBuffer.hasRemaining())
+		{
+			final int numRead = _channel.read(inBuffer, position);
+			if (numRead < 0) {
+				throw new IOException("Unexpected end of tile file");
+			}
+			position += numRead;
+		}
+	}
+
+	/** Write the whole buffer at the given position */
+	private void writeFully(ByteBuffer inBuffer, long inPosition) throws IOException
+	{
+		long position = inPosition;
+		while (inBuffer.hasRemaining()) {
+			position += _channel.write(inBuffer, position);
+		}
+	}
+}
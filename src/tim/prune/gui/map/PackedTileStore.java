@@ -0,0 +1,450 @@
+package tim.prune.gui.map;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+/**
+ * Tile store holding all the tiles of each layer and zoom level
+ * in a single packed file, so that a lookup is just an index probe
+ * instead of a file system call for every tile.
+ * The open files are shared by all the stores, and the least recently
+ * used ones which nobody is holding are closed when too many are open.
+ */
+public class PackedTileStore implements TileStore
+{
+	/** Base directory of disk cache */
+	private final File _baseDir;
+
+	/** Open files by path, least recently used first */
+	private static final LinkedHashMap<File, PackedTileFile> OPEN_FILES
+		= new LinkedHashMap<File, PackedTileFile>(32, 0.75f, true);
+	/** Number of users currently holding each open file, only for files in use */
+	private static final HashMap<File, Integer> USE_COUNTS = new HashMap<File, Integer>();
+	/** Files which were looked for but don't exist */
+	private static final HashSet<File> MISSING_FILES = new HashSet<File>();
+	/** Maximum number of files to keep open */
+	private static final int MAX_OPEN_FILES = 24;
+	/** Files waiting to be compacted */
+	private static final HashSet<File> COMPACTIONS = new HashSet<File>();
+	/** Single background thread for compacting files, so that saving a tile doesn't wait for it */
+	private static final ExecutorService COMPACTOR = Executors.newSingleThreadExecutor(new ThreadFactory() {
+		public Thread newThread(Runnable inRunnable)
+		{
+			Thread thread = new Thread(inRunnable, "PackedTileCompactor");
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MIN_PRIORITY);
+			return thread;
+		}
+	});
+
+
+	/**
+	 * Constructor
+	 * @param inBaseDir base directory of disk cache
+	 */
+	public PackedTileStore(File inBaseDir)
+	{
+		_baseDir = inBaseDir;
+	}
+
+	/**
+	 * @param inBaseDir base directory of disk cache
+	 * @param inMapSource map source
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @return packed file for this layer and zoom level, which may not exist yet
+	 */
+	public static File getPackFile(File inBaseDir, MapSource inMapSource, int inLayer, int inZoom)
+	{
+		return new File(inBaseDir, inMapSource.getSiteName(inLayer) + inZoom + "." + PackedTileFile.FILE_EXTENSION);
+	}
+
+	/**
+	 * Get the specified tile from its packed file and decode it
+	 */
+	public MapTile getTile(MapSource inMapSource, int inLayer, int inZoom, int inX, int inY)
+	{
+		PackedTileFile packFile = acquireFile(getPackFile(_baseDir, inMapSource, inLayer, inZoom), false);
+		if (packFile == null) {
+			return null;
+		}
+		try
+		{
+			byte[] data = packFile.getTile(inX, inY);
+			BufferedImage image = (data == null ? null : TileDecoder.decode(data));
+			if (image == null) {
+				return null;
+			}
+			final long age = System.currentTimeMillis() - packFile.getModifiedTime(inX, inY);
+			return new MapTile(image, age > DiskTileCacher.CACHE_TIME_LIMIT);
+		}
+		finally {
+			releaseFile(packFile);
+		}
+	}
+
+	/**
+	 * Check the index of the packed file for the specified tile
+	 */
+	public boolean containsTile(MapSource inMapSource, int inLayer, int inZoom, int inX, int inY)
+	{
+		PackedTileFile packFile = acquireFile(getPackFile(_baseDir, inMapSource, inLayer, inZoom), false);
+		if (packFile == null) {
+			return false;
+		}
+		final long modifiedTime = packFile.getModifiedTime(inX, inY);
+		releaseFile(packFile);
+		return modifiedTime > 0L
+			&& (System.currentTimeMillis() - modifiedTime) <= DiskTileCacher.CACHE_TIME_LIMIT;
+	}
+
+	/**
+	 * Append the specified tile to its packed file
+	 */
+	public boolean saveTile(MapSource inMapSource, int inLayer, int inZoom, int inX, int inY, byte[] inData)
+	{
+		final File file = getPackFile(_baseDir, inMapSource, inLayer, inZoom);
+		PackedTileFile packFile = acquireFile(file, true);
+		if (packFile == null) {
+			return false;
+		}
+		try
+		{
+			final boolean saved = packFile.putTile(inX, inY, inData, System.currentTimeMillis());
+			if (saved && packFile.needsCompacting()) {
+				scheduleCompaction(file);
+			}
+			return saved;
+		}
+		finally {
+			releaseFile(packFile);
+		}
+	}
+
+	/**
+	 * Compact the given packed file on the background thread, unless it's already waiting
+	 * @param inFile path to packed file
+	 */
+	static synchronized void scheduleCompaction(final File inFile)
+	{
+		if (!COMPACTIONS.add(inFile)) {
+			return;
+		}
+		COMPACTOR.execute(new Runnable() {
+			public void run()
+			{
+				synchronized (PackedTileStore.class) {
+					COMPACTIONS.remove(inFile);
+				}
+				PackedTileFile packFile = acquireFile(inFile, false);
+				if (packFile == null) {
+					return;
+				}
+				try
+				{
+					if (packFile.needsCompacting()) {
+						packFile.compact(0L);
+					}
+				}
+				finally {
+					releaseFile(packFile);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Wait until the compactions requested so far have finished
+	 */
+	static void waitForCompactions() throws InterruptedException, ExecutionException
+	{
+		COMPACTOR.submit(new Runnable() {
+			public void run() {}
+		}).get();
+	}
+
+	/**
+	 * Get the given packed file, opening it if necessary, and hold it open
+	 * until it's released again with releaseFile
+	 * @param inFile path to packed file
+	 * @param inCreate true to create the file if it doesn't exist
+	 * @return packed file, or null if it doesn't exist or can't be opened
+	 */
+	public static synchronized PackedTileFile acquireFile(File inFile, boolean inCreate)
+	{
+		PackedTileFile packFile = OPEN_FILES.get(inFile);
+		if (packFile == null)
+		{
+			if (!inCreate && MISSING_FILES.contains(inFile)) {
+				return null;
+			}
+			if (inCreate || inFile.exists())
+			{
+				try {
+					packFile = new PackedTileFile(inFile);
+				}
+				catch (IOException e) {
+					System.err.println("Failed to open tile file: " + e.getMessage());
+				}
+			}
+			if (packFile == null)
+			{
+				// Remember missing files, so they aren't looked for again
+				MISSING_FILES.add(inFile);
+				return null;
+			}
+			MISSING_FILES.remove(inFile);
+			OPEN_FILES.put(inFile, packFile);
+		}
+		Integer numUses = USE_COUNTS.get(inFile);
+		USE_COUNTS.put(inFile, numUses == null ? 1 : numUses + 1);
+		closeUnusedFiles();
+		return packFile;
+	}
+
+	/**
+	 * Release a file obtained from acquireFile, so that it can be closed if too many are open
+	 * @param inPackFile packed file
+	 */
+	public static synchronized void releaseFile(PackedTileFile inPackFile)
+	{
+		for (Map.Entry<File, PackedTileFile> entry : OPEN_FILES.entrySet())
+		{
+			if (entry.getValue() == inPackFile)
+			{
+				Integer numUses = USE_COUNTS.get(entry.getKey());
+				if (numUses == null || numUses <= 1) {
+					USE_COUNTS.remove(entry.getKey());
+				}
+				else {
+					USE_COUNTS.put(entry.getKey(), numUses - 1);
+				}
+				break;
+			}
+		}
+		closeUnusedFiles();
+	}
+
+	/**
+	 * Close the least recently used files which aren't held by anyone
+	 * until no more than the maximum are open
+	 */
+	private static void closeUnusedFiles()
+	{
+		Iterator<Map.Entry<File, PackedTileFile>> iter = OPEN_FILES.entrySet().iterator();
+		while (OPEN_FILES.size() > MAX_OPEN_FILES && iter.hasNext())
+		{
+			Map.Entry<File, PackedTileFile> entry = iter.next();
+			if (!USE_COUNTS.containsKey(entry.getKey()))
+			{
+				entry.getValue().close();
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * Close all the files which aren't in use, and save the indexes of the others
+	 */
+	public static synchronized void closeAll()
+	{
+		Iterator<Map.Entry<File, PackedTileFile>> iter = OPEN_FILES.entrySet().iterator();
+		while (iter.hasNext())
+		{
+			Map.Entry<File, PackedTileFile> entry = iter.next();
+			if (USE_COUNTS.containsKey(entry.getKey())) {
+				entry.getValue().saveIndex();
+			}
+			else
+			{
+				entry.getValue().close();
+				iter.remove();
+			}
+		}
+		MISSING_FILES.clear();
+	}
+
+	/**
+	 * @return number of files currently open
+	 */
+	static synchronized int getNumOpenFiles() {
+		return OPEN_FILES.size();
+	}
+
+	/**
+	 * Remove tiles from the given packed file, deleting the whole file if none are left
+	 * @param inFile path to packed file
+	 * @param inMinTime minimum modification time in milliseconds of tiles to keep, or 0 to remove all
+	 * @return number of tiles removed
+	 */
+	public static synchronized int removeTiles(File inFile, long inMinTime)
+	{
+		PackedTileFile packFile = acquireFile(inFile, false);
+		if (packFile == null) {
+			return 0;
+		}
+		final int numTiles = packFile.getNumTiles();
+		// A file which someone else is holding can't be deleted, so it's emptied instead
+		final boolean inUse = USE_COUNTS.get(inFile) > 1;
+		int numRemoved = numTiles;
+		if (inMinTime > 0L) {
+			numRemoved = packFile.compact(inMinTime);
+		}
+		else if (inUse) {
+			numRemoved = packFile.compact(System.currentTimeMillis() + 1000L);
+		}
+		if (numRemoved == numTiles && !inUse)
+		{
+			packFile.delete();
+			OPEN_FILES.remove(inFile);
+			USE_COUNTS.remove(inFile);
+			MISSING_FILES.add(inFile);
+		}
+		else {
+			releaseFile(packFile);
+		}
+		return numRemoved;
+	}
+
+	/**
+	 * Move all the tiles from a zoom directory of the disk cache into a packed file,
+	 * deleting the tile files and directories afterwards
+	 * @param inZoomDir directory containing x directories of tiles for a single zoom level
+	 * @param inFile path to packed file
+	 * @return number of tiles moved
+	 */
+	public static int importDirectory(File inZoomDir, File inFile)
+	{
+		File[] xDirs = inZoomDir.listFiles();
+		PackedTileFile packFile = (xDirs == null ? null : acquireFile(inFile, true));
+		if (packFile == null) {
+			return 0;
+		}
+		try {
+			return importDirectory(inZoomDir, xDirs, packFile);
+		}
+		finally {
+			releaseFile(packFile);
+		}
+	}
+
+	/**
+	 * Move the tiles from the given x directories into the packed file,
+	 * unless the packed file already has a newer copy of the tile
+	 * @param inZoomDir zoom directory
+	 * @param inXDirs x directories inside zoom directory
+	 * @param inPackFile packed file for this zoom level
+	 * @return number of tiles moved
+	 */
+	private static int importDirectory(File inZoomDir, File[] inXDirs, PackedTileFile inPackFile)
+	{
+		int numImported = 0;
+		HashSet<File> emptyDirs = new HashSet<File>();
+		for (File xDir : inXDirs)
+		{
+			File[] tileFiles = xDir.listFiles();
+			final int x = parseIndex(xDir.getName());
+			if (tileFiles == null || x < 0) {
+				continue;
+			}
+			boolean allMoved = true;
+			for (File tileFile : tileFiles)
+			{
+				final String name = tileFile.getName();
+				final int dotPos = name.indexOf('.');
+				final int y = (dotPos > 0 && !name.endsWith(".temp") ? parseIndex(name.substring(0, dotPos)) : -1);
+				if (y < 0) {
+					allMoved = false;
+					continue;
+				}
+				final long fileTime = tileFile.lastModified();
+				if (inPackFile.getModifiedTime(x, y) >= fileTime / 1000L * 1000L)
+				{
+					// Packed copy is at least as new, so the file is just thrown away
+					if (!tileFile.delete()) {
+						allMoved = false;
+					}
+					continue;
+				}
+				byte[] data = readFile(tileFile);
+				if (data != null && data.length > 0 && inPackFile.putTile(x, y, data, fileTime)
+					&& tileFile.delete())
+				{
+					numImported++;
+				}
+				else {
+					allMoved = false;
+				}
+			}
+			if (allMoved) {
+				emptyDirs.add(xDir);
+			}
+		}
+		inPackFile.saveIndex();
+		for (File dir : emptyDirs) {
+			dir.delete();
+		}
+		inZoomDir.delete(); // only works if empty
+		return numImported;
+	}
+
+	/**
+	 * @param inName file or directory name
+	 * @return numeric tile index, or -1 if not numeric
+	 */
+	private static int parseIndex(String inName)
+	{
+		try {
+			return Integer.parseInt(inName);
+		}
+		catch (NumberFormatException nfe) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param inFile tile file
+	 * @return contents of file, or null if it couldn't be read
+	 */
+	private static byte[] readFile(File inFile)
+	{
+		final long length = inFile.length();
+		if (length <= 0L || length > Integer.MAX_VALUE) {
+			return null;
+		}
+		byte[] data = new byte[(int) length];
+		FileInputStream in = null;
+		try
+		{
+			in = new FileInputStream(inFile);
+			int totalRead = 0;
+			while (totalRead < data.length)
+			{
+				final int numRead = in.read(data, totalRead, data.length - totalRead);
+				if (numRead < 0) {
+					return null;
+				}
+				totalRead += numRead;
+			}
+			return data;
+		}
+		catch (IOException e) {
+			return null;
+		}
+		finally
+		{
+			try {if (in != null) in.close();} catch (IOException e) {}
+		}
+	}
+}
@@ -0,0 +1,75 @@
+package tim.prune.gui.map;
+
+import java.awt.Graphics2D;
+import java.awt.GraphicsConfiguration;
+import java.awt.GraphicsEnvironment;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+
+/**
+ * Class to decode map tiles into images which are ready to be drawn,
+ * so that the decoding can be done by background threads instead of
+ * while the map is being painted
+ */
+public abstract class TileDecoder
+{
+	/**
+	 * Decode a tile from a file
+	 * @param inFile file containing png or jpeg image
+	 * @return decoded image, or null if it couldn't be read
+	 */
+	public static BufferedImage decode(File inFile)
+	{
+		try {
+			return makeCompatible(ImageIO.read(inFile));
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Decode a tile from a downloaded byte array
+	 * @param inData bytes of png or jpeg image
+	 * @return decoded image, or null if it couldn't be read
+	 */
+	public static BufferedImage decode(byte[] inData)
+	{
+		if (inData == null) {return null;}
+		try {
+			// Memory cache avoids ImageIO creating a temporary file for each tile
+			return makeCompatible(ImageIO.read(new MemoryCacheImageInputStream(new ByteArrayInputStream(inData))));
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Convert the image to the colour model of the screen, if necessary, so that drawing it is a simple copy
+	 * @param inImage decoded image
+	 * @return compatible image, or the same image if no conversion is possible
+	 */
+	private static BufferedImage makeCompatible(BufferedImage inImage)
+	{
+		if (inImage == null || GraphicsEnvironment.isHeadless()) {
+			return inImage;
+		}
+		GraphicsConfiguration config = GraphicsEnvironment.getLocalGraphicsEnvironment()
+			.getDefaultScreenDevice().getDefaultConfiguration();
+		final int transparency = inImage.getTransparency();
+		if (inImage.getColorModel().equals(config.getColorModel(transparency))) {
+			return inImage;
+		}
+		BufferedImage result = config.createCompatibleImage(inImage.getWidth(), inImage.getHeight(), transparency);
+		Graphics2D g = result.createGraphics();
+		g.drawImage(inImage, 0, 0, null);
+		g.dispose();
+		return result;
+	}
+}
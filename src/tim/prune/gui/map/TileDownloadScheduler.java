@@ -0,0 +1,231 @@
+package tim.prune.gui.map;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Class to run all the tile downloads using a fixed pool of threads.
+ * A second, separate instance loads and decodes the tiles from the disk cache,
+ * so that slow downloads don't hold up tiles which are already on disk.
+ * Waiting downloads are ordered by priority, so that the tiles nearest
+ * the middle of the map are fetched first, and requests for a tile which
+ * is already waiting or downloading are ignored.
+ * When the map moves, waiting downloads for tiles which are no longer
+ * wanted are cancelled before they start.
+ */
+public class TileDownloadScheduler
+{
+	/** Executor with a priority queue of waiting downloads */
+	private ThreadPoolExecutor _executor = null;
+	/** Downloads which are waiting or running, by key */
+	private HashMap<String, DownloadTask> _tasks = new HashMap<String, DownloadTask>();
+	/** Counter to keep downloads with the same priority in order */
+	private long _sequence = 0L;
+
+	/** Scheduler shared by all the tile managers */
+	private static TileDownloadScheduler _sharedScheduler = null;
+	/** Scheduler for loading tiles from disk, shared by all the tile managers */
+	private static TileDownloadScheduler _loadingScheduler = null;
+
+	/** Number of downloads to run at once */
+	private static final int NUM_THREADS = 8;
+
+
+	/**
+	 * Single tile download waiting in the queue
+	 */
+	private final class DownloadTask implements Runnable, Comparable<DownloadTask>
+	{
+		private final String _key;
+		private final MapTileManager _manager;
+		private final int _layer, _zoom, _x, _y;
+		private final Runnable _job;
+		private int _priority = 0;
+		private long _order = 0L;
+
+		/** Constructor */
+		private DownloadTask(String inKey, MapTileManager inManager, int inLayer, int inZoom,
+			int inX, int inY, Runnable inJob)
+		{
+			_key = inKey;
+			_manager = inManager;
+			_layer = inLayer;
+			_zoom = inZoom;
+			_x = inX; _y = inY;
+			_job = inJob;
+		}
+
+		/** Run the download, then remove it from the list */
+		public void run()
+		{
+			try {
+				_job.run();
+			}
+			finally {
+				taskFinished(this);
+			}
+		}
+
+		/** Lower priority values come first, then earlier requests */
+		public int compareTo(DownloadTask inOther)
+		{
+			if (_priority != inOther._priority) {
+				return _priority < inOther._priority ? -1 : 1;
+			}
+			return Long.compare(_order, inOther._order);
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 * @param inNumThreads number of downloads to run at once
+	 */
+	public TileDownloadScheduler(int inNumThreads)
+	{
+		this(inNumThreads, "TileDownloader");
+	}
+
+	/**
+	 * Constructor
+	 * @param inNumThreads number of jobs to run at once
+	 * @param inThreadName name to give the threads
+	 */
+	private TileDownloadScheduler(int inNumThreads, final String inThreadName)
+	{
+		_executor = new ThreadPoolExecutor(inNumThreads, inNumThreads, 30L, TimeUnit.SECONDS,
+			new PriorityBlockingQueue<Runnable>(), new ThreadFactory() {
+				public Thread newThread(Runnable inRunnable)
+				{
+					Thread thread = new Thread(inRunnable, inThreadName);
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		_executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * @return scheduler shared by all the tile managers
+	 */
+	public static synchronized TileDownloadScheduler getSharedScheduler()
+	{
+		if (_sharedScheduler == null) {
+			_sharedScheduler = new TileDownloadScheduler(NUM_THREADS);
+		}
+		return _sharedScheduler;
+	}
+
+	/**
+	 * @return scheduler for loading and decoding tiles from the disk cache
+	 */
+	public static synchronized TileDownloadScheduler getLoadingScheduler()
+	{
+		if (_loadingScheduler == null)
+		{
+			final int numThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors()));
+			_loadingScheduler = new TileDownloadScheduler(numThreads, "TileLoader");
+		}
+		return _loadingScheduler;
+	}
+
+	/**
+	 * Add a download to the queue, unless the same one is already waiting or running
+	 * @param inKey key to identify the download, such as the url
+	 * @param inManager tile manager which wants the tile
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @param inJob job to run for the download
+	 * @return true if the download was added, false if it's already there
+	 */
+	public synchronized boolean schedule(String inKey, MapTileManager inManager, int inLayer, int inZoom,
+		int inX, int inY, Runnable inJob)
+	{
+		if (_tasks.containsKey(inKey)) {
+			return false;
+		}
+		DownloadTask task = new DownloadTask(inKey, inManager, inLayer, inZoom, inX, inY, inJob);
+		task._priority = inManager.getDownloadPriority(inLayer, inZoom, inX, inY);
+		task._order = _sequence++;
+		_tasks.put(inKey, task);
+		_executor.execute(task);
+		return true;
+	}
+
+	/**
+	 * Run a download straight away in the calling thread, unless the same one
+	 * is already waiting or running, so that other threads don't download it at the same time
+	 * @param inKey key to identify the download, as for schedule
+	 * @param inJob job to run for the download
+	 * @return true if the job was run, false if the download is already there
+	 */
+	public boolean runNow(String inKey, Runnable inJob)
+	{
+		DownloadTask task = new DownloadTask(inKey, null, 0, 0, 0, 0, inJob);
+		synchronized (this)
+		{
+			if (_tasks.containsKey(inKey)) {
+				return false;
+			}
+			_tasks.put(inKey, task);
+		}
+		task.run();
+		return true;
+	}
+
+	/**
+	 * Cancel the waiting downloads for the given manager which it no longer wants,
+	 * and reorder the others according to their new priorities
+	 * @param inManager tile manager whose view has changed
+	 */
+	public synchronized void updateRequests(MapTileManager inManager)
+	{
+		ArrayList<DownloadTask> managerTasks = new ArrayList<DownloadTask>();
+		for (DownloadTask task : _tasks.values())
+		{
+			if (task._manager == inManager) {
+				managerTasks.add(task);
+			}
+		}
+		for (DownloadTask task : managerTasks)
+		{
+			// Only tasks which haven't started yet can be removed from the queue
+			if (_executor.remove(task))
+			{
+				if (inManager.isTileWanted(task._zoom, task._x, task._y))
+				{
+					task._priority = inManager.getDownloadPriority(task._layer, task._zoom, task._x, task._y);
+					_executor.execute(task);
+				}
+				else {
+					_tasks.remove(task._key);
+				}
+			}
+		}
+	}
+
+	/**
+	 * A download has finished, so it can be requested again if necessary
+	 * @param inTask finished task
+	 */
+	private synchronized void taskFinished(DownloadTask inTask)
+	{
+		if (_tasks.get(inTask._key) == inTask) {
+			_tasks.remove(inTask._key);
+		}
+	}
+
+	/**
+	 * @return number of downloads waiting or running
+	 */
+	public synchronized int getNumDownloads()
+	{
+		return _tasks.size();
+	}
+}
@@ -1,7 +1,5 @@
 package tim.prune.gui.map;
 
-import java.awt.Image;
-import java.awt.Toolkit;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
@@ -12,11 +10,12 @@ import tim.prune.GpsPrune;
 
 /**
  * Class to asynchronously download a tile from a url
- * and populate an Image object with the contents
+ * and decode the contents into an image
  */
 public class TileDownloader implements Runnable
 {
 	private MapTileManager _manager = null;
+	private MapSource _mapSource = null;
 	private URL _url = null;
 	private int _layer = 0;
 	private int _x = 0, _y = 0;
@@ -24,8 +23,6 @@ public class TileDownloader implements Runnable
 
 	/** Hashset of all blocked / 404 tiles to avoid requesting them again */
 	private static final HashSet<String> BLOCKED_URLS = new HashSet<String>();
-	/** Hashset of all currently loading tiles to avoid requesting them again */
-	private static final HashSet<String> LOADING_URLS = new HashSet<String>();
 	/** Flag to maintain whether connection is active or not */
 	private static boolean CONNECTION_ACTIVE = true;
 
@@ -33,15 +30,18 @@ public class TileDownloader implements Runnable
 	/**
 	 * Constructor (private)
 	 * @param inManager parent manager for callback
+	 * @param inMapSource map source of tile
 	 * @param inUrl URL to load
 	 * @param inLayer layer index from 0
 	 * @param inX x coordinate of tile
 	 * @param inY y coordinate of tile
 	 * @param inZoom zoom level
 	 */
-	private TileDownloader(MapTileManager inManager, URL inUrl, int inLayer, int inX, int inY, int inZoom)
+	private TileDownloader(MapTileManager inManager, MapSource inMapSource, URL inUrl,
+		int inLayer, int inX, int inY, int inZoom)
 	{
 		_manager = inManager;
+		_mapSource = inMapSource;
 		_url = inUrl;
 		_layer = inLayer;
 		_x = inX; _y = inY;
@@ -49,16 +49,17 @@ public class TileDownloader implements Runnable
 	}
 
 	/**
-	 * Trigger a download in a new thread
+	 * Trigger a download using the download scheduler
 	 * @param inManager manager to callback when image is loaded
+	 * @param inMapSource map source of tile
 	 * @param inUrl URL to load
 	 * @param inLayer layer index from 0
 	 * @param inX x coordinate of tile
 	 * @param inY y coordinate of tile
 	 * @param inZoom current zoom level
 	 */
-	public static synchronized void triggerLoad(MapTileManager inManager, URL inUrl, int inLayer,
-		int inX, int inY, int inZoom)
+	public static synchronized void triggerLoad(MapTileManager inManager, MapSource inMapSource, URL inUrl,
+		int inLayer, int inX, int inY, int inZoom)
 	{
 		if (inManager != null && inUrl != null)
 		{
@@ -67,16 +68,17 @@ public class TileDownloader implements Runnable
 			{
 				System.out.println("Already blocked: " + url);
 			}
-			else if (!LOADING_URLS.contains(url))
+			else
 			{
-				LOADING_URLS.add(url);
-				new Thread(new TileDownloader(inManager, inUrl, inLayer, inX, inY, inZoom)).start();
+				// Scheduler ignores the request if this url is already being loaded
+				TileDownloadScheduler.getSharedScheduler().schedule(url, inManager, inLayer, inZoom, inX, inY,
+					new TileDownloader(inManager, inMapSource, inUrl, inLayer, inX, inY, inZoom));
 			}
 		}
 	}
 
 	/**
-	 * Run method, called in separate thread
+	 * Run method, called by one of the scheduler's threads
 	 */
 	public void run()
 	{
@@ -98,11 +100,10 @@ public class TileDownloader implements Runnable
 					int numRead = in.read(data, totalRead, len-totalRead);
 					totalRead += numRead;
 				}
-				Image tile = Toolkit.getDefaultToolkit().createImage(data);
 				in.close();
 
-				// Pass back to manager so it can be stored in its memory cache
-				_manager.notifyImageLoaded(tile, _layer, _x, _y, _zoom);
+				// Decode on this thread and pass back to manager so it can be stored in its memory cache
+				_manager.notifyImageLoaded(_mapSource, TileDecoder.decode(data), _layer, _x, _y, _zoom);
 
 				if (!CONNECTION_ACTIVE)
 				{
@@ -126,6 +127,5 @@ public class TileDownloader implements Runnable
 			try {in.close();} catch (Exception e2) {}
 			CONNECTION_ACTIVE = false;	// lost connection?
 		}
-		LOADING_URLS.remove(_url.toString());
 	}
 }
@@ -0,0 +1,42 @@
+package tim.prune.gui.map;
+
+/**
+ * Interface for the ways of holding map tiles in the disk cache
+ */
+public interface TileStore
+{
+	/**
+	 * Get the specified tile and decode it.
+	 * This may access the file system, so shouldn't be called while painting
+	 * @param inMapSource map source
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return tile with decoded image if available, or null if not there or unreadable
+	 */
+	public MapTile getTile(MapSource inMapSource, int inLayer, int inZoom, int inX, int inY);
+
+	/**
+	 * Check whether the specified tile is already stored, without decoding it
+	 * @param inMapSource map source
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return true if the tile is there and hasn't expired
+	 */
+	public boolean containsTile(MapSource inMapSource, int inLayer, int inZoom, int inX, int inY);
+
+	/**
+	 * Save the specified tile
+	 * @param inMapSource map source
+	 * @param inLayer layer index
+	 * @param inZoom zoom level
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @param inData downloaded image bytes
+	 * @return true if the tile was saved
+	 */
+	public boolean saveTile(MapSource inMapSource, int inLayer, int inZoom, int inX, int inY, byte[] inData);
+}
@@ -0,0 +1,815 @@
+package tim.prune.gui.map;
+
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import javax.swing.ImageIcon;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Track;
+import tim.prune.gui.colour.PointColourer;
+
+/**
+ * Class to render the track into transparent tiles in the background,
+ * using the same 256-pixel tiling as the map tiles.
+ * The most recently used tiles are kept, so that panning only needs
+ * the newly exposed tiles to be rendered, and edits only throw away
+ * the tiles around the points which were changed.
+ * Nothing here waits for the rendering, the consumer is informed when
+ * tiles are ready and the old tiles are shown until then.
+ */
+public class TrackTileRenderer
+{
+	/** Consumer to inform when new tiles are ready */
+	private TileConsumer _consumer = null;
+	/** Pool of threads for rendering tiles */
+	private ExecutorService _executor = null;
+	/** Single thread for checking the track after changes */
+	private ExecutorService _checker = null;
+	/** Rendered tiles, most recently used last */
+	private Map<Long, BufferedImage> _tiles = new LinkedHashMap<Long, BufferedImage>(64, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> inEldest) {
+			return size() > MAX_NUM_TILES;
+		}
+	};
+	/** Invalidated tiles which are shown until their replacements are ready */
+	private Map<Long, BufferedImage> _staleTiles = new LinkedHashMap<Long, BufferedImage>(64, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> inEldest) {
+			return size() > MAX_NUM_TILES;
+		}
+	};
+	/** Tiles being rendered, with the snapshot used for each */
+	private HashMap<Long, TrackSnapshot> _pendingTiles = new HashMap<Long, TrackSnapshot>();
+	/** Snapshot of the track for the current zoom level */
+	private TrackSnapshot _snapshot = null;
+	/** Current drawing style */
+	private TrackStyle _style = null;
+	/** Points of the track when it was last checked */
+	private TrackState _state = null;
+	/** Number of the latest track check requested */
+	private int _trackVersion = 0;
+
+	/** Size of tiles in pixels */
+	private static final int TILE_SIZE = 256;
+	/** Zoom level used for comparing point positions */
+	private static final int MAX_ZOOM = 21;
+	/** Maximum number of tiles to keep */
+	private static final int MAX_NUM_TILES = 96;
+	/** Number of track points in each block for skipping */
+	private static final int BLOCK_SIZE = 64;
+	/** Marker for tiles with nothing on them */
+	private static final BufferedImage EMPTY_TILE = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB);
+
+	/** Point flags */
+	private static final byte FLAG_WAYPOINT = DecimatedTrack.FLAG_WAYPOINT,
+		FLAG_SEGMENT_START = DecimatedTrack.FLAG_SEGMENT_START, FLAG_MEDIA = 4, FLAG_ARROW = 8,
+		FLAG_DELETED = DecimatedTrack.FLAG_DELETED;
+
+
+	/**
+	 * Drawing style for the track, shared by all the tiles
+	 */
+	private static final class TrackStyle
+	{
+		private final int _connectState, _lineWidth;
+		private final boolean _antialias;
+		private final Color _waypointColour, _mediaColour;
+		private final WpIconDefinition _iconDefinition;
+		/** Number of pixels which drawing can extend beyond a point */
+		private final int _margin;
+
+		/** Constructor */
+		private TrackStyle(int inConnectState, int inLineWidth, boolean inAntialias,
+			Color inWaypointColour, Color inMediaColour, WpIconDefinition inIconDefinition)
+		{
+			_connectState = inConnectState;
+			_lineWidth = inLineWidth;
+			_antialias = inAntialias;
+			_waypointColour = inWaypointColour;
+			_mediaColour = inMediaColour;
+			_iconDefinition = inIconDefinition;
+			int margin = 10 + inLineWidth;
+			ImageIcon icon = (inIconDefinition == null ? null : inIconDefinition.getImageIcon());
+			if (icon != null) {
+				margin += Math.max(icon.getIconWidth(), icon.getIconHeight());
+			}
+			_margin = margin;
+		}
+
+		/** @return true if the other style draws in the same way */
+		private boolean matches(TrackStyle inOther)
+		{
+			return inOther != null && _connectState == inOther._connectState
+				&& _lineWidth == inOther._lineWidth && _antialias == inOther._antialias
+				&& _waypointColour.equals(inOther._waypointColour) && _mediaColour.equals(inOther._mediaColour)
+				&& _iconDefinition == inOther._iconDefinition;
+		}
+	}
+
+
+	/**
+	 * Unchanging copy of the positions, colours and flags of all the points,
+	 * taken by the checking thread so that the track itself is never read while rendering
+	 */
+	private static final class TrackState
+	{
+		private final int _numPoints;
+		/** Pixel positions at the maximum zoom level */
+		private final int[] _xs, _ys;
+		/** Colours as rgb values for comparing, and as objects for drawing */
+		private final int[] _colours;
+		private final Color[] _colourObjects;
+		private final byte[] _flags;
+
+		/** Constructor */
+		private TrackState(int inNumPoints, int[] inXs, int[] inYs, int[] inColours, Color[] inColourObjects, byte[] inFlags)
+		{
+			_numPoints = inNumPoints;
+			_xs = inXs; _ys = inYs;
+			_colours = inColours;
+			_colourObjects = inColourObjects;
+			_flags = inFlags;
+		}
+
+		/**
+		 * Compare a point with one from another state
+		 * @return true if they would be drawn the same
+		 */
+		private boolean samePoint(int inIndex, TrackState inOther, int inOtherIndex)
+		{
+			return _xs[inIndex] == inOther._xs[inOtherIndex] && _ys[inIndex] == inOther._ys[inOtherIndex]
+				&& _colours[inIndex] == inOther._colours[inOtherIndex] && _flags[inIndex] == inOther._flags[inOtherIndex];
+		}
+	}
+
+
+	/**
+	 * Copy of the track points to draw at one zoom level, made from a track state
+	 * by the first rendering thread which needs it.  Track points are decimated
+	 * in the same way as for the map canvas.
+	 */
+	private static final class TrackSnapshot
+	{
+		private final int _zoom;
+		private final TrackStyle _style;
+		private final TrackState _state;
+		/** Kept track points, with pixel positions at this zoom level */
+		private int _numTrackPoints = 0;
+		private int[] _xPixels = null, _yPixels = null;
+		private Color[] _colours = null;
+		private byte[] _flags = null;
+		/** Pixel bounds of each block of track points, including the line from the previous block */
+		private int[] _blockMinX = null, _blockMaxX = null, _blockMinY = null, _blockMaxY = null;
+		/** Pixel positions of waypoints and media points */
+		private int[] _waypointXs = null, _waypointYs = null, _mediaXs = null, _mediaYs = null;
+		/** True once the arrays have been made */
+		private boolean _built = false;
+
+		/** Constructor */
+		private TrackSnapshot(int inZoom, TrackStyle inStyle, TrackState inState)
+		{
+			_zoom = inZoom;
+			_style = inStyle;
+			_state = inState;
+		}
+
+		/**
+		 * Make the arrays for this zoom level, if not already done
+		 */
+		private synchronized void build()
+		{
+			if (_built) {
+				return;
+			}
+			final int shift = MAX_ZOOM - _zoom;
+			final int numPoints = _state._numPoints;
+			DecimatedTrack.ZoomLevel kept = DecimatedTrack.decimate(numPoints, _state._xs, _state._ys,
+				shift, _state._flags);
+			final int numKept = kept.getNumPoints();
+			_numTrackPoints = numKept;
+			_xPixels = new int[numKept]; _yPixels = new int[numKept];
+			_colours = new Color[numKept];
+			_flags = new byte[numKept];
+			for (int k=0; k<numKept; k++)
+			{
+				final int i = kept.getIndex(k);
+				_xPixels[k] = kept.getXPixel(k);
+				_yPixels[k] = kept.getYPixel(k);
+				_colours[k] = _state._colourObjects[i];
+				_flags[k] = _state._flags[i];
+			}
+			int[] waypointXs = new int[numPoints], waypointYs = new int[numPoints];
+			int[] mediaXs = new int[numPoints], mediaYs = new int[numPoints];
+			int numWaypoints = 0, numMedia = 0;
+			for (int i=0; i<numPoints; i++)
+			{
+				final byte flag = _state._flags[i];
+				final int px = _state._xs[i] >> shift, py = _state._ys[i] >> shift;
+				if ((flag & FLAG_MEDIA) != 0)
+				{
+					mediaXs[numMedia] = px; mediaYs[numMedia] = py;
+					numMedia++;
+				}
+				if ((flag & FLAG_WAYPOINT) != 0)
+				{
+					waypointXs[numWaypoints] = px; waypointYs[numWaypoints] = py;
+					numWaypoints++;
+				}
+			}
+			setArrowFlags(_xPixels, _yPixels, _flags);
+			_waypointXs = Arrays.copyOf(waypointXs, numWaypoints);
+			_waypointYs = Arrays.copyOf(waypointYs, numWaypoints);
+			_mediaXs = Arrays.copyOf(mediaXs, numMedia);
+			_mediaYs = Arrays.copyOf(mediaYs, numMedia);
+
+			final int numBlocks = (numKept + BLOCK_SIZE - 1) / BLOCK_SIZE;
+			_blockMinX = new int[numBlocks]; _blockMaxX = new int[numBlocks];
+			_blockMinY = new int[numBlocks]; _blockMaxY = new int[numBlocks];
+			for (int b=0; b<numBlocks; b++)
+			{
+				int minX = Integer.MAX_VALUE, maxX = Integer.MIN_VALUE;
+				int minY = Integer.MAX_VALUE, maxY = Integer.MIN_VALUE;
+				final int end = Math.min(numKept, (b + 1) * BLOCK_SIZE);
+				for (int k = Math.max(0, b * BLOCK_SIZE - 1); k < end; k++)
+				{
+					minX = Math.min(minX, _xPixels[k]); maxX = Math.max(maxX, _xPixels[k]);
+					minY = Math.min(minY, _yPixels[k]); maxY = Math.max(maxY, _yPixels[k]);
+				}
+				_blockMinX[b] = minX; _blockMaxX[b] = maxX;
+				_blockMinY[b] = minY; _blockMaxY[b] = maxY;
+			}
+			_built = true;
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 * @param inConsumer consumer to inform when tiles are ready
+	 */
+	public TrackTileRenderer(TileConsumer inConsumer)
+	{
+		_consumer = inConsumer;
+		final int numThreads = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+		_executor = Executors.newFixedThreadPool(numThreads, createThreadFactory("TrackTileRenderer"));
+		_checker = Executors.newSingleThreadExecutor(createThreadFactory("TrackTileChecker"));
+	}
+
+	/**
+	 * @param inName name for the threads
+	 * @return factory for low-priority daemon threads
+	 */
+	private static ThreadFactory createThreadFactory(final String inName)
+	{
+		return new ThreadFactory() {
+			public Thread newThread(Runnable inRunnable)
+			{
+				Thread thread = new Thread(inRunnable, inName);
+				thread.setDaemon(true);
+				thread.setPriority(Thread.NORM_PRIORITY - 1);
+				return thread;
+			}
+		};
+	}
+
+	/**
+	 * Set the drawing style, throwing away all the tiles if it has changed
+	 * @param inConnectState state of the connect checkbox, 0 to 3
+	 * @param inLineWidth line width in pixels
+	 * @param inAntialias true to use antialiasing
+	 * @param inWaypointColour colour for waypoints
+	 * @param inMediaColour colour for photo and audio points
+	 * @param inIconDefinition waypoint icon definition, or null
+	 */
+	public synchronized void setStyle(int inConnectState, int inLineWidth, boolean inAntialias,
+		Color inWaypointColour, Color inMediaColour, WpIconDefinition inIconDefinition)
+	{
+		TrackStyle style = new TrackStyle(inConnectState, inLineWidth, inAntialias,
+			inWaypointColour, inMediaColour, inIconDefinition);
+		if (!style.matches(_style))
+		{
+			_style = style;
+			invalidateAll();
+		}
+	}
+
+	/**
+	 * Throw away all the tiles, keeping them to show until they're rendered again
+	 */
+	public synchronized void invalidateAll()
+	{
+		for (Map.Entry<Long, BufferedImage> entry : _tiles.entrySet())
+		{
+			if (entry.getValue() != EMPTY_TILE) {
+				_staleTiles.put(entry.getKey(), entry.getValue());
+			}
+		}
+		_tiles.clear();
+		_pendingTiles.clear();
+		_snapshot = null;
+	}
+
+	/**
+	 * Inform the renderer that the track has changed.  The points are copied
+	 * on the calling thread, which must be the one making the edits (the EDT),
+	 * and the copy is compared with the previous one by a background thread,
+	 * which throws away the tiles covering any points which have changed and
+	 * then informs the consumer.  If the track is changed again before the
+	 * comparison starts, only the later copy is used.
+	 * @param inTrack track object
+	 * @param inColourer point colourer, or null
+	 * @param inPointColour colour for track points
+	 * @param inDeletedColour colour for track points marked for deletion
+	 */
+	public void trackChanged(Track inTrack, PointColourer inColourer,
+		Color inPointColour, Color inDeletedColour)
+	{
+		final TrackState state = makeState(inTrack, inColourer, inPointColour, inDeletedColour);
+		final int version;
+		synchronized (this) {
+			version = ++_trackVersion;
+		}
+		_checker.execute(new Runnable() {
+			public void run()
+			{
+				if (isLatestVersion(version) && applyState(state, version)) {
+					_consumer.tilesUpdated(true);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Check the track immediately on the calling thread
+	 * @param inTrack track object
+	 * @param inColourer point colourer, or null
+	 * @param inPointColour colour for track points
+	 * @param inDeletedColour colour for track points marked for deletion
+	 */
+	void checkTrack(Track inTrack, PointColourer inColourer, Color inPointColour, Color inDeletedColour)
+	{
+		final int version;
+		synchronized (this) {
+			version = ++_trackVersion;
+		}
+		applyState(makeState(inTrack, inColourer, inPointColour, inDeletedColour), version);
+	}
+
+	/**
+	 * Wait until the track checks requested so far have finished
+	 */
+	void waitForChecks() throws InterruptedException, ExecutionException
+	{
+		_checker.submit(new Runnable() {
+			public void run() {}
+		}).get();
+	}
+
+	/**
+	 * @return true if no later track check has been requested
+	 */
+	private synchronized boolean isLatestVersion(int inVersion)
+	{
+		return inVersion == _trackVersion;
+	}
+
+	/**
+	 * Copy the points of the track, on the thread which edits it
+	 * @param inTrack track object
+	 * @param inColourer point colourer, or null
+	 * @param inPointColour colour for track points
+	 * @param inDeletedColour colour for track points marked for deletion
+	 * @return state of the track
+	 */
+	private static TrackState makeState(Track inTrack, PointColourer inColourer,
+		Color inPointColour, Color inDeletedColour)
+	{
+		final int numPoints = inTrack.getNumPoints();
+		int[] xs = new int[numPoints], ys = new int[numPoints], colours = new int[numPoints];
+		byte[] flags = new byte[numPoints];
+		Color[] colourObjects = new Color[numPoints];
+		for (int i=0; i<numPoints; i++)
+		{
+			DataPoint point = inTrack.getPoint(i);
+			// Positions are taken from the point, as the track's scaled values may be recalculated at any time
+			xs[i] = MapPosition.transformToPixels(MapUtils.getXFromLongitude(point.getLongitudeValue()), MAX_ZOOM);
+			ys[i] = MapPosition.transformToPixels(MapUtils.getYFromLatitude(point.getLatitudeValue()), MAX_ZOOM);
+			byte flag = 0;
+			if (point.isWaypoint()) {flag |= FLAG_WAYPOINT;}
+			if (point.getSegmentStart()) {flag |= FLAG_SEGMENT_START;}
+			if (point.hasMedia()) {flag |= FLAG_MEDIA;}
+			Color colour = inPointColour;
+			if (point.getDeleteFlag())
+			{
+				flag |= FLAG_DELETED;
+				colour = inDeletedColour;
+			}
+			else if (inColourer != null) {
+				colour = inColourer.getColour(i);
+			}
+			flags[i] = flag;
+			colourObjects[i] = colour;
+			colours[i] = (colour == null ? 0 : colour.getRGB());
+		}
+		return new TrackState(numPoints, xs, ys, colours, colourObjects, flags);
+	}
+
+	/**
+	 * Compare a new state of the track with the previous one, throw away the
+	 * tiles covering the points which have changed, and keep the new state
+	 * @param inState new state
+	 * @param inVersion number of the track check
+	 * @return true if the state was used, false if a later check has been requested
+	 */
+	private boolean applyState(TrackState inState, int inVersion)
+	{
+		final TrackState oldState;
+		synchronized (this) {
+			oldState = _state;
+		}
+		// Find the range of points which are different from last time, by comparing both ends
+		final int numPoints = inState._numPoints;
+		int start = 0, oldEnd = 0, newEnd = 0;
+		int[] bounds = {Integer.MAX_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, Integer.MIN_VALUE};
+		if (oldState != null)
+		{
+			final int minNum = Math.min(numPoints, oldState._numPoints);
+			while (start < minNum && oldState.samePoint(start, inState, start)) {
+				start++;
+			}
+			oldEnd = oldState._numPoints;
+			newEnd = numPoints;
+			while (oldEnd > start && newEnd > start && oldState.samePoint(oldEnd-1, inState, newEnd-1))
+			{
+				oldEnd--; newEnd--;
+			}
+			if (start < oldState._numPoints || start < numPoints)
+			{
+				// Include the previous point and the old and new versions of the changed points
+				addToBounds(bounds, oldState._xs, oldState._ys, Math.max(0, start-1), oldEnd);
+				addToBounds(bounds, inState._xs, inState._ys, Math.max(0, start-1), newEnd);
+			}
+		}
+
+		synchronized (this)
+		{
+			if (inVersion != _trackVersion || oldState != _state) {
+				return false;
+			}
+			// Also the following points on the same pixel as the first unchanged one,
+			// as whether they are drawn or not may depend on the changed points
+			if (bounds[0] <= bounds[2] && newEnd < numPoints)
+			{
+				final int shift = MAX_ZOOM - getMinimumZoom();
+				final int endX = inState._xs[newEnd] >> shift, endY = inState._ys[newEnd] >> shift;
+				int last = newEnd;
+				while (last < numPoints - 1 && (inState._xs[last] >> shift) == endX
+					&& (inState._ys[last] >> shift) == endY)
+				{
+					last++;
+				}
+				addToBounds(bounds, inState._xs, inState._ys, newEnd, last);
+			}
+			invalidateArea(bounds);
+			_state = inState;
+			_snapshot = null;
+		}
+		return true;
+	}
+
+	/**
+	 * Extend the given bounds to include the given range of points
+	 * @param inBounds bounds as min x, min y, max x, max y
+	 * @param inStart start index (inclusive)
+	 * @param inEnd end index (inclusive, if present)
+	 */
+	private static void addToBounds(int[] inBounds, int[] inXs, int[] inYs, int inStart, int inEnd)
+	{
+		final int end = Math.min(inEnd, inXs.length - 1);
+		for (int i=inStart; i<=end; i++)
+		{
+			inBounds[0] = Math.min(inBounds[0], inXs[i]);
+			inBounds[1] = Math.min(inBounds[1], inYs[i]);
+			inBounds[2] = Math.max(inBounds[2], inXs[i]);
+			inBounds[3] = Math.max(inBounds[3], inYs[i]);
+		}
+	}
+
+	/**
+	 * @return lowest zoom level of the tiles held or being rendered
+	 */
+	private int getMinimumZoom()
+	{
+		int minZoom = MAX_ZOOM;
+		for (long key : _tiles.keySet()) {
+			minZoom = Math.min(minZoom, getZoom(key));
+		}
+		for (long key : _pendingTiles.keySet()) {
+			minZoom = Math.min(minZoom, getZoom(key));
+		}
+		return minZoom;
+	}
+
+	/**
+	 * Throw away all the tiles overlapping the given area,
+	 * keeping them to show until they're rendered again
+	 * @param inBounds bounds in pixels at the maximum zoom level, as min x, min y, max x, max y
+	 */
+	private void invalidateArea(int[] inBounds)
+	{
+		if (inBounds[0] > inBounds[2]) {
+			return;
+		}
+		final int margin = (_style == null ? 0 : _style._margin);
+		for (Iterator<Map.Entry<Long, BufferedImage>> iter = _tiles.entrySet().iterator(); iter.hasNext(); )
+		{
+			Map.Entry<Long, BufferedImage> entry = iter.next();
+			if (tileOverlaps(entry.getKey(), inBounds, margin))
+			{
+				if (entry.getValue() != EMPTY_TILE) {
+					_staleTiles.put(entry.getKey(), entry.getValue());
+				}
+				iter.remove();
+			}
+		}
+		for (Iterator<Long> iter = _pendingTiles.keySet().iterator(); iter.hasNext(); )
+		{
+			if (tileOverlaps(iter.next(), inBounds, margin)) {
+				iter.remove();
+			}
+		}
+	}
+
+	/**
+	 * @param inKey tile key
+	 * @param inBounds bounds in pixels at the maximum zoom level
+	 * @param inMargin margin around the tile in pixels at the tile's zoom level
+	 * @return true if the tile overlaps the bounds
+	 */
+	private static boolean tileOverlaps(long inKey, int[] inBounds, int inMargin)
+	{
+		final int shift = MAX_ZOOM - getZoom(inKey);
+		final long minX = ((long) getTileX(inKey) * TILE_SIZE - inMargin) << shift;
+		final long minY = ((long) getTileY(inKey) * TILE_SIZE - inMargin) << shift;
+		final long maxX = ((long) (getTileX(inKey) + 1) * TILE_SIZE + inMargin) << shift;
+		final long maxY = ((long) (getTileY(inKey) + 1) * TILE_SIZE + inMargin) << shift;
+		return inBounds[0] <= maxX && inBounds[2] >= minX && inBounds[1] <= maxY && inBounds[3] >= minY;
+	}
+
+	/** @return key for the given tile */
+	private static long makeKey(int inZoom, int inTileX, int inTileY)
+	{
+		return ((long) inZoom << 48) | ((long) inTileX << 24) | inTileY;
+	}
+
+	/** @return zoom level from the tile key */
+	private static int getZoom(long inKey) {
+		return (int) (inKey >>> 48);
+	}
+
+	/** @return tile x index from the tile key */
+	private static int getTileX(long inKey) {
+		return (int) ((inKey >>> 24) & 0xffffff);
+	}
+
+	/** @return tile y index from the tile key */
+	private static int getTileY(long inKey) {
+		return (int) (inKey & 0xffffff);
+	}
+
+	/**
+	 * Get the rendered track tile, starting to render it if it's not available yet
+	 * @param inZoom zoom level
+	 * @param inTileX x index of tile, wrapped around if necessary
+	 * @param inTileY y index of tile
+	 * @return tile image, or the previous version of it if it's being rendered again,
+	 *         or null if it's not ready or has nothing on it
+	 */
+	public synchronized BufferedImage getTile(int inZoom, int inTileX, int inTileY)
+	{
+		final int numTiles = 1 << inZoom;
+		if (inTileY < 0 || inTileY >= numTiles || _style == null || _state == null) {
+			return null;
+		}
+		final int tileX = ((inTileX % numTiles) + numTiles) % numTiles;
+		final long key = makeKey(inZoom, tileX, inTileY);
+		BufferedImage tile = _tiles.get(key);
+		if (tile == null)
+		{
+			if (!_pendingTiles.containsKey(key))
+			{
+				if (_snapshot == null || _snapshot._zoom != inZoom) {
+					_snapshot = new TrackSnapshot(inZoom, _style, _state);
+				}
+				final TrackSnapshot snapshot = _snapshot;
+				_pendingTiles.put(key, snapshot);
+				_executor.execute(new Runnable() {
+					public void run()
+					{
+						snapshot.build();
+						BufferedImage image = renderTile(snapshot, tileX, inTileY);
+						tileRendered(key, snapshot, image);
+					}
+				});
+			}
+			tile = _staleTiles.get(key);
+		}
+		return tile == EMPTY_TILE ? null : tile;
+	}
+
+	/**
+	 * Store a tile which has been rendered, unless it's been invalidated since
+	 * @param inKey tile key
+	 * @param inSnapshot snapshot used for rendering
+	 * @param inImage rendered image
+	 */
+	private void tileRendered(long inKey, TrackSnapshot inSnapshot, BufferedImage inImage)
+	{
+		boolean informConsumer = false;
+		synchronized (this)
+		{
+			if (_pendingTiles.get(inKey) == inSnapshot)
+			{
+				_pendingTiles.remove(inKey);
+				_tiles.put(inKey, inImage);
+				BufferedImage staleTile = _staleTiles.remove(inKey);
+				informConsumer = (inImage != EMPTY_TILE || staleTile != null);
+			}
+		}
+		if (informConsumer) {
+			_consumer.tilesUpdated(true);
+		}
+	}
+
+	/**
+	 * Decide which lines should have arrows, avoiding arrows on adjacent lines because that looks too busy.
+	 * Each decision only depends on the line and the one before, so that edits only affect nearby tiles
+	 * @param inXPixels x pixels of track points
+	 * @param inYPixels y pixels of track points
+	 * @param inFlags point flags to set
+	 */
+	private static void setArrowFlags(int[] inXPixels, int[] inYPixels, byte[] inFlags)
+	{
+		final int pointSeparationForArrowsSqd = 400;
+		final int pointSeparation1dForArrows = (int) (Math.sqrt(pointSeparationForArrowsSqd) * 0.7);
+		final int hugePointSeparationForArrows = 120;
+		boolean prevLong = false;
+		for (int k=1; k<inXPixels.length; k++)
+		{
+			if ((inFlags[k] & FLAG_SEGMENT_START) != 0)
+			{
+				prevLong = false;
+				continue;
+			}
+			final long dx = inXPixels[k] - inXPixels[k-1], dy = inYPixels[k] - inYPixels[k-1];
+			final long pointDist = Math.max(Math.abs(dx), Math.abs(dy));
+			final boolean isLong = pointDist > pointSeparation1dForArrows && (dx * dx + dy * dy) > pointSeparationForArrowsSqd;
+			if (isLong && (!prevLong || pointDist > hugePointSeparationForArrows)) {
+				inFlags[k] |= FLAG_ARROW;
+			}
+			prevLong = isLong;
+		}
+	}
+
+	/**
+	 * Render a single tile
+	 * @param inSnapshot snapshot of track
+	 * @param inTileX x index of tile
+	 * @param inTileY y index of tile
+	 * @return rendered image, or EMPTY_TILE if there's nothing on it
+	 */
+	private static BufferedImage renderTile(TrackSnapshot inSnapshot, int inTileX, int inTileY)
+	{
+		final TrackStyle style = inSnapshot._style;
+		final int margin = style._margin;
+		final int minX = inTileX * TILE_SIZE - margin, maxX = (inTileX + 1) * TILE_SIZE + margin;
+		final int minY = inTileY * TILE_SIZE - margin, maxY = (inTileY + 1) * TILE_SIZE + margin;
+
+		// Find which track points could affect this tile, skipping whole blocks where possible
+		ArrayList<Integer> trackPoints = new ArrayList<Integer>();
+		final int[] xs = inSnapshot._xPixels, ys = inSnapshot._yPixels;
+		for (int b=0; b<inSnapshot._blockMinX.length; b++)
+		{
+			if (inSnapshot._blockMaxX[b] < minX || inSnapshot._blockMinX[b] > maxX
+				|| inSnapshot._blockMaxY[b] < minY || inSnapshot._blockMinY[b] > maxY) {
+				continue;
+			}
+			final int end = Math.min(inSnapshot._numTrackPoints, (b + 1) * BLOCK_SIZE);
+			for (int k = b * BLOCK_SIZE; k < end; k++)
+			{
+				final int prev = Math.max(0, k-1);
+				if (Math.max(xs[k], xs[prev]) >= minX && Math.min(xs[k], xs[prev]) <= maxX
+					&& Math.max(ys[k], ys[prev]) >= minY && Math.min(ys[k], ys[prev]) <= maxY) {
+					trackPoints.add(k);
+				}
+			}
+		}
+		final boolean anyWaypoints = anyInside(inSnapshot._waypointXs, inSnapshot._waypointYs, minX, maxX, minY, maxY);
+		final boolean anyMedia = anyInside(inSnapshot._mediaXs, inSnapshot._mediaYs, minX, maxX, minY, maxY);
+		if (trackPoints.isEmpty() && !anyWaypoints && !anyMedia) {
+			return EMPTY_TILE;
+		}
+
+		BufferedImage image = new BufferedImage(TILE_SIZE, TILE_SIZE, BufferedImage.TYPE_INT_ARGB);
+		Graphics2D g = image.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_ANTIALIASING,
+			style._antialias ? RenderingHints.VALUE_ANTIALIAS_ON : RenderingHints.VALUE_ANTIALIAS_OFF);
+		g.setStroke(new BasicStroke(style._lineWidth));
+		g.translate(-inTileX * TILE_SIZE, -inTileY * TILE_SIZE);
+
+		final boolean drawLines = (style._connectState != 3);  // 0, 1 or 2
+		final boolean drawPoints = (style._connectState != 1); // 0, 2 or 3
+		final boolean drawArrows = (style._connectState == 0); // 0
+		for (int k : trackPoints)
+		{
+			final int px = xs[k], py = ys[k];
+			g.setColor(inSnapshot._colours[k]);
+			if (drawPoints && px >= minX && px <= maxX && py >= minY && py <= maxY) {
+				g.drawRect(px-2, py-2, 3, 3);
+			}
+			if (drawLines && k > 0 && (inSnapshot._flags[k] & FLAG_SEGMENT_START) == 0)
+			{
+				final int prevX = xs[k-1], prevY = ys[k-1];
+				g.drawLine(prevX, prevY, px, py);
+				if (drawArrows && (inSnapshot._flags[k] & FLAG_ARROW) != 0)
+				{
+					final double midX = (prevX + px) / 2.0;
+					final double midY = (prevY + py) / 2.0;
+					final double alpha = Math.atan2(py - prevY, px - prevX);
+					final double MID_TO_VERTEX = 3.0;
+					final double arrowX = MID_TO_VERTEX * Math.cos(alpha);
+					final double arrowY = MID_TO_VERTEX * Math.sin(alpha);
+					final double vertexX = midX + arrowX;
+					final double vertexY = midY + arrowY;
+					g.drawLine((int)(midX-arrowX-2*arrowY), (int)(midY-arrowY+2*arrowX), (int)vertexX, (int)vertexY);
+					g.drawLine((int)(midX-arrowX+2*arrowY), (int)(midY-arrowY-2*arrowX), (int)vertexX, (int)vertexY);
+				}
+			}
+		}
+
+		// Waypoints, either as blobs or icons
+		if (anyWaypoints)
+		{
+			g.setColor(style._waypointColour);
+			ImageIcon icon = (style._iconDefinition == null ? null : style._iconDefinition.getImageIcon());
+			for (int w=0; w<inSnapshot._waypointXs.length; w++)
+			{
+				final int px = inSnapshot._waypointXs[w], py = inSnapshot._waypointYs[w];
+				if (px < minX || px > maxX || py < minY || py > maxY) {
+					continue;
+				}
+				if (style._iconDefinition == null) {
+					g.fillRect(px-3, py-3, 6, 6);
+				}
+				else if (icon != null)
+				{
+					g.drawImage(icon.getImage(), px-style._iconDefinition.getXOffset(),
+						py-style._iconDefinition.getYOffset(), null);
+				}
+			}
+		}
+		// Photo and audio points
+		if (anyMedia)
+		{
+			g.setColor(style._mediaColour);
+			for (int m=0; m<inSnapshot._mediaXs.length; m++)
+			{
+				final int px = inSnapshot._mediaXs[m], py = inSnapshot._mediaYs[m];
+				if (px >= minX && px <= maxX && py >= minY && py <= maxY)
+				{
+					g.drawRect(px-1, py-1, 2, 2);
+					g.drawRect(px-2, py-2, 4, 4);
+				}
+			}
+		}
+		g.dispose();
+		return image;
+	}
+
+	/**
+	 * @return true if any of the given positions are inside the given bounds
+	 */
+	private static boolean anyInside(int[] inXs, int[] inYs, int inMinX, int inMaxX, int inMinY, int inMaxY)
+	{
+		for (int i=0; i<inXs.length; i++)
+		{
+			if (inXs[i] >= inMinX && inXs[i] <= inMaxX && inYs[i] >= inMinY && inYs[i] <= inMaxY) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
@@ -1,9 +1,8 @@
 package tim.prune.gui.profile;
 
 import tim.prune.I18nManager;
-import tim.prune.data.GradientCalculator;
-import tim.prune.data.SpeedValue;
 import tim.prune.data.Track;
+import tim.prune.data.TrackSpeeds;
 import tim.prune.data.UnitSet;
 
 /**
@@ -29,22 +28,22 @@ public class GradientData extends ProfileData
 		initArrays();
 		_hasData = false;
 		_minValue = _maxValue = 0.0;
-		SpeedValue speed = new SpeedValue();
 		if (_track != null)
 		{
+			// Speeds are calculated together for the whole track and shared with the other profiles
+			TrackSpeeds speeds = _track.getSpeeds();
 			for (int i=0; i<_track.getNumPoints(); i++)
 			{
-				// Get the gradient either from the speed values or from the distances and altitudes
-				GradientCalculator.calculateGradient(_track, i, speed);
-				if (speed.isValid())
+				final double speedValue = speeds.getGradient(i);
+				final boolean valid = !Double.isNaN(speedValue);
+				if (valid)
 				{
-					double speedValue = speed.getValue();
 					_pointValues[i] = speedValue;
 					if (speedValue < _minValue || !_hasData) {_minValue = speedValue;}
 					if (speedValue > _maxValue || !_hasData) {_maxValue = speedValue;}
 					_hasData = true;
 				}
-				_pointHasData[i] = speed.isValid();
+				_pointHasData[i] = valid;
 			}
 		}
 	}
@@ -1,9 +1,8 @@
 package tim.prune.gui.profile;
 
 import tim.prune.I18nManager;
-import tim.prune.data.SpeedCalculator;
-import tim.prune.data.SpeedValue;
 import tim.prune.data.Track;
+import tim.prune.data.TrackSpeeds;
 import tim.prune.data.UnitSet;
 
 /**
@@ -28,23 +27,23 @@ public class VerticalSpeedData extends ProfileData
 		initArrays();
 		_hasData = false;
 		_minValue = _maxValue = 0.0;
-		SpeedValue speed = new SpeedValue();
 		if (_track != null)
 		{
+			// Speeds are calculated together for the whole track and shared with the other profiles
+			TrackSpeeds speeds = _track.getSpeeds();
+			final double unitFactor = _unitSet.getVerticalSpeedUnit().getMultFactorFromStd();
 			for (int i=0; i<_track.getNumPoints(); i++)
 			{
-				SpeedCalculator.calculateVerticalSpeed(_track, i, speed);
-				// Check whether we got a value from either method
-				if (speed.isValid())
+				final double speedValue = speeds.getVerticalSpeed(i) * unitFactor;
+				final boolean valid = !Double.isNaN(speedValue);
+				if (valid)
 				{
-					// Store the value and maintain max and min values
-					double speedValue = speed.getValue();
 					_pointValues[i] = speedValue;
 					if (speedValue < _minValue || !_hasData) {_minValue = speedValue;}
 					if (speedValue > _maxValue || !_hasData) {_maxValue = speedValue;}
 					_hasData = true;
 				}
-				_pointHasData[i] = speed.isValid();
+				_pointHasData[i] = valid;
 			}
 		}
 	}
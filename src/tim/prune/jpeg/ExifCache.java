@@ -0,0 +1,325 @@
+package tim.prune.jpeg;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import tim.prune.config.Config;
+
+/**
+ * Cache of the exif data extracted from the jpegs in one directory,
+ * held in a single file in the disk cache so that reloading the same
+ * photos doesn't have to read them all again.
+ * Entries are only used if the size and modification time of the file still match.
+ */
+public class ExifCache
+{
+	/** Directory of jpegs */
+	private final File _directory;
+	/** File holding the cache, or null if there's no disk cache */
+	private final File _cacheFile;
+	/** Cached entries by file name */
+	private final HashMap<String, Entry> _entries = new HashMap<String, Entry>();
+	/** Flag set when entries have been added */
+	private boolean _changed = false;
+
+	/** Name of directory within disk cache */
+	private static final String CACHE_DIR_NAME = "exif";
+	/** Identifier at the start of each cache file, including format version */
+	private static final int FILE_MAGIC = 0x47504531;
+
+
+	/**
+	 * Information about a single file
+	 */
+	private static class Entry
+	{
+		private final long _size;
+		private final long _modified;
+		/** Jpeg data, or null if the file couldn't be read */
+		private final JpegData _data;
+
+		private Entry(long inSize, long inModified, JpegData inData)
+		{
+			_size = inSize;
+			_modified = inModified;
+			_data = inData;
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 * @param inDirectory directory containing jpegs
+	 */
+	public ExifCache(File inDirectory)
+	{
+		_directory = inDirectory;
+		_cacheFile = getCacheFile(inDirectory);
+		if (_cacheFile != null && _cacheFile.exists()) {
+			readFile();
+		}
+	}
+
+	/**
+	 * @param inDirectory directory of jpegs
+	 * @return file in the disk cache for this directory, or null if no disk cache is set
+	 */
+	private static File getCacheFile(File inDirectory)
+	{
+		final String diskCachePath = Config.getConfigString(Config.KEY_DISK_CACHE);
+		if (diskCachePath == null || inDirectory == null) {
+			return null;
+		}
+		final String fileName = Integer.toHexString(inDirectory.getAbsolutePath().hashCode()) + ".dat";
+		return new File(new File(diskCachePath, CACHE_DIR_NAME), fileName);
+	}
+
+	/**
+	 * @param inFile jpeg file
+	 * @return true if there is an entry for this file which is still up to date
+	 */
+	public synchronized boolean contains(File inFile)
+	{
+		Entry entry = _entries.get(inFile.getName());
+		return entry != null && entry._size == inFile.length() && entry._modified == inFile.lastModified();
+	}
+
+	/**
+	 * @param inFile jpeg file
+	 * @return cached jpeg data for this file, or null if none available
+	 */
+	public synchronized JpegData getJpegData(File inFile)
+	{
+		return contains(inFile) ? _entries.get(inFile.getName())._data : null;
+	}
+
+	/**
+	 * Store the data for the given file
+	 * @param inFile jpeg file
+	 * @param inData jpeg data extracted from file, or null if it couldn't be read
+	 */
+	public synchronized void putJpegData(File inFile, JpegData inData)
+	{
+		_entries.put(inFile.getName(), new Entry(inFile.length(), inFile.lastModified(), inData));
+		_changed = true;
+	}
+
+	/**
+	 * Read the entries from the cache file
+	 */
+	private void readFile()
+	{
+		DataInputStream inStream = null;
+		try
+		{
+			inStream = new DataInputStream(new BufferedInputStream(new FileInputStream(_cacheFile)));
+			// Check that the file belongs to this directory and not another one with the same hash
+			if (inStream.readInt() != FILE_MAGIC || !inStream.readUTF().equals(_directory.getAbsolutePath())) {
+				return;
+			}
+			final int numEntries = inStream.readInt();
+			for (int i=0; i<numEntries; i++)
+			{
+				final String name = inStream.readUTF();
+				final long size = inStream.readLong();
+				final long modified = inStream.readLong();
+				final JpegData data = inStream.readBoolean() ? readJpegData(inStream) : null;
+				_entries.put(name, new Entry(size, modified, data));
+			}
+		}
+		catch (IOException ioe) {
+			_entries.clear();
+		}
+		finally
+		{
+			try {if (inStream != null) inStream.close();} catch (IOException e) {}
+		}
+	}
+
+	/**
+	 * Save the entries to the cache file if anything has changed,
+	 * leaving out the files which no longer exist
+	 */
+	public synchronized void save()
+	{
+		if (!_changed || _cacheFile == null) {
+			return;
+		}
+		Iterator<Map.Entry<String, Entry>> iterator = _entries.entrySet().iterator();
+		while (iterator.hasNext())
+		{
+			if (!new File(_directory, iterator.next().getKey()).exists()) {
+				iterator.remove();
+			}
+		}
+		File dir = _cacheFile.getParentFile();
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			return;
+		}
+		// Write to a temporary file so that a partial file can't be used
+		File tempFile = new File(dir, _cacheFile.getName() + ".temp");
+		DataOutputStream outStream = null;
+		boolean saved = false;
+		try
+		{
+			outStream = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)));
+			outStream.writeInt(FILE_MAGIC);
+			outStream.writeUTF(_directory.getAbsolutePath());
+			outStream.writeInt(_entries.size());
+			for (Map.Entry<String, Entry> mapEntry : _entries.entrySet())
+			{
+				final Entry entry = mapEntry.getValue();
+				outStream.writeUTF(mapEntry.getKey());
+				outStream.writeLong(entry._size);
+				outStream.writeLong(entry._modified);
+				outStream.writeBoolean(entry._data != null);
+				if (entry._data != null) {
+					writeJpegData(entry._data, outStream);
+				}
+			}
+			outStream.close();
+			outStream = null;
+			saved = tempFile.renameTo(_cacheFile) || (_cacheFile.delete() && tempFile.renameTo(_cacheFile));
+			_changed = !saved;
+		}
+		catch (IOException ioe) {
+			System.err.println("Failed to save exif cache: " + ioe.getMessage());
+		}
+		finally
+		{
+			try {if (outStream != null) outStream.close();} catch (IOException e) {}
+			if (!saved) {tempFile.delete();}
+		}
+	}
+
+	/**
+	 * Write the fields of the jpeg data used for loading photos
+	 */
+	private static void writeJpegData(JpegData inData, DataOutputStream inStream) throws IOException
+	{
+		inStream.writeBoolean(inData.getExifDataPresent());
+		inStream.writeChar(inData.getLatitudeRef());
+		writeDoubles(inData.getLatitude(), inStream);
+		inStream.writeChar(inData.getLongitudeRef());
+		writeDoubles(inData.getLongitude(), inStream);
+		inStream.writeByte(inData.getAltitudeRef());
+		inStream.writeBoolean(inData.hasAltitude());
+		inStream.writeInt(inData.getAltitude());
+		writeInts(inData.getGpsTimestamp(), inStream);
+		writeInts(inData.getGpsDatestamp(), inStream);
+		writeString(inData.getOriginalTimestamp(), inStream);
+		writeString(inData.getDigitizedTimestamp(), inStream);
+		inStream.writeInt(inData.getOrientationCode());
+		inStream.writeDouble(inData.getBearing());
+		final byte[] thumbnail = inData.getThumbnailImage();
+		inStream.writeInt(thumbnail == null ? -1 : thumbnail.length);
+		if (thumbnail != null) {
+			inStream.write(thumbnail);
+		}
+	}
+
+	/**
+	 * Read the jpeg data in the same order as it was written
+	 */
+	private static JpegData readJpegData(DataInputStream inStream) throws IOException
+	{
+		JpegData data = new JpegData();
+		if (inStream.readBoolean()) {
+			data.setExifDataPresent();
+		}
+		data.setLatitudeRef(String.valueOf(inStream.readChar()));
+		data.setLatitude(readDoubles(inStream));
+		data.setLongitudeRef(String.valueOf(inStream.readChar()));
+		data.setLongitude(readDoubles(inStream));
+		data.setAltitudeRef(inStream.readByte());
+		final boolean hasAltitude = inStream.readBoolean();
+		final int altitude = inStream.readInt();
+		if (hasAltitude) {
+			data.setAltitude(altitude);
+		}
+		data.setGpsTimestamp(readInts(inStream));
+		data.setGpsDatestamp(readInts(inStream));
+		data.setOriginalTimestamp(readString(inStream));
+		data.setDigitizedTimestamp(readString(inStream));
+		data.setOrientationCode(inStream.readInt());
+		data.setBearing(inStream.readDouble());
+		final int thumbnailLength = inStream.readInt();
+		if (thumbnailLength >= 0)
+		{
+			byte[] thumbnail = new byte[thumbnailLength];
+			inStream.readFully(thumbnail);
+			data.setThumbnailImage(thumbnail);
+		}
+		return data;
+	}
+
+	private static void writeDoubles(double[] inValues, DataOutputStream inStream) throws IOException
+	{
+		inStream.writeInt(inValues == null ? -1 : inValues.length);
+		if (inValues != null)
+		{
+			for (double value : inValues) {
+				inStream.writeDouble(value);
+			}
+		}
+	}
+
+	private static double[] readDoubles(DataInputStream inStream) throws IOException
+	{
+		final int numValues = inStream.readInt();
+		if (numValues < 0) {
+			return null;
+		}
+		double[] values = new double[numValues];
+		for (int i=0; i<numValues; i++) {
+			values[i] = inStream.readDouble();
+		}
+		return values;
+	}
+
+	private static void writeInts(int[] inValues, DataOutputStream inStream) throws IOException
+	{
+		inStream.writeInt(inValues == null ? -1 : inValues.length);
+		if (inValues != null)
+		{
+			for (int value : inValues) {
+				inStream.writeInt(value);
+			}
+		}
+	}
+
+	private static int[] readInts(DataInputStream inStream) throws IOException
+	{
+		final int numValues = inStream.readInt();
+		if (numValues < 0) {
+			return null;
+		}
+		int[] values = new int[numValues];
+		for (int i=0; i<numValues; i++) {
+			values[i] = inStream.readInt();
+		}
+		return values;
+	}
+
+	private static void writeString(String inValue, DataOutputStream inStream) throws IOException
+	{
+		inStream.writeBoolean(inValue != null);
+		if (inValue != null) {
+			inStream.writeUTF(inValue);
+		}
+	}
+
+	private static String readString(DataInputStream inStream) throws IOException
+	{
+		return inStream.readBoolean() ? inStream.readUTF() : null;
+	}
+}
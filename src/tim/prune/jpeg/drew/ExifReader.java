@@ -1,9 +1,10 @@
 package tim.prune.jpeg.drew;
 
-import java.io.BufferedInputStream;
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
 
 import tim.prune.jpeg.JpegData;
 
@@ -30,17 +31,18 @@ public class ExifReader
 
 	/**
 	 * Processes the provided JPEG data, and extracts the specified JPEG segments into a JpegData object.
+	 * Only the segment headers and the Exif segment itself are read from the file.
 	 * @param inFile a {@link File} from which the JPEG data will be read.
 	 */
 	public static JpegData readMetadata(File inFile) throws ExifException
 	{
 		JpegData jpegData = new JpegData();
-		BufferedInputStream bStream = null;
+		FileChannel channel = null;
 
 		try
 		{
-			bStream = new BufferedInputStream(new FileInputStream(inFile));
-			byte[] segmentBytes = readSegments(bStream);
+			channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+			byte[] segmentBytes = readSegments(channel);
 			if (segmentBytes != null)
 			{
 				// Got the bytes for the required segment, now extract the data
@@ -52,9 +54,9 @@ public class ExifReader
 		}
 		finally
 		{
-			if (bStream != null) {
+			if (channel != null) {
 				try {
-					bStream.close();
+					channel.close();
 				} catch (IOException ioe) {}
 			}
 		}
@@ -62,14 +64,15 @@ public class ExifReader
 	}
 
 	/**
-	 * Reads the relevant segment and returns the bytes.
+	 * Reads the relevant segment and returns the bytes, skipping over the other segments
 	 */
-	private static byte[] readSegments(final BufferedInputStream bStream)
+	private static byte[] readSegments(final FileChannel inChannel)
 		throws ExifException, IOException
 	{
+		final ByteBuffer headerBuffer = ByteBuffer.allocate(2);
 		// first two bytes should be JPEG magic number
-		final int magic1 = bStream.read() & 0xFF;
-		final int magic2 = bStream.read() & 0xFF;
+		final int magic1 = readByte(inChannel, headerBuffer);
+		final int magic2 = readByte(inChannel, headerBuffer);
 		if (magic1 != MAGIC_JPEG_BYTE_1 || magic2 != MAGIC_JPEG_BYTE_2) {
 			throw new ExifException("Jpeg file failed Magic check");
 		}
@@ -80,16 +83,16 @@ public class ExifReader
 			// Find the segment marker. Markers are zero or more 0xFF bytes, followed
 			// by a 0xFF and then a byte not equal to 0x00 or 0xFF.
 
-			final short segmentIdentifier = (short) bStream.read();
+			final int segmentIdentifier = readByte(inChannel, headerBuffer);
 
 			// We must have at least one 0xFF byte
 			if (segmentIdentifier != 0xFF)
 				throw new ExifException("Expected JPEG segment start identifier 0xFF, not 0x" + Integer.toHexString(segmentIdentifier).toUpperCase());
 
 			// Read until we have a non-0xFF byte. This identifies the segment type.
-			byte currSegmentType = (byte) bStream.read();
+			byte currSegmentType = (byte) readByte(inChannel, headerBuffer);
 			while (currSegmentType == (byte)0xFF) {
-				currSegmentType = (byte) bStream.read();
+				currSegmentType = (byte) readByte(inChannel, headerBuffer);
 			}
 
 			if (currSegmentType == 0)
@@ -108,31 +111,70 @@ public class ExifReader
 			}
 
 			// next 2-bytes are <segment-size>: [high-byte] [low-byte]
-			int segmentLength = (bStream.read() << 8) + bStream.read();
+			headerBuffer.clear();
+			readFully(inChannel, headerBuffer);
+			int segmentLength = headerBuffer.getShort(0) & 0xFFFF;
 			// segment length includes size bytes, so subtract two
 			segmentLength -= 2;
 
 			if (segmentLength < 0)
 				throw new ExifException("JPEG segment size would be less than zero");
 
-			byte[] segmentBytes = new byte[segmentLength];
-			int bytesRead = bStream.read(segmentBytes, 0, segmentLength);
-			// Bail if not all bytes read in one go - otherwise following sections will be out of step
-			if (bytesRead != segmentLength) {
-				throw new ExifException("Tried to read " + segmentLength + " bytes but only got " + bytesRead);
-			}
 			// Check whether we are interested in this segment
-			if (segmentTypeByte == currSegmentType)
+			if (segmentTypeByte == currSegmentType && segmentLength >= JPEG_EXIF_SEGMENT_PREAMBLE.length())
 			{
+				ByteBuffer segmentBuffer = ByteBuffer.allocate(segmentLength);
+				readFully(inChannel, segmentBuffer);
+				byte[] segmentBytes = segmentBuffer.array();
 				// Pass the appropriate byte arrays to reader.
 				if (canProcess(segmentBytes)) {
 					return segmentBytes;
 				}
 			}
+			else
+			{
+				// Skip over the segment without reading it
+				inChannel.position(inChannel.position() + segmentLength);
+			}
 
 		} while (true);
 	}
 
+	/**
+	 * Read a single byte from the channel
+	 * @param inChannel channel to read from
+	 * @param inBuffer buffer of at least one byte to use
+	 * @return byte value from 0 to 255, or -1 if the end of the file was reached
+	 */
+	private static int readByte(FileChannel inChannel, ByteBuffer inBuffer) throws IOException
+	{
+		inBuffer.clear();
+		inBuffer.limit(1);
+		if (inChannel.read(inBuffer) < 1) {
+			return -1;
+		}
+		return inBuffer.get(0) & 0xFF;
+	}
+
+	/**
+	 * Fill the given buffer from the channel
+	 * @param inChannel channel to read from
+	 * @param inBuffer buffer to fill
+	 */
+	private static void readFully(FileChannel inChannel, ByteBuffer inBuffer)
+		throws ExifException, IOException
+	{
+		while (inBuffer.hasRemaining())
+		{
+			if (inChannel.read(inBuffer) < 0)
+			{
+				// Bail if not all bytes could be read - otherwise following sections will be out of step
+				throw new ExifException("Tried to read " + inBuffer.capacity() + " bytes but only got "
+					+ inBuffer.position());
+			}
+		}
+	}
+
 	private static boolean canProcess(final byte[] segmentBytes)
 	{
 		return segmentBytes.length >= JPEG_EXIF_SEGMENT_PREAMBLE.length() && new String(segmentBytes, 0, JPEG_EXIF_SEGMENT_PREAMBLE.length()).equalsIgnoreCase(JPEG_EXIF_SEGMENT_PREAMBLE);
@@ -234,8 +234,7 @@ public abstract class BabelLoader extends GenericFunction implements Runnable
 			if (errorMessage.length() > 0) {throw new Exception(errorMessage);}
 
 			// Send data back to app
-			_app.informDataLoaded(handler.getFieldArray(), handler.getDataArray(), null,
-				getSourceInfo(), handler.getTrackNameList());
+			_app.informDataLoaded(handler, getSourceInfo(), null);
 		}
 	}
 
@@ -9,6 +9,8 @@ public abstract class ContentCacher
 {
 	/** Array to hold lines of file */
 	private String[] _contentArray = null;
+	/** Flag set if only the start of the contents was kept */
+	private boolean _truncated = false;
 
 
 	/**
@@ -65,6 +67,23 @@ public abstract class ContentCacher
 	}
 
 
+	/**
+	 * @return true if only the start of the contents was kept, so the lines are just a sample
+	 */
+	public boolean isTruncated()
+	{
+		return _truncated;
+	}
+
+	/**
+	 * @param inTruncated true if only the start of the contents was kept
+	 */
+	protected void setTruncated(boolean inTruncated)
+	{
+		_truncated = inTruncated;
+	}
+
+
 	/**
 	 * Clear the memory
 	 */
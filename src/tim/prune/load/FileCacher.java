@@ -7,11 +7,15 @@ import java.io.IOException;
 import java.util.ArrayList;
 
 /**
- * Class to load the contents of a file
- * into an array for later retrieval
+ * Class to load the start of a file into an array for later retrieval.
+ * Only a sample of the lines is kept, enough for checking the delimiters
+ * and guessing the fields, as the whole file is parsed later by a TextFileParser.
  */
 public class FileCacher extends ContentCacher
 {
+	/** Maximum number of lines to keep */
+	private static final int MAX_NUM_LINES = 5000;
+
 	/**
 	 * Constructor
 	 * @param inFile File object to cache
@@ -23,7 +27,7 @@ public class FileCacher extends ContentCacher
 
 
 	/**
-	 * Load the specified file into memory
+	 * Load the first lines of the specified file into memory
 	 */
 	private void loadFile(File inFile)
 	{
@@ -38,7 +42,7 @@ public class FileCacher extends ContentCacher
 				if (currLine != null && currLine.startsWith("<?xml")) {
 					return; // it's an xml file, it shouldn't use this cacher
 				}
-				while (currLine != null)
+				while (currLine != null && contentList.size() < MAX_NUM_LINES)
 				{
 					if (currLine.indexOf('\0') >= 0)
 					{
@@ -49,6 +53,7 @@ public class FileCacher extends ContentCacher
 						contentList.add(currLine);
 					currLine = reader.readLine();
 				}
+				setTruncated(currLine != null);
 			}
 			catch (IOException ioe) {}
 			finally
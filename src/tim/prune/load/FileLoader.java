@@ -63,6 +63,7 @@ public class FileLoader
 			_fileChooser.addChoosableFileFilter(new GenericFileFilter("filetype.gpx", new String[] {"gpx"}));
 			_fileChooser.addChoosableFileFilter(new GenericFileFilter("filetype.kml", new String[] {"kml"}));
 			_fileChooser.addChoosableFileFilter(new GenericFileFilter("filetype.kmz", new String[] {"kmz"}));
+			_fileChooser.addChoosableFileFilter(new GenericFileFilter("filetype.session", new String[] {SessionFile.FILE_EXTENSION}));
 			_fileChooser.setAcceptAllFileFilterUsed(true);
 			_fileChooser.setFileFilter(_fileChooser.getAcceptAllFileFilter()); // For some reason seems necessary
 			// start from directory in config if already set (by load jpegs)
@@ -115,7 +116,12 @@ public class FileLoader
 		if (fileExtension.length() > 4) {
 			fileExtension = fileExtension.substring(fileExtension.length() - 4);
 		}
-		if (fileExtension.equals(".kml") || fileExtension.equals(".gpx")
+		if (inFile.getName().toLowerCase().endsWith("." + SessionFile.FILE_EXTENSION))
+		{
+			// Binary session file saved by the SessionSaver
+			new SessionLoader(_app).openFile(inFile);
+		}
+		else if (fileExtension.equals(".kml") || fileExtension.equals(".gpx")
 			|| fileExtension.equals(".xml"))
 		{
 			// Use xml loader for kml, gpx and xml filenames
@@ -1,7 +1,14 @@
 package tim.prune.load;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import javax.swing.BoxLayout;
 import javax.swing.JCheckBox;
@@ -23,6 +30,7 @@ import tim.prune.data.TimestampLocal;
 import tim.prune.data.TimestampUtc;
 import tim.prune.data.UnitSetLibrary;
 import tim.prune.function.Cancellable;
+import tim.prune.jpeg.ExifCache;
 import tim.prune.jpeg.InternalExifLibrary;
 import tim.prune.jpeg.JpegData;
 
@@ -40,9 +48,13 @@ public class JpegLoader implements Runnable, Cancellable
 	private JCheckBox _outsideAreaCheckbox = null;
 	private MediaLoadProgressDialog _progressDialog = null;
 	private int[] _fileCounts = null;
-	private boolean _cancelled = false;
+	private volatile boolean _cancelled = false;
 	private LatLonRectangle _trackRectangle = null;
 	private TreeSet<Photo> _photos = null;
+	private HashMap<File, ExifCache> _exifCaches = null;
+
+	/** Maximum number of threads for reading files */
+	private static final int MAX_THREADS = 8;
 
 
 	/**
@@ -115,17 +127,23 @@ public class JpegLoader implements Runnable, Cancellable
 	public void run()
 	{
 		// Initialise arrays, errors, summaries
-		_fileCounts = new int[3]; // files, jpegs, gps
+		_fileCounts = new int[4]; // files, jpegs, gps, failed
 		_photos = new TreeSet<Photo>(new MediaSorter());
+		_exifCaches = new HashMap<File, ExifCache>();
 		File[] files = _fileChooser.getSelectedFiles();
-		// Loop recursively over selected files/directories to count files
-		int numFiles = countFileList(files, true, _subdirCheckbox.isSelected());
+		// Loop recursively over selected files/directories to collect the files
+		ArrayList<File> fileList = new ArrayList<File>();
+		collectFiles(files, true, _subdirCheckbox.isSelected(), fileList);
 		// Set up the progress bar for this number of files
-		_progressDialog.showProgress(0, numFiles);
+		_progressDialog.showProgress(0, fileList.size());
 		_cancelled = false;
 
-		// Process the files recursively and build lists of photos
-		processFileList(files, true, _subdirCheckbox.isSelected());
+		// Process the files in parallel and build lists of photos
+		processFiles(fileList);
+		for (ExifCache cache : _exifCaches.values()) {
+			cache.save();
+		}
+		_exifCaches = null;
 		_progressDialog.close();
 		if (_cancelled) {return;}
 
@@ -134,6 +152,11 @@ public class JpegLoader implements Runnable, Cancellable
 			// No files found at all
 			_app.showErrorMessage("error.jpegload.dialogtitle", "error.jpegload.nofilesfound");
 		}
+		else if (_fileCounts[1] == 0 && _fileCounts[3] > 0)
+		{
+			// Files couldn't be read, rather than not being jpegs
+			_app.showErrorMessage("error.jpegload.dialogtitle", "error.jpegload.readfailed");
+		}
 		else if (_fileCounts[1] == 0)
 		{
 			// No jpegs found
@@ -153,31 +176,36 @@ public class JpegLoader implements Runnable, Cancellable
 
 
 	/**
-	 * Process a list of files and/or directories
+	 * Recursively collect the selected files
 	 * @param inFiles array of file/directories
 	 * @param inFirstDir true if first directory
 	 * @param inDescend true to descend to subdirectories
+	 * @param inList list to add the files to
 	 */
-	private void processFileList(File[] inFiles, boolean inFirstDir, boolean inDescend)
+	private void collectFiles(File[] inFiles, boolean inFirstDir, boolean inDescend, ArrayList<File> inList)
 	{
 		if (inFiles == null) return;
 		// Loop over elements in array
-		for (int i=0; i<inFiles.length && !_cancelled; i++)
+		for (int i=0; i<inFiles.length; i++)
 		{
 			File file = inFiles[i];
 			if (file.exists() && file.canRead())
 			{
+				// Store first directory in config for later
+				if (i == 0 && inFirstDir) {
+					File workingDir = file.isDirectory()?file:file.getParentFile();
+					Config.setConfigString(Config.KEY_PHOTO_DIR, workingDir.getAbsolutePath());
+				}
 				// Check whether it's a file or a directory
 				if (file.isFile())
 				{
-					processFile(file);
+					inList.add(file);
 				}
 				else if (file.isDirectory() && (inFirstDir || inDescend))
 				{
 					// Always process first directory,
 					// only process subdirectories if checkbox selected
-					File[] files = file.listFiles();
-					processFileList(files, false, inDescend);
+					collectFiles(file.listFiles(), false, inDescend, inList);
 				}
 			}
 			// if file doesn't exist or isn't readable - ignore
@@ -186,32 +214,88 @@ public class JpegLoader implements Runnable, Cancellable
 
 
 	/**
-	 * Process the given file, by attempting to extract its tags
-	 * @param inFile file object to read
+	 * Read the photos from the given files using several threads,
+	 * as most of the time is spent waiting for the disk
+	 * @param inFiles list of files
 	 */
-	private void processFile(File inFile)
+	private void processFiles(ArrayList<File> inFiles)
+	{
+		final int numThreads = Math.max(1, Math.min(inFiles.size(),
+			Math.min(MAX_THREADS, 2 * Runtime.getRuntime().availableProcessors())));
+		ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+		ArrayList<Future<Photo>> results = new ArrayList<Future<Photo>>();
+		for (final File file : inFiles)
+		{
+			results.add(executor.submit(new Callable<Photo>() {
+				public Photo call()
+				{
+					// Check whether filename corresponds with accepted filenames
+					if (_cancelled || !_fileFilter.acceptFilename(file.getName())) {
+						return null;
+					}
+					return createPhoto(file, getExifCache(file.getParentFile()));
+				}
+			}));
+		}
+		executor.shutdown();
+		// Collect the results in the original order
+		for (int i=0; i<results.size() && !_cancelled; i++)
+		{
+			Photo photo = null;
+			try {
+				photo = results.get(i).get();
+			}
+			catch (InterruptedException e) {}
+			catch (ExecutionException e)
+			{
+				System.err.println("Failed to read " + inFiles.get(i).getName() + ": " + e.getCause());
+				_fileCounts[3]++; // file couldn't be read
+			}
+			processPhoto(photo);
+		}
+		if (_cancelled) {
+			executor.shutdownNow();
+		}
+	}
+
+
+	/**
+	 * @param inDirectory directory of photos
+	 * @return exif cache for this directory
+	 */
+	private synchronized ExifCache getExifCache(File inDirectory)
+	{
+		ExifCache cache = _exifCaches.get(inDirectory);
+		if (cache == null)
+		{
+			cache = new ExifCache(inDirectory);
+			_exifCaches.put(inDirectory, cache);
+		}
+		return cache;
+	}
+
+
+	/**
+	 * Process the photo created from one of the files
+	 * @param inPhoto photo, or null if the file wasn't a jpeg or couldn't be read
+	 */
+	private void processPhoto(Photo inPhoto)
 	{
 		// Update progress bar
 		_fileCounts[0]++; // file found
 		_progressDialog.showProgress(_fileCounts[0], -1);
+		if (inPhoto == null) {return;}
 
-		// Check whether filename corresponds with accepted filenames
-		if (!_fileFilter.acceptFilename(inFile.getName())) {return;}
-		// If it's a Jpeg, we can use ExifReader to get coords, otherwise we could try exiftool (if it's installed)
-
-		if (inFile.exists() && inFile.canRead()) {
-			_fileCounts[1]++; // jpeg found
-		}
-		Photo photo = createPhoto(inFile);
-		if (photo.getDataPoint() != null) {
+		_fileCounts[1]++; // jpeg found
+		if (inPhoto.getDataPoint() != null) {
 			_fileCounts[2]++; // photo has coordinates
 		}
 		// Check the criteria for adding the photo - check whether the photo has coordinates and if so if they're within the rectangle
-		if ( (photo.getDataPoint() != null || _noExifCheckbox.isSelected())
-			&& (photo.getDataPoint() == null || !_outsideAreaCheckbox.isEnabled()
-				|| _outsideAreaCheckbox.isSelected() || _trackRectangle.containsPoint(photo.getDataPoint())))
+		if ( (inPhoto.getDataPoint() != null || _noExifCheckbox.isSelected())
+			&& (inPhoto.getDataPoint() == null || !_outsideAreaCheckbox.isEnabled()
+				|| _outsideAreaCheckbox.isSelected() || _trackRectangle.containsPoint(inPhoto.getDataPoint())))
 		{
-			_photos.add(photo);
+			_photos.add(inPhoto);
 		}
 	}
 
@@ -221,11 +305,32 @@ public class JpegLoader implements Runnable, Cancellable
 	 * @return Photo object
 	 */
 	public static Photo createPhoto(File inFile)
+	{
+		return createPhoto(inFile, null);
+	}
+
+	/**
+	 * Create a Photo object for the given file, including reading exif information
+	 * @param inFile file object
+	 * @param inCache cache of exif data, or null
+	 * @return Photo object
+	 */
+	private static Photo createPhoto(File inFile, ExifCache inCache)
 	{
 		// Create Photo object
 		Photo photo = new Photo(inFile);
-		// Try to get information out of exif
-		JpegData jpegData = new InternalExifLibrary().getJpegData(inFile);
+		// Try to get information out of exif, or from the cache if the file hasn't changed
+		JpegData jpegData = null;
+		if (inCache != null && inCache.contains(inFile)) {
+			jpegData = inCache.getJpegData(inFile);
+		}
+		else
+		{
+			jpegData = new InternalExifLibrary().getJpegData(inFile);
+			if (inCache != null) {
+				inCache.putJpegData(inFile, jpegData);
+			}
+		}
 		Timestamp timestamp = null;
 		if (jpegData != null)
 		{
@@ -263,45 +368,6 @@ public class JpegLoader implements Runnable, Cancellable
 	}
 
 
-	/**
-	 * Recursively count the selected Files so we can draw a progress bar
-	 * @param inFiles file list
-	 * @param inFirstDir true if first directory
-	 * @param inDescend true to descend to subdirectories
-	 * @return count of the files selected
-	 */
-	private int countFileList(File[] inFiles, boolean inFirstDir, boolean inDescend)
-	{
-		int fileCount = 0;
-		if (inFiles != null)
-		{
-			// Loop over elements in array
-			for (int i=0; i<inFiles.length; i++)
-			{
-				File file = inFiles[i];
-				if (file.exists() && file.canRead())
-				{
-					// Store first directory in config for later
-					if (i == 0 && inFirstDir) {
-						File workingDir = file.isDirectory()?file:file.getParentFile();
-						Config.setConfigString(Config.KEY_PHOTO_DIR, workingDir.getAbsolutePath());
-					}
-					// Check whether it's a file or a directory
-					if (file.isFile())
-					{
-						fileCount++;
-					}
-					else if (file.isDirectory() && (inFirstDir || inDescend))
-					{
-						fileCount += countFileList(file.listFiles(), false, inDescend);
-					}
-				}
-			}
-		}
-		return fileCount;
-	}
-
-
 	/**
 	 * Create a DataPoint object from the given jpeg data
 	 * @param inData Jpeg data including coordinates
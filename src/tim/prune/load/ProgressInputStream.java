@@ -0,0 +1,81 @@
+package tim.prune.load;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import tim.prune.gui.ProgressDialog;
+
+/**
+ * Input stream which moves a progress bar on as bytes are read,
+ * and stops reading if the progress dialog is cancelled.
+ * The progress is given in kilobytes.
+ */
+public class ProgressInputStream extends FilterInputStream
+{
+	/** Progress dialog to update */
+	private ProgressDialog _progress = null;
+	/** Number of bytes read so far */
+	private long _numBytesRead = 0L;
+	/** Number of bytes read when the progress bar was last updated */
+	private long _lastUpdate = 0L;
+
+	/** Number of bytes to read between progress updates */
+	private static final long UPDATE_INTERVAL = 256 * 1024L;
+
+
+	/**
+	 * Constructor
+	 * @param inStream stream to read from
+	 * @param inProgress progress dialog to update
+	 * @param inTotalBytes total number of bytes expected
+	 */
+	public ProgressInputStream(InputStream inStream, ProgressDialog inProgress, long inTotalBytes)
+	{
+		super(inStream);
+		_progress = inProgress;
+		_progress.setMaximum((int) (inTotalBytes / 1024L));
+	}
+
+	/**
+	 * Read a single byte
+	 */
+	public int read() throws IOException
+	{
+		final int b = super.read();
+		if (b >= 0) {
+			bytesRead(1);
+		}
+		return b;
+	}
+
+	/**
+	 * Read a block of bytes
+	 */
+	public int read(byte[] inBuffer, int inOffset, int inLength) throws IOException
+	{
+		final int numRead = super.read(inBuffer, inOffset, inLength);
+		if (numRead > 0) {
+			bytesRead(numRead);
+		}
+		return numRead;
+	}
+
+	/**
+	 * Update the progress and check for cancellation
+	 * @param inNumBytes number of bytes just read
+	 * @throws IOException if the progress dialog was cancelled
+	 */
+	private void bytesRead(int inNumBytes) throws IOException
+	{
+		_numBytesRead += inNumBytes;
+		if (_numBytesRead - _lastUpdate >= UPDATE_INTERVAL)
+		{
+			_lastUpdate = _numBytesRead;
+			if (_progress.isCancelled()) {
+				throw new IOException("Cancelled");
+			}
+			_progress.setValue((int) (_numBytesRead / 1024L));
+		}
+	}
+}
@@ -0,0 +1,481 @@
+package tim.prune.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.BitSet;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Field;
+import tim.prune.data.FieldList;
+import tim.prune.data.MediaObject;
+import tim.prune.data.PointColumns;
+import tim.prune.data.PointCreateOptions;
+import tim.prune.data.Selection;
+import tim.prune.data.TrackInfo;
+import tim.prune.data.UnitSetLibrary;
+
+/**
+ * Binary snapshot of a working session, holding the points with all their fields,
+ * the links to their photos and audio clips, and the selection.
+ * The coordinates, altitudes and timestamps are stored as little-endian arrays,
+ * which are copied straight into the columns in large blocks instead of being parsed.
+ * The file isn't memory-mapped, as on Windows a mapping keeps the file locked until
+ * it's garbage collected, so the session couldn't be saved over the file it came from.
+ */
+public class SessionFile
+{
+	/** Columns of loaded points */
+	private PointColumns _columns = null;
+	/** Paths of media files for each point, or null */
+	private String[] _mediaLinks = null;
+	/** Selected point index, or -1 */
+	private int _currentPoint = -1;
+	/** Start and end of selected range, or -1 */
+	private int _rangeStart = -1, _rangeEnd = -1;
+
+	/** File extension used for session files */
+	public static final String FILE_EXTENSION = "gpsprune";
+	/** Identifier at the start of each file */
+	private static final long FILE_MAGIC = 0x454e555253505047L; // "GPSPRUNE" in little-endian
+	/** Version of the file format */
+	private static final int FORMAT_VERSION = 1;
+	/** Size of the fixed header, keeping the following arrays aligned */
+	private static final int HEADER_SIZE = 24;
+	/** Built-in fields, stored by their index so that the language doesn't matter */
+	private static final Field[] BUILT_IN_FIELDS = {Field.LATITUDE, Field.LONGITUDE, Field.ALTITUDE,
+		Field.TIMESTAMP, Field.WAYPT_NAME, Field.WAYPT_TYPE, Field.DESCRIPTION, Field.COMMENT,
+		Field.NEW_SEGMENT, Field.SPEED, Field.VERTICAL_SPEED, Field.MEDIA_FILENAME};
+	/** Size of buffer used for writing */
+	private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+	/** Size of buffer used for reading the columns, a multiple of 8 */
+	private static final int READ_BUFFER_SIZE = 1024 * 1024;
+
+
+	/**
+	 * Private constructor, use read() to create
+	 */
+	private SessionFile() {}
+
+	/** @return columns of loaded points */
+	public PointColumns getPointColumns() {
+		return _columns;
+	}
+
+	/** @return paths to media files, one for each point (or null) */
+	public String[] getMediaLinks() {
+		return _mediaLinks;
+	}
+
+	/** @return index of selected point, or -1 */
+	public int getCurrentPointIndex() {
+		return _currentPoint;
+	}
+
+	/** @return start of selected range, or -1 */
+	public int getRangeStart() {
+		return _rangeStart;
+	}
+
+	/** @return end of selected range, or -1 */
+	public int getRangeEnd() {
+		return _rangeEnd;
+	}
+
+
+	/**
+	 * Write the current state of the given track info to file
+	 * @param inTrackInfo track info to save
+	 * @param inFile file to write to
+	 * @return number of points written
+	 * @throws IOException if the file couldn't be written
+	 */
+	public static int write(TrackInfo inTrackInfo, File inFile) throws IOException
+	{
+		final PointColumns columns = PointColumns.fromTrack(inTrackInfo.getTrack());
+		final int numRows = columns.getNumRows();
+		FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.WRITE,
+			StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+		try
+		{
+			ByteBuffer buffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putLong(FILE_MAGIC);
+			buffer.putInt(FORMAT_VERSION);
+			buffer.putInt(numRows);
+			buffer.putInt(columns.getOptions().getAltitudeUnits() == UnitSetLibrary.UNITS_FEET ? 1 : 0);
+			buffer.putInt(0); // unused, for alignment
+			// Numeric columns
+			for (int i=0; i<numRows; i++) {
+				buffer = ensureSpace(channel, buffer, 8).putDouble(columns.getLatitude(i));
+			}
+			for (int i=0; i<numRows; i++) {
+				buffer = ensureSpace(channel, buffer, 8).putDouble(columns.getLongitude(i));
+			}
+			for (int i=0; i<numRows; i++) {
+				buffer = ensureSpace(channel, buffer, 8).putDouble(columns.getAltitude(i));
+			}
+			for (int i=0; i<numRows; i++) {
+				buffer = ensureSpace(channel, buffer, 8).putLong(columns.getTimestamp(i));
+			}
+			BitSet segmentStarts = new BitSet(numRows);
+			for (int i=0; i<numRows; i++) {
+				segmentStarts.set(i, columns.getSegmentStart(i));
+			}
+			final long[] segmentWords = segmentStarts.toLongArray();
+			buffer = ensureSpace(channel, buffer, 4).putInt(segmentWords.length);
+			for (long word : segmentWords) {
+				buffer = ensureSpace(channel, buffer, 8).putLong(word);
+			}
+			// Field list and the other fields, as sparse columns of Strings
+			final FieldList fields = columns.getFieldList();
+			buffer = ensureSpace(channel, buffer, 4).putInt(fields.getNumFields());
+			for (int f=0; f<fields.getNumFields(); f++)
+			{
+				final Field field = fields.getField(f);
+				final int builtInIndex = getBuiltInIndex(field);
+				buffer = ensureSpace(channel, buffer, 4).putInt(builtInIndex);
+				if (builtInIndex < 0) {
+					buffer = putString(channel, buffer, field.getName());
+				}
+				// Numeric fields are held in the arrays, apart from timestamps which couldn't be parsed
+				if (PointColumns.isNumericField(field) && field != Field.TIMESTAMP)
+				{
+					buffer = ensureSpace(channel, buffer, 4).putInt(0);
+					continue;
+				}
+				String[] values = new String[numRows];
+				for (int i=0; i<numRows; i++)
+				{
+					if (field != Field.TIMESTAMP || !columns.hasTimestamp(i)) {
+						values[i] = columns.getValue(i, f);
+					}
+				}
+				buffer = putSparseStrings(channel, buffer, values);
+			}
+			// Links to media
+			String[] mediaLinks = new String[numRows];
+			for (int i=0; i<numRows; i++) {
+				mediaLinks[i] = getMediaLink(inTrackInfo.getTrack().getPoint(i));
+			}
+			buffer = putSparseStrings(channel, buffer, mediaLinks);
+			// Selection
+			final Selection selection = inTrackInfo.getSelection();
+			buffer = ensureSpace(channel, buffer, 12);
+			buffer.putInt(selection.getCurrentPointIndex());
+			buffer.putInt(selection.hasRangeSelected() ? selection.getStart() : -1);
+			buffer.putInt(selection.hasRangeSelected() ? selection.getEnd() : -1);
+			flush(channel, buffer);
+		}
+		finally {
+			channel.close();
+		}
+		return numRows;
+	}
+
+	/**
+	 * @param inPoint data point
+	 * @return path of the photo or audio file attached to the point, or null
+	 */
+	private static String getMediaLink(DataPoint inPoint)
+	{
+		MediaObject media = inPoint.getPhoto();
+		if (media == null || media.getFile() == null) {
+			media = inPoint.getAudio();
+		}
+		if (media == null || media.getFile() == null) {
+			return null;
+		}
+		return media.getFile().getAbsolutePath();
+	}
+
+	/**
+	 * @param inField field
+	 * @return index of the field in the built-in list, or -1 if it's a custom field
+	 */
+	private static int getBuiltInIndex(Field inField)
+	{
+		for (int i=0; i<BUILT_IN_FIELDS.length; i++)
+		{
+			if (BUILT_IN_FIELDS[i] == inField) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Write out the buffer if there isn't enough space left in it
+	 * @return the buffer, ready for more data
+	 */
+	private static ByteBuffer ensureSpace(FileChannel inChannel, ByteBuffer inBuffer, int inNumBytes)
+		throws IOException
+	{
+		if (inBuffer.remaining() < inNumBytes) {
+			flush(inChannel, inBuffer);
+		}
+		return inBuffer;
+	}
+
+	/**
+	 * Write out the contents of the buffer and clear it
+	 */
+	private static void flush(FileChannel inChannel, ByteBuffer inBuffer) throws IOException
+	{
+		inBuffer.flip();
+		while (inBuffer.hasRemaining()) {
+			inChannel.write(inBuffer);
+		}
+		inBuffer.clear();
+	}
+
+	/**
+	 * Write a String as its length followed by its bytes in UTF-8
+	 */
+	private static ByteBuffer putString(FileChannel inChannel, ByteBuffer inBuffer, String inValue)
+		throws IOException
+	{
+		final byte[] bytes = inValue.getBytes(StandardCharsets.UTF_8);
+		ensureSpace(inChannel, inBuffer, 4).putInt(bytes.length);
+		int offset = 0;
+		while (offset < bytes.length)
+		{
+			if (!inBuffer.hasRemaining()) {
+				flush(inChannel, inBuffer);
+			}
+			final int numBytes = Math.min(inBuffer.remaining(), bytes.length - offset);
+			inBuffer.put(bytes, offset, numBytes);
+			offset += numBytes;
+		}
+		return inBuffer;
+	}
+
+	/**
+	 * Write the non-null values of the array as pairs of row index and value
+	 */
+	private static ByteBuffer putSparseStrings(FileChannel inChannel, ByteBuffer inBuffer, String[] inValues)
+		throws IOException
+	{
+		int numValues = 0;
+		for (String value : inValues)
+		{
+			if (value != null) {
+				numValues++;
+			}
+		}
+		ensureSpace(inChannel, inBuffer, 4).putInt(numValues);
+		for (int i=0; i<inValues.length; i++)
+		{
+			if (inValues[i] != null)
+			{
+				ensureSpace(inChannel, inBuffer, 4).putInt(i);
+				putString(inChannel, inBuffer, inValues[i]);
+			}
+		}
+		return inBuffer;
+	}
+
+
+	/**
+	 * Read the given session file
+	 * @param inFile file to read
+	 * @return contents of the file
+	 * @throws IOException if the file couldn't be read or isn't a session file
+	 */
+	public static SessionFile read(File inFile) throws IOException
+	{
+		FileChannel channel = FileChannel.open(inFile.toPath(), StandardOpenOption.READ);
+		try
+		{
+			ByteBuffer header = readBlock(channel, 0L, HEADER_SIZE);
+			if (header.getLong() != FILE_MAGIC || header.getInt() != FORMAT_VERSION) {
+				throw new IOException("Not a session file");
+			}
+			final int numRows = header.getInt();
+			final boolean altitudesInFeet = (header.getInt() == 1);
+			if (numRows < 0) {
+				throw new IOException("Invalid number of points: " + numRows);
+			}
+			// Copy the numeric columns straight from the file
+			final long columnSize = 8L * numRows;
+			if (HEADER_SIZE + 4 * columnSize > channel.size()) {
+				throw new IOException("Session file is truncated");
+			}
+			long position = HEADER_SIZE;
+			ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+			final double[] latitudes = new double[numRows];
+			readDoubles(channel, position, latitudes, readBuffer);
+			position += columnSize;
+			final double[] longitudes = new double[numRows];
+			readDoubles(channel, position, longitudes, readBuffer);
+			position += columnSize;
+			final double[] altitudes = new double[numRows];
+			readDoubles(channel, position, altitudes, readBuffer);
+			position += columnSize;
+			final long[] timestamps = new long[numRows];
+			readLongs(channel, position, timestamps, readBuffer);
+			position += columnSize;
+
+			// The rest of the file holds the segments, fields, media links and selection
+			final long restSize = channel.size() - position;
+			if (restSize < 0L || restSize > Integer.MAX_VALUE) {
+				throw new IOException("Invalid session file size");
+			}
+			ByteBuffer buffer = readBlock(channel, position, (int) restSize);
+			final long[] segmentWords = new long[buffer.getInt()];
+			buffer.asLongBuffer().get(segmentWords);
+			buffer.position(buffer.position() + 8 * segmentWords.length);
+			final BitSet segmentStarts = BitSet.valueOf(segmentWords);
+
+			final int numFields = buffer.getInt();
+			final Field[] fields = new Field[numFields];
+			final String[][] values = new String[numFields][];
+			for (int f=0; f<numFields; f++)
+			{
+				final int builtInIndex = buffer.getInt();
+				if (builtInIndex >= BUILT_IN_FIELDS.length) {
+					throw new IOException("Invalid field: " + builtInIndex);
+				}
+				fields[f] = (builtInIndex < 0 ? new Field(getString(buffer)) : BUILT_IN_FIELDS[builtInIndex]);
+				values[f] = getSparseStrings(buffer, numRows);
+			}
+			PointCreateOptions options = new PointCreateOptions();
+			if (altitudesInFeet) {
+				options.setAltitudeUnits(UnitSetLibrary.UNITS_FEET);
+			}
+			SessionFile session = new SessionFile();
+			session._columns = new PointColumns(new FieldList(fields), options,
+				latitudes, longitudes, altitudes, timestamps, segmentStarts);
+			for (int f=0; f<numFields; f++)
+			{
+				if (values[f] != null && fields[f] == Field.TIMESTAMP) {
+					session._columns.setTimestampTexts(values[f]);
+				}
+				else if (values[f] != null) {
+					session._columns.setValues(fields[f], values[f]);
+				}
+			}
+			session._mediaLinks = getSparseStrings(buffer, numRows);
+			session._currentPoint = buffer.getInt();
+			session._rangeStart = buffer.getInt();
+			session._rangeEnd = buffer.getInt();
+			return session;
+		}
+		catch (RuntimeException e) {
+			// Buffer underflows and invalid indexes mean the file is corrupt
+			throw new IOException("Invalid session file: " + e.getClass().getName());
+		}
+		finally {
+			channel.close();
+		}
+	}
+
+	/**
+	 * Read the given part of the file into a new buffer
+	 * @return little-endian buffer ready for reading
+	 */
+	private static ByteBuffer readBlock(FileChannel inChannel, long inPosition, int inSize) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(inSize).order(ByteOrder.LITTLE_ENDIAN);
+		readFully(inChannel, inPosition, buffer);
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Fill the remaining space of the buffer from the file
+	 * @param inChannel file channel
+	 * @param inPosition position in file to read from
+	 * @param inBuffer buffer to fill
+	 */
+	private static void readFully(FileChannel inChannel, long inPosition, ByteBuffer inBuffer) throws IOException
+	{
+		long position = inPosition;
+		while (inBuffer.hasRemaining())
+		{
+			final int numRead = inChannel.read(inBuffer, position);
+			if (numRead < 0) {
+				throw new IOException("Session file is truncated");
+			}
+			position += numRead;
+		}
+	}
+
+	/**
+	 * Read an array of doubles from the file, a block at a time
+	 * @param inChannel file channel
+	 * @param inPosition position of first value in file
+	 * @param inValues array to fill
+	 * @param inBuffer buffer to use for reading
+	 */
+	private static void readDoubles(FileChannel inChannel, long inPosition, double[] inValues, ByteBuffer inBuffer)
+		throws IOException
+	{
+		int index = 0;
+		while (index < inValues.length)
+		{
+			final int numValues = Math.min(inValues.length - index, inBuffer.capacity() / 8);
+			inBuffer.clear();
+			inBuffer.limit(numValues * 8);
+			readFully(inChannel, inPosition + 8L * index, inBuffer);
+			inBuffer.flip();
+			inBuffer.asDoubleBuffer().get(inValues, index, numValues);
+			index += numValues;
+		}
+	}
+
+	/**
+	 * Read an array of longs from the file, a block at a time
+	 * @param inChannel file channel
+	 * @param inPosition position of first value in file
+	 * @param inValues array to fill
+	 * @param inBuffer buffer to use for reading
+	 */
+	private static void readLongs(FileChannel inChannel, long inPosition, long[] inValues, ByteBuffer inBuffer)
+		throws IOException
+	{
+		int index = 0;
+		while (index < inValues.length)
+		{
+			final int numValues = Math.min(inValues.length - index, inBuffer.capacity() / 8);
+			inBuffer.clear();
+			inBuffer.limit(numValues * 8);
+			readFully(inChannel, inPosition + 8L * index, inBuffer);
+			inBuffer.flip();
+			inBuffer.asLongBuffer().get(inValues, index, numValues);
+			index += numValues;
+		}
+	}
+
+	/**
+	 * Read a String written by putString
+	 */
+	private static String getString(ByteBuffer inBuffer)
+	{
+		byte[] bytes = new byte[inBuffer.getInt()];
+		inBuffer.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Read the values written by putSparseStrings
+	 * @return array of values, or null if there weren't any
+	 */
+	private static String[] getSparseStrings(ByteBuffer inBuffer, int inNumRows)
+	{
+		final int numValues = inBuffer.getInt();
+		if (numValues == 0) {
+			return null;
+		}
+		String[] values = new String[inNumRows];
+		for (int i=0; i<numValues; i++)
+		{
+			final int row = inBuffer.getInt();
+			values[row] = getString(inBuffer);
+		}
+		return values;
+	}
+}
@@ -0,0 +1,72 @@
+package tim.prune.load;
+
+import java.io.File;
+import java.io.IOException;
+
+import tim.prune.App;
+import tim.prune.DataSubscriber;
+import tim.prune.UpdateMessageBroker;
+import tim.prune.data.PointColumns;
+import tim.prune.data.SourceInfo;
+import tim.prune.data.TrackInfo;
+
+/**
+ * Class to handle the loading of session files saved by the SessionSaver
+ */
+public class SessionLoader
+{
+	/** App for callback of file loading */
+	private App _app = null;
+
+
+	/**
+	 * Constructor
+	 * @param inApp App object
+	 */
+	public SessionLoader(App inApp)
+	{
+		_app = inApp;
+	}
+
+	/**
+	 * Open the selected file
+	 * @param inFile File to open
+	 */
+	public void openFile(File inFile)
+	{
+		SessionFile session = null;
+		try {
+			session = SessionFile.read(inFile);
+		}
+		catch (IOException ioe)
+		{
+			_app.showErrorMessage("error.load.dialogtitle", "error.load.noread");
+			_app.informNoDataLoaded();
+			return;
+		}
+		final PointColumns columns = session.getPointColumns();
+		final String[] mediaLinks = session.getMediaLinks();
+		_app.informDataLoaded(columns, new SourceInfo(inFile, SourceInfo.FILE_TYPE.SESSION), null,
+			mediaLinks == null ? null : new MediaLinkInfo(mediaLinks));
+		restoreSelection(session);
+	}
+
+	/**
+	 * Restore the selection saved in the session, if the loaded points replaced the previous ones
+	 * @param inSession loaded session
+	 */
+	private void restoreSelection(SessionFile inSession)
+	{
+		TrackInfo trackInfo = _app.getTrackInfo();
+		if (trackInfo.getTrack().getNumPoints() != inSession.getPointColumns().getNumRows()) {
+			return;
+		}
+		if (inSession.getRangeStart() >= 0) {
+			trackInfo.getSelection().selectRange(inSession.getRangeStart(), inSession.getRangeEnd());
+		}
+		if (inSession.getCurrentPointIndex() >= 0) {
+			trackInfo.selectPoint(inSession.getCurrentPointIndex());
+		}
+		UpdateMessageBroker.informSubscribers(DataSubscriber.SELECTION_CHANGED);
+	}
+}
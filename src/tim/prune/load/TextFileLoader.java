@@ -18,15 +18,18 @@ import javax.swing.event.ListSelectionListener;
 import javax.swing.table.TableCellEditor;
 
 import java.io.File;
+import java.io.IOException;
 
 import tim.prune.App;
 import tim.prune.I18nManager;
 import tim.prune.data.Field;
+import tim.prune.data.PointColumns;
 import tim.prune.data.PointCreateOptions;
 import tim.prune.data.SourceInfo;
 import tim.prune.data.Unit;
 import tim.prune.data.UnitSetLibrary;
 import tim.prune.gui.GuiGridLayout;
+import tim.prune.gui.ProgressDialog;
 import tim.prune.gui.WizardLayout;
 
 
@@ -559,8 +562,13 @@ public class TextFileLoader
 				else
 				{
 					fields = _delimiterInfos[i].getMaxFields();
-					_statusLabel.setText("" + numRecords + " " + I18nManager.getText("dialog.openoptions.deliminfo.records")
-						+ " " + fields + " " + I18nManager.getText("dialog.openoptions.deliminfo.fields"));
+					String status = "" + numRecords + " " + I18nManager.getText("dialog.openoptions.deliminfo.records")
+						+ " " + fields + " " + I18nManager.getText("dialog.openoptions.deliminfo.fields");
+					// Counts only come from the start of a long file
+					if (_contentCacher.isTruncated()) {
+						status += " " + I18nManager.getText("dialog.openoptions.deliminfo.sample");
+					}
+					_statusLabel.setText(status);
 				}
 			}
 		}
@@ -697,15 +705,57 @@ public class TextFileLoader
 		Unit vSpeedUnit = UnitSetLibrary.ALL_SPEED_UNITS[_vSpeedUnitsDropdown.getSelectedIndex()];
 		options.setVerticalSpeedUnits(vSpeedUnit, _vSpeedUpwardsRadio.isSelected());
 
-		// give data to App
-		_app.informDataLoaded(_fieldTableModel.getFieldArray(),
-			_fileExtractTableModel.getData(), options, sourceInfo, null);
+		if (_file == null)
+		{
+			// give pasted data to App
+			_app.informDataLoaded(_fieldTableModel.getFieldArray(),
+				_fileExtractTableModel.getData(), options, sourceInfo, null);
+		}
+		else {
+			// Only a sample of the file was cached, so parse the whole file
+			parseFile(new TextFileParser(_currentDelimiter, _fieldTableModel.getFieldArray(), options), sourceInfo);
+		}
 		// clear up file cacher
 		_contentCacher.clear();
 		// dispose of dialog
 		_dialog.dispose();
 	}
 
+	/**
+	 * Parse the whole file in a separate thread and pass the points to the App
+	 * @param inParser parser set up with the selected fields and options
+	 * @param inSourceInfo information about the source file
+	 */
+	private void parseFile(final TextFileParser inParser, final SourceInfo inSourceInfo)
+	{
+		final File file = _file;
+		final ProgressDialog progress = new ProgressDialog(_parentFrame, "function.open");
+		progress.show();
+		new Thread(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					PointColumns columns = inParser.parseFile(file, progress);
+					progress.dispose();
+					if (columns == null) {
+						_app.informNoDataLoaded();
+					}
+					else {
+						_app.informDataLoaded(columns, inSourceInfo, null, null);
+					}
+				}
+				catch (IOException ioe)
+				{
+					progress.dispose();
+					_app.showErrorMessageNoLookup("error.load.dialogtitle",
+						I18nManager.getText("error.load.noread") + ": " + ioe.getMessage());
+					_app.informNoDataLoaded();
+				}
+			}
+		}).start();
+	}
+
 	/**
 	 * @return true if the inputs on the current tab are valid, user is allowed to proceed
 	 */
@@ -0,0 +1,353 @@
+package tim.prune.load;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+import tim.prune.data.Field;
+import tim.prune.data.FieldList;
+import tim.prune.data.Latitude;
+import tim.prune.data.Longitude;
+import tim.prune.data.PointColumns;
+import tim.prune.data.PointCreateOptions;
+import tim.prune.data.TimestampUtc;
+import tim.prune.gui.ProgressDialog;
+
+/**
+ * Class to parse a whole delimited text file into point columns.
+ * The file is split into chunks at line boundaries, then the chunks are read
+ * and parsed in parallel and joined together in order,
+ * so the lines of the file are never all held as Strings.
+ * The file isn't memory-mapped, so that it isn't locked on Windows
+ * and the data can be exported over the same file afterwards.
+ */
+public class TextFileParser
+{
+	/** Delimiter between fields */
+	private char _delimiter = ',';
+	/** Fields selected for each column of the file */
+	private Field[] _fields = null;
+	/** Creation options such as units */
+	private PointCreateOptions _options = null;
+	/** Progress dialog, or null */
+	private ProgressDialog _progress = null;
+	/** Number of chunks finished so far */
+	private int _numChunksDone = 0;
+	/** Approximate size of each chunk in bytes */
+	private int _chunkSize = CHUNK_SIZE;
+
+	/** Default size of each chunk in bytes */
+	private static final int CHUNK_SIZE = 8 * 1024 * 1024;
+
+
+	/**
+	 * Task to parse a single chunk of the file
+	 */
+	private class ChunkTask extends RecursiveTask<PointColumns>
+	{
+		private final FileChannel _channel;
+		private final long _start, _end;
+
+		/** Constructor */
+		private ChunkTask(FileChannel inChannel, long inStart, long inEnd)
+		{
+			_channel = inChannel;
+			_start = inStart;
+			_end = inEnd;
+		}
+
+		/** Read the chunk and parse its lines */
+		protected PointColumns compute()
+		{
+			if (_progress != null && _progress.isCancelled()) {
+				return null;
+			}
+			try
+			{
+				ByteBuffer bytes = ByteBuffer.allocate((int) (_end - _start));
+				long position = _start;
+				while (bytes.hasRemaining())
+				{
+					final int numRead = _channel.read(bytes, position);
+					if (numRead < 0) {
+						break;
+					}
+					position += numRead;
+				}
+				bytes.flip();
+				PointColumns columns = parseChars(Charset.defaultCharset().decode(bytes));
+				chunkFinished();
+				return columns;
+			}
+			catch (IOException ioe) {
+				throw new RuntimeException(ioe);
+			}
+		}
+	}
+
+
+	/**
+	 * Constructor
+	 * @param inDelimiter delimiter between fields
+	 * @param inFields fields selected for each column
+	 * @param inOptions creation options such as units
+	 */
+	public TextFileParser(char inDelimiter, Field[] inFields, PointCreateOptions inOptions)
+	{
+		_delimiter = inDelimiter;
+		_fields = inFields;
+		_options = inOptions;
+	}
+
+	/**
+	 * @param inChunkSize approximate size of each chunk in bytes
+	 */
+	void setChunkSize(int inChunkSize)
+	{
+		_chunkSize = inChunkSize;
+	}
+
+	/**
+	 * Parse the given file
+	 * @param inFile file to parse
+	 * @param inProgress progress dialog to update, or null
+	 * @return columns of all the points, or null if cancelled
+	 * @throws IOException if the file couldn't be read
+	 */
+	public PointColumns parseFile(File inFile, ProgressDialog inProgress) throws IOException
+	{
+		_progress = inProgress;
+		_numChunksDone = 0;
+		RandomAccessFile raf = new RandomAccessFile(inFile, "r");
+		try
+		{
+			FileChannel channel = raf.getChannel();
+			ArrayList<ChunkTask> tasks = new ArrayList<ChunkTask>();
+			final long fileSize = channel.size();
+			long start = 0L;
+			while (start < fileSize)
+			{
+				final long end = findLineStart(channel, start + _chunkSize, fileSize);
+				tasks.add(new ChunkTask(channel, start, end));
+				start = end;
+			}
+			if (_progress != null) {
+				_progress.setMaximum(tasks.size());
+			}
+			// Run the tasks on the common fork-join pool, then join the results in order
+			ForkJoinTask.invokeAll(tasks);
+			PointColumns result = new PointColumns(new FieldList(_fields), _options);
+			for (ChunkTask task : tasks)
+			{
+				PointColumns chunk = task.join();
+				if (chunk == null) {
+					return null; // cancelled
+				}
+				result.append(chunk);
+			}
+			result.trimToSize();
+			return result;
+		}
+		catch (RuntimeException re)
+		{
+			// Pass on the read error from whichever chunk failed
+			for (Throwable cause = re.getCause(); cause != null; cause = cause.getCause())
+			{
+				if (cause instanceof IOException) {
+					throw (IOException) cause;
+				}
+			}
+			throw re;
+		}
+		finally {
+			raf.close();
+		}
+	}
+
+	/**
+	 * Find the start of the first line at or after the given position
+	 * @param inChannel file channel
+	 * @param inPosition position to start looking from
+	 * @param inFileSize size of file
+	 * @return position after the next \r or \n, or the file size
+	 */
+	private static long findLineStart(FileChannel inChannel, long inPosition, long inFileSize)
+		throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long position = inPosition;
+		while (position < inFileSize)
+		{
+			buffer.clear();
+			final int numRead = inChannel.read(buffer, position);
+			if (numRead <= 0) {
+				break;
+			}
+			for (int i=0; i<numRead; i++)
+			{
+				final byte b = buffer.get(i);
+				if (b == '\n' || b == '\r') {
+					return position + i + 1;
+				}
+			}
+			position += numRead;
+		}
+		return inFileSize;
+	}
+
+	/**
+	 * A chunk has been parsed, so move the progress bar on
+	 */
+	private synchronized void chunkFinished()
+	{
+		_numChunksDone++;
+		if (_progress != null) {
+			_progress.setValue(_numChunksDone);
+		}
+	}
+
+	/**
+	 * Parse all the lines in the given characters
+	 * @param inChars characters from the file
+	 * @return columns of points
+	 */
+	PointColumns parseChars(CharBuffer inChars)
+	{
+		PointColumns columns = new PointColumns(new FieldList(_fields), _options);
+		final char[] chars;
+		final int offset, length = inChars.remaining();
+		if (inChars.hasArray())
+		{
+			chars = inChars.array();
+			offset = inChars.arrayOffset() + inChars.position();
+		}
+		else
+		{
+			chars = new char[length];
+			inChars.get(chars);
+			offset = 0;
+		}
+		String[] values = new String[_fields.length];
+		int lineStart = offset;
+		final int end = offset + length;
+		while (lineStart < end)
+		{
+			int lineEnd = lineStart;
+			// Any of \r, \n or \r\n ends a line, the empty line between \r and \n is skipped
+			while (lineEnd < end && chars[lineEnd] != '\n' && chars[lineEnd] != '\r') {
+				lineEnd++;
+			}
+			parseLine(chars, lineStart, lineEnd, values, columns);
+			lineStart = lineEnd + 1;
+		}
+		return columns;
+	}
+
+	/**
+	 * Parse a single line and add its point to the columns
+	 * @param inChars characters from the file
+	 * @param inStart start of the line
+	 * @param inEnd end of the line, exclusive
+	 * @param inValues array to reuse for the values
+	 * @param inColumns columns to add to
+	 */
+	private void parseLine(char[] inChars, int inStart, int inEnd, String[] inValues, PointColumns inColumns)
+	{
+		final int end = inEnd;
+		// Skip blank lines
+		boolean blank = true;
+		for (int i=inStart; i<end && blank; i++) {
+			blank = Character.isWhitespace(inChars[i]);
+		}
+		if (blank) {
+			return;
+		}
+		// Split into values
+		int numValues = 0;
+		int valueStart = inStart;
+		for (int i=inStart; i<=end && numValues < inValues.length; i++)
+		{
+			if (i == end || inChars[i] == _delimiter)
+			{
+				inValues[numValues++] = removeQuotes(new String(inChars, valueStart, i - valueStart));
+				valueStart = i + 1;
+			}
+		}
+		double latitude = Double.NaN, longitude = Double.NaN, altitude = PointColumns.NO_ALTITUDE;
+		long timestamp = PointColumns.NO_TIMESTAMP;
+		String timestampText = null;
+		boolean segmentStart = false;
+		for (int f=0; f<numValues; f++)
+		{
+			final Field field = _fields[f];
+			final String value = inValues[f];
+			if (field == Field.LATITUDE)
+			{
+				Latitude lat = new Latitude(value);
+				if (lat.isValid()) {latitude = lat.getDouble();}
+			}
+			else if (field == Field.LONGITUDE)
+			{
+				Longitude lon = new Longitude(value);
+				if (lon.isValid()) {longitude = lon.getDouble();}
+			}
+			else if (field == Field.ALTITUDE)
+			{
+				try {
+					altitude = Double.parseDouble(value.trim());
+				}
+				catch (NumberFormatException nfe) {} // no altitude
+			}
+			else if (field == Field.TIMESTAMP)
+			{
+				TimestampUtc stamp = new TimestampUtc(value);
+				if (stamp.isValid()) {timestamp = stamp.getMilliseconds(null);}
+				else if (!value.equals("")) {timestampText = value;}
+			}
+			else if (field == Field.NEW_SEGMENT)
+			{
+				final String segment = value.trim();
+				segmentStart = segment.equals("1") || segment.equalsIgnoreCase("Y");
+			}
+		}
+		final int row = inColumns.addRow(latitude, longitude, altitude, timestamp, segmentStart);
+		if (timestampText != null) {
+			// Keep the text of a timestamp which couldn't be parsed
+			inColumns.setTimestampText(row, timestampText);
+		}
+		for (int f=0; f<numValues; f++)
+		{
+			final Field field = _fields[f];
+			if (field != null && field != Field.LATITUDE && field != Field.LONGITUDE && field != Field.ALTITUDE
+				&& field != Field.TIMESTAMP && field != Field.NEW_SEGMENT && !inValues[f].equals(""))
+			{
+				inColumns.setValue(row, field, inValues[f]);
+			}
+		}
+	}
+
+	/**
+	 * Remove the quotes around the given value, if any
+	 * @param inValue value from file
+	 * @return value without surrounding quotes
+	 */
+	private static String removeQuotes(String inValue)
+	{
+		final int len = inValue.length();
+		if (len > 1)
+		{
+			final char firstChar = inValue.charAt(0);
+			if (firstChar == inValue.charAt(len-1) && (firstChar == '\"' || firstChar == '\'')) {
+				return inValue.substring(1, len-1);
+			}
+		}
+		return inValue;
+	}
+}
@@ -1,16 +1,23 @@
 package tim.prune.load.xml;
 
 import java.util.ArrayList;
+import java.util.TimeZone;
 
 import org.xml.sax.Attributes;
 import org.xml.sax.SAXException;
 
 import tim.prune.data.Field;
+import tim.prune.data.Latitude;
+import tim.prune.data.Longitude;
+import tim.prune.data.PointColumns;
+import tim.prune.data.TimestampUtc;
 import tim.prune.load.TrackNameList;
 
 
 /**
- * Class for handling specifics of parsing Gpx files
+ * Class for handling specifics of parsing Gpx files.
+ * Each point is parsed as soon as it ends and added straight
+ * to the point columns, so the file contents aren't held as Strings.
  */
 public class GpxHandler extends XmlHandler
 {
@@ -26,10 +33,13 @@ public class GpxHandler extends XmlHandler
 	private GpxTag _type = new GpxTag(), _description = new GpxTag();
 	private GpxTag _link = new GpxTag(), _comment = new GpxTag();
 	private GpxTag _currentTag = null;
-	private ArrayList<String[]> _pointList = new ArrayList<String[]>();
-	private ArrayList<String> _linkList = new ArrayList<String>();
+	private PointColumns _columns = new PointColumns(null, null);
+	/** Links for each point, only filled once the first link is found */
+	private ArrayList<String> _linkList = null;
 	private TrackNameList _trackNameList = new TrackNameList();
 
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
 
 	/**
 	 * Receive the start of a tag
@@ -130,9 +140,9 @@ public class GpxHandler extends XmlHandler
 	public void characters(char[] ch, int start, int length)
 		throws SAXException
 	{
-		String value = new String(ch, start, length);
+		// Only make a String if it's needed, most characters are whitespace between tags
 		if (_currentTag != null) {
-			_currentTag.setValue(checkCharacters(_currentTag.getValue(), value));
+			_currentTag.setValue(checkCharacters(_currentTag.getValue(), new String(ch, start, length)));
 		}
 		super.characters(ch, start, length);
 	}
@@ -156,26 +166,90 @@ public class GpxHandler extends XmlHandler
 	 */
 	private void processPoint()
 	{
-		// Put the values into a String array matching the order in getFieldArray()
-		String[] values = new String[9];
-		values[0] = _latitude;
-		values[1] = _longitude;
-		values[2] = _elevation.getValue();
-		if (_insideWaypoint) {values[3] = _pointName.getValue();}
-		values[4] = _time.getValue();
-		if (_startSegment && !_insideWaypoint)
-		{
-			values[5] = "1";
+		final boolean startSegment = _startSegment && !_insideWaypoint;
+		if (startSegment) {
 			_startSegment = false;
 		}
-		values[6] = _type.getValue();
-		values[7] = _description.getValue();
-		values[8] = _comment.getValue();
-		_pointList.add(values);
+		final long timestamp = parseTimestamp(_time.getValue());
+		final int row = _columns.addRow(parseCoordinate(_latitude, true), parseCoordinate(_longitude, false),
+			parseAltitude(_elevation.getValue()), timestamp, startSegment);
+		if (timestamp == PointColumns.NO_TIMESTAMP) {
+			// Keep the text of a timestamp which couldn't be parsed
+			_columns.setTimestampText(row, _time.getValue());
+		}
+		if (_insideWaypoint) {_columns.setValue(row, Field.WAYPT_NAME, _pointName.getValue());}
+		_columns.setValue(row, Field.WAYPT_TYPE, _type.getValue());
+		_columns.setValue(row, Field.DESCRIPTION, _description.getValue());
+		_columns.setValue(row, Field.COMMENT, _comment.getValue());
 		_trackNameList.addPoint(_trackNum, _trackName.getValue(), _isTrackPoint);
-		_linkList.add(_link.getValue());
+		final String link = _link.getValue();
+		if (link != null && _linkList == null)
+		{
+			_linkList = new ArrayList<String>();
+			for (int i=0; i<row; i++) {
+				_linkList.add(null);
+			}
+		}
+		if (_linkList != null) {
+			_linkList.add(link);
+		}
+	}
+
+	/**
+	 * @param inValue value of lat or lon attribute
+	 * @param inIsLatitude true for latitude, false for longitude
+	 * @return coordinate in degrees, or NaN if not valid
+	 */
+	private static double parseCoordinate(String inValue, boolean inIsLatitude)
+	{
+		if (inValue == null) {
+			return Double.NaN;
+		}
+		try {
+			return Double.parseDouble(inValue.trim());
+		}
+		catch (NumberFormatException nfe) {}
+		// Not a plain number, so try the more general coordinate parsing
+		if (inIsLatitude)
+		{
+			Latitude latitude = new Latitude(inValue);
+			return latitude.isValid() ? latitude.getDouble() : Double.NaN;
+		}
+		Longitude longitude = new Longitude(inValue);
+		return longitude.isValid() ? longitude.getDouble() : Double.NaN;
+	}
+
+	/**
+	 * @param inValue value of ele tag
+	 * @return altitude in metres, or NO_ALTITUDE
+	 */
+	private static double parseAltitude(String inValue)
+	{
+		if (inValue != null)
+		{
+			try {
+				return Double.parseDouble(inValue.trim());
+			}
+			catch (NumberFormatException nfe) {}
+		}
+		return PointColumns.NO_ALTITUDE;
 	}
 
+	/**
+	 * @param inValue value of time tag
+	 * @return timestamp in milliseconds, or NO_TIMESTAMP
+	 */
+	private static long parseTimestamp(String inValue)
+	{
+		if (inValue != null)
+		{
+			TimestampUtc timestamp = new TimestampUtc(inValue.trim());
+			if (timestamp.isValid()) {
+				return timestamp.getMilliseconds(UTC);
+			}
+		}
+		return PointColumns.NO_TIMESTAMP;
+	}
 
 	/**
 	 * @see tim.prune.load.xml.XmlHandler#getFieldArray()
@@ -195,31 +269,37 @@ public class GpxHandler extends XmlHandler
 	 */
 	public String[][] getDataArray()
 	{
-		int numPoints = _pointList.size();
-		// construct data array
+		final Field[] fields = getFieldArray();
+		final int numPoints = _columns.getNumRows();
 		String[][] result = new String[numPoints][];
 		for (int i=0; i<numPoints; i++)
 		{
-			result[i] = _pointList.get(i);
+			result[i] = new String[fields.length];
+			for (int f=0; f<fields.length; f++) {
+				result[i][f] = _columns.getValue(i, fields[f]);
+			}
 		}
 		return result;
 	}
 
+	/**
+	 * @return the loaded points
+	 */
+	public PointColumns getPointColumns()
+	{
+		_columns.trimToSize();
+		return _columns;
+	}
+
 	/**
 	 * @return array of links, or null if none
 	 */
 	public String[] getLinkArray()
 	{
-		int numPoints = _linkList.size();
-		boolean hasLink = false;
-		String[] result = new String[numPoints];
-		for (int i=0; i<numPoints; i++)
-		{
-			result[i] = _linkList.get(i);
-			if (result[i] != null) {hasLink = true;}
+		if (_linkList == null) {
+			return null;
 		}
-		if (!hasLink) {result = null;}
-		return result;
+		return _linkList.toArray(new String[_linkList.size()]);
 	}
 
 	/**
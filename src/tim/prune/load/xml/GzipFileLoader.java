@@ -51,8 +51,7 @@ public class GzipFileLoader
 				// Send back to app
 				SourceInfo sourceInfo = new SourceInfo(inFile,
 					(handler instanceof GpxHandler?SourceInfo.FILE_TYPE.GPX:SourceInfo.FILE_TYPE.KML));
-				_app.informDataLoaded(handler.getFieldArray(), handler.getDataArray(),
-					null, sourceInfo, handler.getTrackNameList(),
+				_app.informDataLoaded(handler, sourceInfo,
 					new MediaLinkInfo(inFile, handler.getLinkArray()));
 			}
 		}
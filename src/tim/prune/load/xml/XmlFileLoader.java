@@ -3,7 +3,6 @@ package tim.prune.load.xml;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
-import java.io.IOException;
 import java.io.InputStream;
 
 import javax.xml.parsers.SAXParser;
@@ -19,7 +18,9 @@ import org.xml.sax.helpers.XMLReaderFactory;
 import tim.prune.App;
 import tim.prune.I18nManager;
 import tim.prune.data.SourceInfo;
+import tim.prune.gui.ProgressDialog;
 import tim.prune.load.MediaLinkInfo;
+import tim.prune.load.ProgressInputStream;
 
 /**
  * Class for handling loading of Xml files, and passing the
@@ -31,6 +32,11 @@ public class XmlFileLoader extends DefaultHandler implements Runnable
 	private App _app = null;
 	private XmlHandler _handler = null;
 	private String _unknownType = null;
+	/** Progress dialog for large files, or null */
+	private ProgressDialog _progress = null;
+
+	/** Size of file in bytes above which a progress dialog is shown */
+	private static final long PROGRESS_FILE_SIZE = 5L * 1024 * 1024;
 
 
 	/**
@@ -49,6 +55,7 @@ public class XmlFileLoader extends DefaultHandler implements Runnable
 	{
 		_handler = null;
 		_unknownType = null;
+		_progress = null;
 	}
 
 	/**
@@ -59,6 +66,11 @@ public class XmlFileLoader extends DefaultHandler implements Runnable
 	{
 		_file = inFile;
 		reset();
+		if (inFile.length() > PROGRESS_FILE_SIZE)
+		{
+			_progress = new ProgressDialog(_app.getFrame(), "function.open");
+			_progress.show();
+		}
 		// start new thread in case xml parsing is time-consuming
 		new Thread(this).start();
 	}
@@ -70,18 +82,31 @@ public class XmlFileLoader extends DefaultHandler implements Runnable
 	 */
 	public void run()
 	{
-		FileInputStream inStream = null;
+		InputStream inStream = null;
 		boolean success = false;
 		try
 		{
 			inStream = new FileInputStream(_file);
+			if (_progress != null) {
+				inStream = new ProgressInputStream(inStream, _progress, _file.length());
+			}
 			success = parseXmlStream(inStream);
 		}
 		catch (FileNotFoundException fnfe) {}
 
 		// Clean up the stream, don't need it any more
-		try {inStream.close();} catch (IOException e2) {}
+		try {inStream.close();} catch (Exception e2) {}
 
+		if (_progress != null)
+		{
+			_progress.dispose();
+			if (_progress.isCancelled())
+			{
+				_handler = null;
+				_app.informNoDataLoaded();
+				return;
+			}
+		}
 		if (success)
 		{
 			// Check whether handler was properly instantiated
@@ -98,8 +123,7 @@ public class XmlFileLoader extends DefaultHandler implements Runnable
 				sourceInfo.setFileTitle(_handler.getFileTitle());
 
 				// Pass information back to app
-				_app.informDataLoaded(_handler.getFieldArray(), _handler.getDataArray(),
-					null, sourceInfo, _handler.getTrackNameList(),
+				_app.informDataLoaded(_handler, sourceInfo,
 					new MediaLinkInfo(_handler.getLinkArray()));
 			}
 		}
@@ -123,6 +147,9 @@ public class XmlFileLoader extends DefaultHandler implements Runnable
 			success = true; // worked
 		}
 		catch (Exception e) {} // don't care too much if it didn't work, there's a backup
+		if (_progress != null && _progress.isCancelled()) {
+			return false;
+		}
 
 		// If that didn't work, try the built-in classes (which work for xml1.0 but handling for 1.1 contains bugs)
 		if (!success)
@@ -136,7 +163,10 @@ public class XmlFileLoader extends DefaultHandler implements Runnable
 			}
 			catch (Exception e)
 			{
-				// Show error dialog
+				// Show error dialog, unless the load was cancelled
+				if (_progress != null && _progress.isCancelled()) {
+					return false;
+				}
 				_app.showErrorMessageNoLookup("error.load.dialogtitle",
 					I18nManager.getText("error.load.othererror") + " " + e.getMessage());
 			}
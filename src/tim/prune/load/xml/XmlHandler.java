@@ -3,6 +3,7 @@ package tim.prune.load.xml;
 import org.xml.sax.helpers.DefaultHandler;
 
 import tim.prune.data.Field;
+import tim.prune.data.PointColumns;
 import tim.prune.load.TrackNameList;
 
 /**
@@ -21,6 +22,15 @@ public abstract class XmlHandler extends DefaultHandler
 	 */
 	public abstract Field[] getFieldArray();
 
+	/**
+	 * Can be overridden (eg by gpx handler) to provide the points already parsed,
+	 * in which case the data array isn't needed
+	 * @return point columns if any, or null
+	 */
+	public PointColumns getPointColumns() {
+		return null;
+	}
+
 	/**
 	 * Can be overridden (eg by gpx handler) to provide a track name list
 	 * @return track name list object if any, or null
@@ -67,8 +67,7 @@ public class ZipFileLoader
 							// Send back to app
 							SourceInfo sourceInfo = new SourceInfo(inFile,
 								(handler instanceof GpxHandler?SourceInfo.FILE_TYPE.GPX:SourceInfo.FILE_TYPE.KML));
-							_app.informDataLoaded(handler.getFieldArray(), handler.getDataArray(),
-								null, sourceInfo, handler.getTrackNameList(),
+							_app.informDataLoaded(handler, sourceInfo,
 								new MediaLinkInfo(inFile, handler.getLinkArray()));
 							xmlFound = true;
 						}
@@ -115,9 +114,8 @@ public class ZipFileLoader
 						else
 						{
 							// Send back to app
-							_app.informDataLoaded(handler.getFieldArray(), handler.getDataArray(),
-								new SourceInfo("gpsies", SourceInfo.FILE_TYPE.GPSIES),
-								handler.getTrackNameList());
+							_app.informDataLoaded(handler,
+								new SourceInfo("gpsies", SourceInfo.FILE_TYPE.GPSIES), null);
 							xmlFound = true;
 						}
 					}
@@ -24,6 +24,7 @@ import tim.prune.config.Config;
 import tim.prune.data.Track;
 import tim.prune.gui.map.MapSource;
 import tim.prune.gui.map.MapSourceLibrary;
+import tim.prune.gui.map.PackedTileStore;
 import tim.prune.threedee.ImageDefinition;
 
 /**
@@ -66,6 +67,11 @@ public class BaseImageConfigDialog implements Runnable
 	private boolean _rebuilding = false;
 	/** Cached values to allow cancellation of dialog */
 	private ImageDefinition _imageDef = new ImageDefinition();
+	/** Maximum size of image in pixels */
+	private int _maxImageSize = MapGrouter.MAX_IMAGE_SIZE;
+
+	/** Maximum size of the preview image, larger images are scaled down */
+	private static final int PREVIEW_MAX_SIZE = 1024;
 
 
 	/**
@@ -96,6 +102,14 @@ public class BaseImageConfigDialog implements Runnable
 		}
 	}
 
+	/**
+	 * @param inMaxSize maximum size of image in pixels, for exports which don't need the whole image in memory
+	 */
+	public void setMaxImageSize(int inMaxSize)
+	{
+		_maxImageSize = inMaxSize;
+	}
+
 	/**
 	 * Begin the function
 	 */
@@ -189,7 +203,7 @@ public class BaseImageConfigDialog implements Runnable
 				final int zoomFactor = 1 << i;
 				final int pixCount = (int) (xyExtent * zoomFactor * 256);
 				if (pixCount > 100      // less than this isn't worth it
-					&& pixCount < 4000  // don't want to run out of memory
+					&& pixCount < _maxImageSize  // don't want to run out of memory
 					&& isZoomAvailable(i, MapSourceLibrary.getSource(currentSource)))
 				{
 					_zoomDropdown.addItem("" + i);
@@ -248,16 +262,12 @@ public class BaseImageConfigDialog implements Runnable
 		if (!cacheDir.exists() || !cacheDir.isDirectory()) {
 			return false;
 		}
-		// First layer
-		File layer0 = new File(cacheDir, inSource.getSiteName(0) + inZoom);
-		if (!layer0.exists() || !layer0.isDirectory() || !layer0.canRead()) {
-			return false;
-		}
-		// Second layer, if any
-		if (inSource.getNumLayers() > 1)
+		// Each layer needs either a zoom directory or a packed file
+		for (int layer=0; layer<inSource.getNumLayers() && layer<2; layer++)
 		{
-			File layer1 = new File(cacheDir, inSource.getSiteName(1) + inZoom);
-			if (!layer1.exists() || !layer1.isDirectory() || !layer1.canRead()) {
+			File layerDir = new File(cacheDir, inSource.getSiteName(layer) + inZoom);
+			if ((!layerDir.exists() || !layerDir.isDirectory() || !layerDir.canRead())
+				&& !PackedTileStore.getPackFile(cacheDir, inSource, layer, inZoom).canRead()) {
 				return false;
 			}
 		}
@@ -461,7 +471,8 @@ public class BaseImageConfigDialog implements Runnable
 		MapSource mapSource = MapSourceLibrary.getSource(mapIndex);
 
 		// Use the Grouter to create an image (slow, blocks thread)
-		GroutedImage groutedImage = _grouter.createMapImage(_track, mapSource, getSelectedZoomLevel());
+		GroutedImage groutedImage = _grouter.createMapImage(_track, mapSource, getSelectedZoomLevel(),
+			false, PREVIEW_MAX_SIZE);
 
 		// If the dialog hasn't changed, pass the generated image to the preview panel
 		if (_useImageCheckbox.isSelected()
@@ -528,7 +539,7 @@ public class BaseImageConfigDialog implements Runnable
 		final int zoomFactor = 1 << _imageDef.getZoom();
 		final int pixCount = (int) (xyExtent * zoomFactor * 256);
 		return (pixCount > 100     // less than this isn't worth it
-			&& pixCount < 4000);   // don't want to run out of memory
+			&& pixCount < _maxImageSize);   // don't want to run out of memory
 	}
 
 	/**
@@ -554,7 +565,7 @@ public class BaseImageConfigDialog implements Runnable
 				final int mapIndex = _mapSourceDropdown.getSelectedIndex();
 				if (!_useImageCheckbox.isSelected() || mapIndex < 0) {return;}
 				MapSource mapSource = MapSourceLibrary.getSource(mapIndex);
-				grouter.createMapImage(_track, mapSource, getSelectedZoomLevel(), true);
+				grouter.createMapImage(_track, mapSource, getSelectedZoomLevel(), true, PREVIEW_MAX_SIZE);
 				_progressBar.setVisible(false);
 				// And then refresh the dialog
 				_grouter.clearMapImage();
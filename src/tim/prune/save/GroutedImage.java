@@ -14,6 +14,7 @@ public class GroutedImage
 	private BufferedImage _image = null;
 	private int   _numTilesFound = 0;
 	private int   _numTilesMissing = 0;
+	private int   _imageSize = -1;
 	private DoubleRange _xRange = null;
 	private DoubleRange _yRange = null;
 
@@ -24,10 +25,23 @@ public class GroutedImage
 	 * @param inTilesMissing number of tiles which could not be found
 	 */
 	public GroutedImage(BufferedImage inImage, int inTilesUsed, int inTilesMissing)
+	{
+		this(inImage, inTilesUsed, inTilesMissing, inImage == null ? -1 : inImage.getWidth());
+	}
+
+	/**
+	 * Constructor for an image which may have been scaled down
+	 * @param inImage image, or null if no image possible
+	 * @param inTilesUsed number of tiles used
+	 * @param inTilesMissing number of tiles which could not be found
+	 * @param inImageSize pixel size of the full image before any scaling
+	 */
+	public GroutedImage(BufferedImage inImage, int inTilesUsed, int inTilesMissing, int inImageSize)
 	{
 		_image = inImage;
 		_numTilesFound = inTilesUsed;
 		_numTilesMissing = inTilesMissing;
+		_imageSize = inImageSize;
 	}
 
 	/**
@@ -38,12 +52,12 @@ public class GroutedImage
 	}
 
 	/**
-	 * @return the pixel dimensions of the result image
+	 * @return the pixel dimensions of the result image, before any scaling
 	 */
 	public int getImageSize()
 	{
 		if (_image == null) {return -1;}
-		return _image.getWidth();
+		return _imageSize;
 	}
 
 	/**
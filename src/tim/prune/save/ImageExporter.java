@@ -6,11 +6,12 @@ import java.awt.Component;
 import java.awt.FlowLayout;
 import java.awt.Font;
 import java.awt.FontMetrics;
-import java.awt.Graphics;
+import java.awt.Graphics2D;
 import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.KeyAdapter;
 import java.awt.event.KeyEvent;
+import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
 
@@ -86,6 +87,7 @@ public class ImageExporter extends GenericFunction implements BaseImageConsumer
 			_dialog.getContentPane().add(makeDialogComponents());
 			_dialog.pack();
 			_textScaleField.setValue(100);
+			_baseImagePanel.setMaxImageSize(MapGrouter.MAX_STREAMED_IMAGE_SIZE);
 		}
 
 		// Check if there is a cache to use
@@ -250,192 +252,241 @@ public class ImageExporter extends GenericFunction implements BaseImageConsumer
 	 */
 	private boolean exportFile(File inPngFile)
 	{
-		// Get the image file from the grouter
+		// Get the image from the grouter, which is assembled in strips while it's being written
 		ImageDefinition imageDef = _baseImagePanel.getImageDefinition();
 		MapSource source = MapSourceLibrary.getSource(imageDef.getSourceIndex());
-		MapGrouter grouter = _baseImagePanel.getGrouter();
-		GroutedImage baseImage = grouter.getMapImage(_app.getTrackInfo().getTrack(), source,
-			imageDef.getZoom());
-		if (baseImage == null || !baseImage.isValid())
+		final Track track = _app.getTrackInfo().getTrack();
+		DataPainter painter = (_drawDataCheckbox.isSelected() ? new DataPainter() : null);
+		StripedMapImage baseImage = MapGrouter.createStripedImage(track, source, imageDef.getZoom(), painter);
+		if (baseImage == null)
 		{
 			_app.showErrorMessage(getNameKey(), "dialog.exportpov.cannotmakebaseimage");
 			return true;
 		}
+		if (painter != null) {
+			painter.init(baseImage, imageDef.getZoom());
+		}
 		try
 		{
-			if (_drawDataCheckbox.isSelected())
-			{
-				// Draw the track on top of this image
-				drawData(baseImage);
-			}
 			// Write composite image to file
-			if (!ImageIO.write(baseImage.getImage(), "png", inPngFile)) {
+			if (!ImageIO.write(baseImage, "png", inPngFile)) {
 				_app.showErrorMessage(getNameKey(), "dialog.exportpov.cannotmakebaseimage");
 				return false; // choose again - the image creation worked but the save failed
 			}
+			if (baseImage.getNumTilesUsed() == 0)
+			{
+				inPngFile.delete();
+				_app.showErrorMessage(getNameKey(), "dialog.exportpov.cannotmakebaseimage");
+			}
 		}
 		catch (IOException ioe) {
 			System.err.println("Can't write image: " + ioe.getClass().getName());
 		}
+		finally {
+			baseImage.close();
+		}
 		return true;
 	}
 
 	/**
-	 * Draw the track and waypoint data from the current Track onto the given image
-	 * @param inImage GroutedImage from map tiles
+	 * Class to draw the track and waypoint data from the current Track
+	 * onto each strip of the image
 	 */
-	private void drawData(GroutedImage inImage)
+	private class DataPainter implements MapStripPainter
 	{
-		// Work out x, y limits for drawing
-		DoubleRange xRange = inImage.getXRange();
-		DoubleRange yRange = inImage.getYRange();
-		final int zoomFactor = 1 << _baseImagePanel.getImageDefinition().getZoom();
-		Graphics g = inImage.getImage().getGraphics();
-		// TODO: Set line width, style etc
-		final PointColourer pointColourer = _app.getPointColourer();
-		final Color defaultPointColour = Config.getColourScheme().getColour(ColourScheme.IDX_POINT);
-		g.setColor(defaultPointColour);
+		private DoubleRange _xRange = null, _yRange = null;
+		private int _zoomFactor = 1;
+		private int _imageSize = 0;
+		private Track _track = null;
+		private PointColourer _pointColourer = null;
+		private Color _pointColour = null, _textColour = null, _photoColour = null;
+		private WpIconDefinition _wpIconDefinition = null;
+		private int _fontScalePercent = 0;
+		/** Pixel coordinates of each point */
+		private int[] _pixelXs = null, _pixelYs = null;
 
-		// Loop to draw all track points
-		final Track track = _app.getTrackInfo().getTrack();
-		final int numPoints = track.getNumPoints();
-		int prevX = 0, prevY = 0;
-		boolean gotPreviousPoint = false;
-		for (int i=0; i<numPoints; i++)
+		/**
+		 * Prepare for drawing on the given image
+		 * @param inImage striped image from map tiles
+		 * @param inZoom zoom level
+		 */
+		private void init(StripedMapImage inImage, int inZoom)
 		{
-			DataPoint point = track.getPoint(i);
-			if (!point.isWaypoint())
+			// Work out x, y limits for drawing
+			_xRange = inImage.getXRange();
+			_yRange = inImage.getYRange();
+			_zoomFactor = 1 << inZoom;
+			_imageSize = inImage.getWidth();
+			// TODO: Set line width, style etc
+			_pointColourer = _app.getPointColourer();
+			_pointColour = Config.getColourScheme().getColour(ColourScheme.IDX_POINT);
+			_textColour = Config.getColourScheme().getColour(ColourScheme.IDX_TEXT);
+			_photoColour = Config.getColourScheme().getColour(ColourScheme.IDX_SECONDARY);
+			final int wpType = Config.getConfigInt(Config.KEY_WAYPOINT_ICONS);
+			if (wpType != WpIconLibrary.WAYPT_DEFAULT)
 			{
-				// Determine what colour to use to draw the track point
-				if (pointColourer != null)
-				{
-					Color c = pointColourer.getColour(i);
-					g.setColor(c == null ? defaultPointColour : c);
-				}
-				double x = track.getX(i) - xRange.getMinimum();
-				double y = track.getY(i) - yRange.getMinimum();
-				// use zoom level to calculate pixel coords on image
-				int px = (int) (x * zoomFactor * 256), py = (int) (y * zoomFactor * 256);
-				// System.out.println("Point: x=" + x + ", px=" + px + ", y=" + y + ", py=" + py);
-				if (!point.getSegmentStart() && gotPreviousPoint) {
-					// draw from previous point to this one
-					g.drawLine(prevX, prevY, px, py);
-				}
-				// Only draw points if requested
-				if (_drawTrackPointsCheckbox.isSelected())
-				{
-					g.drawRect(px-2, py-2, 3, 3);
-				}
-				// save coordinates
-				prevX = px; prevY = py;
-				gotPreviousPoint = true;
+				_wpIconDefinition = WpIconLibrary.getIconDefinition(wpType, WpIconLibrary.SIZE_MEDIUM);
+			}
+			_fontScalePercent = _textScaleField.getValue();
+			// use zoom level to calculate pixel coords on image
+			_track = _app.getTrackInfo().getTrack();
+			final int numPoints = _track.getNumPoints();
+			_pixelXs = new int[numPoints];
+			_pixelYs = new int[numPoints];
+			for (int i=0; i<numPoints; i++)
+			{
+				double x = _track.getX(i) - _xRange.getMinimum();
+				double y = _track.getY(i) - _yRange.getMinimum();
+				_pixelXs[i] = (int) (x * _zoomFactor * 256);
+				_pixelYs[i] = (int) (y * _zoomFactor * 256);
 			}
 		}
 
-		// Now the waypoints
-		final Color textColour = Config.getColourScheme().getColour(ColourScheme.IDX_TEXT);
-		g.setColor(textColour);
-		WpIconDefinition wpIconDefinition = null;
-		final int wpType = Config.getConfigInt(Config.KEY_WAYPOINT_ICONS);
-		if (wpType != WpIconLibrary.WAYPT_DEFAULT)
+		/**
+		 * Draw the data onto the new strip, and the waypoint names of the points in it
+		 */
+		public void paintStrip(Graphics2D inGraphics, BufferedImage inWindow, int inWindowTop,
+			int inStripTop, int inStripBottom)
 		{
-			wpIconDefinition = WpIconLibrary.getIconDefinition(wpType, WpIconLibrary.SIZE_MEDIUM);
-		}
-		// Loop again to draw waypoints
-		for (int i=0; i<numPoints; i++)
-		{
-			DataPoint point = track.getPoint(i);
-			if (point.isWaypoint())
+			// Only draw the track and symbols inside the new strip, the previous one already has them
+			Graphics2D g = (Graphics2D) inGraphics.create();
+			g.clipRect(0, inStripTop, _imageSize, inStripBottom - inStripTop);
+			// Anything further from the strip than this can't overlap it
+			final int minY = inStripTop - 32, maxY = inStripBottom + 32;
+			g.setColor(_pointColour);
+
+			// Loop to draw all track points
+			final int numPoints = _track.getNumPoints();
+			int prevX = 0, prevY = 0;
+			boolean gotPreviousPoint = false;
+			for (int i=0; i<numPoints; i++)
 			{
-				// use zoom level to calculate pixel coords on image
-				double x = track.getX(i) - xRange.getMinimum();
-				double y = track.getY(i) - yRange.getMinimum();
-				int px = (int) (x * zoomFactor * 256), py = (int) (y * zoomFactor * 256);
-				// Fill Rect or draw icon image?
-				g.fillRect(px-3, py-3, 6, 6);
-				if (wpIconDefinition == null)
+				DataPoint point = _track.getPoint(i);
+				if (!point.isWaypoint())
 				{
-					g.fillRect(px-3, py-3, 6, 6);
+					final int px = _pixelXs[i], py = _pixelYs[i];
+					final boolean drawLine = !point.getSegmentStart() && gotPreviousPoint
+						&& Math.max(prevY, py) >= minY && Math.min(prevY, py) <= maxY;
+					final boolean drawPoint = _drawTrackPointsCheckbox.isSelected() && py >= minY && py <= maxY;
+					if (drawLine || drawPoint)
+					{
+						// Determine what colour to use to draw the track point
+						if (_pointColourer != null)
+						{
+							Color c = _pointColourer.getColour(i);
+							g.setColor(c == null ? _pointColour : c);
+						}
+						if (drawLine) {
+							// draw from previous point to this one
+							g.drawLine(prevX, prevY, px, py);
+						}
+						// Only draw points if requested
+						if (drawPoint) {
+							g.drawRect(px-2, py-2, 3, 3);
+						}
+					}
+					// save coordinates
+					prevX = px; prevY = py;
+					gotPreviousPoint = true;
 				}
-				else
+			}
+
+			// Now the waypoints
+			g.setColor(_textColour);
+			final int iconSize = (_wpIconDefinition == null ? 0 : _wpIconDefinition.getImageIcon().getIconHeight());
+			for (int i=0; i<numPoints; i++)
+			{
+				DataPoint point = _track.getPoint(i);
+				final int px = _pixelXs[i], py = _pixelYs[i];
+				if (point.isWaypoint() && py >= minY - iconSize && py <= maxY + iconSize)
 				{
-					g.drawImage(wpIconDefinition.getImageIcon().getImage(), px-wpIconDefinition.getXOffset(),
-						py-wpIconDefinition.getYOffset(), null);
+					// Fill Rect or draw icon image?
+					g.fillRect(px-3, py-3, 6, 6);
+					if (_wpIconDefinition == null)
+					{
+						g.fillRect(px-3, py-3, 6, 6);
+					}
+					else
+					{
+						g.drawImage(_wpIconDefinition.getImageIcon().getImage(), px-_wpIconDefinition.getXOffset(),
+							py-_wpIconDefinition.getYOffset(), null);
+					}
 				}
 			}
-		}
-		// Set text size according to input
-		int fontScalePercent = _textScaleField.getValue();
-		if (fontScalePercent > 0 && fontScalePercent <= 999)
-		{
-			Font gFont = g.getFont();
-			g.setFont(gFont.deriveFont((float) (gFont.getSize() * 0.01 * fontScalePercent)));
-		}
-		FontMetrics fm = g.getFontMetrics();
-		final int nameHeight = fm.getHeight();
-		final int imageSize = inImage.getImageSize();
 
-		// Loop over points again, draw photo points
-		final Color photoColour = Config.getColourScheme().getColour(ColourScheme.IDX_SECONDARY);
-		g.setColor(photoColour);
-		for (int i=0; i<numPoints; i++)
-		{
-			DataPoint point = track.getPoint(i);
-			if (point.hasMedia())
+			// Loop over points again, draw photo points
+			g.setColor(_photoColour);
+			for (int i=0; i<numPoints; i++)
 			{
-				// draw blob for each photo
-				double x = track.getX(i) - xRange.getMinimum();
-				double y = track.getY(i) - yRange.getMinimum();
-				// use zoom level to calculate pixel coords on image
-				int px = (int) (x * zoomFactor * 256), py = (int) (y * zoomFactor * 256);
-				g.fillRect(px-3, py-3, 6, 6);
+				DataPoint point = _track.getPoint(i);
+				if (point.hasMedia() && _pixelYs[i] >= minY && _pixelYs[i] <= maxY)
+				{
+					// draw blob for each photo
+					g.fillRect(_pixelXs[i]-3, _pixelYs[i]-3, 6, 6);
+				}
 			}
+			g.dispose();
+			drawWaypointNames(inGraphics, inWindow, inWindowTop, inStripTop, inStripBottom);
 		}
 
-		// Loop over points again, now draw names for waypoints
-		g.setColor(textColour);
-		for (int i=0; i<numPoints; i++)
+		/**
+		 * Draw the names of the waypoints in the new strip, where they don't obscure the track.
+		 * The names may extend into the previous strip but not past the end of the new one
+		 */
+		private void drawWaypointNames(Graphics2D inGraphics, BufferedImage inWindow, int inWindowTop,
+			int inStripTop, int inStripBottom)
 		{
-			DataPoint point = track.getPoint(i);
-			if (point.isWaypoint() && fontScalePercent > 0)
+			if (_fontScalePercent <= 0) {return;}
+			// Set text size according to input
+			Graphics2D g = (Graphics2D) inGraphics.create();
+			if (_fontScalePercent <= 999)
 			{
-				double x = track.getX(i) - xRange.getMinimum();
-				double y = track.getY(i) - yRange.getMinimum();
-				int px = (int) (x * zoomFactor * 256), py = (int) (y * zoomFactor * 256);
+				Font gFont = g.getFont();
+				g.setFont(gFont.deriveFont((float) (gFont.getSize() * 0.01 * _fontScalePercent)));
+			}
+			FontMetrics fm = g.getFontMetrics();
+			final int nameHeight = fm.getHeight();
+			final int minNameTop = Math.max(0, inWindowTop - 1);
+			final int maxNameBottom = Math.min(_imageSize, inStripBottom);
 
-				// Figure out where to draw waypoint name so it doesn't obscure track
-				String waypointName = point.getWaypointName();
-				int nameWidth = fm.stringWidth(waypointName);
-				boolean drawnName = false;
-				// Make arrays for coordinates right left up down
-				int[] nameXs = {px + 2, px - nameWidth - 2, px - nameWidth/2, px - nameWidth/2};
-				int[] nameYs = {py + (nameHeight/2), py + (nameHeight/2), py - 2, py + nameHeight + 2};
-				for (int extraSpace = 4; extraSpace < 13 && !drawnName; extraSpace+=2)
+			g.setColor(_textColour);
+			for (int i=0; i<_track.getNumPoints(); i++)
+			{
+				DataPoint point = _track.getPoint(i);
+				final int px = _pixelXs[i], py = _pixelYs[i];
+				if (point.isWaypoint() && py >= inStripTop && py < inStripBottom)
 				{
-					// Shift arrays for coordinates right left up down
-					nameXs[0] += 2; nameXs[1] -= 2;
-					nameYs[2] -= 2; nameYs[3] += 2;
-					// Check each direction in turn right left up down
-					for (int a=0; a<4; a++)
+					// Figure out where to draw waypoint name so it doesn't obscure track
+					String waypointName = point.getWaypointName();
+					int nameWidth = fm.stringWidth(waypointName);
+					boolean drawnName = false;
+					// Make arrays for coordinates right left up down
+					int[] nameXs = {px + 2, px - nameWidth - 2, px - nameWidth/2, px - nameWidth/2};
+					int[] nameYs = {py + (nameHeight/2), py + (nameHeight/2), py - 2, py + nameHeight + 2};
+					for (int extraSpace = 4; extraSpace < 13 && !drawnName; extraSpace+=2)
 					{
-						if (nameXs[a] > 0 && (nameXs[a] + nameWidth) < imageSize
-							&& nameYs[a] < imageSize && (nameYs[a] - nameHeight) > 0
-							&& !MapUtils.overlapsPoints(inImage.getImage(), nameXs[a], nameYs[a],
-								nameWidth, nameHeight, textColour))
+						// Shift arrays for coordinates right left up down
+						nameXs[0] += 2; nameXs[1] -= 2;
+						nameYs[2] -= 2; nameYs[3] += 2;
+						// Check each direction in turn right left up down
+						for (int a=0; a<4; a++)
 						{
-							// Found a rectangle to fit - draw name here and quit
-							g.drawString(waypointName, nameXs[a], nameYs[a]);
-							drawnName = true;
-							break;
+							if (nameXs[a] > 0 && (nameXs[a] + nameWidth) < _imageSize
+								&& nameYs[a] < maxNameBottom && (nameYs[a] - nameHeight) > minNameTop
+								&& !MapUtils.overlapsPoints(inWindow, nameXs[a], nameYs[a] - inWindowTop,
+									nameWidth, nameHeight, _textColour))
+							{
+								// Found a rectangle to fit - draw name here and quit
+								g.drawString(waypointName, nameXs[a], nameYs[a]);
+								drawnName = true;
+								break;
+							}
 						}
 					}
 				}
 			}
+			g.dispose();
 		}
-
-		// Maybe draw note at the bottom, export from GpsPrune?  Filename?
-		// Note: Differences from main map: No mapPosition (modifying position and visible points),
-		//       no selection, no opacities, maybe different scale/text factors
 	}
 
 	/**
@@ -446,7 +497,7 @@ public class ImageExporter extends GenericFunction implements BaseImageConsumer
 		final boolean useImage = _baseImagePanel.getImageDefinition().getUseImage();
 		final int zoomLevel = _baseImagePanel.getImageDefinition().getZoom();
 		final boolean okEnabled = useImage && _baseImagePanel.getFoundData()
-			&& MapGrouter.isZoomLevelOk(_app.getTrackInfo().getTrack(), zoomLevel);
+			&& MapGrouter.isZoomLevelOk(_app.getTrackInfo().getTrack(), zoomLevel, MapGrouter.MAX_STREAMED_IMAGE_SIZE);
 		_okButton.setEnabled(okEnabled);
 	}
 }
@@ -1,27 +1,31 @@
 package tim.prune.save;
 
-import tim.prune.data.DoubleRange;
 import tim.prune.data.Track;
 import tim.prune.data.TrackExtents;
 import tim.prune.gui.map.MapSource;
-import tim.prune.gui.map.MapTileManager;
-import tim.prune.gui.map.TileConsumer;
 
-import java.awt.Color;
-import java.awt.Graphics;
-import java.awt.Image;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
 
 
 /**
  * Class to handle the sticking together (grouting) of map tiles
  * to create a single map image for the current track
  */
-public class MapGrouter implements TileConsumer
+public class MapGrouter
 {
 	/** The most recently produced image */
 	private GroutedImage _lastGroutedImage = null;
 
+	/** Maximum size of images held completely in memory */
+	public static final int MAX_IMAGE_SIZE = 4000;
+	/** Maximum size of images which are assembled in strips while they're written */
+	public static final int MAX_STREAMED_IMAGE_SIZE = 40000;
+
 	/**
 	 * Clear the last image, it's not needed any more
 	 */
@@ -51,92 +55,97 @@ public class MapGrouter implements TileConsumer
 	 */
 	public GroutedImage createMapImage(Track inTrack, MapSource inMapSource, int inZoom, boolean inDownload)
 	{
-		// Get the extents of the track including a standard (10%) border around the data
-		TrackExtents extents = new TrackExtents(inTrack);
-		extents.applySquareBorder();
-		DoubleRange xRange = extents.getXRange();
-		DoubleRange yRange = extents.getYRange();
-
-		// Work out which tiles are required
-		final int zoomFactor = 1 << inZoom;
-		final int minTileX = (int) (xRange.getMinimum() * zoomFactor);
-		final int maxTileX = (int) (xRange.getMaximum() * zoomFactor);
-		final int minTileY = (int) (yRange.getMinimum() * zoomFactor);
-		final int maxTileY = (int) (yRange.getMaximum() * zoomFactor);
+		return createMapImage(inTrack, inMapSource, inZoom, inDownload, 0);
+	}
 
-		// Work out how big the final image will be, create a BufferedImage
-		final int pixCount = (int) (extents.getXRange().getRange() * zoomFactor * 256);
+	/**
+	 * Grout the required map tiles together according to the track's extent,
+	 * scaling the result down if it's too big
+	 * @param inTrack track object
+	 * @param inMapSource map source to use (may have one or two layers)
+	 * @param inZoom selected zoom level
+	 * @param inDownload true to download tiles, false to just pull from disk
+	 * @param inMaxSize maximum size of the result image in pixels, or 0 for no scaling
+	 * @return grouted image, or null if no image could be created
+	 */
+	public GroutedImage createMapImage(Track inTrack, MapSource inMapSource, int inZoom, boolean inDownload,
+		int inMaxSize)
+	{
+		final int pixCount = getImageSize(inTrack, inZoom);
 		if (pixCount < 2 || inZoom == 0) {return null;}
-		BufferedImage resultImage = new BufferedImage(pixCount, pixCount, BufferedImage.TYPE_INT_RGB);
-		Graphics g = resultImage.getGraphics();
-		g.setColor(Color.WHITE);
-		g.fillRect(0, 0, pixCount, pixCount);
-		// Work out where to start drawing the tiles on the image
-		int xOffset = (int) ((minTileX - xRange.getMinimum() * zoomFactor) * 256);
-
-		// Make a map tile manager to load (or download) the tiles
-		MapTileManager tileManager = new MapTileManager(this);
-		tileManager.setMapSource(inMapSource);
-		tileManager.enableTileDownloading(inDownload);
-		tileManager.setReturnIncompleteImages();
-		tileManager.setZoom(inZoom);
-
-		int numTilesUsed = 0;
-		int numTilesMissing = 0;
-
-		// Loop over the tiles
-		for (int x = minTileX; x <= maxTileX; x++)
+		StripedMapImage stripedImage = new StripedMapImage(inTrack, inMapSource, inZoom, inDownload, null);
+		BufferedImage resultImage = null;
+		try
 		{
-			int yOffset = (int) ((minTileY - yRange.getMinimum() * zoomFactor) * 256);
-			for (int y = minTileY; y <= maxTileY; y++)
+			if (inMaxSize <= 0 || pixCount <= inMaxSize)
 			{
-				for (int layer=0; layer < inMapSource.getNumLayers(); layer++)
-				{
-					Image tile = tileManager.getTile(layer, x, y, true);
-					// If we're downloading tiles, wait until the tile isn't null
-					int waitCount = 0;
-					while (tile == null && inDownload && waitCount < 3)
-					{
-						// System.out.println("wait " + waitCount + " for tile to be not null");
-						try {Thread.sleep(250);} catch (InterruptedException e) {}
-						tile = tileManager.getTile(layer, x, y, false); // don't request another download
-						waitCount++;
-					}
-					// See if there's a tile or not
-					if (tile != null)
-					{
-						// Wait until tile is available (loaded asynchronously)
-						while (tile.getWidth(null) < 0 && !inDownload)
-						{
-							try {
-								Thread.sleep(100);
-							}
-							catch (InterruptedException ie) {}
-						}
-						numTilesUsed++;
-						g.drawImage(tile, xOffset, yOffset, null);
-					}
-					else
-					{
-						// null tile, that means it's either not available or really slow to start downloading
-						numTilesMissing++;
-					}
-				}
-				yOffset += 256;
+				resultImage = new BufferedImage(pixCount, pixCount, BufferedImage.TYPE_INT_RGB);
+				stripedImage.copyData(resultImage.getRaster());
 			}
-			xOffset += 256;
+			else {
+				resultImage = makeScaledImage(stripedImage, inMaxSize);
+			}
+		}
+		finally {
+			stripedImage.close();
 		}
 		// Get rid of the image if it's empty
-		if (numTilesUsed == 0) {
+		if (stripedImage.getNumTilesUsed() == 0) {
 			resultImage = null;
 		}
 		// Store the xy limits in the GroutedImage to make it easier to draw on top
-		GroutedImage result = new GroutedImage(resultImage, numTilesUsed, numTilesMissing);
-		result.setXRange(xRange);
-		result.setYRange(yRange);
+		GroutedImage result = new GroutedImage(resultImage, stripedImage.getNumTilesUsed(),
+			stripedImage.getNumTilesMissing(), pixCount);
+		result.setXRange(stripedImage.getXRange());
+		result.setYRange(stripedImage.getYRange());
 		return result;
 	}
 
+	/**
+	 * Scale the given image down strip by strip
+	 * @param inImage full size image
+	 * @param inSize size of result image in pixels
+	 * @return scaled image
+	 */
+	private static BufferedImage makeScaledImage(StripedMapImage inImage, int inSize)
+	{
+		BufferedImage resultImage = new BufferedImage(inSize, inSize, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = resultImage.createGraphics();
+		g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+		final int fullSize = inImage.getWidth();
+		final double scale = 1.0 * inSize / fullSize;
+		for (int row = 0; row < fullSize; row += inImage.getTileHeight())
+		{
+			final int numRows = Math.min(inImage.getTileHeight(), fullSize - row);
+			Raster strip = inImage.getData(new Rectangle(0, row, fullSize, numRows));
+			WritableRaster stripRaster = ((WritableRaster) strip).createWritableTranslatedChild(0, 0);
+			BufferedImage stripImage = new BufferedImage(inImage.getColorModel(), stripRaster, false, null);
+			final int top = (int) Math.round(row * scale);
+			final int bottom = (int) Math.round((row + numRows) * scale);
+			if (bottom > top) {
+				g.drawImage(stripImage, 0, top, inSize, bottom - top, null);
+			}
+		}
+		g.dispose();
+		return resultImage;
+	}
+
+	/**
+	 * Make an image which assembles the map tiles strip by strip while it's being read,
+	 * for writing images which are too big to hold in memory
+	 * @param inTrack track object
+	 * @param inMapSource map source to use (may have one or two layers)
+	 * @param inZoom selected zoom level
+	 * @param inPainter painter to draw on top of the map, or null
+	 * @return striped image which must be closed afterwards, or null if no image could be created
+	 */
+	public static StripedMapImage createStripedImage(Track inTrack, MapSource inMapSource, int inZoom,
+		MapStripPainter inPainter)
+	{
+		if (getImageSize(inTrack, inZoom) < 2 || inZoom == 0) {return null;}
+		return new StripedMapImage(inTrack, inMapSource, inZoom, false, inPainter);
+	}
+
 	/**
 	 * Get the grouted map image, using the previously-created one if available
 	 * @param inTrack track object
@@ -159,25 +168,34 @@ public class MapGrouter implements TileConsumer
 	 */
 	public static boolean isZoomLevelOk(Track inTrack, int inZoom)
 	{
-		// Get the extents of the track including a standard (10%) border around the data
-		TrackExtents extents = new TrackExtents(inTrack);
-		extents.applySquareBorder();
-
-		// Work out how big the final image will be
-		final int zoomFactor = 1 << inZoom;
-		final int pixCount = (int) (extents.getXRange().getRange() * zoomFactor * 256);
-		return pixCount > 2 && pixCount < 4000;
+		return isZoomLevelOk(inTrack, inZoom, MAX_IMAGE_SIZE);
 	}
 
-	/** React to tiles being updated by the tile manager */
-	public void tilesUpdated(boolean inIsOk)
+	/**
+	 * @param inTrack track object
+	 * @param inZoom selected zoom level
+	 * @param inMaxSize maximum image size in pixels
+	 * @return true if the image size is acceptable
+	 */
+	public static boolean isZoomLevelOk(Track inTrack, int inZoom, int inMaxSize)
 	{
-		// Doesn't need any action
+		final int pixCount = getImageSize(inTrack, inZoom);
+		return pixCount > 2 && pixCount < inMaxSize;
 	}
 
-	/** React to cache problem */
-	public void reportCacheFailure()
+	/**
+	 * @param inTrack track object
+	 * @param inZoom selected zoom level
+	 * @return width and height of the image in pixels
+	 */
+	private static int getImageSize(Track inTrack, int inZoom)
 	{
-		// Doesn't need any action
+		// Get the extents of the track including a standard (10%) border around the data
+		TrackExtents extents = new TrackExtents(inTrack);
+		extents.applySquareBorder();
+
+		// Work out how big the final image will be
+		final int zoomFactor = 1 << inZoom;
+		return (int) (extents.getXRange().getRange() * zoomFactor * 256);
 	}
 }
@@ -0,0 +1,24 @@
+package tim.prune.save;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+
+/**
+ * Interface for drawing on top of a map image while it is being
+ * assembled in horizontal strips, for example to add the track data
+ */
+public interface MapStripPainter
+{
+	/**
+	 * Paint onto the newest strip of the image, after the map tiles have been drawn.
+	 * The previous strip is still held in the window and may be painted on too,
+	 * but everything above the window has already been passed on.
+	 * @param inGraphics graphics using the coordinates of the whole image, clipped to the window
+	 * @param inWindow image holding the previous strip and the new one
+	 * @param inWindowTop row of the whole image at the top of the window
+	 * @param inStripTop first row of the new strip
+	 * @param inStripBottom row after the end of the new strip
+	 */
+	public void paintStrip(Graphics2D inGraphics, BufferedImage inWindow, int inWindowTop,
+		int inStripTop, int inStripBottom);
+}
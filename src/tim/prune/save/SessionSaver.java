@@ -0,0 +1,125 @@
+package tim.prune.save;
+
+import java.io.File;
+import java.io.IOException;
+
+import javax.swing.JFileChooser;
+import javax.swing.JOptionPane;
+
+import tim.prune.App;
+import tim.prune.GenericFunction;
+import tim.prune.I18nManager;
+import tim.prune.UpdateMessageBroker;
+import tim.prune.config.Config;
+import tim.prune.data.RecentFile;
+import tim.prune.load.GenericFileFilter;
+import tim.prune.load.SessionFile;
+
+/**
+ * Class to save the current points, media links and selection
+ * to a binary session file which can be reopened quickly
+ */
+public class SessionSaver extends GenericFunction implements Runnable
+{
+	/** File chooser, kept to remember the directory */
+	private JFileChooser _fileChooser = null;
+	/** File to save to */
+	private File _saveFile = null;
+
+
+	/**
+	 * Constructor
+	 * @param inApp app object
+	 */
+	public SessionSaver(App inApp)
+	{
+		super(inApp);
+	}
+
+	/** Get name key */
+	public String getNameKey() {
+		return "function.savesession";
+	}
+
+	/**
+	 * Begin the function by choosing the file to save to
+	 */
+	public void begin()
+	{
+		if (_app.getTrackInfo().getTrack().getNumPoints() == 0)
+		{
+			_app.showErrorMessage("error.save.dialogtitle", "error.save.nodata");
+			return;
+		}
+		if (_fileChooser == null)
+		{
+			_fileChooser = new JFileChooser();
+			_fileChooser.setDialogType(JFileChooser.SAVE_DIALOG);
+			_fileChooser.setFileFilter(new GenericFileFilter("filetype.session",
+				new String[] {SessionFile.FILE_EXTENSION}));
+			_fileChooser.setAcceptAllFileFilterUsed(false);
+			// start from directory in config which should be set
+			String configDir = Config.getConfigString(Config.KEY_TRACK_DIR);
+			if (configDir != null) {_fileChooser.setCurrentDirectory(new File(configDir));}
+		}
+		// Allow choose again if an existing file is selected
+		boolean chooseAgain = false;
+		do
+		{
+			chooseAgain = false;
+			if (_fileChooser.showSaveDialog(_parentFrame) == JFileChooser.APPROVE_OPTION)
+			{
+				// OK pressed and file chosen
+				File file = _fileChooser.getSelectedFile();
+				// Check file extension
+				if (!file.getName().toLowerCase().endsWith("." + SessionFile.FILE_EXTENSION)) {
+					file = new File(file.getAbsolutePath() + "." + SessionFile.FILE_EXTENSION);
+				}
+				// Check if file exists and if necessary prompt for overwrite
+				Object[] buttonTexts = {I18nManager.getText("button.overwrite"), I18nManager.getText("button.cancel")};
+				if (!file.exists() || JOptionPane.showOptionDialog(_parentFrame,
+						I18nManager.getText("dialog.save.overwrite.text"),
+						I18nManager.getText("dialog.save.overwrite.title"), JOptionPane.YES_NO_OPTION,
+						JOptionPane.WARNING_MESSAGE, null, buttonTexts, buttonTexts[1])
+					== JOptionPane.YES_OPTION)
+				{
+					// new file or overwrite confirmed, so save in separate thread
+					_saveFile = file;
+					new Thread(this).start();
+				}
+				else
+				{
+					// file exists and overwrite cancelled - select again
+					chooseAgain = true;
+				}
+			}
+		} while (chooseAgain);
+	}
+
+	/**
+	 * Run method for saving the file in a separate thread
+	 */
+	public void run()
+	{
+		try
+		{
+			final int numPoints = SessionFile.write(_app.getTrackInfo(), _saveFile);
+			// Store directory in config for later
+			Config.setConfigString(Config.KEY_TRACK_DIR, _saveFile.getParentFile().getAbsolutePath());
+			// Add to recent file list
+			Config.getRecentFileList().addFile(new RecentFile(_saveFile, true));
+			// Show confirmation
+			UpdateMessageBroker.informSubscribers();
+			UpdateMessageBroker.informSubscribers(I18nManager.getText("confirm.save.ok1")
+				 + " " + numPoints + " " + I18nManager.getText("confirm.save.ok2")
+				 + " " + _saveFile.getAbsolutePath());
+			_app.informDataSaved();
+		}
+		catch (IOException ioe)
+		{
+			JOptionPane.showMessageDialog(_parentFrame,
+				I18nManager.getText("error.save.failed") + " : " + ioe.getMessage(),
+				I18nManager.getText("error.save.dialogtitle"), JOptionPane.ERROR_MESSAGE);
+		}
+	}
+}
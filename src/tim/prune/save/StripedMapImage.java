@@ -0,0 +1,452 @@
+package tim.prune.save;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.DataBufferInt;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Vector;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import tim.prune.config.Config;
+import tim.prune.data.DoubleRange;
+import tim.prune.data.Track;
+import tim.prune.data.TrackExtents;
+import tim.prune.gui.map.DiskTileCacher;
+import tim.prune.gui.map.MapSource;
+import tim.prune.gui.map.MapTile;
+import tim.prune.gui.map.MemTileCache;
+import tim.prune.gui.map.TileDecoder;
+import tim.prune.gui.map.TileStore;
+
+/**
+ * Map image for the current track which is assembled from the map tiles
+ * in horizontal strips, one row of tiles at a time, so that even very large
+ * images can be passed to an image writer without holding them in memory.
+ * The tiles for the next strips are loaded concurrently while the current one is used.
+ * Rows are expected to be read from top to bottom; going back starts again from that strip.
+ */
+public class StripedMapImage implements RenderedImage
+{
+	/** Map source */
+	private final MapSource _mapSource;
+	/** Zoom level */
+	private final int _zoom;
+	/** True to download missing or expired tiles */
+	private final boolean _download;
+	/** Store for the tiles, or null if there is no disk cache */
+	private final TileStore _store;
+	/** Painter to draw on top of each strip, or null */
+	private final MapStripPainter _painter;
+	/** Ranges of x and y covered by the image */
+	private final DoubleRange _xRange, _yRange;
+	/** Width and height of image in pixels */
+	private final int _size;
+	/** Range of tile indices */
+	private final int _minTileX, _maxTileX, _minTileY, _numStrips;
+	/** Pixel position of the top left corner of the first tile, zero or negative */
+	private final int _xOffset, _yOffset;
+	/** Window holding the previous strip and the current one */
+	private final BufferedImage _window;
+	/** Row of the image at the top of the window */
+	private int _windowTop = 0;
+	/** Index of the current strip, or -1 if none */
+	private int _stripIndex = -1;
+	/** First row of current strip and row after the end of it */
+	private int _stripTop = -1, _stripBottom = -1;
+	/** Tile loads for the upcoming strips, by strip index */
+	private final HashMap<Integer, ArrayList<Future<Image>>> _tileLoads
+		= new HashMap<Integer, ArrayList<Future<Image>>>();
+	/** Executor for loading tiles, or null if not started */
+	private ExecutorService _executor = null;
+	/** Counts of tiles used and missing */
+	private int _numTilesUsed = 0, _numTilesMissing = 0;
+	/** Number of strips already counted */
+	private int _numStripsCounted = 0;
+
+	/** Size of map tiles in pixels, also the height of each strip */
+	private static final int TILE_SIZE = 256;
+	/** Number of strips to load ahead of the current one */
+	private static final int STRIPS_AHEAD = 2;
+	/** Number of threads for loading tiles from disk */
+	private static final int NUM_LOADING_THREADS = Math.max(2, Math.min(8, Runtime.getRuntime().availableProcessors()));
+	/** Number of threads when downloading, as allowed by the usage policies of the tile servers */
+	private static final int NUM_DOWNLOADING_THREADS = 2;
+
+
+	/**
+	 * Constructor
+	 * @param inTrack track object
+	 * @param inMapSource map source to use (may have several layers)
+	 * @param inZoom zoom level, greater than zero
+	 * @param inDownload true to download tiles, false to just pull from disk
+	 * @param inPainter painter to draw on top of the map, or null
+	 */
+	public StripedMapImage(Track inTrack, MapSource inMapSource, int inZoom, boolean inDownload,
+		MapStripPainter inPainter)
+	{
+		_mapSource = inMapSource;
+		_zoom = inZoom;
+		_download = inDownload && Config.getConfigBoolean(Config.KEY_ONLINE_MODE);
+		_store = DiskTileCacher.getStore(Config.getConfigString(Config.KEY_DISK_CACHE));
+		_painter = inPainter;
+
+		// Get the extents of the track including a standard (10%) border around the data
+		TrackExtents extents = new TrackExtents(inTrack);
+		extents.applySquareBorder();
+		_xRange = extents.getXRange();
+		_yRange = extents.getYRange();
+
+		// Work out which tiles are required
+		final int zoomFactor = 1 << inZoom;
+		_minTileX = (int) (_xRange.getMinimum() * zoomFactor);
+		_maxTileX = (int) (_xRange.getMaximum() * zoomFactor);
+		_minTileY = (int) (_yRange.getMinimum() * zoomFactor);
+		_numStrips = (int) (_yRange.getMaximum() * zoomFactor) - _minTileY + 1;
+		_size = Math.max(1, (int) (_xRange.getRange() * zoomFactor * TILE_SIZE));
+		// Work out where to start drawing the tiles on the image
+		_xOffset = (int) ((_minTileX - _xRange.getMinimum() * zoomFactor) * TILE_SIZE);
+		_yOffset = (int) ((_minTileY - _yRange.getMinimum() * zoomFactor) * TILE_SIZE);
+		_window = new BufferedImage(_size, 2 * TILE_SIZE, BufferedImage.TYPE_INT_RGB);
+	}
+
+	/** @return x range of data */
+	public DoubleRange getXRange() {
+		return _xRange;
+	}
+
+	/** @return y range of data */
+	public DoubleRange getYRange() {
+		return _yRange;
+	}
+
+	/** @return the number of tiles used so far */
+	public synchronized int getNumTilesUsed() {
+		return _numTilesUsed;
+	}
+
+	/** @return the number of tiles which could not be found so far */
+	public synchronized int getNumTilesMissing() {
+		return _numTilesMissing;
+	}
+
+	/**
+	 * Stop loading tiles, should be called when the image is no longer needed
+	 */
+	public synchronized void close()
+	{
+		cancelLoads();
+		if (_executor != null)
+		{
+			_executor.shutdownNow();
+			_executor = null;
+		}
+	}
+
+	/**
+	 * Start loading the tiles for the given strip, if not already started
+	 * @param inStrip strip index
+	 */
+	private void startLoads(int inStrip)
+	{
+		if (inStrip >= _numStrips || _tileLoads.containsKey(inStrip)) {
+			return;
+		}
+		if (_executor == null)
+		{
+			_executor = Executors.newFixedThreadPool(_download ? NUM_DOWNLOADING_THREADS : NUM_LOADING_THREADS,
+				new ThreadFactory() {
+					public Thread newThread(Runnable inRunnable)
+					{
+						Thread thread = new Thread(inRunnable, "MapGrouter");
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+		}
+		ArrayList<Future<Image>> loads = new ArrayList<Future<Image>>();
+		final int y = _minTileY + inStrip;
+		for (int x = _minTileX; x <= _maxTileX; x++)
+		{
+			for (int layer=0; layer < _mapSource.getNumLayers(); layer++)
+			{
+				final int tileX = x, tileLayer = layer;
+				loads.add(_executor.submit(new Callable<Image>() {
+					public Image call() {
+						return loadTile(tileLayer, tileX, y);
+					}
+				}));
+			}
+		}
+		_tileLoads.put(inStrip, loads);
+	}
+
+	/**
+	 * Cancel all the tile loads which have been started
+	 */
+	private void cancelLoads()
+	{
+		for (ArrayList<Future<Image>> loads : _tileLoads.values())
+		{
+			for (Future<Image> load : loads) {
+				load.cancel(true);
+			}
+		}
+		_tileLoads.clear();
+	}
+
+	/**
+	 * Load a single tile from memory or disk, downloading it if necessary and allowed.
+	 * Called by the loading threads
+	 * @param inLayer layer index
+	 * @param inX x index of tile
+	 * @param inY y index of tile
+	 * @return tile image, or null if not available
+	 */
+	private Image loadTile(int inLayer, int inX, int inY)
+	{
+		final int numTileIndices = 1 << _zoom;
+		if (inY < 0 || inY >= numTileIndices) {return null;}
+		// Wrap tile indices which are too big or too small
+		final int x = ((inX % numTileIndices) + numTileIndices) % numTileIndices;
+		Image image = MemTileCache.getSharedCache().getTile(_mapSource.getSiteName(inLayer), inLayer, _zoom, x, inY);
+		if (image != null) {
+			return image;
+		}
+		MapTile mapTile = (_store == null ? null : _store.getTile(_mapSource, inLayer, _zoom, x, inY));
+		if (_download && (mapTile == null || mapTile.isExpired()))
+		{
+			try
+			{
+				byte[] data = DiskTileCacher.downloadBytes(new URL(_mapSource.makeURL(inLayer, _zoom, x, inY)));
+				if (_store != null) {
+					_store.saveTile(_mapSource, inLayer, _zoom, x, inY, data);
+				}
+				image = TileDecoder.decode(data);
+			}
+			catch (IOException e) {} // fall back to the expired tile, if any
+		}
+		if (image == null && mapTile != null) {
+			image = mapTile.getImage();
+		}
+		return image;
+	}
+
+	/**
+	 * Assemble the next strip in the window, moving the current one to the top
+	 * @return true if there was another strip
+	 */
+	private boolean renderNextStrip()
+	{
+		if (_stripIndex + 1 >= _numStrips) {
+			return false;
+		}
+		final int strip = ++_stripIndex;
+		final int top = Math.min(_size, Math.max(0, _yOffset + strip * TILE_SIZE));
+		final int bottom = Math.min(_size, _yOffset + (strip + 1) * TILE_SIZE);
+		// Move the previous strip up to the top of the window
+		if (_stripBottom > _stripTop)
+		{
+			final int offset = _stripTop - _windowTop;
+			if (offset > 0)
+			{
+				int[] pixels = ((DataBufferInt) _window.getRaster().getDataBuffer()).getData();
+				System.arraycopy(pixels, offset * _size, pixels, 0, (_stripBottom - _stripTop) * _size);
+			}
+			_windowTop = _stripTop;
+		}
+		else {
+			_windowTop = top;
+		}
+		_stripTop = top;
+		_stripBottom = Math.max(top, bottom);
+
+		// Make sure the tiles for this strip and the next ones are being loaded
+		for (int i=0; i<=STRIPS_AHEAD; i++) {
+			startLoads(strip + i);
+		}
+		ArrayList<Future<Image>> loads = _tileLoads.remove(strip);
+
+		Graphics2D g = _window.createGraphics();
+		g.translate(0, -_windowTop);
+		g.setClip(0, _stripTop, _size, _stripBottom - _stripTop);
+		g.setColor(Color.WHITE);
+		g.fillRect(0, _stripTop, _size, _stripBottom - _stripTop);
+		int numUsed = 0, numMissing = 0;
+		int loadIndex = 0;
+		final int yPos = _yOffset + strip * TILE_SIZE;
+		for (int x = _minTileX; x <= _maxTileX; x++)
+		{
+			final int xPos = _xOffset + (x - _minTileX) * TILE_SIZE;
+			for (int layer=0; layer < _mapSource.getNumLayers(); layer++)
+			{
+				Image tile = getResult(loads.get(loadIndex++));
+				if (tile != null)
+				{
+					numUsed++;
+					g.drawImage(tile, xPos, yPos, null);
+				}
+				else {
+					numMissing++;
+				}
+			}
+		}
+		if (strip >= _numStripsCounted)
+		{
+			synchronized (this)
+			{
+				_numTilesUsed += numUsed;
+				_numTilesMissing += numMissing;
+			}
+			_numStripsCounted = strip + 1;
+		}
+		if (_painter != null && _stripBottom > _stripTop)
+		{
+			g.setClip(0, _windowTop, _size, _stripBottom - _windowTop);
+			_painter.paintStrip(g, _window, _windowTop, _stripTop, _stripBottom);
+		}
+		g.dispose();
+		if (strip == _numStrips - 1) {
+			close();
+		}
+		return true;
+	}
+
+	/**
+	 * Wait for a tile to be loaded
+	 * @param inLoad tile load
+	 * @return loaded image, or null if it couldn't be loaded
+	 */
+	private static Image getResult(Future<Image> inLoad)
+	{
+		try {
+			return inLoad.get();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		catch (ExecutionException e) {
+			System.err.println("Tile load failed: " + e.getCause());
+		}
+		return null;
+	}
+
+	/**
+	 * @return row after the last one which won't be painted on any more
+	 */
+	private int getFinishedRowEnd()
+	{
+		if (_stripIndex < 0) {return 0;}
+		// The painter may still draw on the current strip when the next one is added
+		return (_stripIndex == _numStrips - 1) ? _stripBottom : _stripTop;
+	}
+
+	/**
+	 * Assemble strips until the given row is finished
+	 * @param inRow row of image
+	 */
+	private void prepareRow(int inRow)
+	{
+		if (inRow < _windowTop)
+		{
+			// Start again from the strip containing this row
+			cancelLoads();
+			_stripIndex = Math.max(0, (inRow - _yOffset) / TILE_SIZE) - 1;
+			_stripTop = _stripBottom = -1;
+			_windowTop = 0;
+		}
+		while (inRow >= getFinishedRowEnd() && renderNextStrip()) {}
+	}
+
+	/**
+	 * Copy the finished rows of the window into the given raster, as far as they overlap
+	 */
+	private void copyWindowTo(WritableRaster inRaster)
+	{
+		final int numRows = getFinishedRowEnd() - _windowTop;
+		if (numRows > 0) {
+			inRaster.setRect(_window.getRaster().createChild(0, 0, _size, numRows, 0, _windowTop, null));
+		}
+	}
+
+	/**
+	 * Copy the given area of the image into the raster, assembling the strips as necessary
+	 * @param inRaster raster to fill, or null to create one for the whole image
+	 * @return filled raster
+	 */
+	public synchronized WritableRaster copyData(WritableRaster inRaster)
+	{
+		WritableRaster raster = inRaster;
+		if (raster == null) {
+			raster = _window.getRaster().createCompatibleWritableRaster(_size, _size);
+		}
+		final int endRow = Math.min(_size, raster.getMinY() + raster.getHeight());
+		int row = Math.max(0, raster.getMinY());
+		while (row < endRow)
+		{
+			prepareRow(row);
+			final int finishedEnd = getFinishedRowEnd();
+			if (row >= finishedEnd) {
+				break; // no more strips
+			}
+			copyWindowTo(raster);
+			row = finishedEnd;
+		}
+		return raster;
+	}
+
+	/** @return the whole image as a single raster */
+	public Raster getData() {
+		return copyData(null);
+	}
+
+	/** @return the given area of the image */
+	public Raster getData(Rectangle inRect)
+	{
+		return copyData(_window.getRaster().createCompatibleWritableRaster(
+			inRect.x, inRect.y, inRect.width, inRect.height));
+	}
+
+	/** @return the strip with the given index, as a tile of the image */
+	public Raster getTile(int inTileX, int inTileY)
+	{
+		final int top = Math.max(0, _yOffset + inTileY * TILE_SIZE);
+		final int bottom = Math.min(_size, _yOffset + (inTileY + 1) * TILE_SIZE);
+		return getData(new Rectangle(0, top, _size, Math.max(1, bottom - top)));
+	}
+
+	public Vector<RenderedImage> getSources() {return null;}
+	public Object getProperty(String inName) {return Image.UndefinedProperty;}
+	public String[] getPropertyNames() {return null;}
+	public ColorModel getColorModel() {return _window.getColorModel();}
+	public SampleModel getSampleModel() {
+		return _window.getSampleModel().createCompatibleSampleModel(_size, _size);
+	}
+	public int getWidth() {return _size;}
+	public int getHeight() {return _size;}
+	public int getMinX() {return 0;}
+	public int getMinY() {return 0;}
+	public int getNumXTiles() {return 1;}
+	public int getNumYTiles() {return _numStrips;}
+	public int getMinTileX() {return 0;}
+	public int getMinTileY() {return 0;}
+	public int getTileWidth() {return _size;}
+	public int getTileHeight() {return TILE_SIZE;}
+	public int getTileGridXOffset() {return 0;}
+	public int getTileGridYOffset() {return _yOffset;}
+}
@@ -9,7 +9,7 @@ import tim.prune.data.TrackInfo;
  * Operation to undo an auto-correlation of audios with points
  * (very similar to UndoCorrelatePhotos)
  */
-public class UndoCorrelateAudios implements UndoOperation
+public class UndoCorrelateAudios implements UndoOperationWithSize
 {
 	private DataPoint[] _contents = null;
 	private DataPoint[] _audioPoints = null;
@@ -40,6 +40,14 @@ public class UndoCorrelateAudios implements UndoOperation
 		_numCorrelated = inNumCorrelated;
 	}
 
+	/**
+	 * @return approximate number of bytes held by this operation
+	 */
+	public long getMemoryEstimate()
+	{
+		return (_contents.length + _audioPoints.length) * BYTES_PER_REFERENCE;
+	}
+
 	/**
 	 * @return description of operation including parameters
 	 */
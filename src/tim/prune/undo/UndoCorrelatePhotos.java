@@ -8,7 +8,7 @@ import tim.prune.data.TrackInfo;
 /**
  * Operation to undo an auto-correlation of photos with points
  */
-public class UndoCorrelatePhotos implements UndoOperation
+public class UndoCorrelatePhotos implements UndoOperationWithSize
 {
 	private DataPoint[] _contents = null;
 	private DataPoint[] _photoPoints = null;
@@ -39,6 +39,14 @@ public class UndoCorrelatePhotos implements UndoOperation
 		_numPhotosCorrelated = inNumCorrelated;
 	}
 
+	/**
+	 * @return approximate number of bytes held by this operation
+	 */
+	public long getMemoryEstimate()
+	{
+		return (_contents.length + _photoPoints.length) * BYTES_PER_REFERENCE;
+	}
+
 	/**
 	 * @return description of operation including parameters
 	 */
@@ -6,13 +6,21 @@ import tim.prune.data.Track;
 import tim.prune.data.TrackInfo;
 
 /**
- * Operation to undo the deletion of marked points
+ * Operation to undo the deletion of marked points.
+ * Only the points to be deleted are kept, together with their indexes,
+ * instead of a copy of the whole track.
  */
-public class UndoDeleteMarked implements UndoOperation
+public class UndoDeleteMarked implements UndoOperationWithSize
 {
-	private DataPoint[] _contents = null;
+	/** Indexes of the deleted points in the original track */
+	private int[] _deletedIndexes = null;
+	/** The deleted points themselves */
+	private DataPoint[] _deletedPoints = null;
+	/** Points following a deleted point, whose segment flags may be changed */
+	private DataPoint[] _followingPoints = null;
+	/** Segment flags of the following points before the delete */
+	private boolean[] _followingSegmentStarts = null;
 	protected int _numPointsDeleted = -1;
-	private boolean[] _segmentStarts = null;
 
 
 	/**
@@ -21,14 +29,56 @@ public class UndoDeleteMarked implements UndoOperation
 	 */
 	public UndoDeleteMarked(Track inTrack)
 	{
-		_contents = inTrack.cloneContents();
-		// Copy boolean segment start flags
-		_segmentStarts = new boolean[inTrack.getNumPoints()];
-		for (int i=0; i<inTrack.getNumPoints(); i++) {
-			_segmentStarts[i] = inTrack.getPoint(i).getSegmentStart();
+		final int numPoints = inTrack.getNumPoints();
+		// Count the points which will be deleted, and the points which follow them
+		int numToDelete = 0, numFollowing = 0;
+		boolean prevDeleted = false;
+		for (int i=0; i<numPoints; i++)
+		{
+			final boolean deleted = willBeDeleted(inTrack.getPoint(i));
+			if (deleted) {
+				numToDelete++;
+			}
+			else if (prevDeleted) {
+				numFollowing++;
+			}
+			prevDeleted = deleted;
+		}
+		_deletedIndexes = new int[numToDelete];
+		_deletedPoints = new DataPoint[numToDelete];
+		_followingPoints = new DataPoint[numFollowing];
+		_followingSegmentStarts = new boolean[numFollowing];
+		int d = 0, f = 0;
+		prevDeleted = false;
+		for (int i=0; i<numPoints; i++)
+		{
+			DataPoint point = inTrack.getPoint(i);
+			final boolean deleted = willBeDeleted(point);
+			if (deleted)
+			{
+				_deletedIndexes[d] = i;
+				_deletedPoints[d] = point;
+				d++;
+			}
+			else if (prevDeleted)
+			{
+				_followingPoints[f] = point;
+				_followingSegmentStarts[f] = point.getSegmentStart();
+				f++;
+			}
+			prevDeleted = deleted;
 		}
 	}
 
+	/**
+	 * @param inPoint point to check
+	 * @return true if the point will be deleted, using the same rules as Track.deleteMarkedPoints
+	 */
+	private static boolean willBeDeleted(DataPoint inPoint)
+	{
+		return !inPoint.hasMedia() && inPoint.getDeleteFlag();
+	}
+
 
 	/**
 	 * Set the number of points deleted
@@ -53,22 +103,45 @@ public class UndoDeleteMarked implements UndoOperation
 	}
 
 
+	/**
+	 * @return approximate number of bytes held by this operation
+	 */
+	public long getMemoryEstimate()
+	{
+		return _deletedPoints.length * (BYTES_PER_REFERENCE + BYTES_PER_POINT + 4)
+			+ _followingPoints.length * (BYTES_PER_REFERENCE + 1);
+	}
+
+
 	/**
 	 * Perform the undo operation on the given Track
 	 * @param inTrackInfo TrackInfo object on which to perform the operation
 	 */
 	public void performUndo(TrackInfo inTrackInfo) throws UndoException
 	{
-		// restore track to previous values
-		inTrackInfo.getTrack().replaceContents(_contents);
-		// Copy boolean segment start flags
 		Track track = inTrackInfo.getTrack();
-		if (_segmentStarts.length != track.getNumPoints())
+		final int numRemaining = track.getNumPoints();
+		final int numPoints = numRemaining + _deletedPoints.length;
+		if (_deletedIndexes.length > 0 && _deletedIndexes[_deletedIndexes.length-1] >= numPoints)
 			throw new UndoException("Cannot undo delete - track length no longer matches");
-		for (int i=0; i<_segmentStarts.length; i++) {
-			track.getPoint(i).setSegmentStart(_segmentStarts[i]);
+		// Merge the deleted points back in between the remaining ones
+		DataPoint[] contents = new DataPoint[numPoints];
+		int d = 0, r = 0;
+		for (int i=0; i<numPoints; i++)
+		{
+			if (d < _deletedIndexes.length && _deletedIndexes[d] == i) {
+				contents[i] = _deletedPoints[d++];
+			}
+			else {
+				contents[i] = track.getPoint(r++);
+			}
+		}
+		// Restore segment flags of the points after the deleted ones
+		for (int i=0; i<_followingPoints.length; i++) {
+			_followingPoints[i].setSegmentStart(_followingSegmentStarts[i]);
 		}
+		track.replaceContents(contents);
 		// clear selection
 		inTrackInfo.getSelection().clearAll();
 	}
-}
\ No newline at end of file
+}
@@ -9,7 +9,7 @@ import tim.prune.data.TrackInfo;
 /**
  * Operation to undo a delete of a range of points
  */
-public class UndoDeleteRange extends UndoDeleteOperation
+public class UndoDeleteRange extends UndoDeleteOperation implements UndoOperationWithSize
 {
 	/**
 	 * Inner class to hold a single range information set
@@ -123,6 +123,15 @@ public class UndoDeleteRange extends UndoDeleteOperation
 	}
 
 
+	/**
+	 * @return approximate number of bytes held by this operation
+	 */
+	public long getMemoryEstimate()
+	{
+		// The deleted points are only held here
+		return _totalDeleted * (BYTES_PER_REFERENCE + BYTES_PER_POINT);
+	}
+
 	/**
 	 * @return description of operation including number of points deleted
 	 */
@@ -7,7 +7,7 @@ import tim.prune.data.TrackInfo;
 /**
  * Operation to undo an interpolation
  */
-public class UndoInterpolate implements UndoOperation
+public class UndoInterpolate implements UndoOperationWithSize
 {
 	private int _startIndex = 0;
 	private int _totalInserted = 0;
@@ -27,6 +27,14 @@ public class UndoInterpolate implements UndoOperation
 	}
 
 
+	/**
+	 * @return approximate number of bytes held by this operation
+	 */
+	public long getMemoryEstimate()
+	{
+		return _points.length * BYTES_PER_REFERENCE;
+	}
+
 	/**
 	 * @return description of operation including parameters
 	 */
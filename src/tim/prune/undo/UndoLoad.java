@@ -9,7 +9,7 @@ import tim.prune.data.TrackInfo;
 /**
  * Operation to undo a load operation
  */
-public class UndoLoad implements UndoOperation
+public class UndoLoad implements UndoOperationWithSize
 {
 	private int _cropIndex = -1;
 	private int _numLoaded = -1;
@@ -49,6 +49,15 @@ public class UndoLoad implements UndoOperation
 	}
 
 
+	/**
+	 * @return approximate number of bytes held by this operation
+	 */
+	public long getMemoryEstimate()
+	{
+		// The replaced points are only held here
+		return _contents == null ? 0L : _contents.length * (BYTES_PER_REFERENCE + BYTES_PER_POINT);
+	}
+
 	/**
 	 * @return description of operation including number of points loaded
 	 */
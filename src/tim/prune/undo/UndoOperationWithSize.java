@@ -0,0 +1,18 @@
+package tim.prune.undo;
+
+/**
+ * Interface for undo operations which hold on to arrays of points,
+ * so that the undo stack can keep track of how much memory it's using
+ */
+public interface UndoOperationWithSize extends UndoOperation
+{
+	/** Approximate number of bytes for each reference to a point */
+	public static final long BYTES_PER_REFERENCE = 8L;
+	/** Approximate number of bytes for a point which is only held by the undo operation */
+	public static final long BYTES_PER_POINT = 160L;
+
+	/**
+	 * @return approximate number of bytes held by this operation
+	 */
+	public long getMemoryEstimate();
+}
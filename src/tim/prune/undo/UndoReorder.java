@@ -8,7 +8,7 @@ import tim.prune.data.TrackInfo;
 /**
  * Abstract operation to undo a reordering by replacing track contents with a shallow copy
  */
-public abstract class UndoReorder implements UndoOperation
+public abstract class UndoReorder implements UndoOperationWithSize
 {
 	/** Shallow copy of whole track contents */
 	private DataPoint[] _contents = null;
@@ -26,6 +26,15 @@ public abstract class UndoReorder implements UndoOperation
 		_description = I18nManager.getText(inDescKey);
 	}
 
+	/**
+	 * @return approximate number of bytes held by this operation
+	 */
+	public long getMemoryEstimate()
+	{
+		// The points themselves are still in the track
+		return _contents.length * BYTES_PER_REFERENCE;
+	}
+
 	/**
 	 * @return description
 	 */
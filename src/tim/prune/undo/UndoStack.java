@@ -2,6 +2,8 @@ package tim.prune.undo;
 
 import java.util.Stack;
 
+import tim.prune.config.Config;
+
 /**
  * Class to hold an undo operation together with a counter
  */
@@ -19,31 +21,100 @@ class UndoOpWithState
 
 /**
  * Stack of undo operations
- * which also remembers how many undos have been performed
+ * which also remembers how many undos have been performed.
+ * The operations which hold arrays of points are counted against a memory budget,
+ * and the oldest operations are dropped when the budget is exceeded.
  */
 public class UndoStack extends Stack<UndoOpWithState>
 {
 	/** Number of undos (and clears) already performed */
 	private int _numUndos = 0;
+	/** Number of operations dropped from the bottom of the stack */
+	private int _numDropped = 0;
+	/** Total memory estimate of the operations on the stack */
+	private long _memoryEstimate = 0L;
+
+	/** Default memory budget in megabytes, if not set in the config */
+	private static final int DEFAULT_BUDGET_MB = 256;
+
 
 	@Override
-	public void clear()
+	public synchronized void clear()
 	{
 		_numUndos++;
+		_numDropped = 0;
+		_memoryEstimate = 0L;
 		super.clear();
 	}
 
 	/** Add an undo operation to the stack */
 	public synchronized boolean add(UndoOperation inOp)
 	{
-		return super.add(new UndoOpWithState(inOp, _numUndos));
+		boolean added = super.add(new UndoOpWithState(inOp, _numUndos));
+		_memoryEstimate += getMemoryEstimate(inOp);
+		dropOldestOperations();
+		return added;
 	}
 
 	/** Pop the latest operation from the stack */
 	public synchronized UndoOperation popOperation()
 	{
 		_numUndos++;
-		return super.pop()._undoOperation;
+		UndoOperation op = super.pop()._undoOperation;
+		_memoryEstimate -= getMemoryEstimate(op);
+		return op;
+	}
+
+	/**
+	 * Drop the oldest operations until the stack fits inside the memory budget,
+	 * but always keep the latest one
+	 */
+	private void dropOldestOperations()
+	{
+		final long budget = getMemoryBudget();
+		while (_memoryEstimate > budget && size() > 1)
+		{
+			_memoryEstimate -= getMemoryEstimate(super.remove(0)._undoOperation);
+			_numDropped++;
+		}
+	}
+
+	/**
+	 * @return memory budget in bytes, either from the config or the default
+	 */
+	private static long getMemoryBudget()
+	{
+		int budgetMb = Config.getConfigInt(Config.KEY_UNDO_MEMORY_BUDGET);
+		if (budgetMb <= 0) {
+			budgetMb = DEFAULT_BUDGET_MB;
+		}
+		return budgetMb * 1024L * 1024L;
+	}
+
+	/**
+	 * @param inOp undo operation
+	 * @return approximate number of bytes held by the operation
+	 */
+	private static long getMemoryEstimate(UndoOperation inOp)
+	{
+		if (inOp instanceof UndoOperationWithSize) {
+			return ((UndoOperationWithSize) inOp).getMemoryEstimate();
+		}
+		return 0L;
+	}
+
+	/** @return approximate number of bytes held by the operations on the stack */
+	public long getMemoryEstimate()
+	{
+		return _memoryEstimate;
+	}
+
+	/**
+	 * @return position of the top of the stack, including the operations which have been dropped
+	 */
+	public int getPosition()
+	{
+		return _numDropped + size();
 	}
 
 	/** Get the operation at the given index */
@@ -0,0 +1,137 @@
+package tim.prune;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import javax.swing.SwingUtilities;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit tests for combining and delivering update messages
+ */
+class UpdateMessageBrokerTest
+{
+	/** Subscriber to record the updates */
+	private static class Recorder implements DataSubscriber
+	{
+		private int _numUpdates = 0;
+		private byte _changes = 0;
+		private int _start = -2, _end = -2;
+		private boolean _onEventThread = false;
+		private String _message = null;
+
+		public void dataUpdated(byte inUpdateType)
+		{
+			_numUpdates++;
+			_changes = inUpdateType;
+			_start = UpdateMessageBroker.getChangeStart();
+			_end = UpdateMessageBroker.getChangeEnd();
+			_onEventThread = SwingUtilities.isEventDispatchThread();
+		}
+
+		public void actionCompleted(String inMessage) {
+			_message = inMessage;
+		}
+	}
+
+	/**
+	 * Wait until the pending messages have been delivered
+	 */
+	private static void waitForDelivery() throws Exception
+	{
+		SwingUtilities.invokeAndWait(new Runnable() {
+			public void run() {}
+		});
+	}
+
+	@Test
+	void burstIsCombined() throws Exception
+	{
+		final Recorder recorder = new Recorder();
+		UpdateMessageBroker.addSubscriber(recorder);
+		try
+		{
+			// Send a burst of messages from the event thread, as an edit function would
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run()
+				{
+					UpdateMessageBroker.informSubscribers(DataSubscriber.DATA_EDITED, 20, 25);
+					UpdateMessageBroker.informSubscribers(DataSubscriber.SELECTION_CHANGED);
+					UpdateMessageBroker.informSubscribers(DataSubscriber.DATA_EDITED, 5, 8);
+					UpdateMessageBroker.informSubscribers("done");
+					// nothing delivered yet
+					assertEquals(0, recorder._numUpdates);
+				}
+			});
+			waitForDelivery();
+			assertEquals(1, recorder._numUpdates);
+			assertEquals(DataSubscriber.DATA_EDITED | DataSubscriber.SELECTION_CHANGED, recorder._changes);
+			assertEquals(5, recorder._start);
+			assertEquals(25, recorder._end);
+			assertTrue(recorder._onEventThread);
+			assertEquals("done", recorder._message);
+
+			// Unknown range covers the whole track
+			SwingUtilities.invokeAndWait(new Runnable() {
+				public void run()
+				{
+					UpdateMessageBroker.informSubscribers(DataSubscriber.DATA_EDITED, 3, 4);
+					UpdateMessageBroker.informSubscribers();
+				}
+			});
+			waitForDelivery();
+			assertEquals(2, recorder._numUpdates);
+			assertEquals(DataSubscriber.ALL, recorder._changes);
+			assertEquals(-1, recorder._start);
+		}
+		finally {
+			UpdateMessageBroker.removeSubscriber(recorder);
+		}
+	}
+
+	@Test
+	void immediateSubscriberInformedStraightAway() throws Exception
+	{
+		// Other tests may still be sending changes from their own threads, so only record this one
+		final Thread testThread = Thread.currentThread();
+		final Recorder immediate = new Recorder() {
+			public void dataUpdated(byte inUpdateType)
+			{
+				if (Thread.currentThread() == testThread) {
+					super.dataUpdated(inUpdateType);
+				}
+			}
+		};
+		final Recorder later = new Recorder();
+		UpdateMessageBroker.addImmediateSubscriber(immediate);
+		UpdateMessageBroker.addSubscriber(later);
+		try
+		{
+			waitForDelivery();
+			UpdateMessageBroker.informSubscribers(DataSubscriber.DATA_EDITED, 7, 9);
+			// informed on this thread before returning, with the range of this change
+			assertEquals(1, immediate._numUpdates);
+			assertFalse(immediate._onEventThread);
+			assertEquals(7, immediate._start);
+			assertEquals(9, immediate._end);
+			UpdateMessageBroker.informSubscribers(DataSubscriber.DATA_ADDED_OR_REMOVED);
+			assertEquals(2, immediate._numUpdates);
+			assertEquals(-1, immediate._start);
+			// Changes which don't affect the data and messages aren't sent immediately
+			UpdateMessageBroker.informSubscribers(DataSubscriber.SELECTION_CHANGED);
+			UpdateMessageBroker.informSubscribers("done");
+			assertEquals(2, immediate._numUpdates);
+			assertNull(immediate._message);
+
+			waitForDelivery();
+			assertTrue(later._numUpdates > 0);
+			assertTrue(later._onEventThread);
+			assertEquals(2, immediate._numUpdates);
+		}
+		finally
+		{
+			UpdateMessageBroker.removeSubscriber(immediate);
+			UpdateMessageBroker.removeSubscriber(later);
+		}
+	}
+}
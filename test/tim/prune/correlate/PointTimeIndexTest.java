@@ -0,0 +1,70 @@
+package tim.prune.correlate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.Random;
+import java.util.TimeZone;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Field;
+import tim.prune.data.FieldList;
+import tim.prune.data.Photo;
+import tim.prune.data.Timestamp;
+import tim.prune.data.Track;
+
+/**
+ * JUnit tests for the time index used for correlation,
+ * checking that it finds the same points as looping over the whole track
+ */
+class PointTimeIndexTest
+{
+	@Test
+	void sameAsLoop()
+	{
+		FieldList fields = new FieldList(new Field[] {Field.LATITUDE, Field.LONGITUDE, Field.TIMESTAMP});
+		Random random = new Random(11L);
+		DataPoint[] points = new DataPoint[500];
+		long millis = 0L;
+		for (int i=0; i<points.length; i++)
+		{
+			// mostly in order, with some segments going backwards and some duplicate times
+			millis += (i % 100 == 0 ? -40000L : random.nextInt(2200) - 200);
+			String[] values = new String[] {"" + (47.0 + i * 0.0001), "8.0",
+				random.nextInt(10) == 0 ? "" : Instant.ofEpochMilli(1577872800000L + millis).toString()};
+			points[i] = new DataPoint(values, fields, null);
+			if (random.nextInt(25) == 0) {
+				points[i].setPhoto(new Photo(new File("photo" + i + ".jpg")));
+			}
+		}
+		Track track = new Track(fields, points);
+		TimeZone timezone = TimeZone.getTimeZone("UTC");
+		PointTimeIndex index = new PointTimeIndex(track, timezone);
+		assertTrue(index.isValidFor(track, timezone));
+
+		for (int m=0; m<2000; m++)
+		{
+			long mediaMillis = 1577872800000L + random.nextInt(700000) - 50000L;
+			long offset = random.nextInt(20) - 10;
+			PointMediaPair expected = new PointMediaPair(null);
+			for (DataPoint point : points)
+			{
+				Timestamp stamp = point.getTimestamp();
+				if (point.getPhoto() == null && stamp != null && stamp.isValid()) {
+					expected.addPoint(point, (stamp.getMilliseconds(timezone) - mediaMillis) / 1000L + offset);
+				}
+			}
+			PointMediaPair actual = new PointMediaPair(null);
+			index.populatePair(actual, mediaMillis, offset);
+			assertSame(expected.getPointBefore(), actual.getPointBefore());
+			assertSame(expected.getPointAfter(), actual.getPointAfter());
+			assertEquals(expected.getSecondsBefore(), actual.getSecondsBefore());
+			assertEquals(expected.getSecondsAfter(), actual.getSecondsAfter());
+		}
+		track.deletePoint(0);
+		assertFalse(index.isValidFor(track, timezone));
+	}
+}
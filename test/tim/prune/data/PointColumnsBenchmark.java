@@ -0,0 +1,79 @@
+package tim.prune.data;
+
+/**
+ * Benchmark to compare the heap used per point by points held as objects
+ * and by points held in column storage.  Not run as part of the tests,
+ * run the main method with a fixed heap size, for example -Xmx2g
+ */
+public class PointColumnsBenchmark
+{
+	/** Number of points to create */
+	private static final int NUM_POINTS = 1000000;
+
+
+	/**
+	 * @return number of bytes used on the heap after garbage collection
+	 */
+	private static long getUsedMemory()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		for (int i=0; i<5; i++)
+		{
+			System.gc();
+			try {Thread.sleep(100);} catch (InterruptedException e) {}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * @return track of points created from String values, as the text loader does
+	 */
+	private static Track makeObjectTrack()
+	{
+		FieldList fields = new FieldList(new Field[] {Field.LATITUDE, Field.LONGITUDE,
+			Field.ALTITUDE, Field.TIMESTAMP, Field.NEW_SEGMENT});
+		DataPoint[] points = new DataPoint[NUM_POINTS];
+		for (int i=0; i<NUM_POINTS; i++)
+		{
+			String[] values = {"" + (45.0 + i * 0.00001), "" + (7.0 + i * 0.00001), "" + (400 + i % 1000),
+				new TimestampUtc(1577836800000L + i * 1000L).getText(Timestamp.Format.ISO8601, null),
+				(i == 0 ? "1" : "0")};
+			points[i] = new DataPoint(values, fields, null);
+		}
+		return new Track(fields, points);
+	}
+
+	/**
+	 * @return track of the same points held in column storage
+	 */
+	private static Track makeColumnTrack()
+	{
+		PointColumns columns = new PointColumns(new FieldList(), null);
+		for (int i=0; i<NUM_POINTS; i++) {
+			columns.addRow(45.0 + i * 0.00001, 7.0 + i * 0.00001, 400 + i % 1000, 1577836800000L + i * 1000L, i == 0);
+		}
+		columns.trimToSize();
+		return new Track(columns.getFieldList(), columns.createPoints());
+	}
+
+	/**
+	 * Run the benchmark
+	 * @param args ignored
+	 */
+	public static void main(String[] args)
+	{
+		final long baseline = getUsedMemory();
+		Track objectTrack = makeObjectTrack();
+		final long objectBytes = getUsedMemory() - baseline;
+		System.out.println("Objects: " + objectTrack.getNumPoints() + " points, "
+			+ (objectBytes / NUM_POINTS) + " bytes per point");
+		objectTrack = null;
+
+		final long baseline2 = getUsedMemory();
+		Track columnTrack = makeColumnTrack();
+		final long columnBytes = getUsedMemory() - baseline2;
+		System.out.println("Columns: " + columnTrack.getNumPoints() + " points, "
+			+ (columnBytes / NUM_POINTS) + " bytes per point");
+		System.out.println("Reduction: " + (objectBytes * 10 / columnBytes) / 10.0 + " times");
+	}
+}
@@ -0,0 +1,128 @@
+package tim.prune.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit tests for points held in column storage
+ */
+class PointColumnsTest
+{
+	/**
+	 * @return column storage with three valid points and one invalid one
+	 */
+	private static PointColumns makeColumns()
+	{
+		PointColumns columns = new PointColumns(new FieldList(), null);
+		columns.addRow(47.5, 8.25, 410.0, 1577836800000L, true);
+		columns.addRow(47.6, 8.3, PointColumns.NO_ALTITUDE, PointColumns.NO_TIMESTAMP, false);
+		columns.addRow(95.0, 8.3, 400.0, PointColumns.NO_TIMESTAMP, false);
+		int row = columns.addRow(-0.0001, -120.125, 12.5, 1577836805500L, false);
+		columns.setValue(row, Field.WAYPT_NAME, "summit");
+		columns.trimToSize();
+		return columns;
+	}
+
+	@Test
+	void pointValues()
+	{
+		PointColumns columns = makeColumns();
+		Track track = new Track(columns.getFieldList(), columns.createPoints());
+		// invalid point should be skipped
+		assertEquals(3, track.getNumPoints());
+		DataPoint first = track.getPoint(0);
+		assertTrue(first.isValid());
+		assertTrue(first.getSegmentStart());
+		assertFalse(first.isWaypoint());
+		assertTrue(first.hasAltitude());
+		assertTrue(first.hasTimestamp());
+		assertFalse(first.hasHSpeed());
+		assertEquals("47.5", first.getFieldValue(Field.LATITUDE));
+
+		DataPoint second = track.getPoint(1);
+		assertFalse(second.getSegmentStart());
+		assertFalse(second.hasAltitude());
+		assertFalse(second.hasTimestamp());
+		assertNull(second.getFieldValue(Field.ALTITUDE));
+
+		DataPoint waypoint = track.getPoint(2);
+		assertTrue(waypoint.isWaypoint());
+		assertEquals("summit", waypoint.getWaypointName());
+		assertEquals(-0.0001, waypoint.getLatitude().getDouble(), 0.0000001);
+		assertEquals(-120.125, waypoint.getLongitude().getDouble(), 0.0000001);
+		assertEquals(12, waypoint.getAltitude().getValue());
+		assertTrue(waypoint.getTimestamp().isEqual(new TimestampUtc(1577836805500L)));
+	}
+
+	@Test
+	void editPoints()
+	{
+		PointColumns columns = makeColumns();
+		Track track = new Track(columns.getFieldList(), columns.createPoints());
+		DataPoint first = track.getPoint(0);
+		DataPoint clone = first.clonePoint();
+		first.setFieldValue(Field.ALTITUDE, "500", false);
+		first.setSegmentStart(false);
+		assertEquals(500, first.getAltitude().getValue());
+		assertFalse(first.getSegmentStart());
+		assertTrue(first.isModified());
+		// clone and columns should be unaffected by edit
+		assertEquals(410, clone.getAltitude().getValue());
+		assertTrue(clone.getSegmentStart());
+		assertEquals(410.0, columns.getAltitude(0), 0.0);
+
+		DataPoint second = track.getPoint(1);
+		second.addTimeOffsetSeconds(10L);
+		assertFalse(second.hasTimestamp());
+		assertFalse(second.isDuplicate(track.getPoint(0)));
+		assertTrue(second.isDuplicate(second.clonePoint()));
+	}
+
+	@Test
+	void inflateFromSeveralThreads() throws InterruptedException, ExecutionException
+	{
+		PointColumns columns = new PointColumns(new FieldList(), null);
+		final int numRows = 20000;
+		for (int i=0; i<numRows; i++) {
+			columns.addRow(45.0 + i * 0.0001, 7.0, 100.0 + i, 1577836800000L + i * 1000L, i == 0);
+		}
+		final DataPoint[] points = columns.createPoints();
+		// Each thread reads the objects while the others may be creating them
+		ExecutorService service = Executors.newFixedThreadPool(4);
+		ArrayList<Future<Integer>> results = new ArrayList<Future<Integer>>();
+		for (int t=0; t<4; t++)
+		{
+			final boolean forwards = (t % 2 == 0);
+			results.add(service.submit(new Callable<Integer>() {
+				public Integer call()
+				{
+					int numOk = 0;
+					for (int i=0; i<numRows; i++)
+					{
+						final int index = forwards ? i : numRows - 1 - i;
+						DataPoint point = points[index];
+						if (point.getAltitude() != null && point.getAltitude().getValue() == 100 + index
+							&& point.getTimestamp().getMillisecondsSince(new TimestampUtc(1577836800000L)) == index * 1000L
+							&& point.getLatitude() != null && point.hasAltitude())
+						{
+							numOk++;
+						}
+					}
+					return numOk;
+				}
+			}));
+		}
+		service.shutdown();
+		for (Future<Integer> result : results) {
+			assertEquals(numRows, result.get().intValue());
+		}
+	}
+}
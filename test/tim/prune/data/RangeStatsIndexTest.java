@@ -0,0 +1,131 @@
+package tim.prune.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit tests for the cumulative range statistics index,
+ * checking that it gives the same results as RangeStats
+ */
+class RangeStatsIndexTest
+{
+	private static final FieldList FIELDS = new FieldList(new Field[] {Field.LATITUDE, Field.LONGITUDE,
+		Field.ALTITUDE, Field.TIMESTAMP, Field.NEW_SEGMENT, Field.WAYPT_NAME});
+
+	/**
+	 * Make a track with a mixture of segments, waypoints and missing values
+	 * @param inNumPoints number of points
+	 * @return track
+	 */
+	private static Track makeTrack(int inNumPoints)
+	{
+		Random random = new Random(42L);
+		DataPoint[] points = new DataPoint[inNumPoints];
+		int seconds = 0;
+		for (int i=0; i<inNumPoints; i++)
+		{
+			seconds += random.nextInt(20) - 2;
+			String[] values = new String[] {"" + (47.0 + random.nextDouble() * 0.01),
+				"" + (8.0 + random.nextDouble() * 0.01),
+				random.nextInt(10) == 0 ? "" : "" + (400 + random.nextInt(50)),
+				random.nextInt(10) == 0 ? "" : Instant.ofEpochSecond(1577872800L + seconds).toString(),
+				random.nextInt(15) == 0 ? "1" : "",
+				random.nextInt(12) == 0 ? "wp" + i : ""};
+			points[i] = new DataPoint(values, FIELDS, null);
+		}
+		return new Track(FIELDS, points);
+	}
+
+	/**
+	 * Check the index against RangeStats for many ranges
+	 * @param inTrack track to check
+	 */
+	private static void checkRanges(Track inTrack)
+	{
+		RangeStatsIndex index = inTrack.getRangeStatsIndex();
+		final int numPoints = inTrack.getNumPoints();
+		for (int start=0; start<numPoints; start+=7)
+		{
+			for (int end=start+1; end<numPoints; end+=11)
+			{
+				RangeStats stats = new RangeStats(inTrack, start, end);
+				assertEquals(stats.getTotalDistance(), Distance.convertRadiansToDistance(
+					index.getTotalDistanceRadians(start, end)), 1e-9);
+				assertEquals(stats.getMovingDistance(), Distance.convertRadiansToDistance(
+					index.getMovingDistanceRadians(start, end)), 1e-9);
+				assertEquals(stats.getMovingDurationInSeconds(), index.getMovingMilliseconds(start, end) / 1000);
+				AltitudeRange expected = stats.getTotalAltitudeRange();
+				AltitudeRange actual = index.getAltitudeRange(start, end);
+				assertEquals(expected.hasRange(), actual.hasRange());
+				IntegerRange extremes = index.getAltitudeExtremes(start, end);
+				assertEquals(expected.hasRange(), extremes.hasValues());
+				if (expected.hasRange())
+				{
+					assertEquals(expected.getMinimum(UnitSetLibrary.UNITS_METRES), extremes.getMinimum());
+					assertEquals(expected.getMaximum(UnitSetLibrary.UNITS_METRES), extremes.getMaximum());
+				}
+				if (expected.hasRange())
+				{
+					assertEquals(expected.getMinimum(UnitSetLibrary.UNITS_METRES), actual.getMinimum(UnitSetLibrary.UNITS_METRES));
+					assertEquals(expected.getMaximum(UnitSetLibrary.UNITS_METRES), actual.getMaximum(UnitSetLibrary.UNITS_METRES));
+					assertEquals(expected.getClimb(UnitSetLibrary.UNITS_METRES), actual.getClimb(UnitSetLibrary.UNITS_METRES));
+					assertEquals(expected.getDescent(UnitSetLibrary.UNITS_METRES), actual.getDescent(UnitSetLibrary.UNITS_METRES));
+				}
+			}
+		}
+	}
+
+	@Test
+	void sameAsRangeStats()
+	{
+		checkRanges(makeTrack(300));
+	}
+
+	@Test
+	void updatedAfterEdits()
+	{
+		Track track = makeTrack(300);
+		checkRanges(track);
+		track.deleteRange(100, 120);
+		checkRanges(track);
+		track.reverseRange(50, 80);
+		checkRanges(track);
+		track.insertRange(track.cloneRange(0, 30), 200);
+		checkRanges(track);
+	}
+
+	@Test
+	void extremesOfLongRanges()
+	{
+		Track track = makeTrack(3000);
+		RangeStatsIndex index = track.getRangeStatsIndex();
+		Random random = new Random(7L);
+		for (int i=0; i<2000; i++)
+		{
+			final int start = random.nextInt(3000);
+			final int end = start + random.nextInt(3000 - start);
+			IntegerRange expected = new IntegerRange();
+			for (int p=start; p<=end; p++)
+			{
+				DataPoint point = track.getPoint(p);
+				if (!point.isWaypoint() && point.hasAltitude()) {
+					expected.addValue((int) point.getAltitude().getMetricValue());
+				}
+			}
+			IntegerRange actual = index.getAltitudeExtremes(start, end);
+			assertEquals(expected.hasValues(), actual.hasValues());
+			assertEquals(expected.getMinimum(), actual.getMinimum());
+			assertEquals(expected.getMaximum(), actual.getMaximum());
+			// Edit now and then, so the table is partly updated
+			if (i % 500 == 499)
+			{
+				track.deleteRange(2000 - i / 2, 2010 - i / 2);
+				track.insertRange(track.cloneRange(100, 110), 500);
+			}
+		}
+	}
+}
@@ -0,0 +1,67 @@
+package tim.prune.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit tests for finding nearest points using the spatial index
+ */
+class SpatialIndexTest
+{
+	@Test
+	void wrappedNearest()
+	{
+		double[] xValues = {0.5, 0.98, 0.03, 0.5};
+		double[] yValues = {0.5, 0.5, 0.6, 0.5};
+		SpatialIndex index = new SpatialIndex(xValues, yValues, null, null, true);
+		// Point 1 is nearest because of wrapping around the date line
+		assertEquals(1, index.findNearest(0.01, 0.5, -1.0, false));
+		// Ties should give the first point
+		assertEquals(0, index.findNearest(0.5, 0.5, -1.0, false));
+		// Nothing within range
+		assertEquals(-1, index.findNearest(0.25, 0.25, 0.1, false));
+
+		SpatialIndex unwrapped = new SpatialIndex(xValues, yValues, null, null, false);
+		assertEquals(2, unwrapped.findNearest(0.01, 0.5, -1.0, false));
+	}
+
+	@Test
+	void compareWithLoop()
+	{
+		Random random = new Random(42L);
+		final int numPoints = 5000;
+		double[] xValues = new double[numPoints];
+		double[] yValues = new double[numPoints];
+		boolean[] included = new boolean[numPoints];
+		boolean[] skipped = new boolean[numPoints];
+		for (int i=0; i<numPoints; i++)
+		{
+			xValues[i] = random.nextDouble();
+			yValues[i] = random.nextDouble();
+			included[i] = (i % 5 != 0);
+			skipped[i] = (i % 7 == 0);
+		}
+		SpatialIndex index = new SpatialIndex(xValues, yValues, included, skipped, false);
+		for (int q=0; q<200; q++)
+		{
+			final double x = random.nextDouble(), y = random.nextDouble();
+			final boolean skip = (q % 2 == 0);
+			int expected = -1;
+			double nearestDist = 0.0;
+			for (int i=0; i<numPoints; i++)
+			{
+				if (!included[i] || (skip && skipped[i])) {continue;}
+				final double dist = Math.abs(xValues[i] - x) + Math.abs(yValues[i] - y);
+				if (expected < 0 || dist < nearestDist)
+				{
+					expected = i;
+					nearestDist = dist;
+				}
+			}
+			assertEquals(expected, index.findNearest(x, y, -1.0, skip));
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package tim.prune.data;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.time.Instant;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.config.Config;
+
+/**
+ * JUnit tests for the speeds and gradients calculated for the whole track,
+ * checking that they match the values calculated point by point
+ */
+class TrackSpeedsTest
+{
+	@Test
+	void sameAsCalculators()
+	{
+		FieldList fields = new FieldList(new Field[] {Field.LATITUDE, Field.LONGITUDE,
+			Field.ALTITUDE, Field.TIMESTAMP, Field.NEW_SEGMENT, Field.WAYPT_NAME});
+		Random random = new Random(7L);
+		DataPoint[] points = new DataPoint[400];
+		int millis = 0;
+		for (int i=0; i<points.length; i++)
+		{
+			// mostly in order, some out of sequence and some within the same second
+			millis += random.nextInt(2500) - 300;
+			String[] values = new String[] {"" + (47.0 + i * 0.0001 + random.nextDouble() * 0.0001),
+				"" + (8.0 + random.nextDouble() * 0.0001),
+				random.nextInt(8) == 0 ? "" : "" + (400 + random.nextInt(30)),
+				random.nextInt(8) == 0 ? "" : Instant.ofEpochMilli(1577872800000L + millis).toString(),
+				random.nextInt(20) == 0 ? "1" : "",
+				random.nextInt(15) == 0 ? "wp" + i : ""};
+			points[i] = new DataPoint(values, fields, null);
+		}
+		Track track = new Track(fields, points);
+		TrackSpeeds speeds = track.getSpeeds();
+		assertSame(speeds, track.getSpeeds());
+
+		final double speedFactor = Config.getUnitSet().getSpeedUnit().getMultFactorFromStd();
+		final double vertFactor = Config.getUnitSet().getVerticalSpeedUnit().getMultFactorFromStd();
+		int numSpeeds = 0;
+		SpeedValue value = new SpeedValue();
+		for (int i=0; i<points.length; i++)
+		{
+			SpeedCalculator.calculateSpeed(track, i, value);
+			assertEquals(value.isValid(), !Double.isNaN(speeds.getSpeed(i)));
+			if (value.isValid())
+			{
+				assertEquals(value.getValue(), speeds.getSpeed(i) * speedFactor, 1e-9);
+				numSpeeds++;
+			}
+			SpeedCalculator.calculateVerticalSpeed(track, i, value);
+			assertEquals(value.isValid(), !Double.isNaN(speeds.getVerticalSpeed(i)));
+			if (value.isValid()) {
+				assertEquals(value.getValue(), speeds.getVerticalSpeed(i) * vertFactor, 1e-9);
+			}
+			GradientCalculator.calculateGradient(track, i, value);
+			assertEquals(value.isValid(), !Double.isNaN(speeds.getGradient(i)));
+			if (value.isValid()) {
+				assertEquals(value.getValue(), speeds.getGradient(i), 1e-9);
+			}
+		}
+		assertTrue(numSpeeds > 100);
+
+		// Editing the track gives new values
+		track.deletePoint(10);
+		assertNotSame(speeds, track.getSpeeds());
+		assertEquals(points.length - 1, track.getSpeeds().getNumPoints());
+	}
+}
@@ -0,0 +1,161 @@
+package tim.prune.function.cache;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.jupiter.api.Test;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Field;
+import tim.prune.data.FieldList;
+import tim.prune.data.Track;
+import tim.prune.gui.map.DirectoryTileStore;
+import tim.prune.gui.map.DiskTileCacher;
+import tim.prune.gui.map.MapSource;
+import tim.prune.gui.map.MapUtils;
+import tim.prune.gui.map.OsmMapSource;
+import tim.prune.gui.map.TileDownloadScheduler;
+
+/**
+ * JUnit tests for fetching the tiles of an area from a local tile server
+ */
+class TilePrefetcherTest
+{
+	@Test
+	void corridorWithinBox()
+	{
+		FieldList fields = new FieldList(new Field[] {Field.LATITUDE, Field.LONGITUDE});
+		DataPoint[] points = new DataPoint[50];
+		for (int i=0; i<points.length; i++) {
+			points[i] = new DataPoint(new String[] {"" + (47.0 + i * 0.01), "" + (8.0 + i * 0.01)}, fields, null);
+		}
+		Track track = new Track(fields, points);
+		TileArea box = TileArea.forTrackBox(track, 1000.0);
+		TileArea corridor = TileArea.forCorridor(track, 1000.0);
+		assertEquals(1L, box.countTiles(5));
+		assertEquals(1L, corridor.countTiles(5));
+		// A diagonal corridor needs far fewer tiles than its bounding box
+		assertTrue(corridor.countTiles(15) * 4 < box.countTiles(15));
+		assertTrue(corridor.countTiles(10, 15) > corridor.countTiles(15));
+		assertNull(TileArea.forCorridor(new Track(), 1000.0));
+	}
+
+	@Test
+	void fetchAndResume() throws IOException
+	{
+		final AtomicInteger numRequests = new AtomicInteger(0);
+		HttpServer server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+		server.createContext("/tiles/", new HttpHandler() {
+			public void handle(HttpExchange inExchange) throws IOException
+			{
+				numRequests.incrementAndGet();
+				// path is /tiles/z/x/y.png, tiles with odd x at zoom 12 don't exist
+				final String[] parts = inExchange.getRequestURI().getPath().split("/");
+				final boolean missing = parts[2].equals("12") && Integer.parseInt(parts[3]) % 2 == 1;
+				byte[] body = ("tile " + parts[2] + " " + parts[3] + " " + parts[4]).getBytes("UTF-8");
+				inExchange.sendResponseHeaders(missing ? 404 : 200, missing ? -1 : body.length);
+				OutputStream out = inExchange.getResponseBody();
+				if (!missing) {
+					out.write(body);
+				}
+				out.close();
+			}
+		});
+		server.start();
+		try
+		{
+			MapSource source = new OsmMapSource("test", "127.0.0.1:" + server.getAddress().getPort() + "/tiles/");
+			File dir = Files.createTempDirectory("prefetch").toFile();
+			DirectoryTileStore store = new DirectoryTileStore(dir);
+			TileArea area = TileArea.forBox(51.0, 51.1, -0.1, 0.1);
+			final long total = area.countTiles(10, 12);
+			long numMissing = 0L;
+			for (int[][] ranges : area.getTileRows(12).values())
+			{
+				for (int[] range : ranges)
+				{
+					for (int x=range[0]; x<=range[1]; x++) {
+						if (x % 2 == 1) numMissing++;
+					}
+				}
+			}
+			assertTrue(numMissing > 0L && numMissing < total);
+			assertEquals(TilePrefetcher.AVERAGE_TILE_BYTES * total, TilePrefetcher.estimateBytes(area, 10, 12, 1));
+
+			TilePrefetcher prefetcher = new TilePrefetcher(source, dir.getAbsolutePath(), store, 3, 1000.0);
+			assertTrue(prefetcher.fetch(area, 10, 12, null));
+			assertEquals(total - numMissing, prefetcher.getNumDownloaded());
+			assertEquals(numMissing, prefetcher.getNumFailed());
+			assertEquals(0L, prefetcher.getNumSkipped());
+			assertEquals(total, numRequests.get());
+			assertTrue(prefetcher.getNumBytes() > 0L);
+			int[] tile = area.getTileRows(11).firstEntry().getValue()[0];
+			final int y = area.getTileRows(11).firstKey();
+			assertTrue(store.containsTile(source, 0, 11, tile[0], y));
+			File tileFile = new File(dir, source.makeFilePath(0, 11, tile[0], y));
+			assertEquals("tile 11 " + tile[0] + " " + y + ".png", new String(Files.readAllBytes(tileFile.toPath()), "UTF-8"));
+
+			// Running again only requests the missing tiles
+			numRequests.set(0);
+			final long[] lastProgress = new long[2];
+			prefetcher = new TilePrefetcher(source, dir.getAbsolutePath(), store, 2, 1000.0);
+			assertTrue(prefetcher.fetch(area, 10, 12, new TilePrefetcher.Listener() {
+				public synchronized void prefetchProgress(long inNumHandled, long inTotal)
+				{
+					lastProgress[0] = Math.max(lastProgress[0], inNumHandled);
+					lastProgress[1] = inTotal;
+				}
+			}));
+			assertEquals(total - numMissing, prefetcher.getNumSkipped());
+			assertEquals(0L, prefetcher.getNumDownloaded());
+			assertEquals(numMissing, prefetcher.getNumFailed());
+			assertTrue(numRequests.get() <= numMissing);
+			assertEquals(total, lastProgress[0]);
+			assertEquals(total, lastProgress[1]);
+
+			// A missing tile is blocked after failing, so it's only requested once
+			final int oddX = (tile[0] * 2) | 1, evenY = y * 2;
+			final double oddLat = MapUtils.getLatitudeFromY((evenY + 0.5) / 4096.0);
+			final double oddLon = MapUtils.getLongitudeFromX((oddX + 0.5) / 4096.0);
+			TileArea missingArea = TileArea.forBox(oddLat, oddLat, oddLon, oddLon);
+			numRequests.set(0);
+			for (int i=0; i<2; i++)
+			{
+				prefetcher = new TilePrefetcher(source, dir.getAbsolutePath(), store, 1, 1000.0);
+				assertTrue(prefetcher.fetch(missingArea, 12, 12, null));
+				assertEquals(1L, prefetcher.getNumFailed());
+			}
+			assertEquals(1, numRequests.get());
+
+			// A tile which is being downloaded for the map isn't downloaded again
+			final int tileX = tile[0] * 4, tileY = y * 4;
+			final String key = DiskTileCacher.getDownloadKey(dir.getAbsolutePath(), source, 0, 13, tileX, tileY);
+			final TilePrefetcher mapPrefetcher = new TilePrefetcher(source, dir.getAbsolutePath(), store, 1, 1000.0);
+			final double lat = MapUtils.getLatitudeFromY((tileY + 0.5) / 8192.0);
+			final double lon = MapUtils.getLongitudeFromX((tileX + 0.5) / 8192.0);
+			final TileArea tileArea = TileArea.forBox(lat, lat, lon, lon);
+			assertEquals(1L, tileArea.countTiles(13));
+			numRequests.set(0);
+			assertTrue(TileDownloadScheduler.getSharedScheduler().runNow(key, new Runnable() {
+				public void run() {
+					assertTrue(mapPrefetcher.fetch(tileArea, 13, 13, null));
+				}
+			}));
+			assertEquals(1L, mapPrefetcher.getNumSkipped());
+			assertEquals(0, numRequests.get());
+		}
+		finally {
+			server.stop(0);
+		}
+	}
+}
@@ -0,0 +1,245 @@
+package tim.prune.function.compress;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.data.Field;
+import tim.prune.data.FieldList;
+import tim.prune.data.PointColumns;
+import tim.prune.data.Track;
+
+/**
+ * JUnit tests for the iterative Douglas-Peucker compression,
+ * comparing it with the original recursive version
+ */
+class DouglasPeuckerAlgorithmTest
+{
+	/** Parameters to try, from keeping almost everything to keeping almost nothing */
+	private static final String[] PARAMETERS = {"20000", "2000", "200", "20", "2"};
+
+
+	/**
+	 * Make a track from the given values
+	 * @param inLatitudes latitudes of points
+	 * @param inLongitudes longitudes of points
+	 * @param inSegmentStarts segment start flags, or null
+	 * @param inWaypoints waypoint flags, or null
+	 * @return track
+	 */
+	static Track makeTrack(double[] inLatitudes, double[] inLongitudes, boolean[] inSegmentStarts,
+		boolean[] inWaypoints)
+	{
+		PointColumns columns = new PointColumns(new FieldList(), null);
+		for (int i=0; i<inLatitudes.length; i++)
+		{
+			final boolean segmentStart = (i == 0 || (inSegmentStarts != null && inSegmentStarts[i]));
+			final int row = columns.addRow(inLatitudes[i], inLongitudes[i], PointColumns.NO_ALTITUDE,
+				PointColumns.NO_TIMESTAMP, segmentStart);
+			if (inWaypoints != null && inWaypoints[i]) {
+				columns.setValue(row, Field.WAYPT_NAME, "wp" + i);
+			}
+		}
+		return new Track(columns.getFieldList(), columns.createPoints());
+	}
+
+	/**
+	 * Make a random walk with occasional segment breaks and waypoints
+	 * @param inNumPoints number of points
+	 * @param inSegmentLength average length of segments
+	 * @param inSeed random seed
+	 * @return track
+	 */
+	static Track makeRandomTrack(int inNumPoints, int inSegmentLength, long inSeed)
+	{
+		Random random = new Random(inSeed);
+		double[] lats = new double[inNumPoints], lons = new double[inNumPoints];
+		boolean[] segments = new boolean[inNumPoints], waypoints = new boolean[inNumPoints];
+		double lat = 46.0, lon = 7.0;
+		for (int i=0; i<inNumPoints; i++)
+		{
+			lat += random.nextGaussian() * 0.0002;
+			lon += random.nextGaussian() * 0.0002 + 1.0 / inNumPoints;
+			lats[i] = lat;
+			lons[i] = lon;
+			segments[i] = random.nextInt(inSegmentLength) == 0;
+			waypoints[i] = random.nextInt(500) == 0;
+		}
+		return makeTrack(lats, lons, segments, waypoints);
+	}
+
+	/**
+	 * Run the given algorithm with the given parameter
+	 * @param inAlgorithm algorithm to run
+	 * @param inParameter parameter value
+	 * @param inPreviousFlags deletion flags from previous algorithms
+	 * @return deletion flags
+	 */
+	static boolean[] runAlgorithm(DouglasPeuckerAlgorithm inAlgorithm, String inParameter, boolean[] inPreviousFlags)
+	{
+		inAlgorithm.getTextField().setText(inParameter);
+		inAlgorithm._activateCheckBox.setSelected(true);
+		inAlgorithm.readSettings();
+		boolean[] flags = inPreviousFlags.clone();
+		inAlgorithm.calculate(flags);
+		return flags;
+	}
+
+	/**
+	 * Check that the two sets of flags are the same
+	 * @param inExpected expected flags
+	 * @param inActual actual flags
+	 * @param inDescription description for the failure message
+	 */
+	static void assertSameFlags(boolean[] inExpected, boolean[] inActual, String inDescription)
+	{
+		assertEquals(inExpected.length, inActual.length);
+		for (int i=0; i<inExpected.length; i++)
+		{
+			if (inExpected[i] != inActual[i]) {
+				fail("Point " + i + " differs with " + inDescription);
+			}
+		}
+	}
+
+	/**
+	 * Check that the iterative version gives the same result as the recursive one for all parameters
+	 * @param inTrack track to compress
+	 * @param inPreviousFlags deletion flags from previous algorithms
+	 */
+	private static void checkSameAsRecursive(final Track inTrack, final boolean[] inPreviousFlags)
+		throws InterruptedException
+	{
+		final double span = new TrackDetails(inTrack).getTrackSpan();
+		for (String parameter : PARAMETERS)
+		{
+			final double threshold = span * (1.0 / Double.parseDouble(parameter));
+			final boolean[] expected = inPreviousFlags.clone();
+			RecursiveDouglasPeucker.runWithBigStack(new Runnable() {
+				public void run() {
+					RecursiveDouglasPeucker.compress(inTrack, expected, threshold);
+				}
+			});
+			DouglasPeuckerAlgorithm algorithm = new DouglasPeuckerAlgorithm(inTrack, new TrackDetails(inTrack), null);
+			boolean[] flags = runAlgorithm(algorithm, parameter, inPreviousFlags);
+			assertSameFlags(expected, flags, "parameter " + parameter);
+		}
+	}
+
+	@Test
+	void randomTracks() throws InterruptedException
+	{
+		for (long seed=1; seed<=5; seed++)
+		{
+			Track track = makeRandomTrack(5000, 800, seed);
+			checkSameAsRecursive(track, new boolean[track.getNumPoints()]);
+			// and with some points already deleted by a previous algorithm
+			boolean[] previous = new boolean[track.getNumPoints()];
+			for (int i=1; i<previous.length; i+=7) {
+				previous[i] = true;
+			}
+			checkSameAsRecursive(track, previous);
+		}
+	}
+
+	@Test
+	void collinearPoints() throws InterruptedException
+	{
+		final int numPoints = 1000;
+		double[] lats = new double[numPoints], lons = new double[numPoints];
+		for (int i=0; i<numPoints; i++)
+		{
+			// Along the equator, then diagonally, then back along the same line
+			lats[i] = (i < 400 ? 0.0 : (i < 700 ? (i - 400) * 0.001 : (1000 - i) * 0.001));
+			lons[i] = (i < 400 ? i * 0.001 : (i < 700 ? 0.4 + (i - 400) * 0.001 : 0.4 + (1000 - i) * 0.001));
+		}
+		checkSameAsRecursive(makeTrack(lats, lons, null, null), new boolean[numPoints]);
+	}
+
+	@Test
+	void duplicatePoints() throws InterruptedException
+	{
+		final int numPoints = 600;
+		double[] lats = new double[numPoints], lons = new double[numPoints];
+		for (int i=0; i<numPoints; i++)
+		{
+			// Runs of identical points, and a loop ending where it started
+			lats[i] = 46.0 + (i / 10) * 0.001 * Math.sin(i / 60);
+			lons[i] = 7.0 + ((i < 300 ? i : 600 - i) / 10) * 0.001;
+		}
+		lats[numPoints-1] = lats[0];
+		lons[numPoints-1] = lons[0];
+		checkSameAsRecursive(makeTrack(lats, lons, null, null), new boolean[numPoints]);
+
+		// All points the same
+		double[] sameLats = new double[100], sameLons = new double[100];
+		Arrays.fill(sameLats, 46.0);
+		Arrays.fill(sameLons, 7.0);
+		checkSameAsRecursive(makeTrack(sameLats, sameLons, null, null), new boolean[100]);
+	}
+
+	@Test
+	void singlePointSegments() throws InterruptedException
+	{
+		Random random = new Random(42L);
+		final int numPoints = 500;
+		double[] lats = new double[numPoints], lons = new double[numPoints];
+		boolean[] segments = new boolean[numPoints];
+		for (int i=0; i<numPoints; i++)
+		{
+			lats[i] = 46.0 + random.nextDouble() * 0.01;
+			lons[i] = 7.0 + i * 0.0001;
+			// Lots of segments with one or two points, and some longer ones
+			segments[i] = (i < 200 ? i % 2 == 0 : random.nextInt(40) == 0);
+		}
+		checkSameAsRecursive(makeTrack(lats, lons, segments, null), new boolean[numPoints]);
+	}
+
+	@Test
+	void longSegments() throws InterruptedException
+	{
+		// Long enough for the segments to be compressed in parallel
+		Track track = makeRandomTrack(400000, 150000, 7L);
+		checkSameAsRecursive(track, new boolean[track.getNumPoints()]);
+	}
+
+	@Test
+	void rethresholdSameAsDirectRun()
+	{
+		Track track = makeRandomTrack(20000, 3000, 11L);
+		boolean[] noFlags = new boolean[track.getNumPoints()];
+		DouglasPeuckerAlgorithm algorithm = new DouglasPeuckerAlgorithm(track, new TrackDetails(track), null);
+		// Thresholds going both up and down, as when typing and deleting digits
+		final String[] parameters = {"2", "20", "200", "2000", "200", "20", "5", "20000", "3000", "7"};
+		for (String parameter : parameters)
+		{
+			boolean[] flags = runAlgorithm(algorithm, parameter, noFlags);
+			DouglasPeuckerAlgorithm direct = new DouglasPeuckerAlgorithm(track, new TrackDetails(track), null);
+			assertSameFlags(runAlgorithm(direct, parameter, noFlags), flags, "parameter " + parameter);
+		}
+	}
+
+	@Test
+	void cancelledResultNotReused()
+	{
+		Track track = makeRandomTrack(20000, 3000, 12L);
+		boolean[] noFlags = new boolean[track.getNumPoints()];
+		DouglasPeuckerAlgorithm algorithm = new DouglasPeuckerAlgorithm(track, new TrackDetails(track), null);
+		algorithm.getTextField().setText("2000");
+		algorithm._activateCheckBox.setSelected(true);
+		algorithm.readSettings();
+		algorithm.cancel();
+		assertEquals(-1, algorithm.calculate(noFlags.clone()));
+		// Calculating again with the same settings gives the full result
+		algorithm.clearCancelled();
+		boolean[] flags = noFlags.clone();
+		final int numDeleted = algorithm.calculate(flags);
+		DouglasPeuckerAlgorithm direct = new DouglasPeuckerAlgorithm(track, new TrackDetails(track), null);
+		boolean[] expected = runAlgorithm(direct, "2000", noFlags);
+		assertSameFlags(expected, flags, "cancelled calculation");
+		assertTrue(numDeleted > 0);
+	}
+}
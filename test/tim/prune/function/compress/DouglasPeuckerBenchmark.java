@@ -0,0 +1,61 @@
+package tim.prune.function.compress;
+
+import tim.prune.data.Track;
+
+/**
+ * Benchmark to compare the time taken by the recursive and iterative
+ * Douglas-Peucker compression on a big track.  Not run as part of the tests,
+ * run the main method with a big enough heap, for example -Xmx4g
+ */
+public class DouglasPeuckerBenchmark
+{
+	/** Default number of points */
+	private static final int NUM_POINTS = 5000000;
+	/** Number of times to repeat each measurement */
+	private static final int NUM_REPEATS = 3;
+
+
+	/**
+	 * Run the benchmark
+	 * @param args number of points, optional
+	 */
+	public static void main(String[] args) throws InterruptedException
+	{
+		final int numPoints = (args.length > 0 ? Integer.parseInt(args[0]) : NUM_POINTS);
+		final Track track = DouglasPeuckerAlgorithmTest.makeRandomTrack(numPoints, numPoints / 4, 1L);
+		System.out.println("Track of " + track.getNumPoints() + " points");
+		final double threshold = new TrackDetails(track).getTrackSpan() / 2000.0;
+		final boolean[] noFlags = new boolean[numPoints];
+
+		for (int r=0; r<NUM_REPEATS; r++)
+		{
+			// Original recursive version
+			long startTime = System.nanoTime();
+			RecursiveDouglasPeucker.runWithBigStack(new Runnable() {
+				public void run() {
+					RecursiveDouglasPeucker.compress(track, noFlags.clone(), threshold);
+				}
+			});
+			final long recursiveMillis = (System.nanoTime() - startTime) / 1000000L;
+
+			// Iterative version, with the track details already known as they're shared by all the algorithms
+			TrackDetails details = new TrackDetails(track);
+			details.initialise();
+			DouglasPeuckerAlgorithm algorithm = new DouglasPeuckerAlgorithm(track, details, null);
+			startTime = System.nanoTime();
+			DouglasPeuckerAlgorithmTest.runAlgorithm(algorithm, "2000", noFlags);
+			final long firstMillis = (System.nanoTime() - startTime) / 1000000L;
+			// a coarser threshold only needs the deviations to be compared again
+			startTime = System.nanoTime();
+			DouglasPeuckerAlgorithmTest.runAlgorithm(algorithm, "1000", noFlags);
+			final long coarserMillis = (System.nanoTime() - startTime) / 1000000L;
+			// but a finer one needs the ranges to be split further
+			startTime = System.nanoTime();
+			DouglasPeuckerAlgorithmTest.runAlgorithm(algorithm, "3000", noFlags);
+			final long finerMillis = (System.nanoTime() - startTime) / 1000000L;
+
+			System.out.println("Recursive: " + recursiveMillis + "ms, iterative: " + firstMillis
+				+ "ms, coarser: " + coarserMillis + "ms, finer: " + finerMillis + "ms");
+		}
+	}
+}
@@ -0,0 +1,178 @@
+package tim.prune.function.compress;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Track;
+
+/**
+ * The original recursive version of the Douglas-Peucker compression,
+ * kept to check and measure the iterative version against
+ */
+abstract class RecursiveDouglasPeucker
+{
+	/**
+	 * Compress the track with the given threshold
+	 * @param inTrack track object
+	 * @param inFlags deletion flags from previous algorithms, which will be updated
+	 * @param inThreshold threshold distance
+	 * @return number of points deleted
+	 */
+	static int compress(Track inTrack, boolean[] inFlags, double inThreshold)
+	{
+		final int numPoints = inTrack.getNumPoints();
+		int origNumDeleted = countFlags(inFlags);
+		// Convert inFlags into keepFlags
+		int[] keepFlags = new int[numPoints];
+		int segStart = -1, segEnd = -1;
+		for (int i=0; i<numPoints; i++)
+		{
+			DataPoint currPoint = inTrack.getPoint(i);
+			if (currPoint.getSegmentStart())
+			{
+				// new segment found, so process previous one
+				if (segStart > -1 && segEnd > segStart)
+				{
+					keepFlags[segEnd] = 1;
+					compressSegment(inTrack, keepFlags, segStart, segEnd, inThreshold);
+					segStart = segEnd = -1;
+				}
+			}
+			if (inFlags[i]) keepFlags[i] = -1;
+			else if (currPoint.isWaypoint() || currPoint.hasMedia() || currPoint.getSegmentStart()) {
+				keepFlags[i] = 1;
+			}
+			if (!inFlags[i] && !currPoint.isWaypoint())
+			{
+				if (segStart < 0) {segStart = i;}
+				else {segEnd = i;}
+			}
+		}
+		if (segStart >= 0 && segEnd > segStart)
+		{
+			keepFlags[segEnd] = 1;
+			compressSegment(inTrack, keepFlags, segStart, segEnd, inThreshold);
+		}
+		for (int i=1; i<numPoints; i++) {
+			if (keepFlags[i] < 1) inFlags[i] = true;
+		}
+		return countFlags(inFlags) - origNumDeleted;
+	}
+
+	/** @return number of flags which are set */
+	private static int countFlags(boolean[] inFlags)
+	{
+		int numDeleted = 0;
+		for (boolean flag : inFlags) {
+			if (flag) numDeleted++;
+		}
+		return numDeleted;
+	}
+
+	/**
+	 * Compress the given segment recursively
+	 */
+	private static void compressSegment(Track inTrack, int[] inFlags, int inSegStart, int inSegEnd,
+		double inThreshold)
+	{
+		if (inSegEnd - inSegStart < 2) {return;}
+		final double startX = inTrack.getX(inSegStart), startY = inTrack.getY(inSegStart);
+		final double endX = inTrack.getX(inSegEnd), endY = inTrack.getY(inSegEnd);
+		final double abX = endX - startX, abY = endY - startY;
+		final double dist2AB = abX * abX + abY * abY;
+		final double distAB = Math.sqrt(dist2AB);
+		final double perpX = abY / distAB, perpY = -abX / distAB;
+		if (distAB <= 0.0)
+		{
+			final int furthestIndex = getFurthestPointIndex(inTrack, inSegStart, inSegEnd);
+			if (furthestIndex > inSegStart)
+			{
+				compressSegment(inTrack, inFlags, inSegStart, furthestIndex, inThreshold);
+				compressSegment(inTrack, inFlags, furthestIndex, inSegEnd, inThreshold);
+			}
+			return;
+		}
+		double maxDist = -1.0, dist = -1.0;
+		int furthestIndex = -1;
+		for (int i=inSegStart+1; i<inSegEnd; i++)
+		{
+			if (inFlags[i] == 0)
+			{
+				final double acX = inTrack.getX(i) - startX, acY = inTrack.getY(i) - startY;
+				final double distAP = (abX * acX + abY * acY) / dist2AB;
+				if (distAP < 0.0) {
+					dist = Math.sqrt(acX * acX + acY * acY);
+				}
+				else if (distAP > 1.0)
+				{
+					final double bcX = inTrack.getX(i) - endX, bcY = inTrack.getY(i) - endY;
+					dist = Math.sqrt(bcX * bcX + bcY * bcY);
+				}
+				else {
+					dist = Math.abs(perpX * acX + perpY * acY);
+				}
+				if (dist > maxDist)
+				{
+					maxDist = dist;
+					furthestIndex = i;
+				}
+			}
+		}
+		if (maxDist > inThreshold)
+		{
+			inFlags[furthestIndex] = 1;
+			compressSegment(inTrack, inFlags, inSegStart, furthestIndex, inThreshold);
+			compressSegment(inTrack, inFlags, furthestIndex, inSegEnd, inThreshold);
+		}
+	}
+
+	/**
+	 * @return index of the track point furthest from the start point, or -1 if none
+	 */
+	private static int getFurthestPointIndex(Track inTrack, int inStartIndex, int inEndIndex)
+	{
+		int furthestIndex = -1;
+		final DataPoint startPoint = inTrack.getPoint(inStartIndex);
+		double maxDist = 0.0;
+		for (int i=inStartIndex+1; i<inEndIndex; i++)
+		{
+			DataPoint p = inTrack.getPoint(i);
+			if (!p.isWaypoint())
+			{
+				double distFromStart = DataPoint.calculateRadiansBetween(startPoint, p);
+				if (distFromStart > maxDist)
+				{
+					furthestIndex = i;
+					maxDist = distFromStart;
+				}
+			}
+		}
+		return furthestIndex;
+	}
+
+	/**
+	 * Run the given task on a thread with a big stack, as the recursion can go very deep
+	 * @param inTask task to run
+	 */
+	static void runWithBigStack(final Runnable inTask) throws InterruptedException
+	{
+		final Throwable[] error = new Throwable[1];
+		Thread thread = new Thread(null, new Runnable() {
+			public void run()
+			{
+				try {
+					inTask.run();
+				}
+				catch (Throwable t) {
+					error[0] = t;
+				}
+			}
+		}, "recursive", 1L << 30);
+		thread.start();
+		thread.join();
+		if (error[0] instanceof RuntimeException) {
+			throw (RuntimeException) error[0];
+		}
+		if (error[0] instanceof Error) {
+			throw (Error) error[0];
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package tim.prune.function.sew;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.App;
+import tim.prune.data.DataPoint;
+import tim.prune.data.FieldList;
+import tim.prune.data.PointColumns;
+import tim.prune.data.Track;
+import tim.prune.data.TrackInfo;
+import tim.prune.undo.UndoSewSegments;
+
+/**
+ * JUnit tests for sewing track segments together
+ */
+class SewTrackSegmentsFunctionTest
+{
+	/**
+	 * Make a track from segments of grid positions
+	 * @param inSegments for each segment, x and y of each point in turn
+	 * @return track
+	 */
+	private static Track makeTrack(int[][] inSegments)
+	{
+		PointColumns columns = new PointColumns(new FieldList(), null);
+		for (int[] segment : inSegments)
+		{
+			for (int i=0; i<segment.length; i+=2) {
+				columns.addRow(46.0 + segment[i+1] * 0.001, 7.0 + segment[i] * 0.001, PointColumns.NO_ALTITUDE,
+					PointColumns.NO_TIMESTAMP, i == 0);
+			}
+		}
+		return new Track(columns.getFieldList(), columns.createPoints());
+	}
+
+	/**
+	 * @return grid positions of the points, x and y in turn, with a minus sign before each segment start
+	 */
+	private static String describePoints(DataPoint[] inPoints)
+	{
+		StringBuilder builder = new StringBuilder();
+		for (DataPoint point : inPoints)
+		{
+			if (builder.length() > 0) {
+				builder.append(' ');
+			}
+			if (point.getSegmentStart()) {
+				builder.append('-');
+			}
+			builder.append(Math.round((point.getLongitude().getDouble() - 7.0) * 1000.0));
+			builder.append(',');
+			builder.append(Math.round((point.getLatitude().getDouble() - 46.0) * 1000.0));
+		}
+		return builder.toString();
+	}
+
+	/** @return new function object */
+	private static SewTrackSegmentsFunction makeFunction()
+	{
+		return new SewTrackSegmentsFunction(new App(null));
+	}
+
+	@Test
+	void reversedSegments()
+	{
+		// Second segment runs backwards, from the end of the third to the end of the first
+		Track track = makeTrack(new int[][] {{0,0, 1,0, 2,0}, {4,0, 3,0, 2,0}, {4,0, 5,0}});
+		SewTrackSegmentsFunction function = makeFunction();
+		DataPoint[] points = function.sewPoints(track, null);
+		assertEquals(2, function.getNumJoins());
+		// Duplicate points at the joins are removed, and only the first point starts a segment
+		assertEquals("-0,0 1,0 2,0 3,0 4,0 5,0", describePoints(points));
+
+		// If the first segment is the reversed one, it keeps its direction and the others are reversed
+		track = makeTrack(new int[][] {{2,0, 1,0, 0,0}, {2,0, 3,0}, {5,0, 4,0, 3,0}, {8,8, 9,9}});
+		function = makeFunction();
+		points = function.sewPoints(track, null);
+		assertEquals(2, function.getNumJoins());
+		assertEquals("-5,0 4,0 3,0 2,0 1,0 0,0 -8,8 9,9", describePoints(points));
+	}
+
+	@Test
+	void cycleOfSegments()
+	{
+		// Three segments making a closed triangle, and a separate one joined to none of them
+		Track track = makeTrack(new int[][] {{0,0, 1,0}, {1,0, 1,1}, {1,1, 0,0}, {5,5, 6,6}});
+		SewTrackSegmentsFunction function = makeFunction();
+		DataPoint[] points = function.sewPoints(track, null);
+		// One of the joins has to be left out so that the chain has two ends,
+		// here the last one found, at 1,1, so the chain starts with the third segment
+		assertEquals(2, function.getNumJoins());
+		assertEquals("-1,1 0,0 1,0 1,1 -5,5 6,6", describePoints(points));
+	}
+
+	@Test
+	void tiedJoins()
+	{
+		// Three segment ends at 2,0 so it's not clear which should be joined, and none of them are
+		Track track = makeTrack(new int[][] {{0,0, 2,0}, {7,0, 8,0}, {2,0, 3,3}, {9,0, 8,0}, {4,4, 2,0}});
+		SewTrackSegmentsFunction function = makeFunction();
+		DataPoint[] points = function.sewPoints(track, null);
+		// but the two ends at 8,0 are
+		assertEquals(1, function.getNumJoins());
+		assertEquals("-0,0 2,0 -7,0 8,0 9,0 -2,0 3,3 -4,4 2,0", describePoints(points));
+	}
+
+	@Test
+	void undoRestoresTrack() throws Exception
+	{
+		Track track = makeTrack(new int[][] {{0,0, 1,0, 2,0}, {7,7, 8,8}, {4,0, 3,0, 2,0}, {4,0, 5,0},
+			{8,8, 9,9, 0,0}});
+		TrackInfo trackInfo = new TrackInfo(track);
+		DataPoint[] original = track.cloneContents();
+		final String originalDescription = describePoints(original);
+
+		UndoSewSegments undo = new UndoSewSegments(track);
+		SewTrackSegmentsFunction function = makeFunction();
+		DataPoint[] points = function.sewPoints(track, null);
+		track.replaceContents(points);
+		assertEquals(4, function.getNumJoins());
+		assertEquals("-7,7 8,8 9,9 0,0 1,0 2,0 3,0 4,0 5,0", describePoints(track.cloneContents()));
+
+		undo.performUndo(trackInfo);
+		assertEquals(original.length, track.getNumPoints());
+		for (int i=0; i<original.length; i++) {
+			assertSame(original[i], track.getPoint(i));
+		}
+		// including the segment flags changed by the reversals
+		assertEquals(originalDescription, describePoints(track.cloneContents()));
+	}
+}
@@ -0,0 +1,93 @@
+package tim.prune.function.srtm;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ShortBuffer;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+import java.util.zip.ZipOutputStream;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.config.Config;
+
+/**
+ * JUnit tests for decoding and keeping srtm tiles
+ */
+class SrtmTileStoreTest
+{
+	/**
+	 * @return zip stream containing a single hgt file with known heights
+	 */
+	private static ZipInputStream makeZipStream(String inName) throws IOException
+	{
+		byte[] data = new byte[SrtmTileStore.HGT_SIZE];
+		for (int i=0; i<data.length/2; i++)
+		{
+			// Heights count from -1000, with a void at the start
+			final int height = (i == 0 ? -32768 : (i % 5000) - 1000);
+			data[2*i] = (byte) (height >> 8);
+			data[2*i+1] = (byte) height;
+		}
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ZipOutputStream zipStream = new ZipOutputStream(bytes);
+		zipStream.putNextEntry(new ZipEntry(inName));
+		zipStream.write(data);
+		zipStream.closeEntry();
+		zipStream.close();
+		return new ZipInputStream(new ByteArrayInputStream(bytes.toByteArray()));
+	}
+
+	/**
+	 * Check the known heights
+	 */
+	private static void checkHeights(ShortBuffer inHeights)
+	{
+		assertEquals(1201 * 1201, inHeights.capacity());
+		assertEquals(-32768, inHeights.get(0));
+		assertEquals(-999, inHeights.get(1));
+		assertEquals(3999, inHeights.get(4999));
+		assertEquals(-1000, inHeights.get(5000));
+		assertEquals((1201 * 1201 - 1) % 5000 - 1000, inHeights.get(1201 * 1201 - 1));
+	}
+
+	@Test
+	void storeInMemory() throws IOException
+	{
+		SrtmTile tile = new SrtmTile(-12, 130);
+		SrtmTileStore.clear();
+		assertNull(SrtmTileStore.getHeights(tile));
+		ShortBuffer heights = SrtmTileStore.storeHeights(tile, makeZipStream("S12E130.hgt"));
+		checkHeights(heights);
+		assertSame(heights, SrtmTileStore.getHeights(tile));
+		SrtmTileStore.clear();
+	}
+
+	@Test
+	void storeOnDisk() throws IOException
+	{
+		File cacheDir = Files.createTempDirectory("srtmtest").toFile();
+		SrtmTile tile = new SrtmTile(47, 8);
+		try
+		{
+			Config.setConfigString(Config.KEY_DISK_CACHE, cacheDir.getAbsolutePath());
+			SrtmTileStore.clear();
+			checkHeights(SrtmTileStore.storeHeights(tile, makeZipStream("N47E008.hgt")));
+			File rawFile = new File(new File(cacheDir, "srtm"), "N47E008.hgt");
+			assertEquals(SrtmTileStore.HGT_SIZE, rawFile.length());
+			// After clearing memory, the raw file should be mapped again
+			SrtmTileStore.clear();
+			checkHeights(SrtmTileStore.getHeights(tile));
+		}
+		finally
+		{
+			Config.setConfigString(Config.KEY_DISK_CACHE, null);
+			SrtmTileStore.clear();
+		}
+	}
+}
@@ -0,0 +1,43 @@
+package tim.prune.gui.map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit tests for leaving out track points on the same pixel
+ */
+class DecimatedTrackTest
+{
+	@Test
+	void keepPointsOnNewPixels()
+	{
+		int[] xs = {0, 1, 2, 3, 8, 9, 16, 17};
+		int[] ys = {0, 0, 0, 0, 0, 0, 0, 0};
+		byte[] flags = new byte[8];
+		DecimatedTrack.ZoomLevel level = DecimatedTrack.decimate(8, xs, ys, 0, flags);
+		assertEquals(8, level.getNumPoints());
+		// Shifting by 3 puts pairs of points on the same pixel
+		level = DecimatedTrack.decimate(8, xs, ys, 3, flags);
+		assertEquals(3, level.getNumPoints());
+		assertEquals(0, level.getIndex(0));
+		assertEquals(4, level.getIndex(1));
+		assertEquals(6, level.getIndex(2));
+		assertEquals(2, level.getXPixel(2));
+	}
+
+	@Test
+	void keepSegmentStartsAndDeletions()
+	{
+		int[] xs = {0, 0, 0, 0, 0, 0};
+		int[] ys = {0, 0, 0, 0, 0, 0};
+		byte[] flags = {0, DecimatedTrack.FLAG_WAYPOINT, DecimatedTrack.FLAG_SEGMENT_START, 0,
+			DecimatedTrack.FLAG_DELETED, DecimatedTrack.FLAG_DELETED};
+		DecimatedTrack.ZoomLevel level = DecimatedTrack.decimate(6, xs, ys, 0, flags);
+		assertEquals(3, level.getNumPoints());
+		assertEquals(0, level.getIndex(0));
+		assertEquals(2, level.getIndex(1));
+		assertEquals(4, level.getIndex(2));
+		assertEquals(1, level.getFirstKeptFrom(1));
+	}
+}
@@ -0,0 +1,233 @@
+package tim.prune.gui.map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Image;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.config.Config;
+
+/**
+ * JUnit tests for loading tiles from the disk cache in the background
+ * and for the placeholders shown until they arrive
+ */
+class MapTileManagerTest
+{
+	@Test
+	void loadFromDiskInBackground() throws IOException, InterruptedException
+	{
+		File cacheDir = Files.createTempDirectory("tiles").toFile();
+		MapSource source = new OsmMapSource("Test", "tiles.example.com/");
+		File tileFile = new File(cacheDir, source.makeFilePath(0, 3, 2, 5));
+		assertTrue(tileFile.getParentFile().mkdirs());
+		ImageIO.write(new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB), "png", tileFile);
+
+		final CountDownLatch loaded = new CountDownLatch(1);
+		MapTileManager manager = new MapTileManager(new TileConsumer() {
+			public void tilesUpdated(boolean inIsOk) {
+				loaded.countDown();
+			}
+			public void reportCacheFailure() {}
+		});
+		manager.setMapSource(source);
+		manager.setZoom(3);
+		manager.enableTileDownloading(false);
+		manager.clearMemoryCaches();
+
+		final String oldCache = Config.getConfigString(Config.KEY_DISK_CACHE);
+		Config.setConfigString(Config.KEY_DISK_CACHE, cacheDir.getAbsolutePath());
+		try
+		{
+			// First request only schedules the load, without touching the disk
+			assertNull(manager.getTile(0, 2, 5, false));
+			assertTrue(loaded.await(5, TimeUnit.SECONDS));
+			Image tile = manager.getTile(0, 2, 5, false);
+			assertTrue(tile instanceof BufferedImage);
+			assertEquals(256, tile.getWidth(null));
+			// Missing tile is never returned
+			assertNull(manager.getTile(0, 3, 5, false));
+		}
+		finally
+		{
+			Config.setConfigString(Config.KEY_DISK_CACHE, oldCache);
+			manager.clearMemoryCaches();
+		}
+	}
+
+	/**
+	 * Wait for a placeholder to be made in the background
+	 * @param inPrevious previous placeholder, or null
+	 * @return new placeholder
+	 */
+	private static BufferedImage waitForPlaceholder(MapTileManager inManager, int inX, int inY, Image inPrevious)
+		throws InterruptedException
+	{
+		for (int i=0; i<500; i++)
+		{
+			Image placeholder = inManager.getPlaceholderTile(0, inX, inY);
+			if (placeholder != null && placeholder != inPrevious) {
+				return (BufferedImage) placeholder;
+			}
+			Thread.sleep(10);
+		}
+		fail("Placeholder " + inX + ", " + inY + " wasn't made");
+		return null;
+	}
+
+	@Test
+	void placeholdersFromOtherZoomLevels() throws InterruptedException
+	{
+		MapSource source = new OsmMapSource("Test", "tiles.placeholder.example.com/", "png", null, null, 10);
+		final String siteName = source.getSiteName(0);
+		MapTileManager manager = new MapTileManager(new TileConsumer() {
+			public void tilesUpdated(boolean inIsOk) {}
+			public void reportCacheFailure() {}
+		});
+		manager.setMapSource(source);
+		manager.enableTileDownloading(false);
+		manager.clearMemoryCaches();
+		MemTileCache cache = manager.getMemoryCache();
+		// Tile at zoom 4 with a different colour in each quarter
+		BufferedImage parent = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+		Graphics2D g = parent.createGraphics();
+		final Color[] colours = {Color.RED, Color.GREEN, Color.BLUE, Color.YELLOW};
+		for (int i=0; i<4; i++)
+		{
+			g.setColor(colours[i]);
+			g.fillRect((i % 2) * 128, (i / 2) * 128, 128, 128);
+		}
+		g.dispose();
+		cache.setTile(parent, siteName, 0, 4, 3, 2);
+		try
+		{
+			// Zooming in scales up a quarter of the parent tile, in the background
+			manager.setZoom(5);
+			assertNull(manager.getPlaceholderTile(0, 7, 5));
+			Image placeholder = waitForPlaceholder(manager, 7, 5, null);
+			assertEquals(Color.YELLOW.getRGB(), ((BufferedImage) placeholder).getRGB(128, 128));
+			assertSame(placeholder, manager.getPlaceholderTile(0, 7, 5));
+			assertEquals(Color.RED.getRGB(), waitForPlaceholder(manager, 6, 4, null).getRGB(200, 30));
+			assertEquals(2 * 256 * 256 * 4, cache.getExternalBytes());
+			// Two levels further in is still possible
+			manager.setZoom(6);
+			assertEquals(Color.GREEN.getRGB(), waitForPlaceholder(manager, 15, 8, null).getRGB(10, 10));
+
+			// Zooming out scales down the children which are there
+			manager.setZoom(3);
+			BufferedImage combined = waitForPlaceholder(manager, 1, 1, null);
+			assertEquals(Color.BLUE.getRGB(), combined.getRGB(128 + 30, 64 + 30));
+			assertEquals(0, combined.getRGB(30, 30) >>> 24);
+			// and a parent which arrives later is used instead
+			BufferedImage grandparent = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+			cache.setTile(grandparent, siteName, 0, 2, 0, 0);
+			manager.notifyImageLoaded(source, grandparent, 0, 0, 0, 2);
+			assertEquals(Color.BLACK.getRGB(), waitForPlaceholder(manager, 1, 1, combined).getRGB(30, 30));
+
+			// Above the maximum zoom, tiles from the maximum zoom are scaled up
+			BufferedImage maxZoomTile = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+			g = maxZoomTile.createGraphics();
+			g.setColor(Color.MAGENTA);
+			g.fillRect(0, 0, 256, 256);
+			g.dispose();
+			cache.setTile(maxZoomTile, siteName, 0, 10, 100, 200);
+			manager.setZoom(12);
+			assertFalse(manager.isOverzoomed());
+			assertNull(manager.getTile(0, 401, 802, false));
+			assertEquals(Color.MAGENTA.getRGB(), waitForPlaceholder(manager, 401, 802, null).getRGB(5, 250));
+			manager.setVisibleTiles(400, 403, 800, 803);
+			assertTrue(manager.isTileWanted(10, 100, 200));
+			assertFalse(manager.isTileWanted(12, 401, 802));
+			manager.setZoom(15);
+			assertTrue(manager.isOverzoomed());
+		}
+		finally {
+			manager.clearMemoryCaches();
+		}
+		assertEquals(0L, cache.getExternalBytes());
+	}
+
+	@Test
+	void placeholdersForVisibleTiles() throws InterruptedException
+	{
+		MapSource source = new OsmMapSource("Test", "tiles.visible.example.com/", "png", null, null, 10);
+		MapTileManager manager = new MapTileManager(new TileConsumer() {
+			public void tilesUpdated(boolean inIsOk) {}
+			public void reportCacheFailure() {}
+		});
+		manager.setMapSource(source);
+		manager.enableTileDownloading(false);
+		manager.clearMemoryCaches();
+		for (int x=160; x<163; x++)
+		{
+			for (int y=160; y<162; y++) {
+				manager.getMemoryCache().setTile(new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB),
+					source.getSiteName(0), 0, 10, x, y);
+			}
+		}
+		try
+		{
+			// View of 12 by 8 tiles above the maximum zoom, scaled up from the maximum zoom
+			manager.setZoom(12);
+			manager.setVisibleTiles(640, 651, 640, 647);
+			for (int x=640; x<652; x++)
+			{
+				for (int y=640; y<648; y++) {
+					waitForPlaceholder(manager, x, y, null);
+				}
+			}
+			assertEquals(96, manager.getNumPlaceholders());
+			assertEquals(96L * 256 * 256 * 4, manager.getMemoryCache().getExternalBytes());
+			// Placeholders are kept while the view is redrawn
+			Image first = manager.getPlaceholderTile(0, 640, 640);
+			assertSame(first, manager.getPlaceholderTile(0, 640, 640));
+			// A smaller view keeps fewer of them
+			manager.setVisibleTiles(640, 643, 640, 643);
+			assertEquals(32, manager.getNumPlaceholders());
+			assertEquals(32L * 256 * 256 * 4, manager.getMemoryCache().getExternalBytes());
+		}
+		finally {
+			manager.clearMemoryCaches();
+		}
+		assertEquals(0L, manager.getMemoryCache().getExternalBytes());
+	}
+
+	@Test
+	void ignoreTilesForPreviousSource()
+	{
+		MapSource oldSource = new OsmMapSource("Old", "tiles.old.example.com/");
+		MapSource newSource = new OsmMapSource("New", "tiles.new.example.com/");
+		final int[] numUpdates = new int[1];
+		MapTileManager manager = new MapTileManager(new TileConsumer() {
+			public void tilesUpdated(boolean inIsOk) {
+				numUpdates[0]++;
+			}
+			public void reportCacheFailure() {}
+		});
+		manager.setMapSource(oldSource);
+		manager.setZoom(3);
+		manager.clearMemoryCaches();
+		BufferedImage tile = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+		manager.notifyImageLoaded(oldSource, tile, 0, 1, 2, 3);
+		assertSame(tile, manager.getMemoryCache().peekTile(oldSource.getSiteName(0), 0, 3, 1, 2));
+		assertEquals(1, numUpdates[0]);
+
+		// Download finishing after the source has been changed
+		manager.setMapSource(newSource);
+		manager.notifyImageLoaded(oldSource, tile, 0, 4, 2, 3);
+		assertNull(manager.getMemoryCache().peekTile(oldSource.getSiteName(0), 0, 3, 4, 2));
+		assertNull(manager.getMemoryCache().peekTile(newSource.getSiteName(0), 0, 3, 4, 2));
+		assertEquals(1, numUpdates[0]);
+		manager.clearMemoryCaches();
+	}
+}
@@ -0,0 +1,74 @@
+package tim.prune.gui.map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.image.BufferedImage;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit tests for the memory tile cache
+ */
+class MemTileCacheTest
+{
+	@Test
+	void evictOldestTiles()
+	{
+		final int tileBytes = 256 * 256 * 4;
+		MemTileCache cache = new MemTileCache(3 * tileBytes);
+		for (int i=0; i<3; i++) {
+			cache.setTile(new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB), "site/", 0, 10, i, 5);
+		}
+		assertEquals(3, cache.getNumTiles());
+		assertEquals(3 * tileBytes, cache.getNumBytes());
+		// Use the first tile so that the second one is the oldest
+		assertNotNull(cache.getTile("site/", 0, 10, 0, 5));
+		cache.setTile(new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB), "site/", 0, 11, 0, 5);
+		assertEquals(3, cache.getNumTiles());
+		assertEquals(1, cache.getNumEvictions());
+		assertNull(cache.getTile("site/", 0, 10, 1, 5));
+		assertNotNull(cache.getTile("site/", 0, 10, 0, 5));
+		assertNotNull(cache.getTile("site/", 0, 10, 2, 5));
+		// Different source, layer or zoom level shouldn't be found
+		assertNull(cache.getTile("other/", 0, 10, 0, 5));
+		assertNull(cache.getTile("site/", 1, 10, 0, 5));
+		assertNull(cache.getTile("site/", 0, 12, 0, 5));
+		assertEquals(3, cache.getNumHits());
+		assertEquals(4, cache.getNumMisses());
+	}
+
+	@Test
+	void replaceTile()
+	{
+		MemTileCache cache = new MemTileCache(1L << 20);
+		cache.setTile(new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB), "site/", 0, 3, 1, 1);
+		BufferedImage small = new BufferedImage(128, 128, BufferedImage.TYPE_INT_RGB);
+		cache.setTile(small, "site/", 0, 3, 1, 1);
+		assertEquals(1, cache.getNumTiles());
+		assertEquals(128 * 128 * 4, cache.getNumBytes());
+		assertSame(small, cache.getTile("site/", 0, 3, 1, 1));
+		cache.clearAll();
+		assertEquals(0, cache.getNumTiles());
+		assertEquals(0, cache.getNumBytes());
+	}
+
+	@Test
+	void countExternalBytes()
+	{
+		final int tileBytes = 256 * 256 * 4;
+		MemTileCache cache = new MemTileCache(4 * tileBytes);
+		for (int i=0; i<4; i++) {
+			cache.setTile(new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB), "site/", 0, 10, i, 5);
+		}
+		assertEquals(4, cache.getNumTiles());
+		// Memory used elsewhere pushes out the oldest tiles
+		cache.addExternalBytes(2 * tileBytes);
+		assertEquals(2, cache.getNumTiles());
+		assertNull(cache.peekTile("site/", 0, 10, 1, 5));
+		assertNotNull(cache.peekTile("site/", 0, 10, 2, 5));
+		cache.addExternalBytes(-2 * tileBytes);
+		assertEquals(0L, cache.getExternalBytes());
+		cache.setTile(new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB), "site/", 0, 10, 0, 5);
+		assertEquals(3, cache.getNumTiles());
+	}
+}
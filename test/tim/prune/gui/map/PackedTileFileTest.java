@@ -0,0 +1,195 @@
+package tim.prune.gui.map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit tests for storing tiles in packed files
+ */
+class PackedTileFileTest
+{
+	/** @return dummy tile contents */
+	private static byte[] makeTile(int inX, int inY, int inLength)
+	{
+		byte[] data = new byte[inLength];
+		for (int i=0; i<inLength; i++) {
+			data[i] = (byte) (inX * 7 + inY * 3 + i);
+		}
+		return data;
+	}
+
+	@Test
+	void addReplaceAndReopen() throws IOException
+	{
+		File dir = Files.createTempDirectory("packed").toFile();
+		File dataFile = new File(dir, "site/12." + PackedTileFile.FILE_EXTENSION);
+		PackedTileFile packFile = new PackedTileFile(dataFile);
+		for (int x=0; x<40; x++)
+		{
+			for (int y=0; y<40; y++) {
+				assertTrue(packFile.putTile(2000 + x, 1000 + y, makeTile(x, y, 100 + x), 1600000000000L + y * 1000L));
+			}
+		}
+		assertNull(packFile.getTile(1999, 1000));
+		assertArrayEquals(makeTile(3, 4, 103), packFile.getTile(2003, 1004));
+		// Replacing a tile leaves the old record unused
+		assertTrue(packFile.putTile(2003, 1004, makeTile(9, 9, 50), 1700000000000L));
+		assertArrayEquals(makeTile(9, 9, 50), packFile.getTile(2003, 1004));
+		assertEquals(1700000000000L, packFile.getModifiedTime(2003, 1004));
+		assertEquals(1600, packFile.getNumTiles());
+		assertEquals(103 + 16, packFile.getUnusedBytes());
+		final long numBytes = packFile.getNumBytes();
+		packFile.close();
+
+		// Reopen using saved index
+		assertTrue(PackedTileFile.getIndexFile(dataFile).exists());
+		packFile = new PackedTileFile(dataFile);
+		assertEquals(1600, packFile.getNumTiles());
+		assertEquals(numBytes, packFile.getNumBytes());
+		assertArrayEquals(makeTile(9, 9, 50), packFile.getTile(2003, 1004));
+		assertArrayEquals(makeTile(39, 39, 139), packFile.getTile(2039, 1039));
+		packFile.close();
+
+		// Without the index and with a partly written record at the end, the records are scanned instead
+		assertTrue(PackedTileFile.getIndexFile(dataFile).delete());
+		RandomAccessFile access = new RandomAccessFile(dataFile, "rw");
+		final long length = access.length();
+		access.setLength(length + 10);
+		access.close();
+		packFile = new PackedTileFile(dataFile);
+		assertEquals(1600, packFile.getNumTiles());
+		assertEquals(length, dataFile.length());
+		assertArrayEquals(makeTile(9, 9, 50), packFile.getTile(2003, 1004));
+		assertArrayEquals(makeTile(0, 0, 100), packFile.getTile(2000, 1000));
+
+		// Compaction removes the unused record and the old tiles, apart from the replaced one
+		assertEquals(40 * 30 - 1, packFile.compact(1600000030000L));
+		assertEquals(401, packFile.getNumTiles());
+		assertEquals(0L, packFile.getUnusedBytes());
+		assertNull(packFile.getTile(2000, 1000));
+		assertArrayEquals(makeTile(9, 9, 50), packFile.getTile(2003, 1004));
+		assertArrayEquals(makeTile(5, 30, 105), packFile.getTile(2005, 1030));
+		assertTrue(packFile.delete());
+		assertFalse(dataFile.exists());
+	}
+
+	@Test
+	void importDirectory() throws IOException
+	{
+		File dir = Files.createTempDirectory("packed").toFile();
+		File zoomDir = new File(dir, "site/5");
+		for (int x=3; x<6; x++)
+		{
+			File xDir = new File(zoomDir, "" + x);
+			assertTrue(xDir.mkdirs());
+			for (int y=10; y<12; y++)
+			{
+				FileOutputStream out = new FileOutputStream(new File(xDir, y + ".png"));
+				out.write(makeTile(x, y, 64));
+				out.close();
+			}
+		}
+		File dataFile = new File(dir, "site/5." + PackedTileFile.FILE_EXTENSION);
+		assertEquals(6, PackedTileStore.importDirectory(zoomDir, dataFile));
+		assertFalse(zoomDir.exists());
+		PackedTileFile packFile = PackedTileStore.acquireFile(dataFile, false);
+		assertEquals(6, packFile.getNumTiles());
+		assertArrayEquals(makeTile(4, 11, 64), packFile.getTile(4, 11));
+		PackedTileStore.releaseFile(packFile);
+		assertEquals(6, PackedTileStore.removeTiles(dataFile, 0L));
+		assertFalse(dataFile.exists());
+		assertNull(PackedTileStore.acquireFile(dataFile, false));
+	}
+
+	@Test
+	void importKeepsNewerPackedTiles() throws IOException
+	{
+		File dir = Files.createTempDirectory("packed").toFile();
+		File dataFile = new File(dir, "site/7." + PackedTileFile.FILE_EXTENSION);
+		PackedTileFile packFile = PackedTileStore.acquireFile(dataFile, true);
+		final long now = System.currentTimeMillis();
+		assertTrue(packFile.putTile(3, 4, makeTile(1, 1, 32), now));
+		assertTrue(packFile.putTile(3, 5, makeTile(2, 2, 32), now - 7200000L));
+		PackedTileStore.releaseFile(packFile);
+		// Directory has an older copy of one tile and a newer copy of the other
+		File xDir = new File(dir, "site/7/3");
+		assertTrue(xDir.mkdirs());
+		for (int y=4; y<6; y++)
+		{
+			File tileFile = new File(xDir, y + ".png");
+			FileOutputStream out = new FileOutputStream(tileFile);
+			out.write(makeTile(3, y, 64));
+			out.close();
+			assertTrue(tileFile.setLastModified(now - 3600000L));
+		}
+		assertEquals(1, PackedTileStore.importDirectory(new File(dir, "site/7"), dataFile));
+		assertFalse(xDir.exists());
+		packFile = PackedTileStore.acquireFile(dataFile, false);
+		assertArrayEquals(makeTile(1, 1, 32), packFile.getTile(3, 4));
+		assertArrayEquals(makeTile(3, 5, 64), packFile.getTile(3, 5));
+		PackedTileStore.releaseFile(packFile);
+		assertEquals(2, PackedTileStore.removeTiles(dataFile, 0L));
+	}
+
+	@Test
+	void heldFilesStayOpen() throws IOException
+	{
+		File dir = Files.createTempDirectory("packed").toFile();
+		PackedTileStore.closeAll();
+		File heldFile = new File(dir, "held." + PackedTileFile.FILE_EXTENSION);
+		PackedTileFile held = PackedTileStore.acquireFile(heldFile, true);
+		// Looking for files which don't exist doesn't close anything
+		for (int i=0; i<100; i++) {
+			assertNull(PackedTileStore.acquireFile(new File(dir, "missing" + i), false));
+		}
+		assertEquals(1, PackedTileStore.getNumOpenFiles());
+		// Opening lots of other files closes the unused ones, but not the held one
+		for (int i=0; i<50; i++)
+		{
+			PackedTileFile other = PackedTileStore.acquireFile(new File(dir, i + "." + PackedTileFile.FILE_EXTENSION), true);
+			assertTrue(other.putTile(1, 1, makeTile(i, 1, 16), System.currentTimeMillis()));
+			PackedTileStore.releaseFile(other);
+		}
+		assertTrue(PackedTileStore.getNumOpenFiles() < 50);
+		assertTrue(held.putTile(2, 3, makeTile(2, 3, 16), System.currentTimeMillis()));
+		assertSame(held, PackedTileStore.acquireFile(heldFile, false));
+		PackedTileStore.releaseFile(held);
+		// Removing tiles from a file which is held empties it instead of deleting it
+		assertEquals(1, PackedTileStore.removeTiles(heldFile, 0L));
+		assertTrue(heldFile.exists());
+		assertNull(held.getTile(2, 3));
+		assertTrue(held.putTile(2, 4, makeTile(2, 4, 16), System.currentTimeMillis()));
+		PackedTileStore.releaseFile(held);
+		PackedTileStore.closeAll();
+		assertEquals(0, PackedTileStore.getNumOpenFiles());
+	}
+
+	@Test
+	void compactInBackground() throws IOException, InterruptedException, ExecutionException
+	{
+		File dir = Files.createTempDirectory("packed").toFile();
+		File dataFile = new File(dir, "replaced." + PackedTileFile.FILE_EXTENSION);
+		PackedTileFile packFile = PackedTileStore.acquireFile(dataFile, true);
+		// Replacing tiles doesn't compact the file while saving
+		for (int i=0; i<50; i++) {
+			assertTrue(packFile.putTile(1, 1, makeTile(i, 1, 100000), System.currentTimeMillis()));
+		}
+		assertEquals(49 * (100000 + 16), packFile.getUnusedBytes());
+		assertTrue(packFile.needsCompacting());
+		PackedTileStore.scheduleCompaction(dataFile);
+		PackedTileStore.waitForCompactions();
+		assertEquals(0L, packFile.getUnusedBytes());
+		assertFalse(packFile.needsCompacting());
+		assertArrayEquals(makeTile(49, 1, 100000), packFile.getTile(1, 1));
+		PackedTileStore.releaseFile(packFile);
+		assertEquals(1, PackedTileStore.removeTiles(dataFile, 0L));
+	}
+}
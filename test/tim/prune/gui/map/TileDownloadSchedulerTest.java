@@ -0,0 +1,65 @@
+package tim.prune.gui.map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * JUnit tests for the ordering and cancelling of tile downloads
+ */
+class TileDownloadSchedulerTest
+{
+	/**
+	 * Job which just records that it ran
+	 */
+	private static Runnable makeJob(final List<String> inResults, final String inName, final CountDownLatch inLatch)
+	{
+		return new Runnable() {
+			public void run()
+			{
+				synchronized (inResults) {
+					inResults.add(inName);
+				}
+				inLatch.countDown();
+			}
+		};
+	}
+
+	@Test
+	void priorityAndCancelling() throws InterruptedException
+	{
+		TileDownloadScheduler scheduler = new TileDownloadScheduler(1);
+		MapTileManager manager = new MapTileManager(null);
+		manager.setZoom(5);
+		manager.setVisibleTiles(10, 14, 10, 14);
+
+		// Block the only thread until all the downloads have been requested
+		final CountDownLatch blocker = new CountDownLatch(1);
+		scheduler.schedule("blocker", manager, 0, 5, 12, 12, new Runnable() {
+			public void run() {
+				try {blocker.await(5, TimeUnit.SECONDS);} catch (InterruptedException e) {}
+			}
+		});
+		List<String> results = new ArrayList<String>();
+		CountDownLatch finished = new CountDownLatch(3);
+		assertTrue(scheduler.schedule("edge", manager, 0, 5, 10, 10, makeJob(results, "edge", finished)));
+		assertTrue(scheduler.schedule("middle", manager, 0, 5, 12, 12, makeJob(results, "middle", finished)));
+		assertTrue(scheduler.schedule("far", manager, 0, 5, 20, 20, makeJob(results, "far", finished)));
+		assertTrue(scheduler.schedule("near", manager, 0, 5, 11, 12, makeJob(results, "near", finished)));
+		// Duplicate request should be ignored
+		assertFalse(scheduler.schedule("near", manager, 0, 5, 11, 12, makeJob(results, "near", finished)));
+		assertEquals(5, scheduler.getNumDownloads());
+
+		// Tile at 20, 20 isn't visible so it gets cancelled
+		scheduler.updateRequests(manager);
+		assertEquals(4, scheduler.getNumDownloads());
+		blocker.countDown();
+		assertTrue(finished.await(5, TimeUnit.SECONDS));
+		assertEquals("[middle, near, edge]", results.toString());
+	}
+}
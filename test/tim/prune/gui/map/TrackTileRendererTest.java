@@ -0,0 +1,188 @@
+package tim.prune.gui.map;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.image.BufferedImage;
+import java.util.concurrent.ExecutionException;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Field;
+import tim.prune.data.FieldList;
+import tim.prune.data.Track;
+
+/**
+ * JUnit tests for rendering the track into tiles in the background
+ */
+class TrackTileRendererTest
+{
+	/** Consumer which doesn't need to do anything */
+	private static final TileConsumer CONSUMER = new TileConsumer() {
+		public void tilesUpdated(boolean inIsOk) {}
+		public void reportCacheFailure() {}
+	};
+
+	/**
+	 * @return track going east along a line of latitude, with the given offset in latitude
+	 */
+	private static Track makeTrack(int inNumPoints, double inLatOffset)
+	{
+		FieldList fields = new FieldList(new Field[] {Field.LATITUDE, Field.LONGITUDE});
+		DataPoint[] points = new DataPoint[inNumPoints];
+		for (int i=0; i<inNumPoints; i++) {
+			points[i] = new DataPoint(new String[] {"" + (46.5 + inLatOffset), "" + (7.0 + i * 0.001)}, fields, null);
+		}
+		return new Track(fields, points);
+	}
+
+	/**
+	 * @return renderer for the given track
+	 */
+	private static TrackTileRenderer makeRenderer(Track inTrack)
+	{
+		TrackTileRenderer renderer = new TrackTileRenderer(CONSUMER);
+		renderer.setStyle(1, 2, false, Color.GREEN, Color.ORANGE, null);
+		renderer.checkTrack(inTrack, null, Color.BLUE, Color.RED);
+		return renderer;
+	}
+
+	/** @return index of the tile containing the given longitude */
+	private static int getTileX(double inLongitude, int inZoom)
+	{
+		return (int) (MapUtils.getXFromLongitude(inLongitude) * (1 << inZoom));
+	}
+
+	/** @return index of the tile containing the given latitude */
+	private static int getTileY(double inLatitude, int inZoom)
+	{
+		return (int) (MapUtils.getYFromLatitude(inLatitude) * (1 << inZoom));
+	}
+
+	/**
+	 * Wait for a tile to be rendered
+	 * @param inPrevious previous version of the tile, or null
+	 * @return new version of the tile
+	 */
+	private static BufferedImage waitForTile(TrackTileRenderer inRenderer, int inZoom, int inX, int inY,
+		BufferedImage inPrevious) throws InterruptedException
+	{
+		for (int i=0; i<500; i++)
+		{
+			BufferedImage tile = inRenderer.getTile(inZoom, inX, inY);
+			if (tile != null && tile != inPrevious) {
+				return tile;
+			}
+			Thread.sleep(10);
+		}
+		fail("Tile " + inX + ", " + inY + " wasn't rendered");
+		return null;
+	}
+
+	/** @return number of pixels which aren't transparent */
+	private static int countPixels(BufferedImage inImage)
+	{
+		int numPixels = 0;
+		for (int x=0; x<inImage.getWidth(); x++)
+		{
+			for (int y=0; y<inImage.getHeight(); y++)
+			{
+				if ((inImage.getRGB(x, y) >>> 24) != 0) {
+					numPixels++;
+				}
+			}
+		}
+		return numPixels;
+	}
+
+	@Test
+	void invalidateChangedTiles() throws InterruptedException
+	{
+		Track track = makeTrack(200, 0.0);
+		TrackTileRenderer renderer = makeRenderer(track);
+		final int zoom = 14;
+		final int tileY = getTileY(46.5, zoom);
+		final int firstX = getTileX(7.0, zoom), lastX = getTileX(7.0 + 199 * 0.001, zoom);
+		assertTrue(lastX - firstX > 4);
+		// First request only starts the rendering
+		assertNull(renderer.getTile(zoom, firstX, tileY));
+		BufferedImage firstTile = waitForTile(renderer, zoom, firstX, tileY, null);
+		BufferedImage lastTile = waitForTile(renderer, zoom, lastX, tileY, null);
+		assertTrue(countPixels(firstTile) > 0);
+		assertSame(firstTile, renderer.getTile(zoom, firstX, tileY));
+
+		// Move the last point north, so only the tiles at the end of the track are affected
+		track.getPoint(199).setFieldValue(Field.LATITUDE, "46.52", false);
+		renderer.checkTrack(track, null, Color.BLUE, Color.RED);
+		assertSame(firstTile, renderer.getTile(zoom, firstX, tileY));
+		// Old version is shown until the new one is ready
+		assertSame(lastTile, renderer.getTile(zoom, lastX, tileY));
+		BufferedImage newLastTile = waitForTile(renderer, zoom, lastX, tileY, lastTile);
+		assertNotSame(lastTile, newLastTile);
+		assertSame(firstTile, renderer.getTile(zoom, firstX, tileY));
+
+		// Changing the style invalidates all the tiles
+		renderer.setStyle(1, 3, false, Color.GREEN, Color.ORANGE, null);
+		assertSame(firstTile, renderer.getTile(zoom, firstX, tileY));
+		BufferedImage thickTile = waitForTile(renderer, zoom, firstX, tileY, firstTile);
+		assertTrue(countPixels(thickTile) > countPixels(firstTile));
+	}
+
+	@Test
+	void changeZoom() throws InterruptedException
+	{
+		Track track = makeTrack(200, 0.0);
+		TrackTileRenderer renderer = makeRenderer(track);
+		final int tileX14 = getTileX(7.05, 14), tileY14 = getTileY(46.5, 14);
+		BufferedImage tile14 = waitForTile(renderer, 14, tileX14, tileY14, null);
+		// Zooming out renders the whole track into fewer tiles
+		final int tileX10 = getTileX(7.05, 10), tileY10 = getTileY(46.5, 10);
+		assertEquals(tileX14 >> 4, tileX10);
+		BufferedImage tile10 = waitForTile(renderer, 10, tileX10, tileY10, null);
+		assertNotSame(tile14, tile10);
+		assertTrue(countPixels(tile10) > 0);
+		// and tiles at the previous zoom level are still held
+		assertSame(tile14, renderer.getTile(14, tileX14, tileY14));
+		// Tile indices wrap around the world
+		assertSame(tile10, renderer.getTile(10, tileX10 + 1024, tileY10));
+		assertNull(renderer.getTile(10, tileX10, -1));
+	}
+
+	@Test
+	void snapshotOfLatestTrack() throws InterruptedException, ExecutionException
+	{
+		TrackTileRenderer renderer = new TrackTileRenderer(CONSUMER);
+		renderer.setStyle(1, 2, false, Color.GREEN, Color.ORANGE, null);
+		final int zoom = 13;
+		final int tileX = getTileX(7.05, zoom), tileY = getTileY(46.5, zoom);
+		// Several changes in quick succession, only the last one counts
+		Track track = null;
+		for (int i=0; i<5; i++)
+		{
+			track = makeTrack(100 + i * 20, 0.0001 * i);
+			renderer.trackChanged(track, null, Color.BLUE, Color.RED);
+		}
+		renderer.waitForChecks();
+		BufferedImage tile = waitForTile(renderer, zoom, tileX, tileY, null);
+
+		// Compare with a renderer which only ever saw the last track
+		TrackTileRenderer expected = makeRenderer(track);
+		BufferedImage expectedTile = waitForTile(expected, zoom, tileX, tileY, null);
+		for (int x=0; x<256; x++)
+		{
+			for (int y=0; y<256; y++)
+			{
+				if (tile.getRGB(x, y) != expectedTile.getRGB(x, y)) {
+					fail("Pixel " + x + ", " + y + " differs");
+				}
+			}
+		}
+
+		// Editing the track after the check doesn't affect the rendering until it's checked again
+		track.getPoint(0).setFieldValue(Field.LATITUDE, "46.6", false);
+		renderer.invalidateAll();
+		BufferedImage unchangedTile = waitForTile(renderer, zoom, tileX, tileY, tile);
+		assertEquals(countPixels(tile), countPixels(unchangedTile));
+	}
+}
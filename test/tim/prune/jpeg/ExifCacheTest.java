@@ -0,0 +1,85 @@
+package tim.prune.jpeg;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.config.Config;
+
+/**
+ * JUnit tests for reading the exif segment of a jpeg
+ * and for storing the results in the exif cache
+ */
+class ExifCacheTest
+{
+	/**
+	 * @return bytes of a jpeg header with an APP0 segment and an exif segment with an orientation tag
+	 */
+	private static byte[] makeJpeg() throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		out.write(new byte[] {(byte) 0xFF, (byte) 0xD8});
+		// APP0 segment which should be skipped
+		out.write(new byte[] {(byte) 0xFF, (byte) 0xE0, 0, 7, 'J', 'F', 'I', 'F', 0});
+		// APP1 segment with one tiff entry
+		byte[] tiff = new byte[] {'E', 'x', 'i', 'f', 0, 0, 'M', 'M', 0, 42, 0, 0, 0, 8,
+			0, 1, 0x01, 0x12, 0, 3, 0, 0, 0, 1, 0, 6, 0, 0, 0, 0, 0, 0};
+		out.write(new byte[] {(byte) 0xFF, (byte) 0xE1, 0, (byte) (tiff.length + 2)});
+		out.write(tiff);
+		// start of scan
+		out.write(new byte[] {(byte) 0xFF, (byte) 0xDA, 0, 2});
+		return out.toByteArray();
+	}
+
+	@Test
+	void readAndCache() throws IOException
+	{
+		File photoDir = Files.createTempDirectory("photos").toFile();
+		File cacheDir = Files.createTempDirectory("cache").toFile();
+		File jpeg = new File(photoDir, "photo.jpg");
+		FileOutputStream outStream = new FileOutputStream(jpeg);
+		outStream.write(makeJpeg());
+		outStream.close();
+
+		JpegData data = new InternalExifLibrary().getJpegData(jpeg);
+		assertNotNull(data);
+		assertEquals(6, data.getOrientationCode());
+		data.setLatitude(new double[] {47.0, 30.0, 15.5});
+		data.setLatitudeRef("N");
+		data.setThumbnailImage(new byte[] {1, 2, 3});
+
+		final String oldCache = Config.getConfigString(Config.KEY_DISK_CACHE);
+		Config.setConfigString(Config.KEY_DISK_CACHE, cacheDir.getAbsolutePath());
+		try
+		{
+			ExifCache cache = new ExifCache(photoDir);
+			assertFalse(cache.contains(jpeg));
+			cache.putJpegData(jpeg, data);
+			cache.putJpegData(new File(photoDir, "missing.jpg"), null);
+			cache.save();
+
+			ExifCache reloaded = new ExifCache(photoDir);
+			assertTrue(reloaded.contains(jpeg));
+			assertFalse(reloaded.contains(new File(photoDir, "missing.jpg")));
+			JpegData cached = reloaded.getJpegData(jpeg);
+			assertEquals(6, cached.getOrientationCode());
+			assertEquals('N', cached.getLatitudeRef());
+			assertArrayEquals(new double[] {47.0, 30.0, 15.5}, cached.getLatitude());
+			assertArrayEquals(new byte[] {1, 2, 3}, cached.getThumbnailImage());
+			assertFalse(cached.hasAltitude());
+
+			// Changing the file invalidates the entry
+			assertTrue(jpeg.setLastModified(jpeg.lastModified() - 10000L));
+			assertFalse(reloaded.contains(jpeg));
+		}
+		finally {
+			Config.setConfigString(Config.KEY_DISK_CACHE, oldCache);
+		}
+	}
+}
@@ -0,0 +1,152 @@
+package tim.prune.load;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Field;
+import tim.prune.data.FieldList;
+import tim.prune.data.PointColumns;
+import tim.prune.data.PointCreateOptions;
+import tim.prune.data.Track;
+import tim.prune.data.TrackInfo;
+import tim.prune.data.UnitSetLibrary;
+
+/**
+ * JUnit tests for saving and reloading binary session files
+ */
+class SessionFileTest
+{
+	@Test
+	void saveAndReload() throws IOException
+	{
+		// Some points held in columns with altitudes in feet and speeds in km/h
+		PointCreateOptions options = new PointCreateOptions();
+		options.setAltitudeUnits(UnitSetLibrary.UNITS_FEET);
+		options.setSpeedUnits(UnitSetLibrary.SPEED_UNITS_KMPERHOUR);
+		PointColumns columns = new PointColumns(new FieldList(), options);
+		for (int i=0; i<50; i++)
+		{
+			int row = columns.addRow(47.0 + i * 0.001, 8.0 - i * 0.002, i % 7 == 0 ? PointColumns.NO_ALTITUDE : 1000.0 + i,
+				1577836800000L + 1500L * i, i % 20 == 0);
+			columns.setValue(row, Field.SPEED, "36");
+		}
+		Field custom = new Field("heart rate");
+		Track track = new Track(columns.getFieldList(), columns.createPoints());
+		// and some edited or created points with objects
+		track.getPoint(3).setFieldValue(Field.WAYPT_NAME, "summit", false);
+		track.getPoint(4).setFieldValue(custom, "132", false);
+		track.getPoint(6).setFieldValue(Field.TIMESTAMP, "some time", false);
+		DataPoint point = new DataPoint(new String[] {"46.5", "7.5", "300"},
+			new FieldList(new Field[] {Field.LATITUDE, Field.LONGITUDE, Field.ALTITUDE}), null);
+		track.appendPoints(new DataPoint[] {point});
+		TrackInfo trackInfo = new TrackInfo(track);
+		trackInfo.getSelection().selectRange(5, 12);
+		trackInfo.selectPoint(7);
+
+		File file = File.createTempFile("session", "." + SessionFile.FILE_EXTENSION);
+		file.deleteOnExit();
+		assertEquals(51, SessionFile.write(trackInfo, file));
+		SessionFile session = SessionFile.read(file);
+		assertEquals(7, session.getCurrentPointIndex());
+		assertEquals(5, session.getRangeStart());
+		assertEquals(12, session.getRangeEnd());
+		assertNull(session.getMediaLinks());
+
+		Track loaded = new Track();
+		loaded.load(session.getPointColumns());
+		assertEquals(track.getNumPoints(), loaded.getNumPoints());
+		for (int i=0; i<track.getNumPoints(); i++)
+		{
+			DataPoint original = track.getPoint(i);
+			DataPoint copy = loaded.getPoint(i);
+			assertEquals(original.getLatitude().getDouble(), copy.getLatitude().getDouble(), 1e-12);
+			assertEquals(original.getLongitude().getDouble(), copy.getLongitude().getDouble(), 1e-12);
+			assertEquals(original.hasAltitude(), copy.hasAltitude());
+			if (original.hasAltitude()) {
+				assertEquals(original.getAltitude().getMetricValue(), copy.getAltitude().getMetricValue(), 0.5);
+			}
+			assertEquals(original.hasTimestamp(), copy.hasTimestamp());
+			if (original.hasTimestamp()) {
+				assertEquals(original.getTimestamp().getMilliseconds(null), copy.getTimestamp().getMilliseconds(null));
+			}
+			assertEquals(original.getSegmentStart(), copy.getSegmentStart());
+			assertEquals(original.getWaypointName(), copy.getWaypointName());
+			assertEquals(original.hasHSpeed(), copy.hasHSpeed());
+			if (original.hasHSpeed()) {
+				assertEquals(original.getHSpeed().getValueInMetresPerSec(), copy.getHSpeed().getValueInMetresPerSec(), 1e-9);
+			}
+		}
+		assertEquals(UnitSetLibrary.UNITS_FEET, loaded.getPoint(1).getAltitude().getUnit());
+		assertFalse(loaded.getPoint(6).hasTimestamp());
+		assertEquals("some time", loaded.getPoint(6).getFieldValue(Field.TIMESTAMP));
+		assertNull(loaded.getPoint(50).getFieldValue(Field.TIMESTAMP));
+		assertEquals("132", loaded.getPoint(4).getFieldValue(loaded.getFieldList().getField(
+			loaded.getFieldList().getFieldIndex(custom))));
+	}
+
+	@Test
+	void keepAltitudeDecimals() throws IOException
+	{
+		FieldList fields = new FieldList(new Field[] {Field.LATITUDE, Field.LONGITUDE, Field.ALTITUDE});
+		DataPoint[] points = new DataPoint[] {
+			new DataPoint(new String[] {"46.5", "7.5", "300.75"}, fields, null),
+			new DataPoint(new String[] {"46.6", "7.6", "-12.5"}, fields, null)};
+		Track track = new Track(fields, points);
+		PointColumns columns = PointColumns.fromTrack(track);
+		assertEquals(300.75, columns.getAltitude(0), 0.0);
+		assertEquals(-12.5, columns.getAltitude(1), 0.0);
+
+		File file = File.createTempFile("session", "." + SessionFile.FILE_EXTENSION);
+		file.deleteOnExit();
+		SessionFile.write(new TrackInfo(track), file);
+		assertEquals(300.75, SessionFile.read(file).getPointColumns().getAltitude(0), 0.0);
+	}
+
+	@Test
+	void saveOverLoadedFile() throws IOException
+	{
+		// More points than fit in one read buffer
+		final int numPoints = 300000;
+		PointColumns columns = new PointColumns(new FieldList(), null);
+		for (int i=0; i<numPoints; i++) {
+			columns.addRow(47.0 + i * 1e-6, 8.0, i * 0.5, 1577836800000L + 1000L * i, i == 0);
+		}
+		Track track = new Track(columns.getFieldList(), columns.createPoints());
+		File file = File.createTempFile("session", "." + SessionFile.FILE_EXTENSION);
+		file.deleteOnExit();
+		SessionFile.write(new TrackInfo(track), file);
+		SessionFile session = SessionFile.read(file);
+		PointColumns loaded = session.getPointColumns();
+		assertEquals(numPoints, loaded.getNumRows());
+		assertEquals(47.0 + 200000 * 1e-6, loaded.getLatitude(200000), 0.0);
+		assertEquals(149999.5, loaded.getAltitude(numPoints - 1), 0.0);
+		assertEquals(1577836800000L + 1000L * 250000, loaded.getTimestamp(250000));
+
+		// Saving straight over the file which was just loaded, while the loaded columns are still in use
+		Track shorter = new Track();
+		shorter.load(loaded);
+		shorter.deletePoint(0);
+		assertEquals(numPoints - 1, SessionFile.write(new TrackInfo(shorter), file));
+		assertEquals(numPoints - 1, SessionFile.read(file).getPointColumns().getNumRows());
+		assertEquals(0.5, loaded.getAltitude(1), 0.0);
+	}
+
+	@Test
+	void rejectOtherFiles() throws IOException
+	{
+		File file = File.createTempFile("session", ".txt");
+		file.deleteOnExit();
+		java.nio.file.Files.write(file.toPath(), "47.0,8.0\n".getBytes());
+		try
+		{
+			SessionFile.read(file);
+			fail("Text file shouldn't be read as a session");
+		}
+		catch (IOException expected) {}
+	}
+}
@@ -0,0 +1,145 @@
+package tim.prune.load;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Field;
+import tim.prune.data.PointColumns;
+import tim.prune.data.Track;
+
+/**
+ * JUnit tests for parsing text files in chunks
+ */
+class TextFileParserTest
+{
+	private static final Field[] FIELDS = {Field.LATITUDE, Field.LONGITUDE, Field.ALTITUDE,
+		Field.TIMESTAMP, Field.WAYPT_NAME};
+
+	/**
+	 * Write the given text to a temporary file
+	 * @param inText text to write
+	 * @return file
+	 */
+	private static File writeFile(String inText) throws IOException
+	{
+		File file = File.createTempFile("prunetest", ".txt");
+		file.deleteOnExit();
+		FileOutputStream out = new FileOutputStream(file);
+		out.write(inText.getBytes("UTF-8"));
+		out.close();
+		return file;
+	}
+
+	@Test
+	void parseValues() throws IOException
+	{
+		String text = "lat,lon,alt,time,name\r\n"
+			+ "47.5,8.25,410,2020-01-01T10:00:00Z,\r\n"
+			+ "\r\n"
+			+ "\"47.6\",8.3,,,\"Hut\"\r\n"
+			+ "N47.7,E8.35,405.5,1577872810,\n"
+			+ "47.8,8.4";
+		PointColumns columns = new TextFileParser(',', FIELDS, null).parseFile(writeFile(text), null);
+		// header row is kept but isn't valid
+		assertEquals(5, columns.getNumRows());
+		assertFalse(columns.isValid(0));
+		assertEquals(47.5, columns.getLatitude(1), 0.0);
+		assertEquals(410.0, columns.getAltitude(1), 0.0);
+		assertEquals(1577872800000L, columns.getTimestamp(1));
+		assertNull(columns.getValue(1, Field.WAYPT_NAME));
+		assertEquals(47.6, columns.getLatitude(2), 0.0);
+		assertFalse(columns.hasAltitude(2));
+		assertEquals("Hut", columns.getValue(2, Field.WAYPT_NAME));
+		assertEquals(47.7, columns.getLatitude(3), 1e-9);
+		assertEquals(1577872810000L, columns.getTimestamp(3));
+		assertEquals(8.4, columns.getLongitude(4), 0.0);
+
+		Track track = new Track();
+		track.load(columns);
+		assertEquals(4, track.getNumPoints());
+		DataPoint waypoint = track.getPoint(1);
+		assertTrue(waypoint.isWaypoint());
+		assertTrue(track.getPoint(0).getSegmentStart());
+	}
+
+	@Test
+	void chunksKeepOrder() throws IOException
+	{
+		StringBuilder builder = new StringBuilder();
+		for (int i=0; i<2000; i++) {
+			builder.append("47.").append(1000 + i).append(";8.5;").append(i).append('\n');
+		}
+		TextFileParser parser = new TextFileParser(';', FIELDS, null);
+		parser.setChunkSize(1000);
+		PointColumns columns = parser.parseFile(writeFile(builder.toString()), null);
+		assertEquals(2000, columns.getNumRows());
+		for (int i=0; i<2000; i++)
+		{
+			assertTrue(columns.isValid(i));
+			assertEquals(i, columns.getAltitude(i), 0.0);
+		}
+	}
+
+	@Test
+	void allLineEndings() throws IOException
+	{
+		StringBuilder builder = new StringBuilder();
+		final String[] lineEnds = {"\r", "\n", "\r\n"};
+		for (int i=0; i<300; i++) {
+			builder.append("47.").append(1000 + i).append(",8.5,").append(i).append(lineEnds[i % 3]);
+		}
+		// Small chunks so that chunk boundaries fall between \r and \n too
+		for (int chunkSize = 7; chunkSize < 100; chunkSize += 13)
+		{
+			TextFileParser parser = new TextFileParser(',', FIELDS, null);
+			parser.setChunkSize(chunkSize);
+			PointColumns columns = parser.parseFile(writeFile(builder.toString()), null);
+			assertEquals(300, columns.getNumRows());
+			for (int i=0; i<300; i++) {
+				assertEquals(i, columns.getAltitude(i), 0.0);
+			}
+		}
+	}
+
+	@Test
+	void cacherKeepsSample() throws IOException
+	{
+		StringBuilder builder = new StringBuilder();
+		for (int i=0; i<6000; i++) {
+			builder.append("47.5,8.5,").append(i).append('\r');
+		}
+		FileCacher cacher = new FileCacher(writeFile(builder.toString()));
+		assertEquals(5000, cacher.getNumLines());
+		assertTrue(cacher.isTruncated());
+		assertFalse(new FileCacher(writeFile("47.5,8.5,1\r47.6,8.6,2\r")).isTruncated());
+	}
+
+	@Test
+	void keepUnparseableTimestamp() throws IOException
+	{
+		String text = "47.5,8.25,410,yesterday lunchtime,Hut\n"
+			+ "47.6,8.3,420,2020-01-01T10:00:00Z,\n";
+		TextFileParser parser = new TextFileParser(',', FIELDS, null);
+		parser.setChunkSize(20);
+		PointColumns columns = parser.parseFile(writeFile(text), null);
+		assertEquals(2, columns.getNumRows());
+		assertFalse(columns.hasTimestamp(0));
+		assertTrue(columns.hasTimestamp(1));
+
+		Track track = new Track();
+		track.load(columns);
+		assertEquals("yesterday lunchtime", track.getPoint(0).getFieldValue(Field.TIMESTAMP));
+		// and the text survives converting back to columns and loading again
+		Track copy = new Track();
+		copy.load(PointColumns.fromTrack(track));
+		assertEquals("yesterday lunchtime", copy.getPoint(0).getFieldValue(Field.TIMESTAMP));
+		assertFalse(copy.getPoint(0).hasTimestamp());
+		assertTrue(copy.getPoint(1).hasTimestamp());
+	}
+}
@@ -0,0 +1,104 @@
+package tim.prune.load.xml;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayInputStream;
+
+import javax.xml.parsers.SAXParserFactory;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.data.DataPoint;
+import tim.prune.data.Field;
+import tim.prune.data.PointColumns;
+import tim.prune.data.Track;
+
+/**
+ * JUnit tests for parsing gpx files straight into point columns
+ */
+class GpxHandlerTest
+{
+	private static final String GPX = "<?xml version=\"1.0\"?>\n<gpx version=\"1.1\">"
+		+ "<name>Test file</name>"
+		+ "<wpt lat=\"47.25\" lon=\"8.5\"><ele>500</ele><name>Hut</name><type>shelter</type></wpt>"
+		+ "<trk><name>Walk</name><trkseg>"
+		+ "<trkpt lat=\"47.1\" lon=\"8.1\"><ele>410.5</ele><time>2020-01-01T10:00:00Z</time></trkpt>"
+		+ "<trkpt lat=\"47.2\" lon=\"8.2\"><time>2020-01-01T10:00:05.5Z</time><cmt>nice</cmt></trkpt>"
+		+ "<trkpt lat=\"bad\" lon=\"8.2\"></trkpt>"
+		+ "</trkseg><trkseg>"
+		+ "<trkpt lat=\"47.3\" lon=\"8.3\"><time>last tuesday</time><link href=\"photo.jpg\"/></trkpt>"
+		+ "</trkseg></trk></gpx>";
+
+	/**
+	 * @return handler after parsing the test file
+	 */
+	private static GpxHandler parse() throws Exception
+	{
+		GpxHandler handler = new GpxHandler();
+		SAXParserFactory.newInstance().newSAXParser().parse(
+			new ByteArrayInputStream(GPX.getBytes("UTF-8")), handler);
+		return handler;
+	}
+
+	@Test
+	void columnValues() throws Exception
+	{
+		GpxHandler handler = parse();
+		PointColumns columns = handler.getPointColumns();
+		assertEquals(5, columns.getNumRows());
+		assertEquals("Test file", handler.getFileTitle());
+		assertEquals("Hut", columns.getValue(0, Field.WAYPT_NAME));
+		assertEquals("shelter", columns.getValue(0, Field.WAYPT_TYPE));
+		assertFalse(columns.getSegmentStart(0));
+		assertEquals(410.5, columns.getAltitude(1), 0.0);
+		assertTrue(columns.getSegmentStart(1));
+		assertEquals(1577872800000L, columns.getTimestamp(1));
+		assertEquals(1577872805500L, columns.getTimestamp(2));
+		assertFalse(columns.hasAltitude(2));
+		assertEquals("nice", columns.getValue(2, Field.COMMENT));
+		assertFalse(columns.isValid(3));
+		assertTrue(columns.getSegmentStart(4));
+		// Text of timestamp which can't be parsed is kept
+		assertFalse(columns.hasTimestamp(4));
+		assertEquals("last tuesday", columns.getValue(4, Field.TIMESTAMP));
+		assertNull(columns.getValue(0, Field.TIMESTAMP));
+		// Links are given for every point once one is found
+		String[] links = handler.getLinkArray();
+		assertEquals(5, links.length);
+		assertNull(links[0]);
+		assertEquals("photo.jpg", links[4]);
+		assertEquals(1, handler.getTrackNameList().getNumTracks());
+		assertEquals("Walk", handler.getTrackNameList().getTrackName(0));
+	}
+
+	@Test
+	void loadTrack() throws Exception
+	{
+		Track track = new Track();
+		track.load(parse().getPointColumns());
+		assertEquals(4, track.getNumPoints());
+		DataPoint waypoint = track.getPoint(0);
+		assertTrue(waypoint.isWaypoint());
+		assertEquals("Hut", waypoint.getWaypointName());
+		assertEquals(500, waypoint.getAltitude().getValue());
+		DataPoint second = track.getPoint(2);
+		assertEquals(47.2, second.getLatitude().getDouble(), 1e-9);
+		assertTrue(second.hasTimestamp());
+		assertEquals("nice", second.getFieldValue(Field.COMMENT));
+		DataPoint last = track.getPoint(3);
+		assertFalse(last.hasTimestamp());
+		assertEquals("last tuesday", last.getFieldValue(Field.TIMESTAMP));
+	}
+
+	@Test
+	void dataArrayMatchesFields() throws Exception
+	{
+		GpxHandler handler = parse();
+		String[][] data = handler.getDataArray();
+		assertEquals(5, data.length);
+		assertEquals(handler.getFieldArray().length, data[0].length);
+		assertEquals("47.25", data[0][0]);
+		assertEquals("Hut", data[0][3]);
+		assertEquals("1", data[1][5]);
+	}
+}
@@ -0,0 +1,164 @@
+package tim.prune.save;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import javax.imageio.ImageIO;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.config.Config;
+import tim.prune.data.DataPoint;
+import tim.prune.data.Field;
+import tim.prune.data.FieldList;
+import tim.prune.data.Track;
+import tim.prune.data.TrackExtents;
+import tim.prune.gui.map.DirectoryTileStore;
+import tim.prune.gui.map.MapSource;
+import tim.prune.gui.map.OsmMapSource;
+
+/**
+ * JUnit tests for assembling map images in strips
+ */
+class StripedMapImageTest
+{
+	/** @return colour of the test tile with the given indices */
+	private static int getTileColour(int inX, int inY)
+	{
+		return new Color((inX * 40) % 256, (inY * 40) % 256, 128).getRGB() & 0xffffff;
+	}
+
+	@Test
+	void streamedImageMatchesFullImage() throws IOException
+	{
+		FieldList fields = new FieldList(new Field[] {Field.LATITUDE, Field.LONGITUDE});
+		DataPoint[] points = new DataPoint[10];
+		for (int i=0; i<points.length; i++) {
+			points[i] = new DataPoint(new String[] {"" + (46.5 + i * 0.01), "" + (7.5 + i * 0.012)}, fields, null);
+		}
+		final Track track = new Track(fields, points);
+		final int zoom = 13;
+		final int zoomFactor = 1 << zoom;
+
+		// Fill a disk cache with tiles of a different colour each
+		File cacheDir = Files.createTempDirectory("grouter").toFile();
+		MapSource source = new OsmMapSource("Grouter test", "tiles.grouter.example.com/");
+		DirectoryTileStore store = new DirectoryTileStore(cacheDir);
+		TrackExtents extents = new TrackExtents(track);
+		extents.applySquareBorder();
+		final double minX = extents.getXRange().getMinimum() * zoomFactor;
+		final double minY = extents.getYRange().getMinimum() * zoomFactor;
+		for (int x = (int) minX; x <= (int) (extents.getXRange().getMaximum() * zoomFactor); x++)
+		{
+			for (int y = (int) minY; y <= (int) (extents.getYRange().getMaximum() * zoomFactor); y++)
+			{
+				BufferedImage tile = new BufferedImage(256, 256, BufferedImage.TYPE_INT_RGB);
+				Graphics2D g = tile.createGraphics();
+				g.setColor(new Color(getTileColour(x, y)));
+				g.fillRect(0, 0, 256, 256);
+				g.dispose();
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				ImageIO.write(tile, "png", out);
+				assertTrue(store.saveTile(source, 0, zoom, x, y, out.toByteArray()));
+			}
+		}
+
+		final String oldCache = Config.getConfigString(Config.KEY_DISK_CACHE);
+		Config.setConfigString(Config.KEY_DISK_CACHE, cacheDir.getAbsolutePath());
+		try
+		{
+			GroutedImage full = new MapGrouter().createMapImage(track, source, zoom);
+			assertTrue(full.isValid());
+			assertEquals(0, full.getNumTilesMissing());
+			final int size = full.getImageSize();
+			assertTrue(size > 600);
+			// Check the colours away from the tile edges
+			for (int px = 3; px < size; px += 41)
+			{
+				for (int py = 7; py < size; py += 43)
+				{
+					final double tileX = minX + px / 256.0, tileY = minY + py / 256.0;
+					if (tileX - Math.floor(tileX) > 0.02 && tileX - Math.floor(tileX) < 0.98
+						&& tileY - Math.floor(tileY) > 0.02 && tileY - Math.floor(tileY) < 0.98)
+					{
+						assertEquals(getTileColour((int) tileX, (int) tileY), full.getImage().getRGB(px, py) & 0xffffff);
+					}
+				}
+			}
+
+			// Stream the same image with a painter which marks the last row of each previous strip
+			final ArrayList<int[]> strips = new ArrayList<int[]>();
+			MapStripPainter painter = new MapStripPainter() {
+				public void paintStrip(Graphics2D inGraphics, BufferedImage inWindow, int inWindowTop,
+					int inStripTop, int inStripBottom)
+				{
+					strips.add(new int[] {inWindowTop, inStripTop, inStripBottom});
+					if (inStripTop > 0)
+					{
+						inGraphics.setColor(Color.BLACK);
+						inGraphics.fillRect(0, inStripTop - 1, 5, 1);
+					}
+				}
+			};
+			StripedMapImage striped = MapGrouter.createStripedImage(track, source, zoom, painter);
+			File pngFile = new File(cacheDir, "streamed.png");
+			try {
+				assertTrue(ImageIO.write(striped, "png", pngFile));
+			}
+			finally {
+				striped.close();
+			}
+			assertEquals(full.getNumTilesUsed(), striped.getNumTilesUsed());
+			BufferedImage streamed = ImageIO.read(pngFile);
+			assertEquals(size, streamed.getWidth());
+			assertEquals(size, streamed.getHeight());
+
+			// Strips cover the whole image in order, and the painting of the previous strip is kept
+			assertTrue(strips.size() >= 3);
+			int prevTop = 0, prevBottom = 0;
+			for (int[] strip : strips)
+			{
+				assertEquals(prevBottom, strip[1]);
+				assertEquals(prevTop, strip[0]);
+				assertTrue(strip[2] > strip[1]);
+				prevTop = strip[1];
+				prevBottom = strip[2];
+			}
+			assertEquals(size, prevBottom);
+			for (int py = 0; py < size; py++)
+			{
+				for (int px = 0; px < size; px++)
+				{
+					boolean marked = px < 5 && py < size - 1 && isStripStart(strips, py + 1);
+					final int expected = marked ? 0 : full.getImage().getRGB(px, py) & 0xffffff;
+					if ((streamed.getRGB(px, py) & 0xffffff) != expected) {
+						fail("Pixel " + px + ", " + py + " differs");
+					}
+				}
+			}
+		}
+		finally {
+			Config.setConfigString(Config.KEY_DISK_CACHE, oldCache);
+		}
+	}
+
+	/** @return true if a strip starts at the given row */
+	private static boolean isStripStart(ArrayList<int[]> inStrips, int inRow)
+	{
+		for (int[] strip : inStrips)
+		{
+			if (strip[1] == inRow) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
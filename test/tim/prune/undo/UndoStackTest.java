@@ -0,0 +1,81 @@
+package tim.prune.undo;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import org.junit.jupiter.api.Test;
+
+import tim.prune.config.Config;
+import tim.prune.data.DataPoint;
+import tim.prune.data.Field;
+import tim.prune.data.FieldList;
+import tim.prune.data.Track;
+import tim.prune.data.TrackInfo;
+
+/**
+ * JUnit tests for the memory budget of the undo stack
+ * and for undoing the deletion of marked points
+ */
+class UndoStackTest
+{
+	/**
+	 * Undo operation which just claims to hold a certain amount of memory
+	 */
+	private static class SizedOperation implements UndoOperationWithSize
+	{
+		private long _size = 0L;
+		SizedOperation(long inSize) {_size = inSize;}
+		public String getDescription() {return "sized";}
+		public void performUndo(TrackInfo inTrackInfo) {}
+		public long getMemoryEstimate() {return _size;}
+	}
+
+	@Test
+	void dropOldestOperations()
+	{
+		Config.setConfigInt(Config.KEY_UNDO_MEMORY_BUDGET, 1);
+		UndoStack stack = new UndoStack();
+		for (int i=0; i<5; i++) {
+			stack.add(new SizedOperation(400L * 1024L));
+		}
+		// Only two fit inside one megabyte
+		assertEquals(2, stack.size());
+		assertEquals(5, stack.getPosition());
+		assertEquals(800L * 1024L, stack.getMemoryEstimate());
+		stack.popOperation();
+		assertEquals(4, stack.getPosition());
+		assertEquals(400L * 1024L, stack.getMemoryEstimate());
+		// A single operation bigger than the budget is still kept
+		stack.add(new SizedOperation(5000L * 1024L));
+		assertEquals(1, stack.size());
+		stack.clear();
+		assertEquals(0, stack.getPosition());
+		assertEquals(0L, stack.getMemoryEstimate());
+		Config.setConfigInt(Config.KEY_UNDO_MEMORY_BUDGET, 256);
+	}
+
+	@Test
+	void undoDeleteMarked() throws UndoException
+	{
+		FieldList fields = new FieldList(new Field[] {Field.LATITUDE, Field.LONGITUDE});
+		DataPoint[] points = new DataPoint[20];
+		for (int i=0; i<points.length; i++) {
+			points[i] = new DataPoint(new String[] {"" + (47.0 + i * 0.001), "8.0"}, fields, null);
+		}
+		Track track = new Track(fields, points);
+		TrackInfo trackInfo = new TrackInfo(track);
+		for (int i : new int[] {0, 3, 4, 5, 11, 19}) {
+			points[i].setMarkedForDeletion(true);
+		}
+		UndoDeleteMarked undo = new UndoDeleteMarked(track);
+		assertEquals(6, trackInfo.deleteMarkedPoints(true));
+		assertEquals(14, track.getNumPoints());
+		assertTrue(points[6].getSegmentStart());
+		undo.performUndo(trackInfo);
+		assertEquals(points.length, track.getNumPoints());
+		for (int i=0; i<points.length; i++)
+		{
+			assertSame(points[i], track.getPoint(i));
+			assertFalse(points[i].getSegmentStart());
+		}
+	}
+}